@@ -0,0 +1,297 @@
+package com.drajer.bsa.auth;
+
+import com.drajer.bsa.dao.HealthcareSettingsDao;
+import com.drajer.bsa.model.HealthcareSetting;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ *
+ *
+ * <h1>EhrAccessTokenManager</h1>
+ *
+ * This class keeps the EHR access token of each HealthcareSetting in memory, so that the jobs
+ * executing for the same EHR share the token. When the token has to be refreshed, only one request
+ * is made to the EHR authorization server and the other jobs wait for its result. The tokens of the
+ * EHRs in use can also be refreshed in the background before they expire, so that the jobs do not
+ * wait for the token at all.
+ *
+ * @author nbashyam
+ */
+@Service
+public class EhrAccessTokenManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(EhrAccessTokenManager.class);
+
+  private static final String ACCESS_TOKEN = "access_token";
+  private static final String EXPIRES_IN = "expires_in";
+  private static final String PROVIDER_ID = "uuid";
+
+  @Value("${ehr.token.manager.enabled:false}")
+  boolean managerEnabled;
+
+  @Value("${ehr.token.manager.background-refresh:false}")
+  boolean backgroundRefresh;
+
+  @Value("${ehr.token.manager.refresh-ahead-seconds:60}")
+  long refreshAheadSeconds;
+
+  /** The token is refreshed when it expires within this number of seconds. */
+  @Value("${token.refresh.threshold:25}")
+  long refreshThreshold;
+
+  @Autowired AuthorizationUtils authUtils;
+
+  @Autowired HealthcareSettingsDao hsDao;
+
+  private final Map<Integer, TokenHolder> tokens = new ConcurrentHashMap<>();
+
+  private final AtomicLong tokenRequests = new AtomicLong();
+
+  private ScheduledExecutorService scheduler;
+
+  @PostConstruct
+  public void initialize() {
+
+    if (managerEnabled && backgroundRefresh) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread t = new Thread(r, "EhrTokenRefresh");
+                t.setDaemon(true);
+                return t;
+              });
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return managerEnabled;
+  }
+
+  /** @return The number of token requests made to the EHR authorization servers. */
+  public long getTokenRequests() {
+    return tokenRequests.get();
+  }
+
+  /**
+   * The method sets a valid access token on the HealthcareSetting. The token is requested from the
+   * EHR only if neither this instance nor the HealthcareSetting has a token that is valid for
+   * longer than the refresh threshold.
+   *
+   * @param hs The HealthcareSetting of the EHR.
+   */
+  public void applyAccessToken(HealthcareSetting hs) {
+
+    TokenHolder holder = tokens.computeIfAbsent(hs.getId(), id -> new TokenHolder());
+    holder.setting = copyOf(hs);
+    holder.used = true;
+
+    // A token saved by another instance of the app is used when it is newer.
+    AccessToken saved = AccessToken.of(hs);
+    AccessToken token = holder.current;
+    if (saved.isValid(refreshThreshold) && (token == null || saved.expiresAfter(token))) {
+      holder.current = saved;
+      token = saved;
+    }
+
+    if (token == null || !token.isValid(refreshThreshold)) {
+      token = refresh(holder);
+    }
+
+    token.applyTo(hs);
+  }
+
+  /**
+   * The method returns the token of the holder, refreshing it if it is not valid. When a refresh is
+   * already in progress, the method waits for its result instead of requesting another token.
+   */
+  AccessToken refresh(TokenHolder holder) {
+
+    CompletableFuture<AccessToken> future;
+    boolean owner = false;
+
+    synchronized (holder) {
+      AccessToken current = holder.current;
+      if (current != null && current.isValid(refreshThreshold) && !holder.refreshDue) {
+        return current;
+      }
+
+      if (holder.inFlight == null) {
+        holder.inFlight = new CompletableFuture<>();
+        owner = true;
+      }
+      future = holder.inFlight;
+    }
+
+    if (owner) {
+
+      try {
+        AccessToken token = requestToken(holder.setting);
+        holder.current = token;
+        holder.refreshDue = false;
+        future.complete(token);
+        scheduleRefresh(holder, token);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      } finally {
+        synchronized (holder) {
+          holder.inFlight = null;
+        }
+      }
+    }
+
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      throw e.getCause() instanceof RuntimeException
+          ? (RuntimeException) e.getCause()
+          : new IllegalStateException(e.getCause());
+    }
+  }
+
+  private AccessToken requestToken(HealthcareSetting hs) {
+
+    logger.info(" Requesting a new access token for {}", hs.getFhirServerBaseURL());
+    tokenRequests.incrementAndGet();
+
+    JSONObject response = authUtils.getToken(hs);
+
+    int expiresIn = response.getInt(EXPIRES_IN);
+    String providerId =
+        response.has(PROVIDER_ID) ? response.getString(PROVIDER_ID) : hs.getDefaultProviderId();
+
+    AccessToken token =
+        new AccessToken(
+            response.getString(ACCESS_TOKEN),
+            expiresIn,
+            Date.from(Instant.now().plusSeconds(expiresIn)),
+            providerId);
+
+    // The token is saved, so that it is reused by the other instances of the app.
+    token.applyTo(hs);
+    hsDao.updateAccessToken(hs);
+
+    return token;
+  }
+
+  private void scheduleRefresh(TokenHolder holder, AccessToken token) {
+
+    if (scheduler == null) return;
+
+    long delay =
+        token.expirationTime.getTime()
+            - System.currentTimeMillis()
+            - (refreshThreshold + refreshAheadSeconds) * 1000;
+
+    // Tokens which expire within the refresh window are refreshed by the jobs when they expire.
+    if (delay <= 0) return;
+
+    scheduler.schedule(() -> refreshInBackground(holder, token), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private void refreshInBackground(TokenHolder holder, AccessToken token) {
+
+    // The token is refreshed only if it is still current and was used since the last refresh.
+    if (holder.current != token || !holder.used) return;
+
+    holder.used = false;
+    holder.refreshDue = true;
+
+    try {
+      refresh(holder);
+    } catch (RuntimeException e) {
+      logger.error(
+          " Unable to refresh the access token for {} ", holder.setting.getFhirServerBaseURL(), e);
+      holder.refreshDue = false;
+    }
+  }
+
+  private static HealthcareSetting copyOf(HealthcareSetting hs) {
+    HealthcareSetting copy = new HealthcareSetting();
+    ReflectionUtils.shallowCopyFieldState(hs, copy);
+    return copy;
+  }
+
+  /** The access token of an EHR and the state of its refresh. */
+  static class TokenHolder {
+
+    /** The latest copy of the HealthcareSetting, used to request the token. */
+    volatile HealthcareSetting setting;
+
+    volatile AccessToken current;
+
+    /** Set when the token was used since it was last refreshed. */
+    volatile boolean used;
+
+    /** Set when the background refresh has to replace a token which is still valid. */
+    volatile boolean refreshDue;
+
+    /** The refresh in progress, guarded by the holder. */
+    CompletableFuture<AccessToken> inFlight;
+  }
+
+  /** An access token and its expiration. */
+  static class AccessToken {
+
+    final String token;
+    final int expiryDuration;
+    final Date expirationTime;
+    final String providerId;
+
+    AccessToken(String token, int expiryDuration, Date expirationTime, String providerId) {
+      this.token = token;
+      this.expiryDuration = expiryDuration;
+      this.expirationTime = expirationTime;
+      this.providerId = providerId;
+    }
+
+    static AccessToken of(HealthcareSetting hs) {
+      return new AccessToken(
+          hs.getEhrAccessToken(),
+          hs.getEhrAccessTokenExpiryDuration(),
+          hs.getEhrAccessTokenExpirationTime(),
+          hs.getDefaultProviderId());
+    }
+
+    boolean isValid(long thresholdSeconds) {
+      return token != null
+          && expirationTime != null
+          && expirationTime.toInstant().isAfter(Instant.now().plusSeconds(thresholdSeconds));
+    }
+
+    boolean expiresAfter(AccessToken other) {
+      return other.expirationTime == null || expirationTime.after(other.expirationTime);
+    }
+
+    void applyTo(HealthcareSetting hs) {
+      hs.setEhrAccessToken(token);
+      hs.setEhrAccessTokenExpiryDuration(expiryDuration);
+      hs.setEhrAccessTokenExpirationTime(expirationTime);
+      hs.setDefaultProviderId(providerId);
+    }
+  }
+}
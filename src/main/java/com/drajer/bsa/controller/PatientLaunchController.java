@@ -2,11 +2,14 @@ package com.drajer.bsa.controller;
 
 import ca.uhn.fhir.rest.server.exceptions.AuthenticationException;
 import com.drajer.bsa.ehr.service.EhrQueryService;
+import com.drajer.bsa.exceptions.InvalidLaunchContext;
+import com.drajer.bsa.exceptions.InvalidNotification;
 import com.drajer.bsa.model.HealthcareSetting;
 import com.drajer.bsa.model.KarProcessingData;
 import com.drajer.bsa.model.NotificationContext;
 import com.drajer.bsa.model.PatientLaunchContext;
 import com.drajer.bsa.service.HealthcareSettingsService;
+import com.drajer.bsa.service.NotificationQueueService;
 import com.drajer.bsa.service.SubscriptionNotificationReceiver;
 import com.drajer.bsa.utils.OperationOutcomeUtil;
 import com.drajer.bsa.utils.StartupUtils;
@@ -59,6 +62,8 @@ public class PatientLaunchController {
 
   @Autowired SubscriptionNotificationReceiver notificationReceiver;
 
+  @Autowired NotificationQueueService notificationQueue;
+
   /** The token refresh threshold value for refreshing access tokens */
   @Value("${token.refresh.threshold:25}")
   private Integer tokenRefreshThreshold;
@@ -108,7 +113,11 @@ public class PatientLaunchController {
 
           String requestId = request.getHeader(X_REQUEST_ID);
 
-          if (!StringUtils.isEmpty(requestId)) {
+          if (!StringUtils.isEmpty(requestId) && notificationQueue.isEnabled()) {
+
+            return acceptPatientLaunch(launchContext, hs, requestId, request, response);
+
+          } else if (!StringUtils.isEmpty(requestId)) {
 
             Bundle nb = getNotificationBundle(launchContext, hs, requestId, false);
 
@@ -167,6 +176,48 @@ public class PatientLaunchController {
     }
   }
 
+  /**
+   * The method accepts the patient launch for asynchronous processing. The NotificationContext is
+   * persisted and queued, and the response is returned without waiting for the KARs to be applied.
+   * When the queue is full the launch is rejected so that the EHR can retry later.
+   */
+  private ResponseEntity<Object> acceptPatientLaunch(
+      PatientLaunchContext launchContext,
+      HealthcareSetting hs,
+      String requestId,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws InvalidLaunchContext, InvalidNotification {
+
+    if (!notificationQueue.hasCapacity()) {
+      return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+          .body(
+              OperationOutcomeUtil.createErrorOperationOutcome(
+                  "Unable to accept Patient Instance since the notification queue is full, retry later"));
+    }
+
+    Bundle nb = getNotificationBundle(launchContext, hs, requestId, false);
+
+    NotificationContext nc =
+        notificationReceiver.acceptNotification(nb, request, response, launchContext);
+
+    if (!notificationQueue.offer(nc)) {
+      // The notification was persisted, so it is queued by the recovery once there is capacity.
+      logger.info(" Notification {} will be queued once the queue has capacity ", nc.getId());
+    }
+
+    logger.info(
+        " Patient launch was accepted for patientId: {}, encounterId: {}, requestId: {}",
+        StringEscapeUtils.escapeJava(launchContext.getPatientId()),
+        StringEscapeUtils.escapeJava(launchContext.getEncounterId()),
+        StringEscapeUtils.escapeJava(requestId));
+
+    return ResponseEntity.status(HttpStatus.ACCEPTED)
+        .body(
+            OperationOutcomeUtil.createSuccessOperationOutcome(
+                "Patient Instance accepted for processing successfully"));
+  }
+
   /**
    * The method is the API to re-launch a patient instance within the app for processing. The
    * re-launch API is intended to be used when the original patientId/encounterId combination has
@@ -1,17 +1,31 @@
 package com.drajer.bsa.controller;
 
+import com.drajer.bsa.model.PhMessageCursor;
+import com.drajer.bsa.model.PhMessagePayloadType;
 import com.drajer.bsa.model.PublicHealthMessage;
 import com.drajer.bsa.service.PhMessageService;
 import com.drajer.sof.model.PublicHealthMessageData;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.text.StringEscapeUtils;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -23,16 +37,24 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 public class PhMessageController {
 
   public static final String ERROR_IN_PROCESSING_THE_REQUEST = "Error in Processing the Request";
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String NDJSON = "application/x-ndjson";
   private final Logger logger = LoggerFactory.getLogger(PhMessageController.class);
 
   @Autowired PhMessageService phMessageService;
 
-  @CrossOrigin
+  @Autowired ObjectMapper mapper;
+
+  @Value("${ph.message.query.max-page-size:1000}")
+  int maxPageSize;
+
+  @CrossOrigin(exposedHeaders = NEXT_CURSOR_HEADER)
   @GetMapping(value = "/api/phMessage", produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Object> getPhMessageDetails(
       @RequestParam(name = "fhirServerBaseUrl", required = false) String fhirServerBaseUrl,
@@ -52,8 +74,9 @@ public class PhMessageController {
       @RequestParam(name = "startTime", required = false) String startTime,
       @RequestParam(name = "endTime", required = false) String endTime,
       @RequestParam(name = "summaryFlag", required = false, defaultValue = "false")
-          boolean summaryFlag) {
-    List<JSONObject> phMessageData = new ArrayList<>();
+          boolean summaryFlag,
+      @RequestParam(name = "pageSize", required = false) Integer pageSize,
+      @RequestParam(name = "cursor", required = false) String cursor) {
     try {
       logger.info(
           "Retrieving PublicHealthMessage based on request\n"
@@ -82,64 +105,26 @@ public class PhMessageController {
           karUniqueId,
           notificationId);
 
-      Map<String, String> searchParams = new HashMap<>();
-      if (fhirServerBaseUrl != null && !fhirServerBaseUrl.isEmpty()) {
-        searchParams.put("fhirServerBaseUrl", fhirServerBaseUrl);
-      }
-      if (patientId != null && !patientId.isEmpty()) {
-        searchParams.put("patientId", patientId);
-      }
-      if (encounterId != null && !encounterId.isEmpty()) {
-        searchParams.put("encounterId", encounterId);
-      }
-      if (patientId != null && !patientId.isEmpty()) {
-        searchParams.put("patientId", patientId);
-      }
-
-      if (xRequestId != null && !xRequestId.isEmpty()) {
-        searchParams.put("xRequestId", xRequestId);
-      }
-
-      if (submittedDataId != null && !submittedDataId.isEmpty()) {
-        searchParams.put("submittedDataId", submittedDataId);
-      }
-      if (version != null && !version.isEmpty()) {
-        searchParams.put("version", version);
-      }
-      if (responseDataId != null && !responseDataId.isEmpty()) {
-        searchParams.put("responseDataId", responseDataId);
-      }
-
-      if (responseProcessingInstruction != null && !responseProcessingInstruction.isEmpty()) {
-        searchParams.put("responseProcessingInstruction", responseProcessingInstruction);
-      }
-
-      if (notifiedResourceId != null && !notifiedResourceId.isEmpty()) {
-        searchParams.put("notifiedResourceId", notifiedResourceId);
-      }
-
-      if (notifiedResourceType != null && !notifiedResourceType.isEmpty()) {
-        searchParams.put("notifiedResourceType", notifiedResourceType);
-      }
-
-      if (karUniqueId != null && !karUniqueId.isEmpty()) {
-        searchParams.put("karUniqueId", karUniqueId);
-      }
-
-      if (notificationId != null && !notificationId.isEmpty()) {
-        searchParams.put("notificationId", notificationId);
-      }
-
-      if (xCorrelationId != null && !xCorrelationId.isEmpty()) {
-        searchParams.put("xCorrelationId", xCorrelationId);
-      }
-
-      if (startTime != null) {
-        searchParams.put("submissionTime", startTime);
-      }
-
-      if (endTime != null) {
-        searchParams.put("responseReceivedTime", endTime);
+      Map<String, String> searchParams =
+          getSearchParams(
+              fhirServerBaseUrl,
+              patientId,
+              encounterId,
+              xRequestId,
+              submittedDataId,
+              version,
+              responseDataId,
+              responseProcessingInstruction,
+              notifiedResourceId,
+              notifiedResourceType,
+              karUniqueId,
+              notificationId,
+              xCorrelationId,
+              startTime,
+              endTime);
+
+      if (pageSize != null || cursor != null) {
+        return getPhMessagePage(searchParams, summaryFlag, pageSize, cursor);
       }
 
       List<PublicHealthMessage> phMessage =
@@ -158,6 +143,64 @@ public class PhMessageController {
     }
   }
 
+  @CrossOrigin
+  @GetMapping(value = "/api/phMessage/stream", produces = NDJSON)
+  public ResponseEntity<StreamingResponseBody> streamPhMessageDetails(
+      @RequestParam(name = "fhirServerBaseUrl", required = false) String fhirServerBaseUrl,
+      @RequestParam(name = "patientId", required = false) String patientId,
+      @RequestParam(name = "encounterId", required = false) String encounterId,
+      @RequestParam(name = "xRequestId", required = false) String xRequestId,
+      @RequestParam(name = "submittedDataId", required = false) String submittedDataId,
+      @RequestParam(name = "version", required = false) String version,
+      @RequestParam(name = "responseDataId", required = false) String responseDataId,
+      @RequestParam(name = "responseProcessingInstruction", required = false)
+          String responseProcessingInstruction,
+      @RequestParam(name = "notifiedResourceId", required = false) String notifiedResourceId,
+      @RequestParam(name = "notifiedResourceType", required = false) String notifiedResourceType,
+      @RequestParam(name = "karUniqueId", required = false) String karUniqueId,
+      @RequestParam(name = "notificationId", required = false) String notificationId,
+      @RequestParam(name = "xCorrelationId", required = false) String xCorrelationId,
+      @RequestParam(name = "startTime", required = false) String startTime,
+      @RequestParam(name = "endTime", required = false) String endTime,
+      @RequestParam(name = "summaryFlag", required = false, defaultValue = "false")
+          boolean summaryFlag) {
+
+    Map<String, String> searchParams =
+        getSearchParams(
+            fhirServerBaseUrl,
+            patientId,
+            encounterId,
+            xRequestId,
+            submittedDataId,
+            version,
+            responseDataId,
+            responseProcessingInstruction,
+            notifiedResourceId,
+            notifiedResourceType,
+            karUniqueId,
+            notificationId,
+            xCorrelationId,
+            startTime,
+            endTime);
+
+    logger.info("Streaming PublicHealthMessages based on request {}", searchParams.keySet());
+
+    // Each message is written as one line of JSON as it is read from the database.
+    StreamingResponseBody body =
+        out -> {
+          Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+          try {
+            phMessageService.streamPhMessageData(
+                searchParams, summaryFlag, message -> writeLine(writer, message));
+          } catch (UncheckedIOException e) {
+            throw e.getCause();
+          }
+          writer.flush();
+        };
+
+    return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+  }
+
   @CrossOrigin
   @GetMapping(value = "/api/getPhMessagesSummary", produces = MediaType.APPLICATION_JSON_VALUE)
   public ResponseEntity<Object> getPhMessageDetailsSummary(
@@ -365,6 +408,161 @@ public class PhMessageController {
     }
   }
 
+  @CrossOrigin
+  @GetMapping("/api/phMessage/payload")
+  public ResponseEntity<StreamingResponseBody> getPhMessagePayload(
+      @RequestParam(name = "id") UUID id,
+      @RequestParam(name = "payloadType") PhMessagePayloadType payloadType) {
+
+    logger.info("Retrieving the {} payload of the PublicHealthMessage {}", payloadType, id);
+
+    InputStream payload;
+    try {
+      payload = phMessageService.getPhMessagePayload(id, payloadType);
+    } catch (Exception e) {
+      logger.error(ERROR_IN_PROCESSING_THE_REQUEST, e);
+      throw new ResponseStatusException(HttpStatus.BAD_REQUEST, ERROR_IN_PROCESSING_THE_REQUEST);
+    }
+
+    if (payload == null) {
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    }
+
+    // The payload is copied to the response as it is read, instead of being read into memory.
+    StreamingResponseBody body =
+        out -> {
+          try (InputStream in = payload) {
+            IOUtils.copy(in, out);
+          }
+        };
+
+    return ResponseEntity.ok()
+        .contentType(MediaType.parseMediaType(payloadType.getContentType()))
+        .body(body);
+  }
+
+  @PostMapping("/api/phMessage/payload/externalize")
+  public ResponseEntity<String> externalizePhMessagePayloads(
+      @RequestParam(name = "batchSize", required = false, defaultValue = "100") int batchSize) {
+
+    try {
+      int moved = phMessageService.externalizePhMessagePayloads(batchSize);
+      return ResponseEntity.ok("Moved the payloads of " + moved + " phMessages");
+    } catch (Exception e) {
+      logger.error("Error in processing the request", e);
+      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+          .body("Error in processing the request");
+    }
+  }
+
+  private ResponseEntity<Object> getPhMessagePage(
+      Map<String, String> searchParams, boolean summaryFlag, Integer pageSize, String cursor) {
+
+    int size = pageSize != null && pageSize > 0 ? Math.min(pageSize, maxPageSize) : maxPageSize;
+    PhMessageCursor after = cursor != null ? PhMessageCursor.decode(cursor) : null;
+
+    // One more message than the page size is read to find out whether there is a next page.
+    List<PublicHealthMessage> phMessages =
+        phMessageService.getPhMessageData(searchParams, summaryFlag, after, size + 1);
+
+    HttpHeaders headers = new HttpHeaders();
+    if (phMessages.size() > size) {
+      phMessages = phMessages.subList(0, size);
+      headers.set(NEXT_CURSOR_HEADER, PhMessageCursor.of(phMessages.get(size - 1)).encode());
+    }
+
+    return new ResponseEntity<>(phMessages, headers, HttpStatus.OK);
+  }
+
+  private void writeLine(Writer writer, PublicHealthMessage message) {
+    try {
+      writer.write(mapper.writeValueAsString(message));
+      writer.write('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Map<String, String> getSearchParams(
+      String fhirServerBaseUrl,
+      String patientId,
+      String encounterId,
+      String xRequestId,
+      String submittedDataId,
+      String version,
+      String responseDataId,
+      String responseProcessingInstruction,
+      String notifiedResourceId,
+      String notifiedResourceType,
+      String karUniqueId,
+      String notificationId,
+      String xCorrelationId,
+      String startTime,
+      String endTime) {
+
+    Map<String, String> searchParams = new HashMap<>();
+    if (fhirServerBaseUrl != null && !fhirServerBaseUrl.isEmpty()) {
+      searchParams.put("fhirServerBaseUrl", fhirServerBaseUrl);
+    }
+    if (patientId != null && !patientId.isEmpty()) {
+      searchParams.put("patientId", patientId);
+    }
+    if (encounterId != null && !encounterId.isEmpty()) {
+      searchParams.put("encounterId", encounterId);
+    }
+    if (patientId != null && !patientId.isEmpty()) {
+      searchParams.put("patientId", patientId);
+    }
+
+    if (xRequestId != null && !xRequestId.isEmpty()) {
+      searchParams.put("xRequestId", xRequestId);
+    }
+
+    if (submittedDataId != null && !submittedDataId.isEmpty()) {
+      searchParams.put("submittedDataId", submittedDataId);
+    }
+    if (version != null && !version.isEmpty()) {
+      searchParams.put("version", version);
+    }
+    if (responseDataId != null && !responseDataId.isEmpty()) {
+      searchParams.put("responseDataId", responseDataId);
+    }
+
+    if (responseProcessingInstruction != null && !responseProcessingInstruction.isEmpty()) {
+      searchParams.put("responseProcessingInstruction", responseProcessingInstruction);
+    }
+
+    if (notifiedResourceId != null && !notifiedResourceId.isEmpty()) {
+      searchParams.put("notifiedResourceId", notifiedResourceId);
+    }
+
+    if (notifiedResourceType != null && !notifiedResourceType.isEmpty()) {
+      searchParams.put("notifiedResourceType", notifiedResourceType);
+    }
+
+    if (karUniqueId != null && !karUniqueId.isEmpty()) {
+      searchParams.put("karUniqueId", karUniqueId);
+    }
+
+    if (notificationId != null && !notificationId.isEmpty()) {
+      searchParams.put("notificationId", notificationId);
+    }
+
+    if (xCorrelationId != null && !xCorrelationId.isEmpty()) {
+      searchParams.put("xCorrelationId", xCorrelationId);
+    }
+
+    if (startTime != null) {
+      searchParams.put("submissionTime", startTime);
+    }
+
+    if (endTime != null) {
+      searchParams.put("responseReceivedTime", endTime);
+    }
+
+    return searchParams;
+  }
+
   private List<String> extractXRequestIds(Map<String, Object> requestBody) {
     List<String> xRequestIds = (List<String>) requestBody.get("xRequestIds");
 
@@ -0,0 +1,49 @@
+package com.drajer.bsa.dao;
+
+import com.drajer.bsa.model.EhrQuerySnapshot;
+import java.util.UUID;
+
+/**
+ *
+ *
+ * <h1>EhrQuerySnapshotDao</h1>
+ *
+ * This interface declares methods to perform CRUD operations on the EhrQuerySnapshot.
+ *
+ * @author nbashyam
+ */
+public interface EhrQuerySnapshotDao {
+
+  /**
+   * Method to create or update an EhrQuerySnapshot.
+   *
+   * @param snapshot
+   * @return EhrQuerySnapshot that was updated
+   */
+  public EhrQuerySnapshot saveOrUpdate(EhrQuerySnapshot snapshot);
+
+  /**
+   * Method to retrieve the EhrQuerySnapshot of a query executed for a notification.
+   *
+   * @param ncId The id of the NotificationContext.
+   * @param dataRequirementId The id of the data requirement.
+   * @param queryUrl The search query url.
+   * @return EhrQuerySnapshot that was retrieved or null.
+   */
+  public EhrQuerySnapshot getEhrQuerySnapshot(UUID ncId, String dataRequirementId, String queryUrl);
+
+  /**
+   * Method to delete an EhrQuerySnapshot.
+   *
+   * @param snapshot
+   */
+  public void delete(EhrQuerySnapshot snapshot);
+
+  /**
+   * Method to delete the EhrQuerySnapshots of the queries executed for a notification.
+   *
+   * @param ncId The id of the NotificationContext.
+   * @return The number of snapshots deleted.
+   */
+  public int deleteEhrQuerySnapshots(UUID ncId);
+}
@@ -36,6 +36,10 @@ public interface HealthcareSettingsDao {
   /**
    * Method to retrieve a HealthcareSetting by Url.
    *
+   * <p>When the HealthcareSetting cache is enabled, the HealthcareSetting and its KARs are a
+   * detached copy instead of an entity managed by the session, so the changes made to them are not
+   * saved unless they are passed to saveOrUpdate.
+   *
    * @param url The HealthcareSettings details to be retrieved based on the url.
    * @return Returns the HealthcareSettings for the provided url.
    */
@@ -57,6 +61,21 @@ public interface HealthcareSettingsDao {
    */
   public List<KnowledgeArtifactStatus> getKarsActiveByHsId(Integer id);
 
+  /**
+   * Method to save the EHR access token of a HealthcareSetting without saving the rest of the
+   * HealthcareSetting.
+   *
+   * @param hs The HealthcareSetting with the new access token.
+   */
+  void updateAccessToken(HealthcareSetting hs);
+
+  /**
+   * Method to record a change to the KAR statuses of a HealthcareSetting.
+   *
+   * @param id The HealthcareSetting Id whose KAR statuses were changed.
+   */
+  void incrementConfigVersion(Integer id);
+
   /**
    * Deletes the specified HealthcareSetting from the system.
    *
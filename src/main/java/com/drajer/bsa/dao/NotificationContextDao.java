@@ -1,6 +1,7 @@
 package com.drajer.bsa.dao;
 
 import com.drajer.bsa.model.NotificationContext;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
@@ -70,6 +71,38 @@ public interface NotificationContextDao {
   public List<NotificationContext> getNotificationContextData(
       UUID id, String fhirServerBaseUrl, String notificationResourceId, String patientId);
 
+  /**
+   * Method to retrieve the oldest NotificationContexts with a specific processing status.
+   *
+   * @param status The notification processing status.
+   * @param maxResults The maximum number of NotificationContexts returned.
+   * @return Returns upto maxResults NotificationContexts with the provided status.
+   */
+  public List<NotificationContext> getNotificationContextsByStatus(String status, int maxResults);
+
+  /**
+   * Method to change the processing status of a NotificationContext only if it has the expected
+   * status. It is used to claim a NotificationContext, so that only one instance processes it.
+   *
+   * @param id The id of the NotificationContext.
+   * @param expectedStatus The processing status the NotificationContext is expected to have.
+   * @param status The new processing status.
+   * @return Returns true if the processing status was changed.
+   */
+  public boolean updateNotificationProcessingStatus(UUID id, String expectedStatus, String status);
+
+  /**
+   * Method to change the processing status of the NotificationContexts which have had a specific
+   * processing status since before a given time.
+   *
+   * @param expectedStatus The processing status of the NotificationContexts to be changed.
+   * @param status The new processing status.
+   * @param before The time before which the NotificationContexts were last updated.
+   * @return Returns the number of NotificationContexts changed.
+   */
+  public int updateStaleNotificationProcessingStatus(
+      String expectedStatus, String status, Date before);
+
   /**
    * Method to delete the NotificationContext
    *
@@ -1,14 +1,43 @@
 package com.drajer.bsa.dao;
 
+import com.drajer.bsa.model.PhMessageCursor;
 import com.drajer.bsa.model.PublicHealthMessage;
 import com.drajer.sof.model.PublicHealthMessageData;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 public interface PhMessageDao {
 
   List<PublicHealthMessage> getPhMessageData(Map<String, String> searchParams, boolean summaryFlag);
 
+  /**
+   * The method returns one page of the messages matching the search parameters, ordered by the last
+   * updated time and the id.
+   *
+   * @param searchParams The search parameters.
+   * @param summaryFlag true if only the metadata of the messages is returned.
+   * @param after The position of the last message of the previous page, null for the first page.
+   * @param maxResults The maximum number of messages returned.
+   * @return The messages.
+   */
+  List<PublicHealthMessage> getPhMessageData(
+      Map<String, String> searchParams, boolean summaryFlag, PhMessageCursor after, int maxResults);
+
+  /**
+   * The method passes the messages matching the search parameters to the consumer as they are read
+   * from the database, ordered by the last updated time and the id.
+   *
+   * @param searchParams The search parameters.
+   * @param summaryFlag true if only the metadata of the messages is returned.
+   * @param consumer The consumer of the messages.
+   * @return The number of messages read.
+   */
+  int streamPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      Consumer<PublicHealthMessage> consumer);
+
   List<PublicHealthMessage> getPhMessageDataSummary(Map<String, String> searchParams);
 
   List<PublicHealthMessage> getPhMessageByXRequestIds(List<String> xRequestId, boolean summaryFlag);
@@ -20,4 +49,13 @@ public interface PhMessageDao {
       PublicHealthMessageData publicHealthMessageData);
 
   void delete(PublicHealthMessage message);
+
+  /**
+   * The method moves the payloads of the messages saved in the ph_messages table to the payload
+   * store.
+   *
+   * @param batchSize The maximum number of messages to be moved.
+   * @return The number of messages moved, 0 when there are no more messages to be moved.
+   */
+  int externalizePayloads(int batchSize);
 }
@@ -0,0 +1,74 @@
+package com.drajer.bsa.dao;
+
+import com.drajer.bsa.model.PhMessagePayloadType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ *
+ *
+ * <h1>PhMessagePayloadStore</h1>
+ *
+ * The interface is used to keep the payloads of the PublicHealthMessages outside of the ph_messages
+ * table, so that the messages can be queried without reading the payloads.
+ *
+ * @author nbashyam
+ */
+public interface PhMessagePayloadStore {
+
+  /**
+   * The method saves the payload of the message, replacing the existing payload of the same type.
+   *
+   * @param messageId The id of the message.
+   * @param type The type of the payload.
+   * @param payload The payload, the existing payload is deleted when the payload is null.
+   */
+  void savePayload(UUID messageId, PhMessagePayloadType type, String payload);
+
+  /**
+   * The method returns the payload of the message.
+   *
+   * @param messageId The id of the message.
+   * @param type The type of the payload.
+   * @return The payload, or null if the message does not have the payload.
+   */
+  String getPayload(UUID messageId, PhMessagePayloadType type);
+
+  /**
+   * The method returns all the payloads of the messages at once, so that a page of messages does
+   * not read the payloads of each message separately.
+   *
+   * @param messageIds The ids of the messages.
+   * @return The payloads keyed by the message id and the type, the messages without payloads are
+   *     left out.
+   */
+  Map<UUID, Map<PhMessagePayloadType, String>> getPayloads(Collection<UUID> messageIds);
+
+  /**
+   * The method opens the payload of the message for reading, without reading the whole payload.
+   *
+   * @param messageId The id of the message.
+   * @param type The type of the payload.
+   * @return The UTF-8 encoded payload, or null if the message does not have the payload.
+   * @throws IOException When the payload cannot be read.
+   */
+  InputStream openPayload(UUID messageId, PhMessagePayloadType type) throws IOException;
+
+  /**
+   * The method deletes all the payloads of the message.
+   *
+   * @param messageId The id of the message.
+   */
+  void deletePayloads(UUID messageId);
+
+  /**
+   * @return true if the payloads are saved and deleted in the transaction of the message, false if
+   *     they have to be saved and deleted once the transaction of the message has committed.
+   */
+  default boolean isTransactional() {
+    return false;
+  }
+}
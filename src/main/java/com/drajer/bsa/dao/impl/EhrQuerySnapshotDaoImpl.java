@@ -0,0 +1,57 @@
+package com.drajer.bsa.dao.impl;
+
+import com.drajer.bsa.dao.EhrQuerySnapshotDao;
+import com.drajer.bsa.model.EhrQuerySnapshot;
+import com.drajer.ecrapp.dao.AbstractDao;
+import java.util.UUID;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ *
+ *
+ * <h1>EhrQuerySnapshotDao</h1>
+ *
+ * This Implementation class to perform CRUD operations on the EhrQuerySnapshot.
+ *
+ * @author nbashyam
+ */
+@Repository
+@Transactional
+public class EhrQuerySnapshotDaoImpl extends AbstractDao implements EhrQuerySnapshotDao {
+
+  @Override
+  public EhrQuerySnapshot saveOrUpdate(EhrQuerySnapshot snapshot) {
+    getSession().saveOrUpdate(snapshot);
+    return snapshot;
+  }
+
+  @Override
+  public EhrQuerySnapshot getEhrQuerySnapshot(
+      UUID ncId, String dataRequirementId, String queryUrl) {
+    Criteria criteria = getSession().createCriteria(EhrQuerySnapshot.class);
+    criteria.add(Restrictions.eq("ncId", ncId));
+    criteria.add(Restrictions.eq("dataRequirementId", dataRequirementId));
+    criteria.add(Restrictions.eq("queryUrl", queryUrl));
+
+    // Return the latest snapshot in case the query was executed concurrently for two KARs.
+    criteria.addOrder(Order.desc("lastQueryTime")).setMaxResults(1);
+    return (EhrQuerySnapshot) criteria.uniqueResult();
+  }
+
+  @Override
+  public void delete(EhrQuerySnapshot snapshot) {
+    getSession().delete(snapshot);
+  }
+
+  @Override
+  public int deleteEhrQuerySnapshots(UUID ncId) {
+    return getSession()
+        .createQuery("delete from EhrQuerySnapshot s where s.ncId = :ncId")
+        .setParameter("ncId", ncId)
+        .executeUpdate();
+  }
+}
@@ -0,0 +1,266 @@
+package com.drajer.bsa.dao.impl;
+
+import com.drajer.bsa.kar.model.HealthcareSettingOperationalKnowledgeArtifacts;
+import com.drajer.bsa.kar.model.KnowledgeArtifactStatus;
+import com.drajer.bsa.model.HealthcareSetting;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ *
+ *
+ * <h1>HealthcareSettingCache</h1>
+ *
+ * This class caches the HealthcareSettings along with their active KARs, keyed by the FHIR Server
+ * URL, so that the HealthcareSetting is not read from the database on every notification, timer and
+ * RR. The entries are invalidated when the HealthcareSetting or its KAR statuses are changed on
+ * this instance, and the entries are revalidated periodically against the config_version of the
+ * HealthcareSetting, so that changes made on the other instances of the app are picked up. Each
+ * caller receives its own detached copy of the HealthcareSetting and its KARs instead of an entity
+ * managed by the session of the caller.
+ *
+ * @author nbashyam
+ */
+@Component
+public class HealthcareSettingCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(HealthcareSettingCache.class);
+
+  private static final String HITS_GAUGE = "ecrnow.healthcare.setting.cache.hits";
+  private static final String MISSES_GAUGE = "ecrnow.healthcare.setting.cache.misses";
+
+  @Value("${healthcare.setting.cache.enabled:false}")
+  private boolean cacheEnabled;
+
+  @Value("${healthcare.setting.cache.revalidate-seconds:30}")
+  private long revalidateSeconds;
+
+  @Autowired(required = false)
+  MeterRegistry meterRegistry;
+
+  private final Map<String, CachedHealthcareSetting> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @PostConstruct
+  public void initialize() {
+
+    if (cacheEnabled && meterRegistry != null) {
+      meterRegistry.gauge(HITS_GAUGE, hits);
+      meterRegistry.gauge(MISSES_GAUGE, misses);
+    }
+  }
+
+  public boolean isEnabled() {
+    return cacheEnabled;
+  }
+
+  /**
+   * The method returns the cached HealthcareSetting for the url.
+   *
+   * @param url The FHIR Server URL of the HealthcareSetting.
+   * @return The cached entry, null if the HealthcareSetting is not cached.
+   */
+  public CachedHealthcareSetting get(String url) {
+
+    CachedHealthcareSetting entry = entries.get(url);
+
+    if (entry != null) hits.incrementAndGet();
+    else misses.incrementAndGet();
+
+    return entry;
+  }
+
+  /**
+   * The method caches a HealthcareSetting that was read from the database along with its KARs.
+   *
+   * @param hs The HealthcareSetting, which is no longer associated with a session.
+   * @return The cached entry.
+   */
+  public CachedHealthcareSetting put(HealthcareSetting hs) {
+
+    CachedHealthcareSetting entry = new CachedHealthcareSetting(hs, revalidateSeconds * 1000);
+    entries.put(hs.getFhirServerBaseURL(), entry);
+
+    logger.info(
+        " Cached Healthcare Setting {} with version {}",
+        hs.getFhirServerBaseURL(),
+        hs.getConfigVersion());
+
+    return entry;
+  }
+
+  /**
+   * The method removes the HealthcareSetting from the cache, and removes it again once the current
+   * transaction commits, so that a copy read by another thread before the commit is not retained.
+   *
+   * @param id The id of the HealthcareSetting.
+   */
+  public void invalidate(Integer id) {
+
+    if (!cacheEnabled) return;
+
+    remove(id);
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              remove(id);
+            }
+          });
+    }
+  }
+
+  /**
+   * The method applies the access token saved for a HealthcareSetting to the cached copy. The
+   * access token is not part of the configuration version, so that token refreshes do not reload
+   * the HealthcareSetting.
+   *
+   * @param hs The HealthcareSetting with the new access token.
+   */
+  public void updateAccessToken(HealthcareSetting hs) {
+
+    CachedHealthcareSetting entry = entries.get(hs.getFhirServerBaseURL());
+
+    if (entry != null) {
+      entry.setAccessToken(
+          hs.getEhrAccessToken(),
+          hs.getEhrAccessTokenExpiryDuration(),
+          hs.getEhrAccessTokenExpirationTime(),
+          hs.getDefaultProviderId());
+    }
+  }
+
+  public void remove(String url) {
+    entries.remove(url);
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private void remove(Integer id) {
+    entries.values().removeIf(entry -> Objects.equals(entry.getId(), id));
+  }
+
+  /** A HealthcareSetting with its KARs as read from the database. */
+  public static class CachedHealthcareSetting {
+
+    private final HealthcareSetting setting;
+    private final long revalidateMillis;
+    private long checkedAt;
+
+    CachedHealthcareSetting(HealthcareSetting setting, long revalidateMillis) {
+      this.setting = setting;
+      this.revalidateMillis = revalidateMillis;
+      this.checkedAt = System.currentTimeMillis();
+    }
+
+    public Integer getId() {
+      return setting.getId();
+    }
+
+    public synchronized Integer getConfigVersion() {
+      return setting.getConfigVersion();
+    }
+
+    /** @return true if the entry has to be compared with the database before it is used. */
+    public synchronized boolean needsRevalidation() {
+      return System.currentTimeMillis() - checkedAt >= revalidateMillis;
+    }
+
+    public synchronized void markRevalidated() {
+      checkedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void setAccessToken(
+        String token, int expiryDuration, Date expirationTime, String providerId) {
+      setting.setEhrAccessToken(token);
+      setting.setEhrAccessTokenExpiryDuration(expiryDuration);
+      setting.setEhrAccessTokenExpirationTime(expirationTime);
+      setting.setDefaultProviderId(providerId);
+    }
+
+    /**
+     * The method returns a copy of the HealthcareSetting, so that the changes made by the caller
+     * are not seen by the other callers. The copy is detached, it is not associated with a session
+     * and the changes made to it are saved only when it is passed to the dao. The KARs, their
+     * statuses and the dates are copied as well, the other attributes are immutable.
+     */
+    public synchronized HealthcareSetting copy() {
+
+      HealthcareSetting copy = new HealthcareSetting();
+      ReflectionUtils.shallowCopyFieldState(setting, copy);
+      copy.setEhrAccessTokenExpirationTime(copyDate(setting.getEhrAccessTokenExpirationTime()));
+      copy.setLastUpdated(copyDate(setting.getLastUpdated()));
+
+      if (setting.getKars() != null) {
+        copy.setKars(copyKars(setting.getKars()));
+      }
+
+      return copy;
+    }
+
+    private static HealthcareSettingOperationalKnowledgeArtifacts copyKars(
+        HealthcareSettingOperationalKnowledgeArtifacts kars) {
+
+      HealthcareSettingOperationalKnowledgeArtifacts karsCopy =
+          new HealthcareSettingOperationalKnowledgeArtifacts();
+      karsCopy.setId(kars.getId());
+
+      if (kars.getArtifactStatus() == null) {
+        karsCopy.setArtifactStatus(null);
+        return karsCopy;
+      }
+
+      for (KnowledgeArtifactStatus status : kars.getArtifactStatus()) {
+
+        KnowledgeArtifactStatus statusCopy = new KnowledgeArtifactStatus();
+        ReflectionUtils.shallowCopyFieldState(status, statusCopy);
+        statusCopy.setLastActivationDate(copyDate(status.getLastActivationDate()));
+        statusCopy.setLastInActivationDate(copyDate(status.getLastInActivationDate()));
+
+        if (status.getSubscriptions() != null) {
+          statusCopy.setSubscriptions(new HashSet<>(status.getSubscriptions()));
+        }
+
+        karsCopy.addArtifactStatus(statusCopy);
+      }
+
+      return karsCopy;
+    }
+
+    private static Date copyDate(Date date) {
+      return date != null ? new Date(date.getTime()) : null;
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.drajer.bsa.dao.impl;
 
 import com.drajer.bsa.dao.HealthcareSettingsDao;
+import com.drajer.bsa.dao.impl.HealthcareSettingCache.CachedHealthcareSetting;
 import com.drajer.bsa.kar.model.HealthcareSettingOperationalKnowledgeArtifacts;
 import com.drajer.bsa.kar.model.KnowledgeArtifactRepositorySystem;
 import com.drajer.bsa.kar.model.KnowledgeArtifactStatus;
@@ -8,7 +9,9 @@ import com.drajer.bsa.model.HealthcareSetting;
 import com.drajer.ecrapp.dao.AbstractDao;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
@@ -33,8 +36,15 @@ import org.springframework.transaction.annotation.Transactional;
 @Transactional
 public class HealthcareSettingsDaoImpl extends AbstractDao implements HealthcareSettingsDao {
 
+  private static final String FHIR_SERVER_BASE_URL = "fhirServerBaseURL";
+
+  // The mapper is thread safe once configured, so it is shared by all the saves.
+  private static final ObjectMapper mapper = new ObjectMapper();
+
   @Autowired KnowledgeArtifactRepositorySystem knowledgeArtifactRepositorySystem;
 
+  @Autowired HealthcareSettingCache settingCache;
+
   private final Logger logger = LoggerFactory.getLogger(HealthcareSettingsDaoImpl.class);
 
   /**
@@ -47,7 +57,6 @@ public class HealthcareSettingsDaoImpl extends AbstractDao implements Healthcare
   public HealthcareSetting saveOrUpdate(HealthcareSetting hsd) {
 
     if (hsd.getKars() != null) {
-      ObjectMapper mapper = new ObjectMapper();
 
       try {
         String kars = mapper.writeValueAsString(hsd.getKars());
@@ -58,7 +67,11 @@ public class HealthcareSettingsDaoImpl extends AbstractDao implements Healthcare
       }
     }
 
+    Integer version = hsd.getId() != null ? getConfigVersion(hsd.getId()) : null;
+    hsd.setConfigVersion(version != null ? version + 1 : 1);
+
     getSession().saveOrUpdate(hsd);
+    settingCache.invalidate(hsd.getId());
     return hsd;
   }
 
@@ -85,8 +98,51 @@ public class HealthcareSettingsDaoImpl extends AbstractDao implements Healthcare
    */
   @Override
   public HealthcareSetting getHealthcareSettingByUrl(String url) {
+
+    if (!settingCache.isEnabled()) return loadHealthcareSettingByUrl(url);
+
+    CachedHealthcareSetting entry = settingCache.get(url);
+
+    if (entry != null && entry.needsRevalidation()) {
+
+      // Only the version and the access token are read to check whether the entry is current.
+      Object[] state = getCurrentState(url);
+
+      if (state != null && Objects.equals(state[0], entry.getConfigVersion())) {
+        entry.setAccessToken(
+            (String) state[1],
+            state[2] != null ? (Integer) state[2] : 0,
+            (Date) state[3],
+            (String) state[4]);
+        entry.markRevalidated();
+      } else {
+        logger.info(" Healthcare Setting {} has changed, reloading it ", url);
+        entry = null;
+      }
+    }
+
+    if (entry == null) {
+
+      HealthcareSetting hs = loadHealthcareSettingByUrl(url);
+
+      if (hs == null) {
+        settingCache.remove(url);
+        return null;
+      }
+
+      // The cached copy is detached, so that the changes made by the callers are not saved.
+      getSession().evict(hs);
+      if (hs.getKars() != null) hs.getKars().getArtifactStatus().forEach(getSession()::evict);
+
+      entry = settingCache.put(hs);
+    }
+
+    return entry.copy();
+  }
+
+  private HealthcareSetting loadHealthcareSettingByUrl(String url) {
     Criteria criteria = getSession().createCriteria(HealthcareSetting.class);
-    criteria.add(Restrictions.eq("fhirServerBaseURL", url));
+    criteria.add(Restrictions.eq(FHIR_SERVER_BASE_URL, url));
     HealthcareSetting hs = (HealthcareSetting) criteria.uniqueResult();
 
     if (hs != null) setKars(hs);
@@ -94,6 +150,71 @@ public class HealthcareSettingsDaoImpl extends AbstractDao implements Healthcare
     return hs;
   }
 
+  private Object[] getCurrentState(String url) {
+
+    return (Object[])
+        getSession()
+            .createQuery(
+                "select hs.configVersion, hs.ehrAccessToken, hs.ehrAccessTokenExpiryDuration, "
+                    + "hs.ehrAccessTokenExpirationTime, hs.defaultProviderId "
+                    + "from HealthcareSetting hs where hs.fhirServerBaseURL = :url")
+            .setParameter("url", url)
+            .uniqueResult();
+  }
+
+  private Integer getConfigVersion(Integer id) {
+
+    return (Integer)
+        getSession()
+            .createQuery("select hs.configVersion from HealthcareSetting hs where hs.id = :id")
+            .setParameter("id", id)
+            .uniqueResult();
+  }
+
+  /**
+   * Method to save the EHR access token of a HealthcareSetting. Only the access token columns are
+   * updated, and the configuration version is not changed.
+   *
+   * @param hs The HealthcareSetting with the new access token.
+   */
+  @Override
+  public void updateAccessToken(HealthcareSetting hs) {
+
+    getSession()
+        .createQuery(
+            "update HealthcareSetting hs set hs.ehrAccessToken = :token, "
+                + "hs.ehrAccessTokenExpiryDuration = :duration, "
+                + "hs.ehrAccessTokenExpirationTime = :expiration, "
+                + "hs.defaultProviderId = :providerId where hs.id = :id")
+        .setParameter("token", hs.getEhrAccessToken())
+        .setParameter("duration", hs.getEhrAccessTokenExpiryDuration())
+        .setParameter("expiration", hs.getEhrAccessTokenExpirationTime())
+        .setParameter("providerId", hs.getDefaultProviderId())
+        .setParameter("id", hs.getId())
+        .executeUpdate();
+
+    settingCache.updateAccessToken(hs);
+  }
+
+  /**
+   * Method to record a change to the KAR statuses of a HealthcareSetting, so that the cached copies
+   * of the HealthcareSetting are reloaded.
+   *
+   * @param id The id of the HealthcareSetting.
+   */
+  @Override
+  public void incrementConfigVersion(Integer id) {
+
+    getSession()
+        .createQuery(
+            "update HealthcareSetting hs set hs.configVersion = "
+                + "coalesce(hs.configVersion, 0) + 1 where hs.id = :id")
+        .setParameter("id", id)
+        .executeUpdate();
+
+    settingCache.invalidate(id);
+  }
+
   /**
    * Method to retrieve all existing HealthcareSettings.
    *
@@ -137,5 +258,6 @@ public class HealthcareSettingsDaoImpl extends AbstractDao implements Healthcare
   @Override
   public void delete(HealthcareSetting healthcareSetting) {
     getSession().delete(healthcareSetting);
+    settingCache.invalidate(healthcareSetting.getId());
   }
 }
@@ -3,9 +3,11 @@ package com.drajer.bsa.dao.impl;
 import com.drajer.bsa.dao.NotificationContextDao;
 import com.drajer.bsa.model.NotificationContext;
 import com.drajer.ecrapp.dao.AbstractDao;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 import org.hibernate.Criteria;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -105,6 +107,45 @@ public class NotificationContextDaoImpl extends AbstractDao implements Notificat
     return criteria.list();
   }
 
+  @Override
+  public List<NotificationContext> getNotificationContextsByStatus(String status, int maxResults) {
+    Criteria criteria = getSession().createCriteria(NotificationContext.class);
+    criteria.add(Restrictions.eq("notificationProcessingStatus", status));
+    criteria.addOrder(Order.asc("lastUpdated"));
+    criteria.setMaxResults(maxResults);
+    return criteria.list();
+  }
+
+  @Override
+  public boolean updateNotificationProcessingStatus(UUID id, String expectedStatus, String status) {
+    return getSession()
+            .createQuery(
+                "update NotificationContext nc set nc.notificationProcessingStatus = :status, "
+                    + "nc.lastUpdated = :now where nc.id = :id "
+                    + "and nc.notificationProcessingStatus = :expectedStatus")
+            .setParameter("status", status)
+            .setParameter("now", new Date())
+            .setParameter("id", id)
+            .setParameter("expectedStatus", expectedStatus)
+            .executeUpdate()
+        == 1;
+  }
+
+  @Override
+  public int updateStaleNotificationProcessingStatus(
+      String expectedStatus, String status, Date before) {
+    return getSession()
+        .createQuery(
+            "update NotificationContext nc set nc.notificationProcessingStatus = :status, "
+                + "nc.lastUpdated = :now where nc.notificationProcessingStatus = :expectedStatus "
+                + "and nc.lastUpdated < :before")
+        .setParameter("status", status)
+        .setParameter("now", new Date())
+        .setParameter("expectedStatus", expectedStatus)
+        .setParameter("before", before)
+        .executeUpdate();
+  }
+
   @Override
   public void delete(NotificationContext notificationContext) {
     getSession().delete(notificationContext);
@@ -1,17 +1,24 @@
 package com.drajer.bsa.dao.impl;
 
 import com.drajer.bsa.dao.PhMessageDao;
+import com.drajer.bsa.model.PhMessageCursor;
+import com.drajer.bsa.model.PhMessagePayloadType;
 import com.drajer.bsa.model.PublicHealthMessage;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
 import com.drajer.ecrapp.dao.AbstractDao;
 import com.drajer.sof.model.PublicHealthMessageData;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
@@ -22,6 +29,7 @@ import org.hibernate.criterion.Restrictions;
 import org.hibernate.transform.Transformers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -49,6 +57,12 @@ public class PhMessageDaoImpl extends AbstractDao implements PhMessageDao {
   public static final String RESPONSE_RECEIVED_TIME = "responseReceivedTime";
   public static final String SUBMITTED_VERSION_NUMBER = "submittedVersionNumber";
   public static final String SUMMARY_FLAG = "summaryFlag";
+  public static final String LAST_UPDATED = "lastUpdated";
+
+  // The number of rows fetched from the database at a time when the messages are streamed.
+  private static final int STREAM_FETCH_SIZE = 100;
+
+  @Autowired PhMessagePayloadUtils payloadUtils;
 
   public List<PublicHealthMessage> getPhMessageData(
       Map<String, String> searchParams, boolean summaryFlag) {
@@ -60,11 +74,103 @@ public class PhMessageDaoImpl extends AbstractDao implements PhMessageDao {
     List<PublicHealthMessage> phMessage = criteria.list();
 
     if (phMessage != null) {
-      return phMessage;
+      return withPayloads(phMessage, summaryFlag);
     }
     return null;
   }
 
+  @Override
+  public List<PublicHealthMessage> getPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      PhMessageCursor after,
+      int maxResults) {
+
+    Criteria criteria = createOrderedCriteria(searchParams, summaryFlag, after);
+    criteria.setMaxResults(maxResults);
+
+    return withPayloads(criteria.list(), summaryFlag);
+  }
+
+  @Override
+  public int streamPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      Consumer<PublicHealthMessage> consumer) {
+
+    Criteria criteria = createOrderedCriteria(searchParams, summaryFlag, null);
+    criteria.setFetchSize(STREAM_FETCH_SIZE);
+    criteria.setReadOnly(true);
+
+    int count = 0;
+    List<PublicHealthMessage> chunk = new ArrayList<>(STREAM_FETCH_SIZE);
+
+    try (ScrollableResults results = criteria.scroll(ScrollMode.FORWARD_ONLY)) {
+
+      while (results.next()) {
+        chunk.add((PublicHealthMessage) results.get(0));
+
+        // The messages already passed to the consumer are not retained by the session.
+        if (chunk.size() == STREAM_FETCH_SIZE) {
+          count += accept(chunk, summaryFlag, consumer);
+          getSession().clear();
+        }
+      }
+    }
+
+    count += accept(chunk, summaryFlag, consumer);
+
+    logger.info("Streamed {} PublicHealthMessages", count);
+    return count;
+  }
+
+  /** The payloads of the chunk of messages are read at once before they are passed on. */
+  private int accept(
+      List<PublicHealthMessage> chunk,
+      boolean summaryFlag,
+      Consumer<PublicHealthMessage> consumer) {
+
+    withPayloads(chunk, summaryFlag).forEach(consumer);
+
+    int count = chunk.size();
+    chunk.clear();
+    return count;
+  }
+
+  /**
+   * The payloads kept in the payload store are read at once for all the messages, the summaries of
+   * the messages do not include the payloads.
+   */
+  private List<PublicHealthMessage> withPayloads(
+      List<PublicHealthMessage> messages, boolean summaryFlag) {
+
+    if (!summaryFlag) {
+      payloadUtils.loadPayloads(messages);
+    }
+    return messages;
+  }
+
+  private Criteria createOrderedCriteria(
+      Map<String, String> searchParams, boolean summaryFlag, PhMessageCursor after) {
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
+
+    prepareCriteria(criteria, searchParams);
+    applySummaryFlagProjection(criteria, summaryFlag);
+
+    if (after != null) {
+      criteria.add(
+          Restrictions.or(
+              Restrictions.gt(LAST_UPDATED, after.getLastUpdated()),
+              Restrictions.and(
+                  Restrictions.eq(LAST_UPDATED, after.getLastUpdated()),
+                  Restrictions.gt(ID, after.getId()))));
+    }
+
+    criteria.addOrder(Order.asc(LAST_UPDATED)).addOrder(Order.asc(ID));
+    return criteria;
+  }
+
   public List<PublicHealthMessage> getPhMessageDataSummary(Map<String, String> searchParams) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
 
@@ -166,7 +272,7 @@ public class PhMessageDaoImpl extends AbstractDao implements PhMessageDao {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     applySummaryFlagProjection(criteria, summaryFlag);
     criteria.add(Restrictions.in(X_REQUEST_ID, xRequestIds));
-    return criteria.addOrder(Order.desc("id")).list();
+    return withPayloads(criteria.addOrder(Order.desc("id")).list(), summaryFlag);
   }
 
   // @Override
@@ -180,7 +286,7 @@ public class PhMessageDaoImpl extends AbstractDao implements PhMessageDao {
       disjunction.add(Restrictions.ilike(X_REQUEST_ID, xRequestId, MatchMode.ANYWHERE));
     }
     criteria.add(disjunction);
-    return criteria.addOrder(Order.desc("id")).list();
+    return withPayloads(criteria.addOrder(Order.desc("id")).list(), summaryFlag);
   }
 
   private ProjectionList buildProjectionList(List<String> selectedProperties, Criteria criteria) {
@@ -223,12 +329,56 @@ public class PhMessageDaoImpl extends AbstractDao implements PhMessageDao {
       }
     }
 
-    return criteria.list();
+    return withPayloads(criteria.list(), false);
   }
 
   @Override
   public void delete(PublicHealthMessage message) {
     getSession().delete(message);
+    payloadUtils.deletePayloads(message.getId());
+  }
+
+  @Override
+  public int externalizePayloads(int batchSize) {
+
+    if (!payloadUtils.isExternal()) {
+      logger.warn("No payload store is configured, the payloads are kept in the ph_messages table");
+      return 0;
+    }
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
+
+    Disjunction disjunction = Restrictions.disjunction();
+    for (String payload : getPayloadProperties()) {
+      disjunction.add(Restrictions.isNotNull(payload));
+    }
+    criteria.add(disjunction);
+    criteria.setMaxResults(batchSize);
+
+    List<PublicHealthMessage> messages = criteria.list();
+    int moved = 0;
+
+    for (PublicHealthMessage message : messages) {
+
+      if (message.externalizePayloads()) {
+        Map<PhMessagePayloadType, String> payloads = payloadUtils.detachPayloads(message);
+        getSession().saveOrUpdate(message);
+        payloadUtils.savePayloads(message.getId(), payloads);
+        moved++;
+      }
+    }
+
+    logger.info("Moved the payloads of {} messages to the payload store", moved);
+    return moved;
+  }
+
+  private List<String> getPayloadProperties() {
+    return Arrays.asList(
+        "submittedFhirData",
+        "submittedCdaData",
+        "fhirResponseData",
+        "cdaResponseData",
+        "failureResponseData");
   }
 
   private List<String> getSelectedProperties() {
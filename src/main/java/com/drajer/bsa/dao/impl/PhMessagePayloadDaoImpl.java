@@ -0,0 +1,138 @@
+package com.drajer.bsa.dao.impl;
+
+import com.drajer.bsa.dao.PhMessagePayloadStore;
+import com.drajer.bsa.model.PhMessagePayloadType;
+import com.drajer.bsa.model.PublicHealthMessagePayload;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
+import com.drajer.ecrapp.dao.AbstractDao;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ *
+ *
+ * <h1>PhMessagePayloadDaoImpl</h1>
+ *
+ * The class keeps the payloads of the PublicHealthMessages compressed in the ph_message_payloads
+ * table.
+ *
+ * @author nbashyam
+ */
+@Repository
+@Transactional
+public class PhMessagePayloadDaoImpl extends AbstractDao implements PhMessagePayloadStore {
+
+  public static final String MESSAGE_ID = "messageId";
+  public static final String PAYLOAD_TYPE = "payloadType";
+
+  @Override
+  public void savePayload(UUID messageId, PhMessagePayloadType type, String payload) {
+
+    PublicHealthMessagePayload existing = getByMessageId(messageId, type);
+
+    if (payload == null) {
+      if (existing != null) {
+        getSession().delete(existing);
+      }
+      return;
+    }
+
+    PublicHealthMessagePayload record =
+        existing != null ? existing : new PublicHealthMessagePayload();
+    record.setMessageId(messageId);
+    record.setPayloadType(type);
+    record.setCompressedData(PhMessagePayloadUtils.compress(payload));
+    getSession().saveOrUpdate(record);
+  }
+
+  @Override
+  public String getPayload(UUID messageId, PhMessagePayloadType type) {
+
+    PublicHealthMessagePayload record = getByMessageId(messageId, type);
+
+    return record != null ? PhMessagePayloadUtils.decompress(record.getCompressedData()) : null;
+  }
+
+  @Override
+  public Map<UUID, Map<PhMessagePayloadType, String>> getPayloads(Collection<UUID> messageIds) {
+
+    Map<UUID, Map<PhMessagePayloadType, String>> payloads = new HashMap<>();
+
+    if (messageIds.isEmpty()) {
+      return payloads;
+    }
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessagePayload.class);
+    criteria.add(Restrictions.in(MESSAGE_ID, messageIds));
+
+    List<PublicHealthMessagePayload> records = criteria.list();
+
+    for (PublicHealthMessagePayload record : records) {
+      payloads
+          .computeIfAbsent(record.getMessageId(), id -> new EnumMap<>(PhMessagePayloadType.class))
+          .put(
+              record.getPayloadType(),
+              PhMessagePayloadUtils.decompress(record.getCompressedData()));
+      getSession().evict(record);
+    }
+
+    return payloads;
+  }
+
+  /**
+   * Only the compressed payload is read into memory, it is inflated as the stream is read. The
+   * compressed_data column is not read as a stream, since the bytea value of a row is fetched at
+   * once by the database driver.
+   */
+  @Override
+  public InputStream openPayload(UUID messageId, PhMessagePayloadType type) throws IOException {
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessagePayload.class);
+    criteria.add(Restrictions.eq(MESSAGE_ID, messageId));
+    criteria.add(Restrictions.eq(PAYLOAD_TYPE, type));
+    criteria.setProjection(Projections.property("compressedData"));
+
+    byte[] compressed = (byte[]) criteria.uniqueResult();
+
+    return compressed != null
+        ? PhMessagePayloadUtils.decompress(new ByteArrayInputStream(compressed))
+        : null;
+  }
+
+  /** The payloads are deleted in the transaction that deletes the message. */
+  @Override
+  public void deletePayloads(UUID messageId) {
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessagePayload.class);
+    criteria.add(Restrictions.eq(MESSAGE_ID, messageId));
+
+    List<PublicHealthMessagePayload> records = criteria.list();
+    records.forEach(getSession()::delete);
+  }
+
+  @Override
+  public boolean isTransactional() {
+    return true;
+  }
+
+  private PublicHealthMessagePayload getByMessageId(UUID messageId, PhMessagePayloadType type) {
+
+    Criteria criteria = getSession().createCriteria(PublicHealthMessagePayload.class);
+    criteria.add(Restrictions.eq(MESSAGE_ID, messageId));
+    criteria.add(Restrictions.eq(PAYLOAD_TYPE, type));
+
+    return (PublicHealthMessagePayload) criteria.uniqueResult();
+  }
+}
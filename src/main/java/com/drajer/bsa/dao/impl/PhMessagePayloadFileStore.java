@@ -0,0 +1,138 @@
+package com.drajer.bsa.dao.impl;
+
+import com.drajer.bsa.dao.PhMessagePayloadStore;
+import com.drajer.bsa.model.PhMessagePayloadType;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ *
+ * <h1>PhMessagePayloadFileStore</h1>
+ *
+ * The class keeps the payloads of the PublicHealthMessages compressed in a directory, with one
+ * object per payload named {messageId}/{payloadType}.gz. The directory can be a local directory or
+ * a mounted object store bucket.
+ *
+ * @author nbashyam
+ */
+public class PhMessagePayloadFileStore implements PhMessagePayloadStore {
+
+  private static final Logger logger = LoggerFactory.getLogger(PhMessagePayloadFileStore.class);
+
+  private static final String EXTENSION = ".gz";
+
+  private final Path directory;
+
+  public PhMessagePayloadFileStore(Path directory) {
+    this.directory = directory;
+  }
+
+  @Override
+  public void savePayload(UUID messageId, PhMessagePayloadType type, String payload) {
+
+    Path path = getPath(messageId, type);
+
+    try {
+
+      if (payload == null) {
+        Files.deleteIfExists(path);
+        return;
+      }
+
+      // Write to a temporary file first, so that readers never see a partially written payload.
+      Files.createDirectories(path.getParent());
+      Path temp = Files.createTempFile(path.getParent(), type.name(), ".tmp");
+      Files.write(temp, PhMessagePayloadUtils.compress(payload));
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to save the payload " + path, e);
+    }
+  }
+
+  @Override
+  public String getPayload(UUID messageId, PhMessagePayloadType type) {
+
+    try (InputStream in = openPayload(messageId, type)) {
+      return in != null ? IOUtils.toString(in, PhMessagePayloadUtils.CHARSET) : null;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read the payload for message " + messageId, e);
+    }
+  }
+
+  @Override
+  public Map<UUID, Map<PhMessagePayloadType, String>> getPayloads(Collection<UUID> messageIds) {
+
+    Map<UUID, Map<PhMessagePayloadType, String>> payloads = new HashMap<>();
+
+    for (UUID messageId : messageIds) {
+
+      // Most messages have only some of the payloads, the missing ones are not looked up.
+      if (!Files.isDirectory(directory.resolve(messageId.toString()))) {
+        continue;
+      }
+
+      Map<PhMessagePayloadType, String> messagePayloads = new EnumMap<>(PhMessagePayloadType.class);
+      for (PhMessagePayloadType type : PhMessagePayloadType.values()) {
+        String payload = getPayload(messageId, type);
+        if (payload != null) {
+          messagePayloads.put(type, payload);
+        }
+      }
+      payloads.put(messageId, messagePayloads);
+    }
+
+    return payloads;
+  }
+
+  @Override
+  public InputStream openPayload(UUID messageId, PhMessagePayloadType type) throws IOException {
+
+    try {
+      return PhMessagePayloadUtils.decompress(Files.newInputStream(getPath(messageId, type)));
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void deletePayloads(UUID messageId) {
+
+    Path messageDirectory = directory.resolve(messageId.toString());
+
+    if (!Files.isDirectory(messageDirectory)) {
+      return;
+    }
+
+    try (Stream<Path> paths = Files.list(messageDirectory)) {
+
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        Files.deleteIfExists(path);
+      }
+      Files.deleteIfExists(messageDirectory);
+
+    } catch (IOException e) {
+      logger.error("Unable to delete the payloads of the message {}", messageId, e);
+    }
+  }
+
+  private Path getPath(UUID messageId, PhMessagePayloadType type) {
+    return directory.resolve(messageId.toString()).resolve(type.name() + EXTENSION);
+  }
+}
@@ -1,14 +1,18 @@
 package com.drajer.bsa.dao.impl;
 
 import com.drajer.bsa.dao.PublicHealthMessagesDao;
+import com.drajer.bsa.model.PhMessagePayloadType;
 import com.drajer.bsa.model.PublicHealthMessage;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
 import com.drajer.ecrapp.dao.AbstractDao;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.hibernate.Criteria;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -32,15 +36,19 @@ public class PublicHealthMessagesDaoImpl extends AbstractDao implements PublicHe
   public static final String RESPONSE_PROCESSING_INS = "responseProcessingInstruction";
   public static final String RESPONSE_PROCESSING_STATUS = "responseProcessingStatus";
 
+  @Autowired PhMessagePayloadUtils payloadUtils;
+
   @Override
   public PublicHealthMessage saveOrUpdate(PublicHealthMessage message) {
+    Map<PhMessagePayloadType, String> payloads = payloadUtils.detachPayloads(message);
     getSession().saveOrUpdate(message);
+    payloadUtils.savePayloads(message.getId(), payloads);
     return message;
   }
 
   @Override
   public PublicHealthMessage getById(UUID id) {
-    return getSession().get(PublicHealthMessage.class, id);
+    return withPayloads(getSession().get(PublicHealthMessage.class, id));
   }
 
   @Override
@@ -52,13 +60,13 @@ public class PublicHealthMessagesDaoImpl extends AbstractDao implements PublicHe
     criteria.add(Restrictions.eq(PATIENT_ID, message.getPatientId()));
     criteria.add(Restrictions.eq(KAR_UNIQUE_ID, message.getKarUniqueId()));
 
-    criteria.addOrder(Order.desc(SUBMITTED_VERSION_NUMBER));
-    criteria.setMaxResults(1);
+    // Only the version is read, so the lookup index is used without reading the messages.
+    criteria.setProjection(Projections.max(SUBMITTED_VERSION_NUMBER));
 
-    PublicHealthMessage result = (PublicHealthMessage) criteria.uniqueResult();
+    Integer result = (Integer) criteria.uniqueResult();
 
     if (result != null) {
-      return result.getSubmittedVersionNumber();
+      return result;
     }
     return 0;
   }
@@ -67,40 +75,41 @@ public class PublicHealthMessagesDaoImpl extends AbstractDao implements PublicHe
   public PublicHealthMessage getByCorrelationId(String coorelId) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     criteria.add(Restrictions.eq(X_CORRELATION_ID, coorelId));
-    return (PublicHealthMessage) criteria.uniqueResult();
+    return withPayloads((PublicHealthMessage) criteria.uniqueResult());
   }
 
   @Override
   public List<PublicHealthMessage> getPublicHealthMessage(Map<String, String> searchParams) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     prepareCriteria(criteria, searchParams);
-    return criteria.addOrder(Order.desc(SUBMITTED_VERSION_NUMBER)).list();
+    return withPayloads(criteria.addOrder(Order.desc(SUBMITTED_VERSION_NUMBER)).list());
   }
 
   @Override
   public List<PublicHealthMessage> getByXRequestId(String xRequestId) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     criteria.add(Restrictions.eq(X_REQUEST_ID, xRequestId));
-    return criteria.addOrder(Order.desc("id")).list();
+    return withPayloads(criteria.addOrder(Order.desc("id")).list());
   }
 
   @Override
   public PublicHealthMessage getBySubmittedMessageId(String messageId) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     criteria.add(Restrictions.eq(SUBMITTED_MESSAGE_ID, messageId));
-    return (PublicHealthMessage) criteria.uniqueResult();
+    return withPayloads((PublicHealthMessage) criteria.uniqueResult());
   }
 
   @Override
   public PublicHealthMessage getByResponseMessageId(String id) {
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     criteria.add(Restrictions.eq(RESPONSE_MESSAGE_ID, id));
-    return (PublicHealthMessage) criteria.uniqueResult();
+    return withPayloads((PublicHealthMessage) criteria.uniqueResult());
   }
 
   @Override
   public void delete(PublicHealthMessage message) {
     getSession().delete(message);
+    payloadUtils.deletePayloads(message.getId());
   }
 
   @Override
@@ -109,7 +118,19 @@ public class PublicHealthMessagesDaoImpl extends AbstractDao implements PublicHe
     Criteria criteria = getSession().createCriteria(PublicHealthMessage.class);
     criteria.add(Restrictions.eq(SUBMITTED_DATA_ID, subId));
 
-    return (PublicHealthMessage) criteria.uniqueResult();
+    return withPayloads((PublicHealthMessage) criteria.uniqueResult());
+  }
+
+  /** The payloads kept in the payload store are read along with the message. */
+  private PublicHealthMessage withPayloads(PublicHealthMessage message) {
+    payloadUtils.loadPayloads(message);
+    return message;
+  }
+
+  /** The payloads of all the messages are read from the payload store at once. */
+  private List<PublicHealthMessage> withPayloads(List<PublicHealthMessage> messages) {
+    payloadUtils.loadPayloads(messages);
+    return messages;
   }
 
   public static void prepareCriteria(Criteria criteria, Map<String, String> searchParams) {
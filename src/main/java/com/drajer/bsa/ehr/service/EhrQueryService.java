@@ -55,6 +55,17 @@ public interface EhrQueryService {
 
   Resource getResourceById(KarProcessingData data, String resourceName, String id);
 
+  /**
+   * The method is used to revalidate a resource that was retrieved earlier from the Ehr.
+   *
+   * @param data The processing context which contains information such as patient, encounter,
+   *     previous data etc.
+   * @param cached The resource retrieved earlier.
+   * @return The cached resource if it has not been modified on the Ehr, the current version of the
+   *     resource if it has been modified, null if the resource could not be retrieved.
+   */
+  Resource getResourceIfModified(KarProcessingData data, Resource cached);
+
   Resource getResourceByUrl(KarProcessingData data, String resourceName, String id);
 
   DocumentReference constructR4DocumentReference(
@@ -72,6 +83,15 @@ public interface EhrQueryService {
 
   public void executeQuery(KarProcessingData kd, String dataReqId, FhirQueryFilter query);
 
+  /**
+   * The method is used to execute the queries for a set of data requirements.
+   *
+   * @param kd The processing context which contains information such as patient, encounter,
+   *     previous data etc.
+   * @param queries The queries to be executed keyed by the data requirement id.
+   */
+  public void executeQueries(KarProcessingData kd, Map<String, FhirQueryFilter> queries);
+
   public FhirContext getContext();
 
   public String substituteContextParams(
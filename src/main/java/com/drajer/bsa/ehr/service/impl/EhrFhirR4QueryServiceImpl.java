@@ -4,13 +4,17 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 import com.drajer.bsa.auth.AuthorizationUtils;
+import com.drajer.bsa.auth.EhrAccessTokenManager;
 import com.drajer.bsa.dao.HealthcareSettingsDao;
 import com.drajer.bsa.ehr.service.EhrQueryService;
+import com.drajer.bsa.ehr.service.impl.IncrementalQueryManager.IncrementalQuery;
 import com.drajer.bsa.kar.model.FhirQueryFilter;
 import com.drajer.bsa.model.HealthcareSetting;
 import com.drajer.bsa.model.KarProcessingData;
+import com.drajer.bsa.model.SharedQueryResults;
 import com.drajer.bsa.utils.BsaServiceUtils;
 import com.drajer.sof.utils.FhirContextInitializer;
+import com.drajer.sof.utils.R4BundlePager;
 import com.drajer.sof.utils.ResourceUtils;
 import com.microsoft.sqlserver.jdbc.StringUtils;
 import java.io.File;
@@ -22,10 +26,14 @@ import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import org.apache.commons.io.FileUtils;
@@ -34,7 +42,6 @@ import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.apache.commons.lang3.time.DateUtils;
 import org.apache.commons.text.StringEscapeUtils;
-import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.r4.model.Attachment;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
@@ -52,6 +59,7 @@ import org.hl7.fhir.r4.model.Enumerations;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.Immunization.ImmunizationPerformerComponent;
 import org.hl7.fhir.r4.model.Immunization.ImmunizationStatus;
+import org.hl7.fhir.r4.model.InstantType;
 import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.Medication;
 import org.hl7.fhir.r4.model.MedicationAdministration;
@@ -124,6 +132,9 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
       "\\{\\{context.lastReportSubmissionDate\\}\\}";
   private static final String ENCOUNTER_CLASS_CONTEXT_PARAM = "\\{\\{context.encounterClass\\}\\}";
   private static final String SEARCH_QUERY_CHARACTERS = "?";
+  private static final String SHARED_SEARCH_KEY = "search:";
+  private static final String SHARED_READ_KEY = "read:";
+  private static final String SHARED_ID_KEY = "id:";
 
   private static final String CONDITION_CLINICAL_STATUS_SYSTEM_URL =
       "http://terminology.hl7.org/CodeSystem/condition-clinical";
@@ -151,9 +162,18 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
   /** The HealthcareSettings Dao to save Healthcare Setting state as needed */
   @Autowired HealthcareSettingsDao hsDao;
 
+  /** The manager of the access tokens shared across the jobs executing for an EHR */
+  @Autowired EhrAccessTokenManager tokenManager;
+
   /** The FHIR Context Initializer necessary to retrieve FHIR resources */
   @Autowired FhirContextInitializer fhirContextInitializer;
 
+  /** The executor used to run independent EHR queries concurrently */
+  @Autowired EhrQueryExecutor queryExecutor;
+
+  /** The manager used to execute search queries incrementally for scheduled jobs */
+  @Autowired IncrementalQueryManager incrementalQueries;
+
   /**
    * The attribute contains the directory of custom query files. Each Kar will have its own file
    * with custom queries.
@@ -161,6 +181,16 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
   @Value("${custom-query.directory}")
   String customQueryDirectory;
 
+  /**
+   * When enabled, the secondary resources referenced by a search result are resolved using _id
+   * searches of upto secondaryBatchSize ids instead of one read per reference.
+   */
+  @Value("${ehr.query.secondary.batch.enabled:false}")
+  boolean secondaryBatchEnabled;
+
+  @Value("${ehr.query.secondary.batch.size:50}")
+  int secondaryBatchSize;
+
   /**
    * The method is used to load the customized queries from the config file to be used instead of
    * default queries from the PlanDefinition.
@@ -254,7 +284,7 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     // Get Patient by Id always
     Resource res =
         getResourceById(
-            client, context, PATIENT_RESOURCE, kd.getNotificationContext().getPatientId());
+            kd, client, context, PATIENT_RESOURCE, kd.getNotificationContext().getPatientId());
 
     if (res != null && res.getResourceType() != ResourceType.OperationOutcome) {
 
@@ -282,6 +312,7 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
       Resource enc =
           getResourceById(
+              kd,
               client,
               context,
               ResourceType.Encounter.toString(),
@@ -302,6 +333,8 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     }
 
     // Fetch Resources by Patient Id.
+    Map<String, Callable<Bundle>> searches = new LinkedHashMap<>();
+
     for (Map.Entry<String, ResourceType> entry : resTypes.entrySet()) {
 
       logger.info(" Fetching Resource of type {}", entry.getValue());
@@ -316,17 +349,22 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
         logger.info(" Resource Query Url : {}", url);
 
-        getResourcesByPatientId(
-            client,
-            context,
-            entry.getValue().toString(),
-            url,
-            kd,
-            entry.getValue(),
-            entry.getKey());
+        IGenericClient queryClient = getQueryClient(kd, context, client);
+        searches.put(
+            entry.getKey(),
+            () -> searchAllPages(kd, queryClient, context, entry.getValue().toString(), url));
       }
     }
 
+    // Merge the results on this thread in the order of the resource types.
+    Map<String, Bundle> bundles =
+        queryExecutor.executeAll(kd.getHealthcareSetting().getFhirServerBaseURL(), searches);
+
+    for (Map.Entry<String, Bundle> entry : bundles.entrySet()) {
+      ResourceType resType = resTypes.get(entry.getKey());
+      addResourcesByPatientId(entry.getValue(), resType.toString(), kd, resType, entry.getKey());
+    }
+
     // Get other resources for Patient
     return kd.getFhirInputDataByType();
   }
@@ -350,7 +388,7 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     // Get Patient by Id always
     Resource res =
         getResourceById(
-            client, context, PATIENT_RESOURCE, kd.getNotificationContext().getPatientId());
+            kd, client, context, PATIENT_RESOURCE, kd.getNotificationContext().getPatientId());
     if (res != null) {
 
       logger.info(
@@ -363,7 +401,30 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
       kd.addResourcesByType(resMap);
     }
 
-    // Fetch Resources by Patient Id.
+    // Fetch the resource types that are not available yet, once per type.
+    Map<String, Callable<Set<Resource>>> searches = new LinkedHashMap<>();
+
+    for (DataRequirement entry : dRequirements) {
+      ResourceType type = ResourceType.valueOf(entry.getType());
+      Set<Resource> outputResources = kd.getOutputDataById(entry.getId());
+      Set<Resource> resources = kd.getResourcesByType(type.toString());
+
+      if ((outputResources == null || outputResources.isEmpty())
+          && type != ResourceType.Patient
+          && type != ResourceType.Encounter
+          && (resources == null || resources.isEmpty())
+          && !searches.containsKey(type.toString())) {
+        String url = getPatientSearchUrl(kd, type);
+        IGenericClient queryClient = getQueryClient(kd, context, client);
+        searches.put(
+            type.toString(), () -> fetchResources(kd, queryClient, context, type.toString(), url));
+      }
+    }
+
+    Map<String, Set<Resource>> fetched =
+        queryExecutor.executeAll(kd.getHealthcareSetting().getFhirServerBaseURL(), searches);
+
+    // Filter the Resources by Patient Id.
     for (DataRequirement entry : dRequirements) {
       String id = entry.getId();
       ResourceType type = ResourceType.valueOf(entry.getType());
@@ -375,19 +436,13 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
         addFilteredResources(kd, entry, id, type, outputResources);
       } else {
         if (type != ResourceType.Patient && type != ResourceType.Encounter) {
-          String url =
-              kd.getNotificationContext().getFhirServerBaseUrl()
-                  + "/"
-                  + type
-                  + PATIENT_ID_SEARCH_PARAM
-                  + kd.getNotificationContext().getPatientId();
 
-          logger.info(" Resource Query Url : {}", url);
+          logger.info(" Resource Query Url : {}", getPatientSearchUrl(kd, type));
 
           // get the resources
           Set<Resource> resources = kd.getResourcesByType(type.toString());
-          if (resources == null || resources.isEmpty()) {
-            resources = fetchResources(client, context, url);
+          if ((resources == null || resources.isEmpty()) && fetched.get(type.toString()) != null) {
+            resources = fetched.get(type.toString());
           }
           addFilteredResources(kd, entry, id, type, resources);
         } else {
@@ -400,6 +455,15 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     return kd.getFhirInputDataByType();
   }
 
+  private String getPatientSearchUrl(KarProcessingData kd, ResourceType type) {
+
+    return kd.getNotificationContext().getFhirServerBaseUrl()
+        + "/"
+        + type
+        + PATIENT_ID_SEARCH_PARAM
+        + kd.getNotificationContext().getPatientId();
+  }
+
   private void addFilteredResources(
       KarProcessingData kd,
       DataRequirement entry,
@@ -423,7 +487,13 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
     String accessToken = null;
 
-    if (kd.hasValidAccessToken()) {
+    if (tokenManager.isEnabled()) {
+
+      // The token is shared by the jobs executing for the EHR and refreshed by one of them.
+      tokenManager.applyAccessToken(kd.getHealthcareSetting());
+      accessToken = kd.getAccessToken();
+
+    } else if (kd.hasValidAccessToken()) {
 
       accessToken = kd.getAccessToken();
       logger.debug(
@@ -449,6 +519,62 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
         kd.getNotificationContext().getEhrLaunchContext());
   }
 
+  /**
+   * The method returns the client to be used by queries submitted to the EHR query executor. The
+   * FHIR client tracks the X-Request-ID of each request and cannot be shared across threads, so
+   * when queries run in parallel a new client is created using the access token that was already
+   * retrieved by getClient for this execution.
+   *
+   * @param kd The data object for getting the healthcareSetting and notification context from
+   * @param context The HAPI FHIR context for making a FHIR client with
+   * @param client The client created by getClient for this execution
+   * @return
+   */
+  private IGenericClient getQueryClient(
+      KarProcessingData kd, FhirContext context, IGenericClient client) {
+
+    if (!queryExecutor.isParallelEnabled()) return client;
+
+    return fhirContextInitializer.createClient(
+        context,
+        kd.getHealthcareSetting().getFhirServerBaseURL(),
+        kd.getAccessToken(),
+        kd.getNotificationContext().getxRequestId(),
+        kd.getNotificationContext().getEhrLaunchContext());
+  }
+
+  /**
+   * The method returns the client used to prefetch the pages of a search result. The prefetched
+   * pages are retrieved on another thread while the client of the execution is used to process the
+   * current page, so a client of its own is created for each search using the access token that was
+   * already retrieved by getClient for this execution.
+   *
+   * @param kd The data object for getting the healthcareSetting and notification context from
+   * @param context The HAPI FHIR context for making a FHIR client with
+   * @return The client for the pages, null when the pages are not prefetched
+   */
+  private IGenericClient getPageClient(KarProcessingData kd, FhirContext context) {
+
+    if (queryExecutor.getPrefetchExecutor() == null) return null;
+
+    return fhirContextInitializer.createClient(
+        context,
+        kd.getHealthcareSetting().getFhirServerBaseURL(),
+        kd.getAccessToken(),
+        kd.getNotificationContext().getxRequestId(),
+        kd.getNotificationContext().getEhrLaunchContext());
+  }
+
+  private R4BundlePager createPager(
+      IGenericClient genericClient, IGenericClient pageClient, Bundle firstPage) {
+
+    if (pageClient == null || queryExecutor.getPrefetchExecutor() == null) {
+      return new R4BundlePager(genericClient, firstPage, null);
+    }
+
+    return new R4BundlePager(pageClient, firstPage, queryExecutor.getPrefetchExecutor());
+  }
+
   private void retrieveAndUpdateAccessToken(KarProcessingData data) {
 
     logger.info(" Retrieving New Access Token since the old one is not valid anymore ");
@@ -470,7 +596,7 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
     data.getHealthcareSetting().setEhrAccessTokenExpirationTime(Date.from(expirationInstantTime));
 
-    hsDao.saveOrUpdate(data.getHealthcareSetting());
+    hsDao.updateAccessToken(data.getHealthcareSetting());
   }
 
   /**
@@ -653,6 +779,21 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
       String url,
       KarProcessingData data) {
 
+    Resource resource = readResourceByUrl(data, genericClient, context, resourceName, url);
+
+    if (resource != null
+        && resource.getResourceType() != ResourceType.OperationOutcome
+        && isValidResource(resource)) {
+      populateSecondaryResources(
+          genericClient, context, resource, data, resource.getResourceType());
+    }
+
+    return resource;
+  }
+
+  private Resource readResourceByUrl(
+      IGenericClient genericClient, FhirContext context, String resourceName, String url) {
+
     Resource resource = null;
 
     try {
@@ -661,13 +802,6 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
       resource = (Resource) (genericClient.read().resource(resourceName).withUrl(url).execute());
 
-      if (resource != null
-          && resource.getResourceType() != ResourceType.OperationOutcome
-          && isValidResource(resource)) {
-        populateSecondaryResources(
-            genericClient, context, resource, data, resource.getResourceType());
-      }
-
     } catch (BaseServerResponseException responseException) {
       if (responseException.getOperationOutcome() != null) {
         logger.debug(
@@ -682,16 +816,32 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     return resource;
   }
 
+  /**
+   * The method executes the search and returns the resources of all the pages. The resources are
+   * collected as each page is retrieved, but the complete result is held, since each of the data
+   * requirements for the resource type is filtered from it.
+   *
+   * @param genericClient The client to be used for the search
+   * @param pageClient The client used to prefetch the subsequent pages on the prefetch executor,
+   *     null to retrieve them with the genericClient without prefetching
+   * @param context The HAPI FHIR context
+   * @param searchUrl The search url
+   * @return The resources of the search result
+   */
   public Set<Resource> fetchResources(
-      IGenericClient genericClient, FhirContext context, String searchUrl) {
+      IGenericClient genericClient,
+      IGenericClient pageClient,
+      FhirContext context,
+      String searchUrl) {
     logger.info("FhirContext: {}", context);
     Set<Resource> resources = new HashSet<>();
     try {
       Bundle bundle = genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute();
-      getAllR4RecordsUsingPagination(genericClient, bundle);
-      List<BundleEntryComponent> bc = bundle.getEntry();
-      for (BundleEntryComponent comp : bc) {
-        resources.add(comp.getResource());
+      R4BundlePager pager = createPager(genericClient, pageClient, bundle);
+      while (pager.hasNext()) {
+        for (BundleEntryComponent comp : pager.next().getEntry()) {
+          resources.add(comp.getResource());
+        }
       }
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
@@ -747,6 +897,97 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     return resource;
   }
 
+  /**
+   * The method revalidates a resource retrieved earlier. When the resource has a version id, a
+   * conditional read (If-None-Match) is used and the EHR returns the resource only if it has been
+   * modified. When the resource only has a last updated time, a search with _lastUpdated is used
+   * instead. Otherwise the resource is read again.
+   */
+  @Override
+  public Resource getResourceIfModified(KarProcessingData kd, Resource cached) {
+
+    logger.info(LOG_FHIR_CTX_GET);
+    FhirContext context = fhirContextInitializer.getFhirContext(R4);
+
+    logger.info(LOG_INIT_FHIR_CLIENT);
+    IGenericClient client = getClient(kd, context);
+
+    String resourceName = cached.getResourceType().toString();
+    String resourceId = cached.getIdElement().getIdPart();
+
+    if (cached.getMeta().hasVersionId()) {
+
+      try {
+
+        logger.info(
+            "Revalidating Resource : {} with Id : {} and version : {}",
+            resourceName,
+            resourceId,
+            cached.getMeta().getVersionId());
+
+        Resource resource =
+            (Resource)
+                (client
+                    .read()
+                    .resource(resourceName)
+                    .withId(resourceId)
+                    .ifVersionMatches(cached.getMeta().getVersionId())
+                    .returnResource(cached)
+                    .execute());
+
+        if (resource == cached) {
+          logger.info("Resource : {} with Id : {} is not modified", resourceName, resourceId);
+          return cached;
+        }
+
+        return Boolean.TRUE.equals(isValidResource(resource)) ? resource : null;
+
+      } catch (Exception e) {
+        logger.error(
+            "Error in revalidating {} resource by Id: {}",
+            resourceName,
+            StringEscapeUtils.escapeJava(resourceId),
+            e);
+        return null;
+      }
+
+    } else if (cached.getMeta().hasLastUpdated()) {
+
+      InstantType lastUpdated = cached.getMeta().getLastUpdatedElement().copy();
+      lastUpdated.setTimeZoneZulu(true);
+
+      String searchUrl =
+          kd.getNotificationContext().getFhirServerBaseUrl()
+              + "/"
+              + resourceName
+              + "?_id="
+              + resourceId
+              + "&_lastUpdated=gt"
+              + lastUpdated.getValueAsString();
+
+      Bundle bundle = searchAllPages(client, context, resourceName, searchUrl);
+
+      if (bundle != null) {
+
+        if (bundle.getEntry().isEmpty()) {
+          logger.info("Resource : {} with Id : {} is not modified", resourceName, resourceId);
+          return cached;
+        }
+
+        for (BundleEntryComponent comp : bundle.getEntry()) {
+          Resource res = comp.getResource();
+          if (res != null
+              && res.getResourceType() == cached.getResourceType()
+              && Boolean.TRUE.equals(isValidResource(res))) {
+            return res;
+          }
+        }
+      }
+    }
+
+    return getResourceById(client, context, resourceName, resourceId);
+  }
+
   public void getResourcesByPatientId(
       IGenericClient genericClient,
       FhirContext context,
@@ -756,57 +997,216 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
       ResourceType resType,
       String id) {
 
-    logger.info("Invoking search url : {}", searchUrl);
-    Set<Resource> resources = null;
-    Map<ResourceType, Set<Resource>> resMap = null;
-    HashMap<String, Set<Resource>> resMapById = null;
+    logger.info(
+        "Getting {} data using Patient Id: {}",
+        resourceName,
+        kd.getNotificationContext().getPatientId());
+
+    searchByPage(
+        kd,
+        genericClient,
+        context,
+        resourceName,
+        searchUrl,
+        page -> addResourcesByPatientId(page, resourceName, kd, resType, id));
+  }
+
+  /**
+   * The method executes the search and retrieves all the pages of the result. When the results of
+   * the queries are shared by the KARs applied to the notification, the result of the same search
+   * executed for another KAR is reused.
+   */
+  private Bundle searchAllPages(
+      KarProcessingData kd,
+      IGenericClient genericClient,
+      FhirContext context,
+      String resourceName,
+      String searchUrl) {
+
+    SharedQueryResults shared = kd.getSharedQueryResults();
+
+    if (shared == null) return searchAllPages(genericClient, context, resourceName, searchUrl);
 
     try {
-      logger.info(
-          "Getting {} data using Patient Id: {}",
+      return shared.get(
+          SHARED_SEARCH_KEY + searchUrl,
+          () -> {
+            logger.info("Invoking search url : {}", searchUrl);
+            Bundle bundle =
+                genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute();
+
+            // A page which cannot be retrieved fails the search, so that a partial result is not
+            // shared.
+            R4BundlePager pager = new R4BundlePager(genericClient, bundle, null);
+
+            if (pager.hasNext()) pager.next();
+
+            while (pager.hasNext()) {
+              bundle.getEntry().addAll(pager.next().getEntry());
+            }
+
+            return bundle;
+          });
+    } catch (RuntimeException e) {
+      logSharedQueryError(context, resourceName, searchUrl, e);
+      return null;
+    }
+  }
+
+  /**
+   * The method hands the pages of the search result to the consumer. When the results of the
+   * queries are shared, the complete result is retrieved and handed to the consumer as one page.
+   */
+  private void searchByPage(
+      KarProcessingData kd,
+      IGenericClient genericClient,
+      FhirContext context,
+      String resourceName,
+      String searchUrl,
+      Consumer<Bundle> pageConsumer) {
+
+    if (kd.getSharedQueryResults() == null) {
+      searchByPage(
+          genericClient,
+          getPageClient(kd, context),
+          context,
           resourceName,
-          kd.getNotificationContext().getPatientId());
+          searchUrl,
+          pageConsumer);
+    } else {
+      Bundle bundle = searchAllPages(kd, genericClient, context, resourceName, searchUrl);
 
-      Bundle bundle = genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute();
+      if (bundle != null) pageConsumer.accept(bundle);
+    }
+  }
 
-      getAllR4RecordsUsingPagination(genericClient, bundle);
+  private Set<Resource> fetchResources(
+      KarProcessingData kd,
+      IGenericClient genericClient,
+      FhirContext context,
+      String resourceName,
+      String searchUrl) {
 
-      if (bundle != null && bundle.hasEntry()) {
-        logger.info(
-            "Total No of Entries {} retrieved : {}", resourceName, bundle.getEntry().size());
+    if (kd.getSharedQueryResults() == null) {
+      return fetchResources(genericClient, getPageClient(kd, context), context, searchUrl);
+    }
 
-        List<BundleEntryComponent> bc = bundle.getEntry();
+    Set<Resource> resources = new HashSet<>();
+    Bundle bundle = searchAllPages(kd, genericClient, context, resourceName, searchUrl);
 
-        if (bc != null) {
+    if (bundle != null) {
+      bundle.getEntry().forEach(comp -> resources.add(comp.getResource()));
+    }
 
-          resources = new HashSet<>();
-          resMap = new EnumMap<>(ResourceType.class);
-          resMapById = new HashMap<>();
-          for (BundleEntryComponent comp : bc) {
+    return resources;
+  }
 
-            if (comp.getResource().getResourceType() != ResourceType.OperationOutcome) {
-              logger.debug(" Adding Resource Id : {}", comp.getResource().getId());
-              resources.add(comp.getResource());
-            } else {
-              logger.error("Found Operation Outcomes which are not expected ");
-            }
-          }
+  private Resource readResourceByUrl(
+      KarProcessingData kd,
+      IGenericClient genericClient,
+      FhirContext context,
+      String resourceName,
+      String url) {
 
-          Set<Resource> uniqueResources =
-              ResourceUtils.deduplicate(resources).stream().collect(Collectors.toSet());
-          resMap.put(resType, uniqueResources);
-          resMapById.put(id, uniqueResources);
-          kd.addResourcesByType(resMap);
-          kd.addResourcesById(resMapById);
+    SharedQueryResults shared = kd.getSharedQueryResults();
 
-          logger.info(" Adding {} resources of type : {}", uniqueResources.size(), resType);
-        } else {
-          logger.error(" No entries found for type : {}", resType);
-        }
-      } else {
-        logger.error(" Unable to retrieve resources for type : {}", resType);
+    if (shared == null) return readResourceByUrl(genericClient, context, resourceName, url);
+
+    try {
+      return shared.get(
+          SHARED_READ_KEY + url,
+          () -> {
+            logger.info("Getting data for Resource : {} with Url : {}", resourceName, url);
+            return (Resource) genericClient.read().resource(resourceName).withUrl(url).execute();
+          });
+    } catch (RuntimeException e) {
+      logSharedQueryError(context, resourceName, url, e);
+      return null;
+    }
+  }
+
+  private Resource getResourceById(
+      KarProcessingData kd,
+      IGenericClient genericClient,
+      FhirContext context,
+      String resourceName,
+      String resourceId) {
+
+    SharedQueryResults shared = kd.getSharedQueryResults();
+
+    if (shared == null) return getResourceById(genericClient, context, resourceName, resourceId);
+
+    try {
+      return shared.get(
+          SHARED_ID_KEY + resourceName + "/" + resourceId,
+          () -> {
+            logger.info("Getting data for Resource : {} with Id : {}", resourceName, resourceId);
+            Resource resource =
+                (Resource) genericClient.read().resource(resourceName).withId(resourceId).execute();
+            return isValidResource(resource) ? resource : null;
+          });
+    } catch (RuntimeException e) {
+      logSharedQueryError(context, resourceName, resourceName + "/" + resourceId, e);
+      return null;
+    }
+  }
+
+  /** The method logs a query whose result could not be shared across the KARs. */
+  private void logSharedQueryError(
+      FhirContext context, String resourceName, String query, RuntimeException e) {
+
+    if (e instanceof BaseServerResponseException
+        && ((BaseServerResponseException) e).getOperationOutcome() != null) {
+      logger.debug(
+          context
+              .newJsonParser()
+              .encodeResourceToString(((BaseServerResponseException) e).getOperationOutcome()));
+    }
+
+    logger.error(
+        "Error in getting {} resource using query {}",
+        resourceName,
+        StringEscapeUtils.escapeJava(query),
+        e);
+  }
+
+  /**
+   * The method executes the search and hands each page of the result to the consumer as soon as it
+   * is retrieved, so that only the page being processed and the prefetched next page are held in
+   * memory.
+   *
+   * @param genericClient The client to be used for the search
+   * @param pageClient The client used to prefetch the subsequent pages on the prefetch executor,
+   *     null to retrieve them with the genericClient without prefetching
+   * @param context The HAPI FHIR context
+   * @param resourceName The resource type being searched
+   * @param searchUrl The search url
+   * @param pageConsumer The consumer processing each page
+   */
+  public void searchByPage(
+      IGenericClient genericClient,
+      IGenericClient pageClient,
+      FhirContext context,
+      String resourceName,
+      String searchUrl,
+      Consumer<Bundle> pageConsumer) {
+
+    logger.info("Invoking search url : {}", searchUrl);
+
+    try {
+
+      R4BundlePager pager =
+          createPager(
+              genericClient,
+              pageClient,
+              genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute());
+
+      while (pager.hasNext()) {
+        pageConsumer.accept(pager.next());
       }
 
+      logger.info("Processed {} pages for search url : {}", pager.getPageCount(), searchUrl);
+
     } catch (BaseServerResponseException responseException) {
       if (responseException.getOperationOutcome() != null) {
         logger.debug(
@@ -815,31 +1215,104 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
                 .encodeResourceToString(responseException.getOperationOutcome()));
       }
       logger.info(
-          "Error in getting {} resource by Patient Id: {}",
+          "Error in getting {} resource using search query {}",
           resourceName,
-          kd.getNotificationContext().getPatientId(),
+          searchUrl,
           responseException);
     } catch (Exception e) {
+      logger.info("Error in getting {} resource using search query {}", resourceName, searchUrl, e);
+    }
+  }
+
+  /**
+   * The method executes the search and retrieves all the pages of the result into the first Bundle.
+   * It does not modify the KarProcessingData, so that it can be executed on the EHR query executor,
+   * where the results have to be held until they are merged on the calling thread.
+   *
+   * @param genericClient The client to be used for the search
+   * @param context The HAPI FHIR context
+   * @param resourceName The resource type being searched
+   * @param searchUrl The search url
+   * @return The Bundle with the entries of all the pages, null if the search fails.
+   */
+  public Bundle searchAllPages(
+      IGenericClient genericClient, FhirContext context, String resourceName, String searchUrl) {
+
+    logger.info("Invoking search url : {}", searchUrl);
+    Bundle bundle = null;
+
+    try {
+
+      bundle = genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute();
+
+      // Entries are appended as each page is retrieved, so a failure keeps the earlier pages.
+      R4BundlePager pager = new R4BundlePager(genericClient, bundle, null);
+
+      if (pager.hasNext()) pager.next();
+
+      while (pager.hasNext()) {
+        bundle.getEntry().addAll(pager.next().getEntry());
+      }
+
+    } catch (BaseServerResponseException responseException) {
+      if (responseException.getOperationOutcome() != null) {
+        logger.debug(
+            context
+                .newJsonParser()
+                .encodeResourceToString(responseException.getOperationOutcome()));
+      }
       logger.info(
-          "Error in getting {} resource by Patient Id: {}",
+          "Error in getting {} resource using search query {}",
           resourceName,
-          kd.getNotificationContext().getPatientId(),
-          e);
+          searchUrl,
+          responseException);
+    } catch (Exception e) {
+      logger.info("Error in getting {} resource using search query {}", resourceName, searchUrl, e);
     }
+
+    return bundle;
   }
 
-  private void getAllR4RecordsUsingPagination(IGenericClient genericClient, Bundle bundle) {
+  private void addResourcesByPatientId(
+      Bundle bundle, String resourceName, KarProcessingData kd, ResourceType resType, String id) {
 
-    if (bundle.hasEntry()) {
-      List<BundleEntryComponent> entriesList = bundle.getEntry();
-      if (bundle.hasLink() && bundle.getLink(IBaseBundle.LINK_NEXT) != null) {
-        logger.info(
-            "Found Next Page in Bundle :{}", bundle.getLink(IBaseBundle.LINK_NEXT).getUrl());
-        Bundle nextPageBundleResults = genericClient.loadPage().next(bundle).execute();
-        entriesList.addAll(nextPageBundleResults.getEntry());
-        nextPageBundleResults.setEntry(entriesList);
-        getAllR4RecordsUsingPagination(genericClient, nextPageBundleResults);
+    Set<Resource> resources = null;
+    Map<ResourceType, Set<Resource>> resMap = null;
+    HashMap<String, Set<Resource>> resMapById = null;
+
+    if (bundle != null && bundle.hasEntry()) {
+      logger.info("Total No of Entries {} retrieved : {}", resourceName, bundle.getEntry().size());
+
+      List<BundleEntryComponent> bc = bundle.getEntry();
+
+      if (bc != null) {
+
+        resources = new HashSet<>();
+        resMap = new EnumMap<>(ResourceType.class);
+        resMapById = new HashMap<>();
+        for (BundleEntryComponent comp : bc) {
+
+          if (comp.getResource().getResourceType() != ResourceType.OperationOutcome) {
+            logger.debug(" Adding Resource Id : {}", comp.getResource().getId());
+            resources.add(comp.getResource());
+          } else {
+            logger.error("Found Operation Outcomes which are not expected ");
+          }
+        }
+
+        Set<Resource> uniqueResources =
+            ResourceUtils.deduplicate(resources).stream().collect(Collectors.toSet());
+        resMap.put(resType, uniqueResources);
+        resMapById.put(id, uniqueResources);
+        kd.addResourcesByType(resMap);
+        kd.addResourcesById(resMapById);
+
+        logger.info(" Adding {} resources of type : {}", uniqueResources.size(), resType);
+      } else {
+        logger.error(" No entries found for type : {}", resType);
       }
+    } else {
+      logger.error(" Unable to retrieve resources for type : {}", resType);
     }
   }
 
@@ -957,7 +1430,12 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
               " Run Search FHIR Query for resource {} with query {}",
               query.getResourceType(),
               finalSearchQuery);
-          executeSearchQuery(data, dataReqId, query, finalSearchQuery);
+
+          if (incrementalQueries.isEnabled(data)) {
+            executeIncrementalSearchQuery(data, dataReqId, query, finalSearchQuery);
+          } else {
+            executeSearchQuery(data, dataReqId, query, finalSearchQuery);
+          }
 
         } else {
 
@@ -978,6 +1456,116 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     }
   }
 
+  /**
+   * The method executes the queries for the data requirements. When the EHR query executor runs
+   * queries in parallel, the queries are prepared and merged into the KarProcessingData on this
+   * thread and only the EHR requests are executed concurrently.
+   *
+   * @param data The KarProcessingData for the execution
+   * @param queries The queries to be executed keyed by the data requirement id
+   */
+  @Override
+  public void executeQueries(KarProcessingData data, Map<String, FhirQueryFilter> queries) {
+
+    if (!queryExecutor.isParallelEnabled()) {
+      queries.forEach((key, value) -> executeQuery(data, key, value));
+      return;
+    }
+
+    logger.info(LOG_FHIR_CTX_GET);
+    FhirContext context = fhirContextInitializer.getFhirContext(R4);
+
+    logger.info(LOG_INIT_FHIR_CLIENT);
+    IGenericClient client = getClient(data, context);
+
+    Map<String, Callable<Object>> requests = new LinkedHashMap<>();
+    Map<String, String> searchQueries = new HashMap<>();
+    Map<String, IncrementalQuery> incrementalSearches = new HashMap<>();
+
+    for (Map.Entry<String, FhirQueryFilter> entry : queries.entrySet()) {
+
+      String dataReqId = entry.getKey();
+      FhirQueryFilter query = entry.getValue();
+
+      if (data.isDataAlreadyFetched(dataReqId, query.getRelatedDataId())) {
+        logger.info(
+            " Not retrieving the data since it is already fetched for dataReqId: {}", dataReqId);
+        continue;
+      }
+
+      String queryToExecute = getQuery(data, dataReqId, query);
+
+      if (StringUtils.isEmpty(queryToExecute)) {
+        logger.info(
+            " Not executing Query for dataReqId : {} as it is not available in the EHR per the custom query definition",
+            dataReqId);
+        continue;
+      }
+
+      String substitutedQuery = substituteContextParams(data, queryToExecute, false);
+      IGenericClient queryClient = getQueryClient(data, context, client);
+      String resourceName = query.getResourceType().toString();
+
+      if (Boolean.TRUE.equals(isSearchQuery(substitutedQuery))) {
+
+        String finalSearchQuery = createSearchUrl(data, substitutedQuery);
+        searchQueries.put(dataReqId, finalSearchQuery);
+        String url = finalSearchQuery;
+
+        // The snapshots are read and updated on this thread, only the query runs in parallel.
+        if (incrementalQueries.isEnabled(data)) {
+          IncrementalQuery incrementalQuery =
+              incrementalQueries.prepare(data, dataReqId, finalSearchQuery);
+          incrementalSearches.put(dataReqId, incrementalQuery);
+          url = incrementalQuery.getUrl();
+        }
+
+        String searchUrl = url;
+        requests.put(
+            dataReqId, () -> searchAllPages(data, queryClient, context, resourceName, searchUrl));
+      } else {
+
+        requests.put(
+            dataReqId,
+            () -> readResourceByUrl(data, queryClient, context, resourceName, substitutedQuery));
+      }
+    }
+
+    Map<String, Object> results =
+        queryExecutor.executeAll(data.getHealthcareSetting().getFhirServerBaseURL(), requests);
+
+    // Merge the results in the order of the queries, skipping data already added by a previous
+    // query for a related data requirement.
+    for (Map.Entry<String, Object> entry : results.entrySet()) {
+
+      String dataReqId = entry.getKey();
+      FhirQueryFilter query = queries.get(dataReqId);
+
+      if (data.isDataAlreadyFetched(dataReqId, query.getRelatedDataId())) {
+        logger.info(" Data for dataReqId: {} was added by a related query", dataReqId);
+      } else if (searchQueries.containsKey(dataReqId)) {
+        Bundle bundle = (Bundle) entry.getValue();
+
+        if (incrementalSearches.containsKey(dataReqId)) {
+          bundle = incrementalQueries.complete(incrementalSearches.get(dataReqId), bundle);
+        }
+
+        addSearchResults(
+            client, context, bundle, searchQueries.get(dataReqId), data, query, dataReqId);
+      } else {
+        Resource res = (Resource) entry.getValue();
+
+        if (res != null
+            && res.getResourceType() != ResourceType.OperationOutcome
+            && isValidResource(res)) {
+          populateSecondaryResources(client, context, res, data, res.getResourceType());
+        }
+
+        addResourceToContext(data, res, dataReqId, true);
+      }
+    }
+  }
+
   private String createSearchUrl(KarProcessingData data, String queryToExecute) {
 
     String finalQuery = data.getNotificationContext().getFhirServerBaseUrl() + "/" + queryToExecute;
@@ -998,6 +1586,35 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     getResourcesFromSearch(client, context, queryToExecute, data, query, dataReqId);
   }
 
+  /**
+   * The method executes the search query incrementally. The complete result is required to update
+   * the snapshot of the query, so the result is not processed page by page.
+   */
+  private void executeIncrementalSearchQuery(
+      KarProcessingData data, String dataReqId, FhirQueryFilter query, String searchUrl) {
+
+    logger.info(LOG_FHIR_CTX_GET);
+    FhirContext context = fhirContextInitializer.getFhirContext(R4);
+
+    logger.info(LOG_INIT_FHIR_CLIENT);
+    IGenericClient client = getClient(data, context);
+
+    IncrementalQuery incrementalQuery = incrementalQueries.prepare(data, dataReqId, searchUrl);
+
+    Bundle bundle =
+        searchAllPages(
+            data, client, context, query.getResourceType().toString(), incrementalQuery.getUrl());
+
+    addSearchResults(
+        client,
+        context,
+        incrementalQueries.complete(incrementalQuery, bundle),
+        searchUrl,
+        data,
+        query,
+        dataReqId);
+  }
+
   private void getResourcesFromSearch(
       IGenericClient genericClient,
       FhirContext context,
@@ -1006,18 +1623,36 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
       FhirQueryFilter queryFilter,
       String dataReqId) {
 
-    logger.info("Invoking search url : {}", searchUrl);
+    String resType = queryFilter.getResourceType().toString();
+
+    logger.info("Getting data for resource type {} using query: {}", resType, searchUrl);
+
+    searchByPage(
+        kd,
+        genericClient,
+        context,
+        resType,
+        searchUrl,
+        page ->
+            addSearchResults(genericClient, context, page, searchUrl, kd, queryFilter, dataReqId));
+  }
+
+  private void addSearchResults(
+      IGenericClient genericClient,
+      FhirContext context,
+      Bundle bundle,
+      String searchUrl,
+      KarProcessingData kd,
+      FhirQueryFilter queryFilter,
+      String dataReqId) {
+
     String resType = queryFilter.getResourceType().toString();
     Set<Resource> resources = null;
     HashMap<String, Set<Resource>> resMapById = null;
     HashMap<ResourceType, Set<Resource>> resMapType = null;
 
     try {
-      logger.info("Getting data for resource type {} using query: {}", resType, searchUrl);
-
-      Bundle bundle = genericClient.search().byUrl(searchUrl).returnBundle(Bundle.class).execute();
 
-      getAllR4RecordsUsingPagination(genericClient, bundle);
       if (bundle != null && bundle.hasEntry() && bundle.getEntry().size() > 0) {
 
         logger.info(
@@ -1030,6 +1665,18 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
         resources = new HashSet<>();
         resMapById = new HashMap<>();
         resMapType = new HashMap<>();
+
+        if (secondaryBatchEnabled) {
+          prefetchSecondaryResources(
+              genericClient,
+              context,
+              bc.stream()
+                  .filter(this::isValidResource)
+                  .map(BundleEntryComponent::getResource)
+                  .collect(Collectors.toList()),
+              kd);
+        }
+
         for (BundleEntryComponent comp : bc) {
 
           logger.debug(" Adding Resource Id : {}", comp.getResource().getId());
@@ -1057,14 +1704,6 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
         logger.error(" No entries found for type : {}", resType);
       }
 
-    } catch (BaseServerResponseException responseException) {
-      if (responseException.getOperationOutcome() != null) {
-        logger.debug(
-            context
-                .newJsonParser()
-                .encodeResourceToString(responseException.getOperationOutcome()));
-      }
-      logger.info("Error in getting {} resource using search query {}", resType, searchUrl);
     } catch (Exception e) {
       logger.info("Error in getting {} resource using search query {}", resType, searchUrl, e);
     }
@@ -1320,11 +1959,12 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
         if (secRes == null) {
           secRes =
-              getResourceById(
+              readSecondaryResource(
+                  kd,
+                  ResourceType.Medication,
+                  medRef.getReferenceElement().getIdPart(),
                   genericClient,
-                  context,
-                  ResourceType.Medication.toString(),
-                  medRef.getReferenceElement().getIdPart());
+                  context);
         }
 
         if (secRes != null && secRes.getResourceType() != ResourceType.OperationOutcome) {
@@ -1348,11 +1988,12 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
         if (secRes == null) {
           secRes =
-              getResourceById(
+              readSecondaryResource(
+                  kd,
+                  ResourceType.Medication,
+                  medRef.getReferenceElement().getIdPart(),
                   genericClient,
-                  context,
-                  ResourceType.Medication.toString(),
-                  medRef.getReferenceElement().getIdPart());
+                  context);
         }
 
         if (secRes != null && secRes.getResourceType() != ResourceType.OperationOutcome) {
@@ -1376,11 +2017,12 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
         if (secRes == null) {
           secRes =
-              getResourceById(
+              readSecondaryResource(
+                  kd,
+                  ResourceType.Medication,
+                  medRef.getReferenceElement().getIdPart(),
                   genericClient,
-                  context,
-                  ResourceType.Medication.toString(),
-                  medRef.getReferenceElement().getIdPart());
+                  context);
         }
 
         if (secRes != null && secRes.getResourceType() != ResourceType.OperationOutcome) {
@@ -1445,11 +2087,12 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
 
           if (secRes == null) {
             secRes =
-                getResourceById(
+                readSecondaryResource(
+                    kd,
+                    ResourceType.Observation,
+                    r.getReferenceElement().getIdPart(),
                     genericClient,
-                    context,
-                    ResourceType.Observation.toString(),
-                    r.getReferenceElement().getIdPart());
+                    context);
           }
 
           if (secRes != null
@@ -1496,13 +2139,183 @@ public class EhrFhirR4QueryServiceImpl implements EhrQueryService {
     // If the resource is not found, then retrieve from the FHIR server
     if (secRes == null) {
       secRes =
-          getResourceById(
-              genericClient, context, type.toString(), ref.getReferenceElement().getIdPart());
+          readSecondaryResource(
+              kd, type, ref.getReferenceElement().getIdPart(), genericClient, context);
     }
 
     addResourceToContext(kd, secRes, ref.getReferenceElement().getIdPart(), false);
   }
 
+  /**
+   * The method reads a secondary resource from the EHR unless an earlier read or batch search in
+   * the same execution has already failed to resolve it, so that the same reference is not read
+   * repeatedly.
+   */
+  private Resource readSecondaryResource(
+      KarProcessingData kd,
+      ResourceType type,
+      String id,
+      IGenericClient genericClient,
+      FhirContext context) {
+
+    if (id == null || kd.isResourceUnresolved(id, type)) return null;
+
+    Resource secRes = getResourceById(kd, genericClient, context, type.toString(), id);
+
+    if (secRes == null) kd.markResourceUnresolved(id, type);
+
+    return secRes;
+  }
+
+  /**
+   * The method resolves the secondary resources (Medications, Practitioners, Organizations and
+   * DiagnosticReport result Observations) referenced by all the resources of a search result using
+   * _id searches, instead of reading each reference separately. The resolved resources are stored
+   * in the KarProcessingData so that populateSecondaryResources finds them without going to the
+   * EHR. References which are not part of a successful batch search result are remembered as
+   * unresolved, references from a failed batch search are left for the individual reads.
+   *
+   * @param genericClient The client to be used for the searches
+   * @param context The HAPI FHIR context
+   * @param resources The primary resources whose references have to be resolved
+   * @param kd The KarProcessingData for the execution
+   */
+  private void prefetchSecondaryResources(
+      IGenericClient genericClient,
+      FhirContext context,
+      List<Resource> resources,
+      KarProcessingData kd) {
+
+    Map<ResourceType, Set<String>> refs = new EnumMap<>(ResourceType.class);
+    resources.forEach(res -> collectSecondaryReferences(res, kd, refs));
+
+    // Resolve the DiagnosticReport results first, so that their performers are batched as well.
+    Set<String> observationIds = refs.remove(ResourceType.Observation);
+
+    if (observationIds != null) {
+      searchSecondaryResources(genericClient, context, kd, ResourceType.Observation, observationIds)
+          .forEach(obs -> collectSecondaryReferences(obs, kd, refs));
+    }
+
+    refs.forEach((type, ids) -> searchSecondaryResources(genericClient, context, kd, type, ids));
+  }
+
+  private void collectSecondaryReferences(
+      Resource res, KarProcessingData kd, Map<ResourceType, Set<String>> refs) {
+
+    List<Reference> medRefs = new ArrayList<>();
+
+    if (res instanceof MedicationRequest
+        && ((MedicationRequest) res).getMedication() instanceof Reference) {
+      medRefs.add((Reference) ((MedicationRequest) res).getMedication());
+    } else if (res instanceof MedicationAdministration
+        && ((MedicationAdministration) res).getMedication() instanceof Reference) {
+      medRefs.add((Reference) ((MedicationAdministration) res).getMedication());
+    } else if (res instanceof MedicationDispense
+        && ((MedicationDispense) res).getMedication() instanceof Reference) {
+      medRefs.add((Reference) ((MedicationDispense) res).getMedication());
+    } else if (res instanceof Immunization) {
+
+      Immunization immz = (Immunization) res;
+
+      for (ImmunizationPerformerComponent perf : immz.getPerformer()) {
+        if (perf.hasActor() && isPractitioner(perf.getActor())) {
+          addSecondaryReference(perf.getActor(), ResourceType.Practitioner, kd, refs);
+        }
+      }
+
+      if (immz.hasManufacturer()
+          && isResourceOfType(immz.getManufacturer(), ResourceType.Organization)) {
+        addSecondaryReference(immz.getManufacturer(), ResourceType.Organization, kd, refs);
+      }
+    } else if (res instanceof Observation) {
+
+      for (Reference performer : ((Observation) res).getPerformer()) {
+        if (isPractitioner(performer)) {
+          addSecondaryReference(performer, ResourceType.Practitioner, kd, refs);
+        }
+      }
+    } else if (res instanceof DiagnosticReport) {
+
+      for (Reference r : ((DiagnosticReport) res).getResult()) {
+        addSecondaryReference(r, ResourceType.Observation, kd, refs);
+      }
+    }
+
+    medRefs.forEach(medRef -> addSecondaryReference(medRef, ResourceType.Medication, kd, refs));
+  }
+
+  private void addSecondaryReference(
+      Reference ref, ResourceType type, KarProcessingData kd, Map<ResourceType, Set<String>> refs) {
+
+    String id = ref.getReferenceElement().getIdPart();
+
+    if (id != null && kd.getResourceById(id, type) == null && !kd.isResourceUnresolved(id, type)) {
+      refs.computeIfAbsent(type, k -> new LinkedHashSet<>()).add(id);
+    }
+  }
+
+  private List<Resource> searchSecondaryResources(
+      IGenericClient genericClient,
+      FhirContext context,
+      KarProcessingData kd,
+      ResourceType type,
+      Set<String> ids) {
+
+    List<Resource> found = new ArrayList<>();
+    List<String> idList = new ArrayList<>(ids);
+
+    for (int start = 0; start < idList.size(); start += secondaryBatchSize) {
+
+      List<String> chunk =
+          idList.subList(start, Math.min(start + secondaryBatchSize, idList.size()));
+      String searchUrl =
+          kd.getNotificationContext().getFhirServerBaseUrl()
+              + "/"
+              + type.toString()
+              + "?_id="
+              + String.join(",", chunk);
+
+      Bundle bundle = searchAllPages(kd, genericClient, context, type.toString(), searchUrl);
+
+      // Leave the references to the individual reads if the EHR does not support the search.
+      if (bundle == null) continue;
+
+      Set<String> resolved = new HashSet<>();
+
+      for (BundleEntryComponent comp : bundle.getEntry()) {
+
+        Resource res = comp.getResource();
+
+        if (res != null && res.getResourceType() == type) {
+
+          String id = res.getIdElement().getIdPart();
+          resolved.add(id);
+
+          if (Boolean.TRUE.equals(isValidResource(res))) {
+            kd.storeResourceById(id, res);
+            found.add(res);
+          } else {
+            kd.markResourceUnresolved(id, type);
+          }
+        }
+      }
+
+      chunk
+          .stream()
+          .filter(id -> !resolved.contains(id))
+          .forEach(id -> kd.markResourceUnresolved(id, type));
+
+      logger.info(
+          " Resolved {} of {} secondary {} resources using a batch search",
+          found.size(),
+          chunk.size(),
+          type);
+    }
+
+    return found;
+  }
+
   private void addResourceToContext(
       KarProcessingData data, Resource res, String dataReqId, Boolean isDataReq) {
 
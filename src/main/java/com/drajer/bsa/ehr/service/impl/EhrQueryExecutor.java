@@ -0,0 +1,297 @@
+package com.drajer.bsa.ehr.service.impl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ *
+ * <h1>EhrQueryExecutor</h1>
+ *
+ * This class executes independent EHR queries concurrently. The number of queries in flight is
+ * bounded for each EHR (identified by the FHIR Server Base URL of the HealthcareSetting) so that
+ * the BSA does not overwhelm a single EHR. The results are returned to the caller in the order of
+ * the queries so that they can be merged into the KarProcessingData on the calling thread. When
+ * parallel execution is disabled the queries are executed one after another on the calling thread.
+ * The class also provides the Executor used to prefetch the next page of a search result while the
+ * current page is being processed.
+ *
+ * @author nbashyam
+ */
+@Component
+public class EhrQueryExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(EhrQueryExecutor.class);
+
+  private static final String QUERY_TIMER_NAME = "ecrnow.ehr.query";
+  private static final String EHR_TAG = "ehr";
+
+  @Value("${ehr.query.parallel.enabled:false}")
+  private boolean parallelEnabled;
+
+  @Value("${ehr.query.parallel.threads:20}")
+  private int threads;
+
+  @Value("${ehr.query.parallel.max-inflight-per-ehr:4}")
+  private int maxInFlightPerEhr;
+
+  @Value("${ehr.query.parallel.timeout:300}")
+  private int queryTimeout;
+
+  @Value("${ehr.query.prefetch.enabled:false}")
+  private boolean prefetchEnabled;
+
+  @Value("${ehr.query.prefetch.threads:10}")
+  private int prefetchThreads;
+
+  @Autowired(required = false)
+  MeterRegistry meterRegistry;
+
+  private ExecutorService executor;
+
+  /**
+   * The pool used to retrieve the next page of search results. It is separate from the query pool
+   * so that a query waiting on its next page never waits for a thread of its own pool. A search has
+   * at most one page being prefetched, further searches wait for a thread of the pool.
+   */
+  private ExecutorService prefetchExecutor;
+
+  /** The permits for the queries in flight, the Key is the FHIR Server Base URL of the EHR. */
+  private final ConcurrentHashMap<String, Semaphore> inFlightPermits = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void initialize() {
+
+    if (parallelEnabled) {
+      logger.info(
+          " Initializing EHR Query Executor with {} threads and {} queries in flight per EHR ",
+          threads,
+          maxInFlightPerEhr);
+      executor =
+          Executors.newFixedThreadPool(threads, new EhrQueryThreadFactory("EhrQueryExecutor-"));
+    }
+
+    if (prefetchEnabled) {
+      logger.info(" Initializing EHR Page Prefetch Executor with {} threads ", prefetchThreads);
+      prefetchExecutor =
+          Executors.newFixedThreadPool(
+              prefetchThreads, new EhrQueryThreadFactory("EhrPagePrefetch-"));
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+
+    if (prefetchExecutor != null) {
+      prefetchExecutor.shutdownNow();
+    }
+  }
+
+  public boolean isParallelEnabled() {
+    return parallelEnabled && executor != null;
+  }
+
+  /** @return The Executor used to prefetch the next page of search results, null if disabled. */
+  public Executor getPrefetchExecutor() {
+    return prefetchExecutor;
+  }
+
+  /**
+   * The method executes the queries and returns the results in the order of the queries. A query
+   * that fails or times out is logged and its result is null.
+   *
+   * @param ehrUrl - The FHIR Server Base URL of the EHR being queried.
+   * @param queries - The queries to be executed, keyed by a name used for logging.
+   * @return The results keyed by the query name.
+   */
+  public <T> Map<String, T> executeAll(String ehrUrl, Map<String, Callable<T>> queries) {
+
+    Map<String, T> results = new LinkedHashMap<>();
+
+    if (!isParallelEnabled() || queries.size() < 2) {
+
+      for (Map.Entry<String, Callable<T>> entry : queries.entrySet()) {
+        results.put(entry.getKey(), timedCall(ehrUrl, entry.getKey(), entry.getValue()));
+      }
+
+      return results;
+    }
+
+    Semaphore permits =
+        inFlightPermits.computeIfAbsent(ehrUrl, k -> new Semaphore(maxInFlightPerEhr));
+    Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+    Map<String, Future<T>> futures = new LinkedHashMap<>();
+    Map<String, QueryPermit> queryPermits = new LinkedHashMap<>();
+    List<String> rejected = new ArrayList<>();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(queryTimeout);
+
+    for (Map.Entry<String, Callable<T>> entry : queries.entrySet()) {
+
+      try {
+        // Acquire on the calling thread so that pool threads never block waiting for an EHR.
+        if (!permits.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+          logger.error(
+              " Query {} against {} could not be started in {} seconds ",
+              entry.getKey(),
+              ehrUrl,
+              queryTimeout);
+          rejected.add(entry.getKey());
+          continue;
+        }
+      } catch (InterruptedException e) {
+        logger.error(" Interrupted while waiting to execute query {}", entry.getKey());
+        Thread.currentThread().interrupt();
+        rejected.add(entry.getKey());
+        continue;
+      }
+
+      QueryPermit permit = new QueryPermit(permits);
+      queryPermits.put(entry.getKey(), permit);
+
+      futures.put(
+          entry.getKey(),
+          executor.submit(
+              () -> {
+                permit.started.set(true);
+                if (mdcContext != null) MDC.setContextMap(mdcContext);
+                try {
+                  return timedCall(ehrUrl, entry.getKey(), entry.getValue());
+                } finally {
+                  permit.release();
+                  MDC.clear();
+                }
+              }));
+    }
+
+    for (Map.Entry<String, Future<T>> entry : futures.entrySet()) {
+
+      T result = null;
+
+      try {
+        result =
+            entry.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        logger.error(
+            " Query {} against {} did not complete in {} seconds, cancelling it ",
+            entry.getKey(),
+            ehrUrl,
+            queryTimeout);
+        QueryPermit permit = queryPermits.get(entry.getKey());
+        if (entry.getValue().cancel(true) && !permit.started.get()) {
+          // The task never ran, so its finally block will never release the permit.
+          permit.release();
+        }
+      } catch (ExecutionException e) {
+        logger.error(" Error executing query {} against {}", entry.getKey(), ehrUrl, e);
+      } catch (InterruptedException e) {
+        logger.error(" Interrupted while waiting for query {}", entry.getKey());
+        Thread.currentThread().interrupt();
+      }
+
+      results.put(entry.getKey(), result);
+    }
+
+    rejected.forEach(name -> results.put(name, null));
+
+    return results;
+  }
+
+  private <T> T timedCall(String ehrUrl, String name, Callable<T> query) {
+
+    long start = System.nanoTime();
+
+    try {
+      return query.call();
+    } catch (Exception e) {
+      logger.error(" Error executing query {} against {}", name, ehrUrl, e);
+      return null;
+    } finally {
+      long elapsed = System.nanoTime() - start;
+
+      logger.info(
+          " Query {} against {} completed in {} ms",
+          name,
+          ehrUrl,
+          TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+      if (meterRegistry != null) {
+        meterRegistry
+            .timer(QUERY_TIMER_NAME, EHR_TAG, ehrUrl)
+            .record(elapsed, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * @param ehrUrl - The FHIR Server Base URL of the EHR.
+   * @return The number of queries currently in flight against the EHR.
+   */
+  public int getInFlightQueries(String ehrUrl) {
+
+    Semaphore permits = inFlightPermits.get(ehrUrl);
+
+    return permits != null ? maxInFlightPerEhr - permits.availablePermits() : 0;
+  }
+
+  /** The permit held by a single query, released exactly once by the task or its canceller. */
+  private static class QueryPermit {
+
+    private final Semaphore permits;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    QueryPermit(Semaphore permits) {
+      this.permits = permits;
+    }
+
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        permits.release();
+      }
+    }
+  }
+
+  private static class EhrQueryThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final String prefix;
+
+    EhrQueryThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, prefix + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package com.drajer.bsa.ehr.service.impl;
+
+import ca.uhn.fhir.parser.IParser;
+import com.drajer.bsa.dao.EhrQuerySnapshotDao;
+import com.drajer.bsa.model.EhrQuerySnapshot;
+import com.drajer.bsa.model.KarProcessingData;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
+import org.hl7.fhir.r4.model.Bundle.BundleType;
+import org.hl7.fhir.r4.model.InstantType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ *
+ * <h1>IncrementalQueryManager</h1>
+ *
+ * This class enables incremental EHR search queries for the scheduled jobs of a notification. The
+ * result of each search query executed for a data requirement is persisted as an EhrQuerySnapshot
+ * along with the time of the query. When a scheduled job executes the same query again, the query
+ * is restricted using _lastUpdated to the resources updated after the previous query, and the
+ * resources retrieved are merged into the snapshot. Queries executed for a notification, and
+ * queries with a snapshot older than the maximum age, retrieve the complete result and refresh the
+ * snapshot. Once the encounter of the notification has ended, the queries retrieve the complete
+ * result and the snapshots are deleted, as the notification is about to be closed.
+ *
+ * @author nbashyam
+ */
+@Component
+public class IncrementalQueryManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(IncrementalQueryManager.class);
+
+  private static final String LAST_UPDATED_PARAM = "_lastUpdated";
+
+  @Value("${ehr.query.incremental.enabled:false}")
+  private boolean incrementalEnabled;
+
+  /** The overlap between queries, which allows for clock differences between the BSA and EHR. */
+  @Value("${ehr.query.incremental.overlap-seconds:60}")
+  private int overlapSeconds;
+
+  /** The age after which the snapshot is refreshed using a complete query. */
+  @Value("${ehr.query.incremental.max-age-hours:24}")
+  private int maxAgeHours;
+
+  @Autowired EhrQuerySnapshotDao snapshotDao;
+
+  @Autowired
+  @Qualifier("jsonParser")
+  IParser jsonParser;
+
+  /**
+   * @param kd The processing context.
+   * @return true if the search queries of the processing context are executed incrementally.
+   */
+  public boolean isEnabled(KarProcessingData kd) {
+    return incrementalEnabled
+        && kd.getNotificationContext() != null
+        && kd.getNotificationContext().getId() != null;
+  }
+
+  /**
+   * The method prepares the search query to be executed for a data requirement.
+   *
+   * @param kd The processing context.
+   * @param dataReqId The id of the data requirement.
+   * @param searchUrl The complete search query url.
+   * @return The query to be executed, which is restricted to the updated resources when a recent
+   *     snapshot exists for a scheduled job.
+   */
+  public IncrementalQuery prepare(KarProcessingData kd, String dataReqId, String searchUrl) {
+
+    Instant now = Instant.now();
+    Instant maxAge = now.minus(maxAgeHours, ChronoUnit.HOURS);
+    EhrQuerySnapshot snapshot =
+        snapshotDao.getEhrQuerySnapshot(kd.getNotificationContext().getId(), dataReqId, searchUrl);
+
+    if (snapshot == null) {
+      snapshot = new EhrQuerySnapshot();
+      snapshot.setNcId(kd.getNotificationContext().getId());
+      snapshot.setDataRequirementId(dataReqId);
+      snapshot.setQueryUrl(searchUrl);
+    }
+
+    boolean closed = kd.getNotificationContext().getEncounterEndTime() != null;
+    boolean delta =
+        !closed
+            && kd.getScheduledJobData() != null
+            && snapshot.getSnapshotData() != null
+            && snapshot.getLastQueryTime() != null
+            && snapshot.getLastQueryTime().toInstant().isAfter(maxAge)
+            && !searchUrl.contains(LAST_UPDATED_PARAM);
+
+    String url = searchUrl;
+
+    if (delta) {
+
+      InstantType lastQueryTime = new InstantType(snapshot.getLastQueryTime());
+      lastQueryTime.setTimeZoneZulu(true);
+
+      url =
+          searchUrl
+              + (searchUrl.contains("?") ? "&" : "?")
+              + LAST_UPDATED_PARAM
+              + "=gt"
+              + lastQueryTime.getValueAsString();
+
+      logger.info(
+          " Retrieving resources updated since the last query for dataReqId: {}", dataReqId);
+    }
+
+    return new IncrementalQuery(
+        snapshot, url, Date.from(now.minusSeconds(overlapSeconds)), delta, closed);
+  }
+
+  /**
+   * The method merges the result of the query into the snapshot and persists the snapshot. The
+   * snapshot is deleted instead when the notification is being closed.
+   *
+   * @param query The query that was executed.
+   * @param result The result of the query, null if the query failed.
+   * @return The complete result of the query, which includes the resources of the snapshot.
+   */
+  public Bundle complete(IncrementalQuery query, Bundle result) {
+
+    EhrQuerySnapshot snapshot = query.getSnapshot();
+    Bundle previous =
+        query.isDelta() ? jsonParser.parseResource(Bundle.class, snapshot.getSnapshotData()) : null;
+
+    if (result == null) {
+
+      // Do not update the snapshot, so that the next job retrieves the updates again.
+      if (previous != null)
+        logger.error(
+            " Using the resources of the previous query for dataReqId: {} as the query failed",
+            snapshot.getDataRequirementId());
+
+      return previous;
+    }
+
+    Bundle bundle = merge(previous, result);
+
+    if (query.isClosed()) {
+
+      logger.info(
+          " Retrieved {} resources for dataReqId: {}, removing the snapshot as the encounter has ended",
+          bundle.getEntry().size(),
+          snapshot.getDataRequirementId());
+
+      if (snapshot.getId() != null) snapshotDao.delete(snapshot);
+
+      return bundle;
+    }
+
+    logger.info(
+        " Retrieved {} updated resources, {} resources in total for dataReqId: {}",
+        result.getEntry().size(),
+        bundle.getEntry().size(),
+        snapshot.getDataRequirementId());
+
+    snapshot.setLastQueryTime(query.getQueryTime());
+    snapshot.setSnapshotData(jsonParser.encodeResourceToString(bundle));
+    snapshotDao.saveOrUpdate(snapshot);
+
+    return bundle;
+  }
+
+  /**
+   * The method merges the resources retrieved by a query into the resources retrieved earlier,
+   * replacing the earlier version of a resource that has been updated.
+   */
+  static Bundle merge(Bundle previous, Bundle updates) {
+
+    Map<String, BundleEntryComponent> entries = new LinkedHashMap<>();
+
+    if (previous != null) {
+      previous.getEntry().forEach(comp -> addEntry(entries, comp));
+    }
+
+    updates.getEntry().forEach(comp -> addEntry(entries, comp));
+
+    Bundle bundle = new Bundle();
+    bundle.setType(BundleType.SEARCHSET);
+    entries.values().forEach(bundle::addEntry);
+    bundle.setTotal(bundle.getEntry().size());
+
+    return bundle;
+  }
+
+  private static void addEntry(
+      Map<String, BundleEntryComponent> entries, BundleEntryComponent comp) {
+
+    Resource res = comp.getResource();
+
+    if (res != null && res.getResourceType() != ResourceType.OperationOutcome) {
+      entries.put(res.getResourceType() + "/" + res.getIdElement().getIdPart(), comp);
+    }
+  }
+
+  /** The search query to be executed for a data requirement. */
+  public static class IncrementalQuery {
+
+    private final EhrQuerySnapshot snapshot;
+    private final String url;
+    private final Date queryTime;
+    private final boolean delta;
+    private final boolean closed;
+
+    IncrementalQuery(
+        EhrQuerySnapshot snapshot, String url, Date queryTime, boolean delta, boolean closed) {
+      this.snapshot = snapshot;
+      this.url = url;
+      this.queryTime = queryTime;
+      this.delta = delta;
+      this.closed = closed;
+    }
+
+    public EhrQuerySnapshot getSnapshot() {
+      return snapshot;
+    }
+
+    /** @return The url of the query, including the _lastUpdated restriction if any. */
+    public String getUrl() {
+      return url;
+    }
+
+    public Date getQueryTime() {
+      return queryTime;
+    }
+
+    public boolean isDelta() {
+      return delta;
+    }
+
+    /** @return true if the encounter of the notification has ended. */
+    public boolean isClosed() {
+      return closed;
+    }
+  }
+}
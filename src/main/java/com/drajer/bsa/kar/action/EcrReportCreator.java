@@ -341,7 +341,11 @@ public class EcrReportCreator extends ReportCreator {
 
     String eicr =
         CdaEicrGeneratorFromR4.convertR4FhirBundletoCdaEicr(
-            data.getValue0(), data.getValue1(), ecr, CdaGeneratorConstants.CDA_EICR_VERSION_R11);
+            data.getValue0(),
+            data.getValue1(),
+            ecr,
+            CdaGeneratorConstants.CDA_EICR_VERSION_R11,
+            kd.getCdaSectionExecutor());
 
     DocumentReference docref = createR4DocumentReference(kd, eicr, ecr, dataRequirementId);
     returnBundle.addEntry(new BundleEntryComponent().setResource(docref));
@@ -381,7 +385,11 @@ public class EcrReportCreator extends ReportCreator {
 
     String eicr =
         CdaEicrGeneratorFromR4.convertR4FhirBundletoCdaEicr(
-            data.getValue0(), data.getValue1(), ecr, CdaGeneratorConstants.CDA_EICR_VERSION_R31);
+            data.getValue0(),
+            data.getValue1(),
+            ecr,
+            CdaGeneratorConstants.CDA_EICR_VERSION_R31,
+            kd.getCdaSectionExecutor());
 
     DocumentReference docref = createR4DocumentReference(kd, eicr, ecr, dataRequirementId);
 
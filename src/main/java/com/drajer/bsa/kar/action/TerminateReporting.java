@@ -31,7 +31,7 @@ public class TerminateReporting extends BsaAction {
     if (queries != null && !queries.isEmpty()) {
 
       // Try to execute the queries.
-      queries.forEach((key, value) -> ehrservice.executeQuery(data, key, value));
+      ehrservice.executeQueries(data, queries);
 
     } else {
 
@@ -0,0 +1,292 @@
+package com.drajer.bsa.kar.condition;
+
+import ca.uhn.fhir.context.FhirContext;
+import com.drajer.bsa.kar.action.EvaluateMeasure;
+import com.drajer.bsa.kar.model.BsaAction;
+import com.drajer.bsa.kar.model.BsaCondition;
+import com.drajer.bsa.kar.model.KnowledgeArtifact;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.evaluator.builder.CqlEvaluatorBuilder;
+import org.opencds.cqf.cql.evaluator.builder.DataProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.EndpointConverter;
+import org.opencds.cqf.cql.evaluator.builder.EndpointInfo;
+import org.opencds.cqf.cql.evaluator.builder.FhirDalFactory;
+import org.opencds.cqf.cql.evaluator.builder.LibraryContentProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.TerminologyProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.data.FhirModelResolverFactory;
+import org.opencds.cqf.cql.evaluator.cql2elm.content.LibraryContentProvider;
+import org.opencds.cqf.cql.evaluator.library.CqlFhirParametersConverter;
+import org.opencds.cqf.cql.evaluator.library.LibraryProcessor;
+import org.opencds.cqf.cql.evaluator.measure.r4.R4MeasureProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ *
+ * <h1>CqlLibraryCache</h1>
+ *
+ * This class caches the CQL libraries translated for each Knowledge Artifact, along with the
+ * library content and terminology providers loaded from the KAR directory. Without the cache, the
+ * libraries and the terminology are loaded from the files of the KAR directory and the libraries
+ * are translated to ELM on every evaluation. The cached resources are keyed by the version unique
+ * id of the KAR, and the translated libraries are keyed by the library identifier within the KAR.
+ * The cache is populated and warmed when a KAR is loaded, and cleared when the KARs are reloaded.
+ *
+ * @author nbashyam
+ */
+@Component
+public class CqlLibraryCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(CqlLibraryCache.class);
+
+  @Value("${cql.library.cache.enabled:false}")
+  private boolean cacheEnabled;
+
+  @Value("${cql.enabled:false}")
+  private boolean cqlEnabled;
+
+  @Autowired CqlFhirParametersConverter cqlFhirParametersConverter;
+
+  @Autowired LibraryContentProviderFactory libraryContentProviderFactory;
+
+  @Autowired TerminologyProviderFactory terminologyProviderFactory;
+
+  @Autowired DataProviderFactory dataProviderFactory;
+
+  @Autowired FhirDalFactory fhirDalFactory;
+
+  @Autowired EndpointConverter endpointConverter;
+
+  @Autowired FhirModelResolverFactory fhirModelResolverFactory;
+
+  @Autowired Supplier<CqlEvaluatorBuilder> cqlEvaluatorBuilderSupplier;
+
+  private FhirContext fhirContext;
+
+  /** The cached resources, the Key is the version unique id of the KAR. */
+  private final Map<String, KarCqlResources> karResources = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void initialize() {
+    fhirContext = FhirContext.forR4();
+  }
+
+  /** @return true if the CQL libraries are cached. */
+  public boolean isEnabled() {
+    return cacheEnabled && cqlEnabled;
+  }
+
+  /**
+   * The method sets up the cached processors for the CQL conditions and the measures of a KAR that
+   * has been loaded, and warms the cache by translating the libraries used by the conditions.
+   *
+   * @param art The Knowledge Artifact that has been loaded.
+   */
+  public void initialize(KnowledgeArtifact art) {
+
+    if (!isEnabled()) return;
+
+    KarCqlResources resources = new KarCqlResources();
+    karResources.put(art.getVersionUniqueId(), resources);
+
+    for (BsaAction action : art.getActionMap().values()) {
+
+      if (action instanceof EvaluateMeasure) {
+        ((EvaluateMeasure) action).setMeasureProcessor(resources.measureProcessor);
+      }
+
+      for (BsaCondition cond : action.getConditions()) {
+
+        if (cond instanceof BsaCqlCondition) {
+          BsaCqlCondition cqlCondition = (BsaCqlCondition) cond;
+          cqlCondition.setLibraryProcessor(resources.libraryProcessor);
+          warm(art, cqlCondition, resources);
+        }
+      }
+    }
+
+    logger.info(
+        " Cached {} CQL libraries for KAR {}",
+        resources.libraries.size(),
+        art.getVersionUniqueId());
+  }
+
+  /** The method clears the cache before the KARs are reloaded. */
+  public void invalidate() {
+
+    if (!karResources.isEmpty()) {
+      logger.info(" Clearing the CQL libraries cached for {} KARs", karResources.size());
+      karResources.clear();
+    }
+  }
+
+  /**
+   * @param versionUniqueId The version unique id of the KAR.
+   * @return The resources cached for the KAR, null if none are cached.
+   */
+  KarCqlResources getResources(String versionUniqueId) {
+    return karResources.get(versionUniqueId);
+  }
+
+  private void warm(KnowledgeArtifact art, BsaCqlCondition cond, KarCqlResources resources) {
+
+    try {
+
+      // Evaluating no expressions loads, translates and caches the library and its dependencies.
+      resources.libraryProcessor.evaluate(
+          cond.getUrl(),
+          null,
+          null,
+          cond.getLibraryEndpoint(),
+          cond.getTerminologyEndpoint(),
+          cond.getDataEndpoint(),
+          null,
+          Collections.emptySet());
+
+    } catch (Exception e) {
+      logger.warn(
+          " Unable to warm the CQL library {} for KAR {}, it will be translated on first use",
+          cond.getUrl(),
+          art.getVersionUniqueId(),
+          e);
+    }
+  }
+
+  /** The cached library processor and measure processor for a KAR. */
+  class KarCqlResources {
+
+    /**
+     * The translated libraries, the Key is the library identifier. The evaluator only accepts a
+     * HashMap, the map is synchronized since the KAR may be evaluated for several notifications at
+     * once.
+     */
+    final HashMap<VersionedIdentifier, Library> libraries = new SynchronizedLibraryMap();
+
+    /** The library content providers, the Key is the address of the endpoint. */
+    final Map<String, LibraryContentProvider> contentProviders = new ConcurrentHashMap<>();
+
+    /** The terminology providers, the Key is the address of the endpoint. */
+    final Map<String, TerminologyProvider> terminologyProviders = new ConcurrentHashMap<>();
+
+    final LibraryContentProviderFactory contentFactory;
+    final TerminologyProviderFactory terminologyFactory;
+    final LibraryProcessor libraryProcessor;
+    final R4MeasureProcessor measureProcessor;
+
+    KarCqlResources() {
+
+      contentFactory = new CachingLibraryContentProviderFactory(this);
+      terminologyFactory = new CachingTerminologyProviderFactory(this);
+
+      libraryProcessor =
+          new LibraryProcessor(
+              fhirContext,
+              cqlFhirParametersConverter,
+              contentFactory,
+              dataProviderFactory,
+              terminologyFactory,
+              endpointConverter,
+              fhirModelResolverFactory,
+              () -> cqlEvaluatorBuilderSupplier.get().withLibraryCache(libraries));
+
+      measureProcessor =
+          new R4MeasureProcessor(
+              terminologyFactory,
+              dataProviderFactory,
+              contentFactory,
+              fhirDalFactory,
+              endpointConverter);
+    }
+  }
+
+  /** The HashMap of translated libraries, synchronized on the operations used by the evaluator. */
+  static class SynchronizedLibraryMap extends HashMap<VersionedIdentifier, Library> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public synchronized Library get(Object key) {
+      return super.get(key);
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+      return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized Library put(VersionedIdentifier key, Library value) {
+      return super.put(key, value);
+    }
+
+    @Override
+    public synchronized Library putIfAbsent(VersionedIdentifier key, Library value) {
+      return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public synchronized Library remove(Object key) {
+      return super.remove(key);
+    }
+
+    @Override
+    public synchronized int size() {
+      return super.size();
+    }
+  }
+
+  /** The factory returns the content provider loaded earlier for the same endpoint. */
+  class CachingLibraryContentProviderFactory implements LibraryContentProviderFactory {
+
+    private final KarCqlResources resources;
+
+    CachingLibraryContentProviderFactory(KarCqlResources resources) {
+      this.resources = resources;
+    }
+
+    @Override
+    public LibraryContentProvider create(EndpointInfo endpointInfo) {
+      return resources.contentProviders.computeIfAbsent(
+          endpointInfo.getAddress(), address -> libraryContentProviderFactory.create(endpointInfo));
+    }
+
+    @Override
+    public LibraryContentProvider create(IBaseBundle contentBundle) {
+      return libraryContentProviderFactory.create(contentBundle);
+    }
+  }
+
+  /** The factory returns the terminology provider loaded earlier for the same endpoint. */
+  class CachingTerminologyProviderFactory implements TerminologyProviderFactory {
+
+    private final KarCqlResources resources;
+
+    CachingTerminologyProviderFactory(KarCqlResources resources) {
+      this.resources = resources;
+    }
+
+    @Override
+    public TerminologyProvider create(EndpointInfo endpointInfo) {
+      return resources.terminologyProviders.computeIfAbsent(
+          endpointInfo.getAddress(), address -> terminologyProviderFactory.create(endpointInfo));
+    }
+
+    @Override
+    public TerminologyProvider create(IBaseBundle terminologyBundle) {
+      return terminologyProviderFactory.create(terminologyBundle);
+    }
+  }
+}
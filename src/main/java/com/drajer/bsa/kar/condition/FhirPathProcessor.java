@@ -355,7 +355,8 @@ public class FhirPathProcessor implements BsaConditionProcessor {
             String matchPath = dr.getType() + "." + drcf.getPath();
 
             Pair<Boolean, MatchedTriggerCodes> retInfo =
-                BsaServiceUtils.isCodeableConceptPresentInValueSet(vs, cc, matchPath, false);
+                BsaServiceUtils.isCodeableConceptPresentInValueSet(
+                    kd.getKar(), vs, cc, matchPath, false);
 
             if (retInfo != null) {
 
@@ -83,6 +83,12 @@ public class KnowledgeArtifact {
    */
   private HashMap<ResourceType, HashMap<String, Resource>> dependencies;
 
+  /**
+   * This attribute indexes the codes of the ValueSets present in the dependencies by system and
+   * code, so that trigger code matching does not have to scan the ValueSets.
+   */
+  private ValueSetCodeIndex valueSetCodeIndex;
+
   /** This attribute represents the receivers of the Report created by the BSA. */
   private Set<UriType> receiverAddresses;
 
@@ -124,15 +130,33 @@ public class KnowledgeArtifact {
       } else if (res.getUrl() != null) {
         resources.put(res.getUrl(), res);
         dependencies.put(res.getResourceType(), resources);
+        valueSetCodeIndex.addValueSet(res);
       }
     } else if (res.getUrl() != null) {
       logger.info("Resource Type does not exist, so add to map ");
       HashMap<String, Resource> resources = new HashMap<>();
       resources.put(res.getUrl(), res);
       dependencies.put(res.getResourceType(), resources);
+      valueSetCodeIndex.addValueSet(res);
     }
   }
 
+  /**
+   * The method checks if the code is present in the ValueSet identified by the url using the
+   * ValueSet code index.
+   *
+   * @param url - The url of the ValueSet.
+   * @param system - The code system of the code.
+   * @param code - The code to be checked.
+   * @return null if the ValueSet has not been indexed, otherwise true if the code is present.
+   */
+  public Boolean isCodePresentInIndexedValueSet(String url, String system, String code) {
+
+    if (!valueSetCodeIndex.isIndexed(url)) return null;
+
+    return valueSetCodeIndex.contains(url, system, code);
+  }
+
   public void addDependentResource(Resource res) {
     // format id for local reference
     String id = String.format("%s/%s", res.getResourceType(), res.getIdElement().getIdPart());
@@ -238,6 +262,7 @@ public class KnowledgeArtifact {
     actionMap = new HashMap<>();
     triggerEventActionMap = new HashMap<>();
     dependencies = new HashMap<>();
+    valueSetCodeIndex = new ValueSetCodeIndex();
     receiverAddresses = new HashSet<>();
     firstLevelActions = new ArrayList<>();
   }
@@ -290,6 +315,10 @@ public class KnowledgeArtifact {
     this.dependencies = dependencies;
   }
 
+  public ValueSetCodeIndex getValueSetCodeIndex() {
+    return valueSetCodeIndex;
+  }
+
   public String getVersionUniqueId() {
     return this.karId + "|" + this.getKarVersion();
   }
@@ -0,0 +1,129 @@
+package com.drajer.bsa.kar.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.hl7.fhir.r4.model.ValueSet.ConceptReferenceComponent;
+import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
+import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+
+/**
+ * This class is an index of the codes present in the ValueSets of a Knowledge Artifact. The index
+ * maps each (system, code) pair to the urls of the ValueSets containing the pair, so that trigger
+ * code matching does not have to scan the compose and expansion elements of the ValueSet for every
+ * coding. The index is built when the KAR is loaded and is read only after that.
+ *
+ * @author nbashyam
+ */
+public class ValueSetCodeIndex {
+
+  private static final String SYSTEM_CODE_SEPARATOR = "|";
+
+  /** The Map of system|code to the urls of the ValueSets containing the code. */
+  private final HashMap<String, Set<String>> codeToValueSetUrls;
+
+  /** The urls of the ValueSets that have been indexed. */
+  private final Set<String> indexedValueSetUrls;
+
+  public ValueSetCodeIndex() {
+    codeToValueSetUrls = new HashMap<>();
+    indexedValueSetUrls = new HashSet<>();
+  }
+
+  /**
+   * The method adds the codes from the compose.include.concept and the expansion.contains elements
+   * of the ValueSet to the index.
+   *
+   * @param vs - The ValueSet to be indexed.
+   */
+  public void addValueSet(ValueSet vs) {
+
+    if (vs == null || vs.getUrl() == null) return;
+
+    String url = vs.getUrl();
+
+    if (vs.hasCompose()) {
+
+      List<ConceptSetComponent> cscs = vs.getCompose().getInclude();
+
+      for (ConceptSetComponent csc : cscs) {
+
+        if (csc.getSystem() != null) {
+
+          for (ConceptReferenceComponent crc : csc.getConcept()) {
+            addCode(url, csc.getSystem(), crc.getCode());
+          }
+        }
+      }
+    }
+
+    if (vs.hasExpansion() && vs.getExpansion().hasContains()) {
+
+      for (ValueSetExpansionContainsComponent vsecc : vs.getExpansion().getContains()) {
+        addCode(url, vsecc.getSystem(), vsecc.getCode());
+      }
+    }
+
+    indexedValueSetUrls.add(url);
+  }
+
+  private void addCode(String url, String system, String code) {
+
+    if (system != null && code != null) {
+      codeToValueSetUrls.computeIfAbsent(getKey(system, code), k -> new HashSet<>()).add(url);
+    }
+  }
+
+  /**
+   * @param url - The url of the ValueSet.
+   * @return true if the ValueSet has been added to the index.
+   */
+  public boolean isIndexed(String url) {
+    return url != null && indexedValueSetUrls.contains(url);
+  }
+
+  /**
+   * @param url - The url of the ValueSet.
+   * @param system - The code system to be checked.
+   * @param code - The code to be checked.
+   * @return true if the ValueSet identified by the url contains the system and code.
+   */
+  public boolean contains(String url, String system, String code) {
+
+    if (system == null || code == null) return false;
+
+    Set<String> urls = codeToValueSetUrls.get(getKey(system, code));
+
+    return urls != null && urls.contains(url);
+  }
+
+  /**
+   * @param system - The code system to be checked.
+   * @param code - The code to be checked.
+   * @return the urls of all the ValueSets containing the system and code.
+   */
+  public Set<String> getValueSetUrls(String system, String code) {
+
+    if (system == null || code == null) return Collections.emptySet();
+
+    Set<String> urls = codeToValueSetUrls.get(getKey(system, code));
+
+    return urls != null ? Collections.unmodifiableSet(urls) : Collections.emptySet();
+  }
+
+  public int size() {
+    return codeToValueSetUrls.size();
+  }
+
+  public Map<String, Set<String>> getCodeToValueSetUrls() {
+    return Collections.unmodifiableMap(codeToValueSetUrls);
+  }
+
+  private static String getKey(String system, String code) {
+    return system + SYSTEM_CODE_SEPARATOR + code;
+  }
+}
@@ -18,6 +18,8 @@ public final class BsaTypes {
   }
 
   public enum NotificationProcessingStatusType {
+    QUEUED,
+    DISPATCHED,
     IN_PROGRESS,
     SUSPENDED,
     COMPLETED,
@@ -115,7 +117,9 @@ public final class BsaTypes {
 
   public static String getNotificationStatusTypeString(NotificationProcessingStatusType nst) {
 
-    if (nst == NotificationProcessingStatusType.IN_PROGRESS) return "IN_PROGRESS";
+    if (nst == NotificationProcessingStatusType.QUEUED) return "QUEUED";
+    else if (nst == NotificationProcessingStatusType.DISPATCHED) return "DISPATCHED";
+    else if (nst == NotificationProcessingStatusType.IN_PROGRESS) return "IN_PROGRESS";
     else if (nst == NotificationProcessingStatusType.SUSPENDED) return "SUSPENDED";
     else if (nst == NotificationProcessingStatusType.COMPLETED) return "COMPLETED";
     else if (nst == NotificationProcessingStatusType.CANCELLED) return "CANCELLED";
@@ -126,7 +130,9 @@ public final class BsaTypes {
 
   public static NotificationProcessingStatusType getNotificationProcessingStatusType(String s) {
 
-    if (s.contentEquals("IN_PROGRESS")) return NotificationProcessingStatusType.IN_PROGRESS;
+    if (s.contentEquals("QUEUED")) return NotificationProcessingStatusType.QUEUED;
+    else if (s.contentEquals("DISPATCHED")) return NotificationProcessingStatusType.DISPATCHED;
+    else if (s.contentEquals("IN_PROGRESS")) return NotificationProcessingStatusType.IN_PROGRESS;
     else if (s.contentEquals("SUSPENDED")) return NotificationProcessingStatusType.SUSPENDED;
     else if (s.contentEquals("COMPLETED")) return NotificationProcessingStatusType.COMPLETED;
     else if (s.contentEquals("CANCELLED")) return NotificationProcessingStatusType.CANCELLED;
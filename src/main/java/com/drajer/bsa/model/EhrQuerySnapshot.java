@@ -0,0 +1,107 @@
+package com.drajer.bsa.model;
+
+import java.util.Date;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import org.hibernate.annotations.DynamicUpdate;
+
+/**
+ *
+ *
+ * <h1>EhrQuerySnapshot</h1>
+ *
+ * The Entity represents the result of an EHR search query executed for a data requirement while
+ * processing a notification, along with the time the query was last executed. When scheduled jobs
+ * for the same notification execute the query again, only the resources updated after the last
+ * query time are retrieved from the EHR and merged into the snapshot.
+ *
+ * @author nbashyam
+ */
+@Entity
+@Table(
+    name = "ehr_query_snapshot",
+    indexes = {
+      @Index(name = "idx_ehr_query_snapshot", columnList = "nc_id, data_requirement_id, query_url")
+    })
+@DynamicUpdate
+public class EhrQuerySnapshot {
+
+  /** The attribute represents the primary key for the table and is auto generated. */
+  @Id @GeneratedValue private UUID id;
+
+  /** The attribute represents the notification context for which the query was executed. */
+  @Column(name = "nc_id", nullable = false, columnDefinition = "uuid")
+  private UUID ncId;
+
+  /** The attribute represents the data requirement for which the query was executed. */
+  @Column(name = "data_requirement_id", nullable = false, columnDefinition = "TEXT")
+  private String dataRequirementId;
+
+  /** The attribute represents the search query url without the _lastUpdated parameter. */
+  @Column(name = "query_url", nullable = false, columnDefinition = "TEXT")
+  private String queryUrl;
+
+  /** The attribute represents the time from which updated resources have to be retrieved. */
+  @Column(name = "last_query_time", nullable = false)
+  @Temporal(TemporalType.TIMESTAMP)
+  private Date lastQueryTime;
+
+  /** The attribute represents the resources retrieved so far as a JSON Bundle. */
+  @Column(name = "snapshot_data", nullable = true, columnDefinition = "TEXT")
+  private String snapshotData;
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  public UUID getNcId() {
+    return ncId;
+  }
+
+  public void setNcId(UUID ncId) {
+    this.ncId = ncId;
+  }
+
+  public String getDataRequirementId() {
+    return dataRequirementId;
+  }
+
+  public void setDataRequirementId(String dataRequirementId) {
+    this.dataRequirementId = dataRequirementId;
+  }
+
+  public String getQueryUrl() {
+    return queryUrl;
+  }
+
+  public void setQueryUrl(String queryUrl) {
+    this.queryUrl = queryUrl;
+  }
+
+  public Date getLastQueryTime() {
+    return lastQueryTime;
+  }
+
+  public void setLastQueryTime(Date lastQueryTime) {
+    this.lastQueryTime = lastQueryTime;
+  }
+
+  public String getSnapshotData() {
+    return snapshotData;
+  }
+
+  public void setSnapshotData(String snapshotData) {
+    this.snapshotData = snapshotData;
+  }
+}
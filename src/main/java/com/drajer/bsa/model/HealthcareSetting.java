@@ -367,6 +367,14 @@ public class HealthcareSetting implements FhirServerDetails {
   @Type(type = "org.hibernate.type.NumericBooleanType")
   private Boolean debugEnabled = true;
 
+  /**
+   * The attribute represents the version of the configuration of the HealthcareSetting, which is
+   * incremented when the HealthcareSetting or its KAR statuses are changed. The access token is not
+   * part of the configuration.
+   */
+  @Column(name = "config_version", nullable = true)
+  private Integer configVersion;
+
   /** This attribute represents the last time when the object was updated. */
   @Column(name = "last_updated_ts", nullable = false)
   @CreationTimestamp
@@ -402,6 +410,14 @@ public class HealthcareSetting implements FhirServerDetails {
     this.kars = kars;
   }
 
+  public Integer getConfigVersion() {
+    return configVersion;
+  }
+
+  public void setConfigVersion(Integer configVersion) {
+    this.configVersion = configVersion;
+  }
+
   public Integer getId() {
     return id;
   }
@@ -10,6 +10,7 @@ import com.drajer.bsa.model.BsaTypes.BsaJobType;
 import com.drajer.bsa.scheduler.ScheduledJobData;
 import com.drajer.bsa.service.KarExecutionStateService;
 import com.drajer.bsa.utils.BsaServiceUtils;
+import com.drajer.cda.utils.CdaSectionExecutor;
 import com.drajer.sof.utils.ResourceUtils;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -92,6 +93,18 @@ public class KarProcessingData {
    */
   HashMap<ResourceType, HashMap<String, Resource>> resourcesById;
 
+  /**
+   * The references (ResourceType/Id) that could not be resolved or resolved to invalid resources
+   * during the execution, so that they are not read from the EHR again.
+   */
+  Set<String> unresolvedResourceIds;
+
+  /**
+   * The results of the EHR queries shared by all the KARs applied to the same notification, null
+   * when the results are not shared.
+   */
+  SharedQueryResults sharedQueryResults;
+
   /**
    * The data to be used for specific condition evaluation. The map contains a mapping between the
    * actionId and the Parameters that will be used for evaluating the condition associated with the
@@ -147,6 +160,9 @@ public class KarProcessingData {
   /** The Service Helper that will help us save the ExecutionState */
   EhrQueryService ehrQueryService;
 
+  /** The executor used to generate the sections of the eICR */
+  CdaSectionExecutor cdaSectionExecutor;
+
   /** The X-Request ID header from the incoming request */
   String xRequestId;
 
@@ -405,6 +421,22 @@ public class KarProcessingData {
     return null;
   }
 
+  public void markResourceUnresolved(String id, ResourceType type) {
+    unresolvedResourceIds.add(type.toString() + "/" + id);
+  }
+
+  public boolean isResourceUnresolved(String id, ResourceType type) {
+    return unresolvedResourceIds.contains(type.toString() + "/" + id);
+  }
+
+  public SharedQueryResults getSharedQueryResults() {
+    return sharedQueryResults;
+  }
+
+  public void setSharedQueryResults(SharedQueryResults sharedQueryResults) {
+    this.sharedQueryResults = sharedQueryResults;
+  }
+
   public KarProcessingData() {
 
     fhirInputDataByType = new HashMap<>();
@@ -414,6 +446,7 @@ public class KarProcessingData {
     actionStatus = new HashMap<>();
     parametersForConditionEvaluation = new HashMap<>();
     resourcesById = new HashMap<>();
+    unresolvedResourceIds = new HashSet<>();
   }
 
   /**
@@ -569,6 +602,14 @@ public class KarProcessingData {
     this.ehrQueryService = ehrQueryService;
   }
 
+  public CdaSectionExecutor getCdaSectionExecutor() {
+    return cdaSectionExecutor;
+  }
+
+  public void setCdaSectionExecutor(CdaSectionExecutor cdaSectionExecutor) {
+    this.cdaSectionExecutor = cdaSectionExecutor;
+  }
+
   public ScheduledJobData getScheduledJobData() {
     return scheduledJobData;
   }
@@ -0,0 +1,87 @@
+package com.drajer.bsa.model;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ *
+ *
+ * <h1>PhMessageCursor</h1>
+ *
+ * The class identifies the position of a PublicHealthMessage in the results of a ph_messages query
+ * ordered by the last updated time and the id. The next page of the results starts after the
+ * message identified by the cursor, so pages remain stable when messages are added.
+ *
+ * @author nbashyam
+ */
+public class PhMessageCursor {
+
+  private static final String SEPARATOR = "_";
+
+  private final Timestamp lastUpdated;
+  private final UUID id;
+
+  public PhMessageCursor(Date lastUpdated, UUID id) {
+
+    // The nanoseconds are kept, so that the cursor matches the time saved in the database exactly.
+    this.lastUpdated = new Timestamp(lastUpdated.getTime());
+    if (lastUpdated instanceof Timestamp) {
+      this.lastUpdated.setNanos(((Timestamp) lastUpdated).getNanos());
+    }
+    this.id = id;
+  }
+
+  /**
+   * The method returns the cursor positioned at the message.
+   *
+   * @param message The last message of a page of results.
+   * @return The cursor.
+   */
+  public static PhMessageCursor of(PublicHealthMessage message) {
+    return new PhMessageCursor(message.getLastUpdated(), message.getId());
+  }
+
+  /**
+   * The method decodes a cursor returned by {@link #encode()}.
+   *
+   * @param cursor The encoded cursor.
+   * @return The cursor.
+   * @throws IllegalArgumentException When the cursor is not valid.
+   */
+  public static PhMessageCursor decode(String cursor) {
+
+    String[] parts =
+        new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(SEPARATOR);
+
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("Invalid PH Message cursor " + cursor);
+    }
+
+    Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]));
+    timestamp.setNanos(Integer.parseInt(parts[1]));
+
+    return new PhMessageCursor(timestamp, UUID.fromString(parts[2]));
+  }
+
+  /** @return The cursor encoded as an opaque URL safe string. */
+  public String encode() {
+
+    String cursor =
+        lastUpdated.getTime() + SEPARATOR + lastUpdated.getNanos() + SEPARATOR + id.toString();
+
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+  }
+
+  public Timestamp getLastUpdated() {
+    return lastUpdated;
+  }
+
+  public UUID getId() {
+    return id;
+  }
+}
@@ -0,0 +1,44 @@
+package com.drajer.bsa.model;
+
+import java.util.function.Function;
+
+/**
+ *
+ *
+ * <h1>PhMessagePayloadType</h1>
+ *
+ * The enum identifies the payloads of a PublicHealthMessage, which can be kept in the ph_messages
+ * table or in a separate payload store.
+ *
+ * @author nbashyam
+ */
+public enum PhMessagePayloadType {
+  SUBMITTED_FHIR_DATA("application/fhir+json", PublicHealthMessage::getSubmittedFhirData),
+  SUBMITTED_CDA_DATA("application/xml", PublicHealthMessage::getSubmittedCdaData),
+  FHIR_RESPONSE_DATA("application/fhir+json", PublicHealthMessage::getFhirResponseData),
+  CDA_RESPONSE_DATA("application/xml", PublicHealthMessage::getCdaResponseData),
+  FAILURE_RESPONSE_DATA("text/plain", PublicHealthMessage::getFailureResponseData);
+
+  private final String contentType;
+  private final Function<PublicHealthMessage, String> payload;
+
+  PhMessagePayloadType(String contentType, Function<PublicHealthMessage, String> payload) {
+    this.contentType = contentType;
+    this.payload = payload;
+  }
+
+  /** @return The media type of the payload. */
+  public String getContentType() {
+    return contentType;
+  }
+
+  /**
+   * The method returns the payload of this type from the message.
+   *
+   * @param message The message.
+   * @return The payload, or null if the message does not have the payload.
+   */
+  public String getPayload(PublicHealthMessage message) {
+    return payload.apply(message);
+  }
+}
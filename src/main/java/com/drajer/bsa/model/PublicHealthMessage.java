@@ -1,6 +1,10 @@
 package com.drajer.bsa.model;
 
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -28,7 +32,15 @@ import org.slf4j.LoggerFactory;
     name = "ph_messages",
     indexes = {
       @Index(name = "idx_not_res_id", columnList = "notified_resource_id"),
-      @Index(name = "idx_kar_id", columnList = "kar_unique_id")
+      @Index(name = "idx_kar_id", columnList = "kar_unique_id"),
+      @Index(
+          name = "idx_ph_msg_lookup",
+          columnList =
+              "notified_resource_id, patient_id, kar_unique_id, notified_resource_type, "
+                  + "fhir_server_base_url, submitted_version_number"),
+      @Index(name = "idx_sub_data_id", columnList = "submitted_data_id"),
+      @Index(name = "idx_corr_id", columnList = "correlation_id"),
+      @Index(name = "idx_ph_msg_last_upd", columnList = "last_updated_ts, id")
     })
 @DynamicUpdate
 public class PublicHealthMessage {
@@ -221,10 +233,133 @@ public class PublicHealthMessage {
   @CreationTimestamp
   private Date lastUpdated;
 
+  /**
+   * The payloads kept in the payload store, which are set by the DAO when the payloads are saved to
+   * or loaded from the store. The ph_messages table does not have these payloads.
+   */
+  @Transient
+  private final transient Map<PhMessagePayloadType, String> externalPayloads =
+      new EnumMap<>(PhMessagePayloadType.class);
+
+  /** The payloads set on the message since it was loaded or saved. */
+  @Transient
+  private final transient Set<PhMessagePayloadType> modifiedPayloads =
+      EnumSet.noneOf(PhMessagePayloadType.class);
+
   public PublicHealthMessage() {
     logger.info("PublicHealthMessage initiated.");
   }
 
+  /**
+   * The method returns the payload from the ph_messages table, or else the payload attached from
+   * the payload store. The payload store is never read by the message itself.
+   */
+  private String getPayload(PhMessagePayloadType type, String columnValue) {
+    return columnValue != null ? columnValue : externalPayloads.get(type);
+  }
+
+  private String setPayload(PhMessagePayloadType type, String payload) {
+    externalPayloads.remove(type);
+    modifiedPayloads.add(type);
+    return payload;
+  }
+
+  /**
+   * The method marks the payloads saved in the ph_messages table as modified, so that they are
+   * moved to the payload store when the message is saved.
+   *
+   * @return true if the message had payloads in the ph_messages table.
+   */
+  public boolean externalizePayloads() {
+
+    boolean moved = false;
+
+    for (PhMessagePayloadType type : PhMessagePayloadType.values()) {
+      if (getColumnValue(type) != null) {
+        modifiedPayloads.add(type);
+        moved = true;
+      }
+    }
+
+    return moved;
+  }
+
+  /**
+   * The method removes the payloads set since the message was loaded or saved from the ph_messages
+   * columns, so that they are saved to the payload store instead. The payloads remain available on
+   * the message.
+   *
+   * @return The payloads keyed by the type, a null payload is to be deleted from the store.
+   */
+  public Map<PhMessagePayloadType, String> detachPayloads() {
+
+    Map<PhMessagePayloadType, String> payloads = new EnumMap<>(PhMessagePayloadType.class);
+
+    for (PhMessagePayloadType type : modifiedPayloads) {
+      String payload = getColumnValue(type);
+      payloads.put(type, payload);
+      if (payload != null) {
+        externalPayloads.put(type, payload);
+      }
+      setColumnValue(type, null);
+    }
+
+    modifiedPayloads.clear();
+    return payloads;
+  }
+
+  /**
+   * The method attaches the payloads read from the payload store to the message. The payloads in
+   * the ph_messages table or set on the message are left unchanged.
+   *
+   * @param payloads The payloads keyed by the type.
+   */
+  public void attachPayloads(Map<PhMessagePayloadType, String> payloads) {
+
+    payloads.forEach(
+        (type, payload) -> {
+          if (payload != null && getColumnValue(type) == null && !modifiedPayloads.contains(type)) {
+            externalPayloads.put(type, payload);
+          }
+        });
+  }
+
+  private String getColumnValue(PhMessagePayloadType type) {
+
+    switch (type) {
+      case SUBMITTED_FHIR_DATA:
+        return submittedFhirData;
+      case SUBMITTED_CDA_DATA:
+        return submittedCdaData;
+      case FHIR_RESPONSE_DATA:
+        return fhirResponseData;
+      case CDA_RESPONSE_DATA:
+        return cdaResponseData;
+      default:
+        return failureResponseData;
+    }
+  }
+
+  private void setColumnValue(PhMessagePayloadType type, String value) {
+
+    switch (type) {
+      case SUBMITTED_FHIR_DATA:
+        submittedFhirData = value;
+        break;
+      case SUBMITTED_CDA_DATA:
+        submittedCdaData = value;
+        break;
+      case FHIR_RESPONSE_DATA:
+        fhirResponseData = value;
+        break;
+      case CDA_RESPONSE_DATA:
+        cdaResponseData = value;
+        break;
+      default:
+        failureResponseData = value;
+    }
+  }
+
   public UUID getId() {
     return id;
   }
@@ -274,35 +409,35 @@ public class PublicHealthMessage {
   }
 
   public String getSubmittedFhirData() {
-    return submittedFhirData;
+    return getPayload(PhMessagePayloadType.SUBMITTED_FHIR_DATA, submittedFhirData);
   }
 
   public void setSubmittedFhirData(String submittedData) {
-    this.submittedFhirData = submittedData;
+    this.submittedFhirData = setPayload(PhMessagePayloadType.SUBMITTED_FHIR_DATA, submittedData);
   }
 
   public String getSubmittedCdaData() {
-    return submittedCdaData;
+    return getPayload(PhMessagePayloadType.SUBMITTED_CDA_DATA, submittedCdaData);
   }
 
   public void setSubmittedCdaData(String submittedCdaData) {
-    this.submittedCdaData = submittedCdaData;
+    this.submittedCdaData = setPayload(PhMessagePayloadType.SUBMITTED_CDA_DATA, submittedCdaData);
   }
 
   public String getFhirResponseData() {
-    return fhirResponseData;
+    return getPayload(PhMessagePayloadType.FHIR_RESPONSE_DATA, fhirResponseData);
   }
 
   public void setFhirResponseData(String responseData) {
-    this.fhirResponseData = responseData;
+    this.fhirResponseData = setPayload(PhMessagePayloadType.FHIR_RESPONSE_DATA, responseData);
   }
 
   public String getCdaResponseData() {
-    return cdaResponseData;
+    return getPayload(PhMessagePayloadType.CDA_RESPONSE_DATA, cdaResponseData);
   }
 
   public void setCdaResponseData(String cdaResponseData) {
-    this.cdaResponseData = cdaResponseData;
+    this.cdaResponseData = setPayload(PhMessagePayloadType.CDA_RESPONSE_DATA, cdaResponseData);
   }
 
   public Date getLastUpdated() {
@@ -410,11 +545,12 @@ public class PublicHealthMessage {
   }
 
   public String getFailureResponseData() {
-    return failureResponseData;
+    return getPayload(PhMessagePayloadType.FAILURE_RESPONSE_DATA, failureResponseData);
   }
 
   public void setFailureResponseData(String failureResponseData) {
-    this.failureResponseData = failureResponseData;
+    this.failureResponseData =
+        setPayload(PhMessagePayloadType.FAILURE_RESPONSE_DATA, failureResponseData);
   }
 
   public String getKarUniqueId() {
@@ -0,0 +1,93 @@
+package com.drajer.bsa.model;
+
+import java.util.Date;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import org.hibernate.annotations.UpdateTimestamp;
+
+/**
+ *
+ *
+ * <h1>PublicHealthMessagePayload</h1>
+ *
+ * The class stores a compressed payload of a PublicHealthMessage, so that the payloads are not read
+ * along with the ph_messages rows.
+ *
+ * @author nbashyam
+ */
+@Entity
+@Table(
+    name = "ph_message_payloads",
+    indexes = {
+      @Index(name = "idx_ph_msg_payload", columnList = "message_id, payload_type", unique = true)
+    })
+public class PublicHealthMessagePayload {
+
+  /** The attribute represents the primary key for the table and is auto incremented. */
+  @Id @GeneratedValue private UUID id;
+
+  /** The attribute represents the id of the PublicHealthMessage that the payload belongs to. */
+  @Column(name = "message_id", nullable = false)
+  private UUID messageId;
+
+  /** The attribute represents the type of the payload. */
+  @Column(name = "payload_type", nullable = false, columnDefinition = "TEXT")
+  @Enumerated(EnumType.STRING)
+  private PhMessagePayloadType payloadType;
+
+  /** The attribute represents the payload compressed using GZIP. */
+  @Column(name = "compressed_data", nullable = false, length = Integer.MAX_VALUE)
+  private byte[] compressedData;
+
+  /** This attribute represents the last time when the object was updated. */
+  @Column(name = "last_updated_ts", nullable = false)
+  @UpdateTimestamp
+  private Date lastUpdated;
+
+  public UUID getId() {
+    return id;
+  }
+
+  public void setId(UUID id) {
+    this.id = id;
+  }
+
+  public UUID getMessageId() {
+    return messageId;
+  }
+
+  public void setMessageId(UUID messageId) {
+    this.messageId = messageId;
+  }
+
+  public PhMessagePayloadType getPayloadType() {
+    return payloadType;
+  }
+
+  public void setPayloadType(PhMessagePayloadType payloadType) {
+    this.payloadType = payloadType;
+  }
+
+  public byte[] getCompressedData() {
+    return compressedData;
+  }
+
+  public void setCompressedData(byte[] compressedData) {
+    this.compressedData = compressedData;
+  }
+
+  public Date getLastUpdated() {
+    return lastUpdated;
+  }
+
+  public void setLastUpdated(Date lastUpdated) {
+    this.lastUpdated = lastUpdated;
+  }
+}
@@ -0,0 +1,92 @@
+package com.drajer.bsa.model;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ *
+ * <h1>SharedQueryResults</h1>
+ *
+ * This class holds the results of the EHR queries executed while applying the active KARs to one
+ * notification, keyed by the query url. When several KARs issue the same query, the EHR is queried
+ * once and the other KARs receive the same result. Concurrent requests for the same query wait for
+ * the query in flight instead of querying the EHR again. A query which fails or does not return a
+ * result is not shared, so that the next KAR executes it again. The results held are never handed
+ * out directly, each caller receives its own copy so that one KAR cannot modify the data seen by
+ * another.
+ *
+ * @author nbashyam
+ */
+public class SharedQueryResults {
+
+  private final Logger logger = LoggerFactory.getLogger(SharedQueryResults.class);
+
+  private final ConcurrentHashMap<String, CompletableFuture<Resource>> results =
+      new ConcurrentHashMap<>();
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  /**
+   * The method returns a copy of the result of the query, executing the query only if it has not
+   * been executed for the notification yet.
+   *
+   * @param query The query url, or any other key that identifies the result.
+   * @param loader The loader used to execute the query, which may return null and has to throw an
+   *     exception when the query fails.
+   * @return A copy of the result of the query, null if the query did not return a result.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Resource> T get(String query, Supplier<T> loader) {
+
+    CompletableFuture<Resource> created = new CompletableFuture<>();
+    CompletableFuture<Resource> existing = results.putIfAbsent(query, created);
+
+    Resource result;
+
+    if (existing == null) {
+
+      misses.incrementAndGet();
+
+      try {
+        result = loader.get();
+
+        if (result == null) {
+          results.remove(query, created);
+        }
+
+        created.complete(result);
+      } catch (RuntimeException e) {
+        // Do not cache failures, so that the next caller retries the query.
+        results.remove(query, created);
+        created.completeExceptionally(e);
+        throw e;
+      }
+    } else {
+
+      hits.incrementAndGet();
+      logger.info(" Reusing the result of query {} for the notification", query);
+      result = existing.join();
+    }
+
+    return result != null ? (T) result.copy() : null;
+  }
+
+  public int getHits() {
+    return hits.get();
+  }
+
+  public int getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    return results.size();
+  }
+}
@@ -31,6 +31,8 @@ public class BsaScheduler {
 
   @Autowired Scheduler scheduler;
 
+  @Autowired TimerCoalescer timerCoalescer;
+
   public void scheduleJob(
       UUID karExecId,
       String actionId,
@@ -40,6 +42,18 @@ public class BsaScheduler {
       BsaJobType jobtype,
       Map<String, String> mdc) {
 
+    if (timerCoalescer.isEnabled()) {
+
+      // The job id identifies the KarExecutionState and action, so the timers are merged.
+      String jobId = actionId + "_" + type.toString() + "_" + karExecId.toString();
+
+      logger.info(" Scheduling coalesced Job Id {} to be executed at : {}", jobId, t);
+
+      timerCoalescer.schedule(
+          new ScheduledJobData(karExecId, actionId, type, t, jobId, xReqId, jobtype, mdc), t);
+      return;
+    }
+
     String jobId =
         actionId
             + "_"
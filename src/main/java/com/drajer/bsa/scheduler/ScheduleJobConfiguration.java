@@ -2,8 +2,16 @@ package com.drajer.bsa.scheduler;
 
 import com.drajer.bsa.service.KarProcessor;
 import com.drajer.ecrapp.util.ApplicationUtils;
+import com.github.kagkarlsson.scheduler.boot.config.DbSchedulerCustomizer;
+import com.github.kagkarlsson.scheduler.serializer.Serializer;
+import com.github.kagkarlsson.scheduler.task.CompletionHandler;
+import com.github.kagkarlsson.scheduler.task.DeadExecutionHandler;
+import com.github.kagkarlsson.scheduler.task.FailureHandler;
 import com.github.kagkarlsson.scheduler.task.Task;
 import com.github.kagkarlsson.scheduler.task.helper.Tasks;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
 import org.hibernate.ObjectDeletedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,15 +41,50 @@ public class ScheduleJobConfiguration {
   @Value("${timer.retries:10}")
   private Integer timerRetries;
 
-  /** Define a one-time job which has to be manually scheduled. */
+  /**
+   * The serializer of the task data reads both the compact and the Java serialized task data, so it
+   * is always used. The compact format is written only when it is enabled.
+   */
+  @Bean
+  public DbSchedulerCustomizer dbSchedulerCustomizer(TaskDataSerializer serializer) {
+
+    return new DbSchedulerCustomizer() {
+      @Override
+      public Optional<Serializer> serializer() {
+        return Optional.of(serializer);
+      }
+    };
+  }
+
+  /**
+   * The serializer is also used by the TimerCoalescer to write the task data. The method is static
+   * so that the serializer does not depend on the KarProcessor, which uses the TimerCoalescer.
+   */
+  @Bean
+  public static TaskDataSerializer taskDataSerializer(
+      @Value("${scheduler.task-data.compact-writes:false}") boolean compactTaskData) {
+    LoggerFactory.getLogger(ScheduleJobConfiguration.class)
+        .info("Initializing the task data serializer, compact writes : {}", compactTaskData);
+    return new TaskDataSerializer(Serializer.DEFAULT_JAVA_SERIALIZER, compactTaskData);
+  }
+
+  /**
+   * Define a one-time job which has to be manually scheduled. The job is removed once it is
+   * executed, unless a reschedule time was set on its data, in which case the same job is executed
+   * again at that time.
+   */
   @Bean
   public Task<ScheduledJobData> sampleOneTimeJob() {
     logger.info("Initializing the One time task");
 
-    return Tasks.oneTime("BsaScheduledJob", ScheduledJobData.class)
-        .onFailureRetryLater()
+    return Tasks.custom("BsaScheduledJob", ScheduledJobData.class)
+        .onFailure(new FailureHandler.OnFailureRetryLater<>(Duration.ofMinutes(5)))
+        .onDeadExecution(new DeadExecutionHandler.ReviveDeadExecution<>())
         .execute(
             (inst, ctx) -> {
+              CompletionHandler<ScheduledJobData> completion =
+                  new CompletionHandler.OnCompleteRemove<>();
+
               try {
 
                 if (inst.getData().getMdcContext() != null) {
@@ -57,6 +100,15 @@ public class ScheduleJobConfiguration {
 
                 karProcessor.applyKarForScheduledJob(inst.getData());
 
+                Instant rescheduleTime = inst.getData().getRescheduleTime();
+                if (rescheduleTime != null) {
+                  logger.info(
+                      "Rescheduling Task for {} to be executed at : {}",
+                      inst.getTaskAndInstance(),
+                      rescheduleTime);
+                  completion = (complete, ops) -> ops.reschedule(complete, rescheduleTime);
+                }
+
                 logger.info(
                     "Successfully Completed Executing Task for {}, Action Id: {}, KarExecutionStateId: {}, xRequestId : {}",
                     inst.getTaskAndInstance(),
@@ -101,6 +153,8 @@ public class ScheduleJobConfiguration {
                 logger.info(" Clearing MDC");
                 MDC.clear();
               }
+
+              return completion;
             });
   }
 }
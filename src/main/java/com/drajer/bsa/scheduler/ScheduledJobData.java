@@ -20,6 +20,9 @@ public class ScheduledJobData implements Serializable {
   String xRequestId;
   BsaJobType jobType;
 
+  /** Set when the job has to be executed again at this time instead of being removed. */
+  transient Instant rescheduleTime;
+
   public ScheduledJobData(
       UUID id,
       String action,
@@ -102,4 +105,12 @@ public class ScheduledJobData implements Serializable {
   public void setJobType(BsaJobType jobType) {
     this.jobType = jobType;
   }
+
+  public Instant getRescheduleTime() {
+    return rescheduleTime;
+  }
+
+  public void setRescheduleTime(Instant rescheduleTime) {
+    this.rescheduleTime = rescheduleTime;
+  }
 }
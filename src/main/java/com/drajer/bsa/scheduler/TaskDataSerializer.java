@@ -0,0 +1,280 @@
+package com.drajer.bsa.scheduler;
+
+import com.drajer.bsa.model.BsaTypes;
+import com.drajer.bsa.model.BsaTypes.BsaJobType;
+import com.drajer.eca.model.EventTypes.EcrActionTypes;
+import com.drajer.eca.model.TaskTimer;
+import com.github.kagkarlsson.scheduler.serializer.Serializer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ *
+ *
+ * <h1>TaskDataSerializer</h1>
+ *
+ * This class serializes the data of the scheduled tasks saved in the task_data column. The
+ * ScheduledJobData and the TaskTimer are written in a compact, versioned binary format when compact
+ * writes are enabled, and with Java serialization otherwise. Both formats are always read, so the
+ * rows written before compact writes were enabled, or after they were disabled again, are still
+ * executed.
+ *
+ * <p>The compact format starts with the bytes 'E', 'C', the format version and the type of the
+ * data, followed by the fields of the data. Java serialized data always starts with 0xACED, so the
+ * formats cannot be confused.
+ *
+ * @author nbashyam
+ */
+public class TaskDataSerializer implements Serializer {
+
+  static final byte MAGIC_1 = 'E';
+  static final byte MAGIC_2 = 'C';
+  static final byte VERSION_1 = 1;
+
+  static final byte SCHEDULED_JOB_DATA = 1;
+  static final byte TASK_TIMER = 2;
+
+  private final Serializer javaSerializer;
+  private final boolean compactWrites;
+
+  public TaskDataSerializer(Serializer javaSerializer, boolean compactWrites) {
+    this.javaSerializer = javaSerializer;
+    this.compactWrites = compactWrites;
+  }
+
+  @Override
+  public byte[] serialize(Object data) {
+
+    if (!compactWrites || !(data instanceof ScheduledJobData || data instanceof TaskTimer)) {
+      return javaSerializer.serialize(data);
+    }
+
+    try {
+      ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+      DataOutputStream out = new DataOutputStream(bos);
+
+      out.writeByte(MAGIC_1);
+      out.writeByte(MAGIC_2);
+      out.writeByte(VERSION_1);
+
+      if (data instanceof ScheduledJobData) {
+        out.writeByte(SCHEDULED_JOB_DATA);
+        writeScheduledJobData(out, (ScheduledJobData) data);
+      } else {
+        out.writeByte(TASK_TIMER);
+        writeTaskTimer(out, (TaskTimer) data);
+      }
+
+      out.flush();
+      return bos.toByteArray();
+
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to serialize the task data", e);
+    }
+  }
+
+  @Override
+  public <T> T deserialize(Class<T> clazz, byte[] serializedData) {
+
+    if (!isCompact(serializedData)) {
+      return javaSerializer.deserialize(clazz, serializedData);
+    }
+
+    DataInputStream in =
+        new DataInputStream(new ByteArrayInputStream(serializedData, 2, serializedData.length - 2));
+
+    try {
+
+      byte version = in.readByte();
+      if (version != VERSION_1) {
+        throw new IllegalArgumentException("Unsupported task data version " + version);
+      }
+
+      byte type = in.readByte();
+      Object data;
+      if (type == SCHEDULED_JOB_DATA) {
+        data = readScheduledJobData(in);
+      } else if (type == TASK_TIMER) {
+        data = readTaskTimer(in);
+      } else {
+        throw new IllegalArgumentException("Unsupported task data type " + type);
+      }
+
+      return clazz.cast(data);
+
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to deserialize the task data", e);
+    }
+  }
+
+  /**
+   * @param serializedData The task data saved in the task_data column.
+   * @return true if the data is in the compact format.
+   */
+  public static boolean isCompact(byte[] serializedData) {
+    return serializedData != null
+        && serializedData.length > 3
+        && serializedData[0] == MAGIC_1
+        && serializedData[1] == MAGIC_2;
+  }
+
+  private static void writeScheduledJobData(DataOutputStream out, ScheduledJobData data)
+      throws IOException {
+
+    writeUuid(out, data.getKarExecutionStateId());
+    writeString(out, data.getActionId());
+    writeString(out, data.getActionType() != null ? data.getActionType().name() : null);
+    writeString(out, data.getJobId());
+    writeString(out, data.getxRequestId());
+    writeString(out, data.getJobType() != null ? data.getJobType().name() : null);
+    writeMap(out, data.getMdcContext());
+  }
+
+  private static ScheduledJobData readScheduledJobData(DataInputStream in) throws IOException {
+
+    UUID karExecutionStateId = readUuid(in);
+    String actionId = readString(in);
+    String actionType = readString(in);
+    String jobId = readString(in);
+    String xRequestId = readString(in);
+    String jobType = readString(in);
+    Map<String, String> mdc = readMap(in);
+
+    // The expiration time is transient, as with Java serialization.
+    return new ScheduledJobData(
+        karExecutionStateId,
+        actionId,
+        actionType != null ? BsaTypes.ActionType.valueOf(actionType) : null,
+        null,
+        jobId,
+        xRequestId,
+        jobType != null ? BsaJobType.valueOf(jobType) : null,
+        mdc);
+  }
+
+  private static void writeTaskTimer(DataOutputStream out, TaskTimer data) throws IOException {
+
+    out.writeBoolean(data.getId() != null);
+    if (data.getId() != null) {
+      out.writeLong(data.getId());
+    }
+    out.writeBoolean(data.getLaunchDetailsId() != null);
+    if (data.getLaunchDetailsId() != null) {
+      out.writeInt(data.getLaunchDetailsId());
+    }
+    writeString(out, data.getActionTypes() != null ? data.getActionTypes().name() : null);
+    writeMap(out, data.getMdcContext());
+  }
+
+  private static TaskTimer readTaskTimer(DataInputStream in) throws IOException {
+
+    Long id = in.readBoolean() ? in.readLong() : null;
+    Integer launchDetailsId = in.readBoolean() ? in.readInt() : null;
+    String actionTypes = readString(in);
+    Map<String, String> mdc = readMap(in);
+
+    return new TaskTimer(
+        id,
+        launchDetailsId,
+        actionTypes != null ? EcrActionTypes.valueOf(actionTypes) : null,
+        null,
+        mdc);
+  }
+
+  private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+
+    out.writeBoolean(uuid != null);
+    if (uuid != null) {
+      out.writeLong(uuid.getMostSignificantBits());
+      out.writeLong(uuid.getLeastSignificantBits());
+    }
+  }
+
+  private static UUID readUuid(DataInputStream in) throws IOException {
+    return in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+  }
+
+  /** Writes the length of the UTF-8 bytes plus one as a variable length int, 0 for null. */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+
+    if (value == null) {
+      writeVarInt(out, 0);
+      return;
+    }
+
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarInt(out, bytes.length + 1);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+
+    int length = readVarInt(in);
+    if (length == 0) {
+      return null;
+    }
+
+    byte[] bytes = new byte[length - 1];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Writes the number of entries plus one, 0 for null, followed by the keys and values. */
+  private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+
+    if (map == null) {
+      writeVarInt(out, 0);
+      return;
+    }
+
+    writeVarInt(out, map.size() + 1);
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      writeString(out, entry.getKey());
+      writeString(out, entry.getValue());
+    }
+  }
+
+  private static Map<String, String> readMap(DataInputStream in) throws IOException {
+
+    int size = readVarInt(in);
+    if (size == 0) {
+      return null;
+    }
+
+    Map<String, String> map = new HashMap<>();
+    for (int i = 0; i < size - 1; i++) {
+      map.put(readString(in), readString(in));
+    }
+    return map;
+  }
+
+  private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readVarInt(DataInputStream in) throws IOException {
+
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length int in the task data");
+  }
+}
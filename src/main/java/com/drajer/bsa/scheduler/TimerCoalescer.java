@@ -0,0 +1,264 @@
+package com.drajer.bsa.scheduler;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ *
+ *
+ * <h1>TimerCoalescer</h1>
+ *
+ * This class keeps at most one pending BsaScheduledJob per KarExecutionState and action. The job id
+ * of a timer is derived from the action and the KarExecutionState, and a timer scheduled for a job
+ * which is already pending is merged into the earlier of the two execution times. The timers
+ * scheduled within a transaction, such as the processing of one notification, are collected and
+ * written to the scheduled_tasks table as one JDBC batch when the transaction commits.
+ *
+ * <p>A job which is executing cannot be merged, so a timer scheduled for it gets a job id of its
+ * own, the job id followed by a random suffix. The pending jobs are looked up by the job id prefix,
+ * so the later timers are merged with such a job as well.
+ *
+ * @author nbashyam
+ */
+@Component
+public class TimerCoalescer {
+
+  private static final Logger logger = LoggerFactory.getLogger(TimerCoalescer.class);
+
+  static final String TASK_NAME = "BsaScheduledJob";
+
+  @Value("${bsa.scheduler.coalesce-timers.enabled:false}")
+  private boolean coalesceTimers;
+
+  @Value("${db-scheduler.table-name:scheduled_tasks}")
+  private String tableName;
+
+  @Autowired DataSource dataSource;
+
+  @Autowired TaskDataSerializer serializer;
+
+  JdbcTemplate jdbcTemplate;
+
+  @PostConstruct
+  public void initialize() {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  public boolean isEnabled() {
+    return coalesceTimers;
+  }
+
+  /**
+   * The method schedules the job, merging it with the job pending for the same KarExecutionState
+   * and action. Within a transaction the job is written when the transaction commits, otherwise it
+   * is written immediately.
+   *
+   * @param data The data of the job, whose job id identifies the KarExecutionState and action.
+   * @param t The time at which the job has to be executed.
+   */
+  public void schedule(ScheduledJobData data, Instant t) {
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      PendingTimers timers = new PendingTimers();
+      timers.add(data, t);
+      flush(timers);
+      return;
+    }
+
+    PendingTimers pending = (PendingTimers) TransactionSynchronizationManager.getResource(this);
+
+    if (pending == null) {
+
+      PendingTimers timers = new PendingTimers();
+      TransactionSynchronizationManager.bindResource(this, timers);
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+              TimerCoalescer.this.flush(timers);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+              TransactionSynchronizationManager.unbindResourceIfPossible(TimerCoalescer.this);
+            }
+          });
+      pending = timers;
+    }
+
+    pending.add(data, t);
+  }
+
+  /**
+   * The method writes the timers with at most three JDBC batches. The pending jobs of the
+   * KarExecutionState and action, including the ones scheduled with a job id of their own, are
+   * first moved to the earlier execution time. The timers without a pending job are then upserted
+   * using their job id, and the timers whose job is executing are inserted with a job id of their
+   * own. The row counts of each batch decide which timers are left for the next one, so a job
+   * picked for execution in the meantime is never modified.
+   */
+  void flush(PendingTimers timers) {
+
+    if (timers.isEmpty()) return;
+
+    List<PendingTimer> values = timers.values();
+
+    List<Object[]> updates = new ArrayList<>();
+    for (PendingTimer timer : values) {
+      String jobId = timer.data.getJobId();
+      updates.add(
+          new Object[] {Timestamp.from(timer.time), TASK_NAME, jobId, escapeLike(jobId) + "\\_%"});
+    }
+
+    // Moves the pending jobs which are not executing, leaving a later job as it is.
+    int[] updated =
+        jdbcTemplate.batchUpdate(
+            "update "
+                + tableName
+                + " set execution_time = least(execution_time, ?) where task_name = ?"
+                + " and (task_instance = ? or task_instance like ? escape '\\')"
+                + " and picked = false",
+            updates);
+
+    List<PendingTimer> notPending = new ArrayList<>();
+    for (int i = 0; i < values.size(); i++) {
+      if (updated[i] > 0) {
+        logger.info(
+            " Coalesced the timer for Job Id {} with the pending job",
+            values.get(i).data.getJobId());
+      } else {
+        notPending.add(values.get(i));
+      }
+    }
+
+    List<PendingTimer> picked = new ArrayList<>();
+
+    if (!notPending.isEmpty()) {
+
+      List<Object[]> upserts = new ArrayList<>();
+      for (PendingTimer timer : notPending) {
+        upserts.add(insertArgs(timer.data.getJobId(), timer));
+      }
+
+      // A job inserted concurrently is merged, a job picked for execution is left unchanged.
+      int[] upserted =
+          jdbcTemplate.batchUpdate(
+              insertSql()
+                  + " on conflict (task_name, task_instance) do update"
+                  + " set execution_time = least(excluded.execution_time, "
+                  + tableName
+                  + ".execution_time) where "
+                  + tableName
+                  + ".picked = false",
+              upserts);
+
+      for (int i = 0; i < notPending.size(); i++) {
+        if (upserted[i] == 0) {
+          picked.add(notPending.get(i));
+        }
+      }
+    }
+
+    if (!picked.isEmpty()) {
+
+      List<Object[]> inserts = new ArrayList<>();
+      for (PendingTimer timer : picked) {
+        String jobId = timer.data.getJobId();
+        String uniqueId = jobId + "_" + UUID.randomUUID().toString();
+        logger.info(" Job Id {} is executing, scheduling the timer as {}", jobId, uniqueId);
+        timer.data.setJobId(uniqueId);
+        inserts.add(insertArgs(uniqueId, timer));
+      }
+
+      jdbcTemplate.batchUpdate(insertSql(), inserts);
+    }
+
+    logger.info(
+        " Scheduled {} timers, {} merged with pending jobs, {} upserted and {} executing",
+        values.size(),
+        values.size() - notPending.size(),
+        notPending.size() - picked.size(),
+        picked.size());
+  }
+
+  private String insertSql() {
+    return "insert into "
+        + tableName
+        + " (task_name, task_instance, task_data, execution_time, picked, version)"
+        + " values (?, ?, ?, ?, ?, ?)";
+  }
+
+  private Object[] insertArgs(String jobId, PendingTimer timer) {
+    return new Object[] {
+      TASK_NAME, jobId, serializer.serialize(timer.data), Timestamp.from(timer.time), false, 1
+    };
+  }
+
+  /** The job id contains underscores, which match any character in a like pattern. */
+  static String escapeLike(String value) {
+    return value.replace("\\", "\\\\").replace("_", "\\_").replace("%", "\\%");
+  }
+
+  /** The timers scheduled within a transaction, keyed by the job id. */
+  static class PendingTimers {
+
+    private final Map<String, PendingTimer> timers = new LinkedHashMap<>();
+
+    /** The method adds the timer, keeping the earlier timer for the same job id. */
+    void add(ScheduledJobData data, Instant t) {
+
+      PendingTimer current = timers.get(data.getJobId());
+
+      if (current == null || t.isBefore(current.time)) {
+        timers.put(data.getJobId(), new PendingTimer(data, t));
+      } else {
+        logger.info(
+            " Coalesced the timer for Job Id {} with the timer at : {}",
+            data.getJobId(),
+            current.time);
+      }
+    }
+
+    boolean isEmpty() {
+      return timers.isEmpty();
+    }
+
+    int size() {
+      return timers.size();
+    }
+
+    List<String> getJobIds() {
+      return new ArrayList<>(timers.keySet());
+    }
+
+    List<PendingTimer> values() {
+      return new ArrayList<>(timers.values());
+    }
+  }
+
+  static class PendingTimer {
+
+    final ScheduledJobData data;
+    final Instant time;
+
+    PendingTimer(ScheduledJobData data, Instant time) {
+      this.data = data;
+      this.time = time;
+    }
+  }
+}
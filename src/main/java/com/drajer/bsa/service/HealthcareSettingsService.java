@@ -35,6 +35,10 @@ public interface HealthcareSettingsService {
   /**
    * Method to retrieve a HealthcareSetting.
    *
+   * <p>When the HealthcareSetting cache is enabled, the HealthcareSetting and its KARs are a
+   * detached copy instead of an entity managed by the session, so the changes made to them are not
+   * saved unless they are passed to saveOrUpdate.
+   *
    * @param url The HealthcareSettings details to be retrieved based on the url.
    * @return Returns the HealthcareSettings for the provided url.
    */
@@ -0,0 +1,41 @@
+package com.drajer.bsa.service;
+
+import com.drajer.bsa.model.NotificationContext;
+
+/**
+ *
+ *
+ * <h1>NotificationQueueService Interface</h1>
+ *
+ * The NotificationQueueService Interface class defines the methods for queueing the notifications
+ * that have been accepted from the EHR, so that they are processed outside the request thread.
+ *
+ * @author nbashyam
+ */
+public interface NotificationQueueService {
+
+  /** @return true if notifications are accepted and processed asynchronously. */
+  public boolean isEnabled();
+
+  /**
+   * @return true if the queue can accept another notification. The result is only a hint used to
+   *     reject a launch early, offer decides whether the notification is queued.
+   */
+  public boolean hasCapacity();
+
+  /**
+   * Method to queue a NotificationContext that has been persisted in the QUEUED state. A
+   * notification which is not queued stays in the QUEUED state and is queued later by the recovery
+   * of the queued notifications.
+   *
+   * @param nc The NotificationContext to be processed.
+   * @return true if the notification was queued, false if the queue is full.
+   */
+  public boolean offer(NotificationContext nc);
+
+  /** @return The number of notifications waiting to be processed. */
+  public int getQueuedCount();
+
+  /** @return The number of notifications being processed. */
+  public int getInFlightCount();
+}
@@ -1,9 +1,15 @@
 package com.drajer.bsa.service;
 
+import com.drajer.bsa.model.PhMessageCursor;
+import com.drajer.bsa.model.PhMessagePayloadType;
 import com.drajer.bsa.model.PublicHealthMessage;
 import com.drajer.sof.model.PublicHealthMessageData;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * The Interface is used to save, update or extract the ph messsage from the eCRNow Database.
@@ -23,6 +29,33 @@ public interface PhMessageService {
    */
   List<PublicHealthMessage> getPhMessageData(Map<String, String> searchParams, boolean summaryFlag);
 
+  /**
+   * The method is used to retrieve one page of ph message data by search parameters, ordered by the
+   * last updated time and the id of the messages.
+   *
+   * @param searchParams The search parameters supported by {@link #getPhMessageData(Map, boolean)}.
+   * @param summaryFlag A flag indicating whether only selected fields are included in the result.
+   * @param after The cursor of the last message of the previous page, null for the first page.
+   * @param maxResults The maximum number of messages returned.
+   * @return The messages of the page.
+   */
+  List<PublicHealthMessage> getPhMessageData(
+      Map<String, String> searchParams, boolean summaryFlag, PhMessageCursor after, int maxResults);
+
+  /**
+   * The method is used to stream the ph message data matching the search parameters to the
+   * consumer, one message at a time, without holding all the messages in memory.
+   *
+   * @param searchParams The search parameters supported by {@link #getPhMessageData(Map, boolean)}.
+   * @param summaryFlag A flag indicating whether only selected fields are included in the result.
+   * @param consumer The consumer of the messages, which is called within the transaction.
+   * @return The number of messages streamed.
+   */
+  int streamPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      Consumer<PublicHealthMessage> consumer);
+
   /**
    * The method is used to retrieve phmessage data Summary by search parameters.
    *
@@ -70,4 +103,24 @@ public interface PhMessageService {
    * @param publicHealthMessage The PublicHealthMessage object to be deleted.
    */
   void deletePhMessage(PublicHealthMessage publicHealthMessage);
+
+  /**
+   * Opens a payload of a PublicHealthMessage for reading, the payload is read from the payload
+   * store when the payloads are kept outside of the ph_messages table.
+   *
+   * @param id The id of the PublicHealthMessage.
+   * @param type The type of the payload.
+   * @return The UTF-8 encoded payload, or null if the message or the payload does not exist.
+   * @throws IOException When the payload cannot be read.
+   */
+  InputStream getPhMessagePayload(UUID id, PhMessagePayloadType type) throws IOException;
+
+  /**
+   * Moves the payloads saved in the ph_messages table to the payload store, one batch of messages
+   * at a time.
+   *
+   * @param batchSize The number of messages moved in each transaction.
+   * @return The number of messages whose payloads were moved.
+   */
+  int externalizePhMessagePayloads(int batchSize);
 }
@@ -3,8 +3,10 @@ package com.drajer.bsa.service;
 import com.drajer.bsa.exceptions.InvalidLaunchContext;
 import com.drajer.bsa.exceptions.InvalidNotification;
 import com.drajer.bsa.model.KarProcessingData;
+import com.drajer.bsa.model.NotificationContext;
 import com.drajer.bsa.model.PatientLaunchContext;
 import java.util.List;
+import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hl7.fhir.r4.model.Bundle;
@@ -37,6 +39,31 @@ public interface SubscriptionNotificationReceiver {
       PatientLaunchContext launchContext)
       throws InvalidLaunchContext, InvalidNotification;
 
+  /**
+   * The method is used to accept notifications received from EHR for asynchronous processing. The
+   * NotificationContext is persisted in the QUEUED state and returned.
+   *
+   * @param notificationBundle The bundle containing the subscription topic and the full resource
+   *     that resulted in the notification.
+   * @return The persisted NotificationContext.
+   * @throws InvalidNotification
+   */
+  public NotificationContext acceptNotification(
+      Bundle notificationBundle,
+      HttpServletRequest request,
+      HttpServletResponse response,
+      PatientLaunchContext launchContext)
+      throws InvalidLaunchContext, InvalidNotification;
+
+  /**
+   * The method is used to process a notification accepted earlier using acceptNotification. The
+   * NotificationContext has to be claimed first by changing it to the DISPATCHED state.
+   *
+   * @param notificationContextId The id of the dispatched NotificationContext.
+   * @return
+   */
+  public List<KarProcessingData> processQueuedNotification(UUID notificationContextId);
+
   public List<KarProcessingData> processRelaunchNotification(
       Bundle notificationBundle,
       HttpServletRequest request,
@@ -15,6 +15,7 @@ import com.drajer.bsa.kar.action.SubmitReport;
 import com.drajer.bsa.kar.action.ValidateReport;
 import com.drajer.bsa.kar.condition.BsaCqlCondition;
 import com.drajer.bsa.kar.condition.BsaFhirPathCondition;
+import com.drajer.bsa.kar.condition.CqlLibraryCache;
 import com.drajer.bsa.kar.model.BsaAction;
 import com.drajer.bsa.kar.model.BsaRelatedAction;
 import com.drajer.bsa.kar.model.FhirQueryFilter;
@@ -154,6 +155,9 @@ public class KarParserImpl implements KarParser {
   // Autowired to pass to FhirPathProcessors.
   @Autowired LibraryProcessor libraryProcessor;
 
+  // The cache of translated CQL libraries for each KAR.
+  @Autowired CqlLibraryCache cqlLibraryCache;
+
   // Autowired to pass to Actions
   @Autowired PublicHealthMessagesDao phDao;
 
@@ -272,6 +276,7 @@ public class KarParserImpl implements KarParser {
 
   @Override
   public void loadKars() {
+    cqlLibraryCache.invalidate();
     loadKarsFromDirectory(karDirectory, LOCAL_HOST_REPO_BASE_URL, LOCAL_HOST_REPO_NAME);
     persistAndSyncLocalKars();
   }
@@ -471,6 +476,7 @@ public class KarParserImpl implements KarParser {
        * makeData(healthcareSetting, art); subscriptionGeneratorService.createSubscriptions(kd); }
        */
       addArtifactForPersistence(art, repoUrl, repoName);
+      cqlLibraryCache.initialize(art);
       knowledgeArtifactRepositorySystem.add(art);
       art.printKarSummary();
 
@@ -681,6 +687,9 @@ public class KarParserImpl implements KarParser {
         ResourceType rt = ResourceType.fromCode(dr.getType());
         action.addInputResourceType(dr.getId(), rt);
 
+        // Parse the code filter paths once, instead of for every resource filtered.
+        BsaServiceUtils.compileCodeFilters(dr);
+
         // Get Query Extensions to identify default queries.
         Extension queryExt = dr.getExtensionByUrl(PH_QUERY_EXTENSION_URL);
 
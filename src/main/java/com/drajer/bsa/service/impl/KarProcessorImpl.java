@@ -15,11 +15,13 @@ import com.drajer.bsa.model.KarProcessingData;
 import com.drajer.bsa.model.NotificationContext;
 import com.drajer.bsa.model.PublicHealthMessage;
 import com.drajer.bsa.scheduler.ScheduledJobData;
+import com.drajer.bsa.scheduler.TimerCoalescer;
 import com.drajer.bsa.service.HealthcareSettingsService;
 import com.drajer.bsa.service.KarExecutionStateService;
 import com.drajer.bsa.service.KarProcessor;
 import com.drajer.bsa.service.NotificationContextService;
 import com.drajer.bsa.utils.BsaServiceUtils;
+import com.drajer.cda.utils.CdaSectionExecutor;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
@@ -27,7 +29,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.hl7.fhir.r4.model.Bundle;
-import org.hl7.fhir.r4.model.Encounter;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.slf4j.Logger;
@@ -69,6 +70,12 @@ public class KarProcessorImpl implements KarProcessor {
 
   @Autowired InfrastructureLoadManagerInterface loadManager;
 
+  @Autowired NotificationDataCache notificationDataCache;
+
+  @Autowired TimerCoalescer timerCoalescer;
+
+  @Autowired CdaSectionExecutor cdaSectionExecutor;
+
   @Value("${enable.throttling:false}")
   Boolean throttlingEnabled;
 
@@ -98,6 +105,7 @@ public class KarProcessorImpl implements KarProcessor {
     data.setExecutionSequenceId(nc.getId().toString());
     data.setEhrQueryService(ehrInterface);
     data.setKarExecutionStateService(karExecutionStateService);
+    data.setCdaSectionExecutor(cdaSectionExecutor);
     data.setJobType(BsaJobType.IMMEDIATE_REPORTING);
 
     // Get existing ph message for the same patient/encounter/kar/fhirserver combination.
@@ -220,21 +228,20 @@ public class KarProcessorImpl implements KarProcessor {
           if (kd.getKarStatus() != null) {
 
             // Setup Notification Data
-            Bundle nb = (Bundle) jsonParser.parseResource(nc.getNotificationData());
+            Bundle nb = notificationDataCache.getNotificationBundle(nc);
             kd.setNotificationBundle(nb);
             nc.setNotifiedResource(nb.getEntry().get(1).getResource());
 
             // Setup context Encounter
             if (nc.getNotifiedResource().getResourceType() == ResourceType.Encounter) {
               kd.setContextEncounter(
-                  (Encounter)
-                      ehrInterface.getResourceById(
-                          kd, "Encounter", nc.getNotificationResourceId()));
+                  notificationDataCache.getContextEncounter(nc, kd, ehrInterface));
               nc.setNotifiedResource(kd.getContextEncounter());
             }
 
             kd.setEhrQueryService(ehrInterface);
             kd.setKarExecutionStateService(karExecutionStateService);
+            kd.setCdaSectionExecutor(cdaSectionExecutor);
             kd.setScheduledJobData(data);
 
             // Get the action that needs to be executed.
@@ -268,14 +275,20 @@ public class KarProcessorImpl implements KarProcessor {
                       throttleRecheckInterval);
 
                   Instant jobTime = Instant.now().plus(throttleRecheckInterval, ChronoUnit.MINUTES);
-                  action.scheduleJob(
-                      data.getKarExecutionStateId(),
-                      action.getActionId(),
-                      action.getType(),
-                      jobTime,
-                      data.getxRequestId(),
-                      data.getJobType(),
-                      data.getMdcContext());
+
+                  if (timerCoalescer.isEnabled()) {
+                    // The executing job is rescheduled instead of adding another job.
+                    data.setRescheduleTime(jobTime);
+                  } else {
+                    action.scheduleJob(
+                        data.getKarExecutionStateId(),
+                        action.getActionId(),
+                        action.getType(),
+                        jobTime,
+                        data.getxRequestId(),
+                        data.getJobType(),
+                        data.getMdcContext());
+                  }
                 }
 
               } catch (Exception e) {
@@ -1,5 +1,6 @@
 package com.drajer.bsa.service.impl;
 
+import com.drajer.bsa.dao.EhrQuerySnapshotDao;
 import com.drajer.bsa.dao.NotificationContextDao;
 import com.drajer.bsa.model.NotificationContext;
 import com.drajer.bsa.service.NotificationContextService;
@@ -26,6 +27,8 @@ public class NotificationContextServiceImpl implements NotificationContextServic
 
   @Autowired NotificationContextDao ncDao;
 
+  @Autowired EhrQuerySnapshotDao snapshotDao;
+
   /**
    * Method to create or update a NotificationContext.
    *
@@ -59,6 +62,12 @@ public class NotificationContextServiceImpl implements NotificationContextServic
 
   @Override
   public void delete(NotificationContext notificationContext) {
+
+    // The snapshots of the incremental queries are not needed once the notification is purged.
+    if (notificationContext.getId() != null) {
+      snapshotDao.deleteEhrQuerySnapshots(notificationContext.getId());
+    }
+
     ncDao.delete(notificationContext);
   }
 }
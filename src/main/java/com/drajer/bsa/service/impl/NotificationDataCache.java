@@ -0,0 +1,223 @@
+package com.drajer.bsa.service.impl;
+
+import ca.uhn.fhir.parser.IParser;
+import com.drajer.bsa.ehr.service.EhrQueryService;
+import com.drajer.bsa.model.KarProcessingData;
+import com.drajer.bsa.model.NotificationContext;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ *
+ *
+ * <h1>NotificationDataCache</h1>
+ *
+ * This class caches the parsed notification bundle and the last retrieved context Encounter of a
+ * NotificationContext across the scheduled jobs fired for the notification, so that the
+ * notification data is not parsed again on every timer. The entries are keyed by the
+ * NotificationContext id and the SHA-256 digest of the notification data, since the notification
+ * data is replaced when the patient is relaunched. The cache is bounded both by the number of
+ * entries and by the total size of the notification data held, and the least recently used entries
+ * are evicted first. The cached Encounter is revalidated with the EHR before it is used.
+ *
+ * @author nbashyam
+ */
+@Component
+public class NotificationDataCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(NotificationDataCache.class);
+
+  private static final String HITS_GAUGE = "ecrnow.notification.cache.hits";
+  private static final String MISSES_GAUGE = "ecrnow.notification.cache.misses";
+  private static final String SIZE_GAUGE = "ecrnow.notification.cache.size";
+
+  @Value("${notification.cache.enabled:false}")
+  private boolean cacheEnabled;
+
+  @Value("${notification.cache.max-entries:500}")
+  private int maxEntries;
+
+  @Value("${notification.cache.max-size-kb:51200}")
+  private long maxSizeKb;
+
+  @Autowired
+  @Qualifier("jsonParser")
+  IParser jsonParser;
+
+  @Autowired(required = false)
+  MeterRegistry meterRegistry;
+
+  /** The cached entries in access order, guarded by the cache itself. */
+  private final LinkedHashMap<String, CachedNotification> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  /** The total size of the notification data held, guarded by the cache. */
+  private long totalSize;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  @PostConstruct
+  public void initialize() {
+
+    if (cacheEnabled && meterRegistry != null) {
+      meterRegistry.gauge(HITS_GAUGE, hits);
+      meterRegistry.gauge(MISSES_GAUGE, misses);
+      meterRegistry.gauge(SIZE_GAUGE, entries, e -> size());
+    }
+  }
+
+  /**
+   * The method returns the notification bundle of the NotificationContext, parsing the notification
+   * data only if the bundle is not cached.
+   *
+   * @param nc The NotificationContext.
+   * @return A copy of the parsed notification bundle.
+   */
+  public Bundle getNotificationBundle(NotificationContext nc) {
+
+    if (!cacheEnabled) return (Bundle) jsonParser.parseResource(nc.getNotificationData());
+
+    String key = getKey(nc);
+    CachedNotification entry = getEntry(key);
+
+    if (entry == null) {
+
+      misses.incrementAndGet();
+      Bundle bundle = (Bundle) jsonParser.parseResource(nc.getNotificationData());
+      entry = new CachedNotification(bundle, nc.getNotificationData().length());
+      putEntry(key, entry);
+    } else {
+
+      hits.incrementAndGet();
+      logger.info(" Reusing the parsed notification bundle for notification {}", nc.getId());
+    }
+
+    logger.debug(" Notification cache hits : {}, misses : {}", hits.get(), misses.get());
+
+    return entry.bundle.copy();
+  }
+
+  /**
+   * The method returns the context Encounter of the NotificationContext. When an Encounter has been
+   * retrieved for an earlier job, it is revalidated with the EHR instead of being read again.
+   *
+   * @param nc The NotificationContext.
+   * @param kd The processing context used to access the EHR.
+   * @param ehrService The service used to access the EHR.
+   * @return The Encounter, null if it could not be retrieved.
+   */
+  public Encounter getContextEncounter(
+      NotificationContext nc, KarProcessingData kd, EhrQueryService ehrService) {
+
+    if (!cacheEnabled)
+      return (Encounter)
+          ehrService.getResourceById(kd, "Encounter", nc.getNotificationResourceId());
+
+    CachedNotification entry = getEntry(getKey(nc));
+    Encounter cached = entry != null ? entry.getEncounter() : null;
+    Resource encounter;
+
+    if (cached != null) {
+      encounter = ehrService.getResourceIfModified(kd, cached);
+    } else {
+      encounter = ehrService.getResourceById(kd, "Encounter", nc.getNotificationResourceId());
+    }
+
+    if (entry != null) entry.setEncounter((Encounter) encounter);
+
+    return encounter != null ? ((Encounter) encounter).copy() : null;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private CachedNotification getEntry(String key) {
+
+    if (key == null) return null;
+
+    synchronized (entries) {
+      return entries.get(key);
+    }
+  }
+
+  private void putEntry(String key, CachedNotification entry) {
+
+    synchronized (entries) {
+      CachedNotification previous = entries.put(key, entry);
+      if (previous != null) totalSize -= previous.size;
+      totalSize += entry.size;
+
+      Iterator<Map.Entry<String, CachedNotification>> it = entries.entrySet().iterator();
+
+      while ((entries.size() > maxEntries || totalSize > maxSizeKb * 1024)
+          && entries.size() > 1
+          && it.hasNext()) {
+
+        Map.Entry<String, CachedNotification> eldest = it.next();
+        totalSize -= eldest.getValue().size;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * The key identifies the version of the notification data, since the notification data of a
+   * NotificationContext is replaced when the patient is relaunched. A digest is used so that two
+   * versions of the notification data never share an entry.
+   */
+  String getKey(NotificationContext nc) {
+
+    String data = nc.getNotificationData();
+
+    if (data == null) return null;
+
+    return nc.getId() + "|" + DigestUtils.sha256Hex(data);
+  }
+
+  /** The parsed notification data of a NotificationContext. */
+  static class CachedNotification {
+
+    final Bundle bundle;
+    final long size;
+    private volatile Encounter encounter;
+
+    CachedNotification(Bundle bundle, long size) {
+      this.bundle = bundle;
+      this.size = size;
+    }
+
+    Encounter getEncounter() {
+      return encounter;
+    }
+
+    void setEncounter(Encounter encounter) {
+      this.encounter = encounter;
+    }
+  }
+}
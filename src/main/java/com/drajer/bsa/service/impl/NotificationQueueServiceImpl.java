@@ -0,0 +1,456 @@
+package com.drajer.bsa.service.impl;
+
+import com.drajer.bsa.dao.NotificationContextDao;
+import com.drajer.bsa.model.BsaTypes.NotificationProcessingStatusType;
+import com.drajer.bsa.model.NotificationContext;
+import com.drajer.bsa.service.NotificationQueueService;
+import com.drajer.bsa.service.SubscriptionNotificationReceiver;
+import com.drajer.ecrapp.util.MDCUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+/**
+ *
+ *
+ * <h1>NotificationQueueServiceImpl</h1>
+ *
+ * This class processes the notifications accepted by the /api/launchPatient API using a pool of
+ * workers. The notifications are queued per tenant (the FHIR Server Base URL of the
+ * HealthcareSetting) and the workers take the next notification from the tenants in round robin
+ * order, with a bound on the number of notifications processed concurrently for each tenant, so
+ * that a notification storm from one EHR does not starve the others. The NotificationContext is
+ * persisted in the QUEUED state before it is queued, and a worker claims it by changing it to the
+ * DISPATCHED state before processing it, so that a notification queued by several instances is
+ * processed once. The notifications still in the QUEUED state, such as the ones accepted before a
+ * restart or by an instance whose queue was full, are queued again periodically, along with the
+ * notifications whose processing did not complete within the stale dispatch timeout.
+ *
+ * @author nbashyam
+ */
+@Service
+public class NotificationQueueServiceImpl implements NotificationQueueService {
+
+  private static final Logger logger = LoggerFactory.getLogger(NotificationQueueServiceImpl.class);
+
+  private static final String QUEUE_SIZE_GAUGE = "ecrnow.notification.queue.size";
+  private static final String IN_FLIGHT_GAUGE = "ecrnow.notification.queue.inflight";
+  private static final String REJECTED_COUNTER = "ecrnow.notification.queue.rejected";
+  private static final String WAIT_TIMER = "ecrnow.notification.queue.wait";
+  private static final String TENANT_TAG = "tenant";
+
+  @Value("${notification.async.enabled:false}")
+  private boolean asyncEnabled;
+
+  @Value("${notification.async.workers:10}")
+  private int workers;
+
+  @Value("${notification.async.max-queued:1000}")
+  private int maxQueued;
+
+  @Value("${notification.async.max-inflight-per-tenant:4}")
+  private int maxInFlightPerTenant;
+
+  @Value("${notification.async.recovery-interval:60}")
+  private int recoveryInterval;
+
+  @Value("${notification.async.stale-dispatch-timeout:3600}")
+  private int staleDispatchTimeout;
+
+  @Autowired SubscriptionNotificationReceiver notificationReceiver;
+
+  @Autowired NotificationContextDao ncDao;
+
+  @Autowired(required = false)
+  MeterRegistry meterRegistry;
+
+  private ExecutorService executor;
+
+  private ScheduledExecutorService recoveryScheduler;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition workAvailable = lock.newCondition();
+
+  /** The queued notifications for each tenant, guarded by the lock. */
+  private final Map<String, Deque<QueuedNotification>> tenantQueues = new HashMap<>();
+
+  /** The tenants with queued notifications in round robin order, guarded by the lock. */
+  private final Deque<String> tenantOrder = new ArrayDeque<>();
+
+  /** The number of notifications being processed for each tenant, guarded by the lock. */
+  private final Map<String, Integer> tenantInFlight = new HashMap<>();
+
+  /** The ids of the queued notifications, guarded by the lock. */
+  private final Set<UUID> queuedIds = new HashSet<>();
+
+  private final AtomicInteger queuedCount = new AtomicInteger();
+  private final AtomicInteger inFlightCount = new AtomicInteger();
+
+  @PostConstruct
+  public void initialize() {
+
+    if (asyncEnabled) {
+
+      logger.info(
+          " Initializing Notification Queue with {} workers and {} notifications in flight per tenant ",
+          workers,
+          maxInFlightPerTenant);
+
+      AtomicInteger count = new AtomicInteger();
+      executor =
+          Executors.newFixedThreadPool(
+              workers,
+              r -> {
+                Thread t = new Thread(r, "NotificationWorker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              });
+
+      for (int i = 0; i < workers; i++) {
+        executor.execute(this::processQueue);
+      }
+
+      if (meterRegistry != null) {
+        meterRegistry.gauge(QUEUE_SIZE_GAUGE, queuedCount);
+        meterRegistry.gauge(IN_FLIGHT_GAUGE, inFlightCount);
+      }
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (recoveryScheduler != null) {
+      recoveryScheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * The method starts the periodic recovery of the queued notifications once the application is
+   * ready, the first recovery queues the notifications accepted before a restart.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void startRecovery() {
+
+    if (!asyncEnabled) return;
+
+    recoveryScheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "NotificationQueueRecovery");
+              t.setDaemon(true);
+              return t;
+            });
+
+    recoveryScheduler.scheduleWithFixedDelay(
+        this::recoverSafely, 0, recoveryInterval, TimeUnit.SECONDS);
+  }
+
+  private void recoverSafely() {
+    try {
+      recoverQueuedNotifications();
+    } catch (Exception e) {
+      logger.error(" Error recovering the queued notifications ", e);
+    }
+  }
+
+  /**
+   * The method queues the notifications in the QUEUED state, upto the capacity of the queue. The
+   * notifications which were dispatched to a worker before the stale dispatch timeout and did not
+   * complete, because the instance processing them stopped, are changed to the QUEUED state first.
+   */
+  void recoverQueuedNotifications() {
+
+    String queuedStatus = NotificationProcessingStatusType.QUEUED.toString();
+
+    Date before = Date.from(Instant.now().minusSeconds(staleDispatchTimeout));
+    int stale =
+        ncDao.updateStaleNotificationProcessingStatus(
+            NotificationProcessingStatusType.DISPATCHED.toString(), queuedStatus, before);
+
+    if (stale > 0) {
+      logger.warn(" Queuing {} notifications again whose processing did not complete ", stale);
+    }
+
+    if (queuedCount.get() >= maxQueued) return;
+
+    // The notifications queued already are the oldest ones, so they are read along with the others.
+    List<NotificationContext> queued =
+        ncDao.getNotificationContextsByStatus(queuedStatus, maxQueued);
+
+    int recovered = 0;
+    for (NotificationContext nc : queued) {
+      if (!offer(nc)) break;
+      recovered++;
+    }
+
+    logger.info(" Recovered {} of {} queued notifications ", recovered, queued.size());
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return asyncEnabled && executor != null;
+  }
+
+  @Override
+  public boolean hasCapacity() {
+
+    boolean capacity = queuedCount.get() < maxQueued;
+
+    if (!capacity) {
+      logger.error(" Notification Queue is full with {} notifications ", queuedCount.get());
+
+      if (meterRegistry != null) meterRegistry.counter(REJECTED_COUNTER).increment();
+    }
+
+    return capacity;
+  }
+
+  /**
+   * The method queues the notification unless the queue is full, the capacity is checked and the
+   * notification is queued while holding the lock. A notification which is queued already is not
+   * queued again.
+   */
+  @Override
+  public boolean offer(NotificationContext nc) {
+
+    QueuedNotification qn =
+        new QueuedNotification(
+            nc.getId(),
+            nc.getFhirServerBaseUrl() != null ? nc.getFhirServerBaseUrl() : "",
+            nc.getxRequestId(),
+            MDC.getCopyOfContextMap());
+
+    lock.lock();
+    try {
+
+      if (queuedIds.contains(qn.id)) return true;
+
+      if (queuedCount.get() >= maxQueued) {
+        logger.info(" Notification Queue is full, notification {} stays queued ", qn.id);
+        return false;
+      }
+
+      Deque<QueuedNotification> queue = tenantQueues.get(qn.tenant);
+
+      if (queue == null) {
+        queue = new ArrayDeque<>();
+        tenantQueues.put(qn.tenant, queue);
+        tenantOrder.addLast(qn.tenant);
+      }
+
+      queue.addLast(qn);
+      queuedIds.add(qn.id);
+      queuedCount.incrementAndGet();
+      workAvailable.signal();
+
+    } finally {
+      lock.unlock();
+    }
+
+    logger.info(
+        " Queued notification {} for tenant {}, queued notifications : {}",
+        qn.id,
+        qn.tenant,
+        queuedCount.get());
+
+    return true;
+  }
+
+  @Override
+  public int getQueuedCount() {
+    return queuedCount.get();
+  }
+
+  @Override
+  public int getInFlightCount() {
+    return inFlightCount.get();
+  }
+
+  private void processQueue() {
+
+    while (!Thread.currentThread().isInterrupted()) {
+
+      QueuedNotification qn;
+
+      try {
+        qn = takeNext();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      try {
+        process(qn);
+      } finally {
+        complete(qn);
+      }
+    }
+  }
+
+  /**
+   * The method returns the next notification from the tenants in round robin order, skipping the
+   * tenants that already have the maximum number of notifications in flight.
+   */
+  QueuedNotification takeNext() throws InterruptedException {
+
+    lock.lock();
+    try {
+
+      while (true) {
+
+        int tenants = tenantOrder.size();
+
+        for (int i = 0; i < tenants; i++) {
+
+          String tenant = tenantOrder.pollFirst();
+          int inFlight = tenantInFlight.getOrDefault(tenant, 0);
+
+          if (inFlight >= maxInFlightPerTenant) {
+            tenantOrder.addLast(tenant);
+            continue;
+          }
+
+          Deque<QueuedNotification> queue = tenantQueues.get(tenant);
+          QueuedNotification qn = queue.pollFirst();
+
+          if (queue.isEmpty()) {
+            tenantQueues.remove(tenant);
+          } else {
+            tenantOrder.addLast(tenant);
+          }
+
+          tenantInFlight.put(tenant, inFlight + 1);
+          queuedIds.remove(qn.id);
+          queuedCount.decrementAndGet();
+          inFlightCount.incrementAndGet();
+
+          return qn;
+        }
+
+        workAvailable.await();
+      }
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void complete(QueuedNotification qn) {
+
+    lock.lock();
+    try {
+
+      int inFlight = tenantInFlight.getOrDefault(qn.tenant, 1) - 1;
+
+      if (inFlight > 0) {
+        tenantInFlight.put(qn.tenant, inFlight);
+      } else {
+        tenantInFlight.remove(qn.tenant);
+      }
+
+      inFlightCount.decrementAndGet();
+      workAvailable.signalAll();
+
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void process(QueuedNotification qn) {
+
+    if (qn.mdcContext != null) {
+      MDC.setContextMap(qn.mdcContext);
+    } else if (qn.xRequestId != null) {
+      MDCUtils.addRequestId(qn.xRequestId);
+    }
+
+    long waitTime = Instant.now().toEpochMilli() - qn.queuedTime.toEpochMilli();
+
+    logger.info(
+        " Processing notification {} for tenant {} after waiting {} ms",
+        qn.id,
+        qn.tenant,
+        waitTime);
+
+    if (meterRegistry != null) {
+      meterRegistry
+          .timer(WAIT_TIMER, TENANT_TAG, qn.tenant)
+          .record(waitTime, TimeUnit.MILLISECONDS);
+    }
+
+    String dispatched = NotificationProcessingStatusType.DISPATCHED.toString();
+
+    try {
+
+      // Claims the notification, which may have been queued by other instances as well.
+      if (!ncDao.updateNotificationProcessingStatus(
+          qn.id, NotificationProcessingStatusType.QUEUED.toString(), dispatched)) {
+        logger.info(" Notification {} was claimed already, skipping it ", qn.id);
+        return;
+      }
+
+      notificationReceiver.processQueuedNotification(qn.id);
+
+    } catch (Exception e) {
+      logger.error(" Error processing queued notification {}", qn.id, e);
+      markFailed(qn.id, dispatched);
+    } finally {
+      MDC.clear();
+    }
+  }
+
+  private void markFailed(UUID id, String dispatched) {
+    try {
+      ncDao.updateNotificationProcessingStatus(
+          id, dispatched, NotificationProcessingStatusType.FAILED.toString());
+    } catch (Exception e) {
+      logger.error(" Unable to mark notification {} as failed ", id, e);
+    }
+  }
+
+  /** The queued notification along with the context needed to process it on a worker thread. */
+  static class QueuedNotification {
+
+    final UUID id;
+    final String tenant;
+    final String xRequestId;
+    final Map<String, String> mdcContext;
+    final Instant queuedTime;
+
+    QueuedNotification(UUID id, String tenant, String xRequestId, Map<String, String> mdcContext) {
+      this.id = id;
+      this.tenant = tenant;
+      this.xRequestId = xRequestId;
+      this.mdcContext = mdcContext;
+      this.queuedTime = Instant.now();
+    }
+  }
+}
@@ -1,11 +1,19 @@
 package com.drajer.bsa.service.impl;
 
 import com.drajer.bsa.dao.PhMessageDao;
+import com.drajer.bsa.model.PhMessageCursor;
+import com.drajer.bsa.model.PhMessagePayloadType;
 import com.drajer.bsa.model.PublicHealthMessage;
 import com.drajer.bsa.service.PhMessageService;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
 import com.drajer.sof.model.PublicHealthMessageData;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
 import javax.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -16,11 +24,28 @@ public class PhMessageServiceImpl implements PhMessageService {
 
   @Autowired PhMessageDao phMessageDao;
 
+  @Autowired PhMessagePayloadUtils payloadUtils;
+
   public List<PublicHealthMessage> getPhMessageData(
       Map<String, String> searchParams, boolean summaryFlag) {
     return phMessageDao.getPhMessageData(searchParams, summaryFlag);
   }
 
+  public List<PublicHealthMessage> getPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      PhMessageCursor after,
+      int maxResults) {
+    return phMessageDao.getPhMessageData(searchParams, summaryFlag, after, maxResults);
+  }
+
+  public int streamPhMessageData(
+      Map<String, String> searchParams,
+      boolean summaryFlag,
+      Consumer<PublicHealthMessage> consumer) {
+    return phMessageDao.streamPhMessageData(searchParams, summaryFlag, consumer);
+  }
+
   public List<PublicHealthMessage> getPhMessageDataSummary(Map<String, String> searchParams) {
     return phMessageDao.getPhMessageDataSummary(searchParams);
   }
@@ -43,4 +68,40 @@ public class PhMessageServiceImpl implements PhMessageService {
   public void deletePhMessage(PublicHealthMessage publicHealthMessage) {
     phMessageDao.delete(publicHealthMessage);
   }
+
+  public InputStream getPhMessagePayload(UUID id, PhMessagePayloadType type) throws IOException {
+
+    InputStream payload = payloadUtils.openPayload(id, type);
+
+    if (payload != null) {
+      return payload;
+    }
+
+    // The payload is in the ph_messages table when there is no payload store, or it was not moved.
+    PublicHealthMessageData publicHealthMessageData = new PublicHealthMessageData();
+    publicHealthMessageData.setId(id);
+    List<PublicHealthMessage> messages =
+        phMessageDao.getPhMessageByParameters(publicHealthMessageData);
+
+    String data = !messages.isEmpty() ? type.getPayload(messages.get(0)) : null;
+
+    return data != null
+        ? new ByteArrayInputStream(data.getBytes(PhMessagePayloadUtils.CHARSET))
+        : null;
+  }
+
+  // Each batch is moved in its own transaction, so that the messages are not all held in memory.
+  @Transactional(Transactional.TxType.NOT_SUPPORTED)
+  public int externalizePhMessagePayloads(int batchSize) {
+
+    int total = 0;
+    int moved;
+
+    do {
+      moved = phMessageDao.externalizePayloads(batchSize);
+      total += moved;
+    } while (moved > 0);
+
+    return total;
+  }
 }
@@ -14,6 +14,7 @@ import com.drajer.bsa.model.HealthcareSetting;
 import com.drajer.bsa.model.KarProcessingData;
 import com.drajer.bsa.model.NotificationContext;
 import com.drajer.bsa.model.PatientLaunchContext;
+import com.drajer.bsa.model.SharedQueryResults;
 import com.drajer.bsa.service.KarProcessor;
 import com.drajer.bsa.service.SubscriptionNotificationReceiver;
 import com.drajer.bsa.utils.SubscriptionUtils;
@@ -23,6 +24,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hl7.fhir.r4.model.Bundle;
@@ -62,6 +64,10 @@ public class SubscriptionNotificationReceiverImpl implements SubscriptionNotific
   @Value("${token.refresh.threshold:25}")
   private Integer tokenRefreshThreshold;
 
+  /** Shares the results of the EHR queries across the active KARs applied to a notification */
+  @Value("${notification.kar.shared-data.enabled:false}")
+  private boolean sharedDataEnabled;
+
   private final Logger logger = LoggerFactory.getLogger(SubscriptionNotificationReceiverImpl.class);
 
   /** The method that processes the notification. */
@@ -90,110 +96,232 @@ public class SubscriptionNotificationReceiverImpl implements SubscriptionNotific
 
       ncDao.saveOrUpdate(nc);
 
-      try {
+      applyActiveKars(nc, notificationBundle, dataList);
 
-        // Start processing the relaunch notification.
+    } else {
 
-        // Retrieve the settings for the FHIR Server.
-        HealthcareSetting hs = hsDao.getHealthcareSettingByUrl(nc.getFhirServerBaseUrl());
+      logger.error(
+          " Cannot process notification because the Notification context is not derivable. ");
+    }
 
-        if (hs != null) {
+    logger.info(" End processing notification ");
+    return dataList;
+  }
 
-          logger.info(" Found the Healthcare Settings necessary to process notifications ");
+  /**
+   * The method derives the NotificationContext for the notification and persists it in the QUEUED
+   * state, so that the notification can be processed by the NotificationQueueService after the
+   * request has been accepted.
+   */
+  @Override
+  public NotificationContext acceptNotification(
+      Bundle notificationBundle,
+      HttpServletRequest request,
+      HttpServletResponse response,
+      PatientLaunchContext launchContext)
+      throws InvalidLaunchContext, InvalidNotification {
 
-          // Find the KAR's active for the Healthcare Setting.
-          if (hs.getKars() != null) {
+    logger.info(" Accepting launch notification for processing ");
 
-            // Get the Active Kars and process it.
-            HealthcareSettingOperationalKnowledgeArtifacts arfts = hs.getKars();
+    NotificationContext nc =
+        SubscriptionUtils.getNotificationContext(
+            notificationBundle, request, response, false, launchContext);
 
-            logger.info(
-                " Processing HealthcareSetting Operational Knowledge Artifact Status Id : {}",
-                arfts.getId());
+    if (nc == null) {
 
-            Set<KnowledgeArtifactStatus> stat = arfts.getArtifactStatus();
+      logger.error(
+          " Cannot accept notification because the Notification context is not derivable. ");
 
-            for (KnowledgeArtifactStatus ks : stat) {
+      throw new InvalidNotification(
+          "Cannot accept notification because the Notification context is not derivable.");
+    }
 
-              if (ks.getIsActive().booleanValue()) {
+    nc.setNotificationData(jsonParser.encodeResourceToString(notificationBundle));
+    nc.setNotificationProcessingStatus(NotificationProcessingStatusType.QUEUED.toString());
 
-                logger.info(
-                    " Processing KAR with Id {} and version {}", ks.getKarId(), ks.getKarVersion());
+    if (launchContext != null && launchContext.getThrottleContext() != null)
+      nc.setThrottleContext(launchContext.getThrottleContext());
 
-                KnowledgeArtifact kar =
-                    knowledgeArtifactRepositorySystem.getById(ks.getVersionUniqueKarId());
+    ncDao.saveOrUpdate(nc);
 
-                if (kar != null) {
+    return nc;
+  }
 
-                  logger.info(" Processing KAR since we found the one that we needed. ");
+  /**
+   * The method processes a notification that was accepted earlier and queued for processing, once
+   * it has been claimed by a worker of the NotificationQueueService in the DISPATCHED state.
+   */
+  @Override
+  public List<KarProcessingData> processQueuedNotification(UUID notificationContextId) {
 
-                  // Setup the initial Kar
-                  KarProcessingData kd = new KarProcessingData();
-                  kd.setNotificationContext(nc);
-                  kd.setHealthcareSetting(hs);
-                  kd.setKar(kar);
-                  kd.setNotificationBundle(notificationBundle);
-                  kd.setScheduledJobData(null);
-                  kd.setKarStatus(ks);
-                  kd.setxRequestId(nc.getxRequestId());
-                  kd.setxCorrelationId(nc.getxCorrelationId());
-                  kd.setTokenRefreshThreshold(tokenRefreshThreshold);
+    List<KarProcessingData> dataList = new ArrayList<>();
 
-                  if (nc.getNotifiedResource() != null) {
-                    logger.info("Adding notified resource to the set of inputs ");
-                    Map<ResourceType, Set<Resource>> res = new EnumMap<>(ResourceType.class);
-                    Set<Resource> results = new HashSet<>();
-                    results.add(nc.getNotifiedResource());
-                    res.put(nc.getNotifiedResource().getResourceType(), results);
-                    kd.addResourcesByType(res);
+    NotificationContext nc = ncDao.getNotificationContextById(notificationContextId);
 
-                    if (nc.getNotifiedResource().getResourceType() == ResourceType.Encounter) {
-                      kd.setContextEncounter((Encounter) nc.getNotifiedResource());
-                    }
-                  }
+    String dispatched = NotificationProcessingStatusType.DISPATCHED.toString();
 
-                  karProcessor.applyKarForNotification(kd);
-                  dataList.add(kd);
-                } else {
+    if (nc == null || !dispatched.equals(nc.getNotificationProcessingStatus())) {
+
+      logger.info(
+          " Skipping queued notification {} as it no longer exists or was not dispatched ",
+          notificationContextId);
+      return dataList;
+    }
+
+    logger.info(" Starting to process queued notification {}", notificationContextId);
+
+    Bundle notificationBundle = jsonParser.parseResource(Bundle.class, nc.getNotificationData());
+
+    // The notified resource is not persisted, so restore it from the notification bundle.
+    nc.setNotifiedResource(notificationBundle.getEntry().get(1).getResource());
+    nc.setNotificationProcessingStatus(NotificationProcessingStatusType.IN_PROGRESS.toString());
+    ncDao.saveOrUpdate(nc);
+
+    applyActiveKars(nc, notificationBundle, dataList);
+
+    logger.info(" End processing queued notification {}", notificationContextId);
+    return dataList;
+  }
+
+  /**
+   * The method applies each of the active KARs of the Healthcare Setting to the notification.
+   *
+   * @param nc The NotificationContext of the notification.
+   * @param notificationBundle The bundle received as part of the notification.
+   * @param dataList The list to which the KarProcessingData of each KAR applied is added.
+   */
+  private void applyActiveKars(
+      NotificationContext nc, Bundle notificationBundle, List<KarProcessingData> dataList) {
+
+    try {
+
+      // Start processing the relaunch notification.
+
+      // Retrieve the settings for the FHIR Server.
+      HealthcareSetting hs = hsDao.getHealthcareSettingByUrl(nc.getFhirServerBaseUrl());
+
+      if (hs != null) {
+
+        logger.info(" Found the Healthcare Settings necessary to process notifications ");
+
+        // Find the KAR's active for the Healthcare Setting.
+        if (hs.getKars() != null) {
+
+          // Get the Active Kars and process it.
+          HealthcareSettingOperationalKnowledgeArtifacts arfts = hs.getKars();
+
+          logger.info(
+              " Processing HealthcareSetting Operational Knowledge Artifact Status Id : {}",
+              arfts.getId());
+
+          Set<KnowledgeArtifactStatus> stat = arfts.getArtifactStatus();
+          List<KarProcessingData> kars = new ArrayList<>();
+
+          for (KnowledgeArtifactStatus ks : stat) {
+
+            if (ks.getIsActive().booleanValue()) {
+
+              logger.info(
+                  " Processing KAR with Id {} and version {}", ks.getKarId(), ks.getKarVersion());
+
+              KnowledgeArtifact kar =
+                  knowledgeArtifactRepositorySystem.getById(ks.getVersionUniqueKarId());
 
-                  logger.error(
-                      " Unable to process notification, as the KAR is not found {}",
-                      ks.getVersionUniqueKarId());
+              if (kar != null) {
+
+                logger.info(" Processing KAR since we found the one that we needed. ");
+
+                // Setup the initial Kar
+                KarProcessingData kd = new KarProcessingData();
+                kd.setNotificationContext(nc);
+                kd.setHealthcareSetting(hs);
+                kd.setKar(kar);
+                kd.setNotificationBundle(notificationBundle);
+                kd.setScheduledJobData(null);
+                kd.setKarStatus(ks);
+                kd.setxRequestId(nc.getxRequestId());
+                kd.setxCorrelationId(nc.getxCorrelationId());
+                kd.setTokenRefreshThreshold(tokenRefreshThreshold);
+
+                if (nc.getNotifiedResource() != null) {
+                  logger.info("Adding notified resource to the set of inputs ");
+                  Map<ResourceType, Set<Resource>> res = new EnumMap<>(ResourceType.class);
+                  Set<Resource> results = new HashSet<>();
+                  results.add(nc.getNotifiedResource());
+                  res.put(nc.getNotifiedResource().getResourceType(), results);
+                  kd.addResourcesByType(res);
+
+                  if (nc.getNotifiedResource().getResourceType() == ResourceType.Encounter) {
+                    kd.setContextEncounter((Encounter) nc.getNotifiedResource());
+                  }
                 }
 
+                kars.add(kd);
               } else {
 
-                logger.info(
-                    " Skipping processing of KAR as it is inactive. {}",
+                logger.error(
+                    " Unable to process notification, as the KAR is not found {}",
                     ks.getVersionUniqueKarId());
               }
-            }
 
-          } else {
-            logger.error(
-                " Cannot proceed with the processing because the Healthcare Settings does not contain any Knowledge Artifacts that are operational.");
+            } else {
+
+              logger.info(
+                  " Skipping processing of KAR as it is inactive. {}", ks.getVersionUniqueKarId());
+            }
           }
 
-        } else {
+          applyKars(kars, dataList);
 
+        } else {
           logger.error(
-              " Cannot proceed with the processing because the Healthcare Settings does not exist for {}",
-              nc.getFhirServerBaseUrl());
+              " Cannot proceed with the processing because the Healthcare Settings does not contain any Knowledge Artifacts that are operational.");
         }
 
-      } catch (Exception e) {
+      } else {
 
-        logger.error(" Error during processing of notification.", e);
+        logger.error(
+            " Cannot proceed with the processing because the Healthcare Settings does not exist for {}",
+            nc.getFhirServerBaseUrl());
       }
 
-    } else {
+    } catch (Exception e) {
 
-      logger.error(
-          " Cannot process notification because the Notification context is not derivable. ");
+      logger.error(" Error during processing of notification.", e);
     }
+  }
 
-    logger.info(" End processing notification ");
-    return dataList;
+  /**
+   * The method applies the KARs to the notification. When more than one KAR is active, the results
+   * of the EHR queries can be shared across the KARs so that the same data is fetched once.
+   *
+   * @param kars The KarProcessingData for each of the active KARs.
+   * @param dataList The list to which the KarProcessingData of each KAR applied is added.
+   */
+  private void applyKars(List<KarProcessingData> kars, List<KarProcessingData> dataList) {
+
+    SharedQueryResults shared = null;
+
+    if (sharedDataEnabled && kars.size() > 1) {
+      shared = new SharedQueryResults();
+
+      for (KarProcessingData kd : kars) {
+        kd.setSharedQueryResults(shared);
+      }
+    }
+
+    for (KarProcessingData kd : kars) {
+      karProcessor.applyKarForNotification(kd);
+      dataList.add(kd);
+    }
+
+    if (shared != null) {
+      logger.info(
+          " Shared query results for the notification, queries : {}, hits : {}, misses : {}",
+          shared.size(),
+          shared.getHits(),
+          shared.getMisses());
+    }
   }
 
   @Override
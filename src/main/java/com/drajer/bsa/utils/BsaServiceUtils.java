@@ -1,7 +1,6 @@
 package com.drajer.bsa.utils;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.fhirpath.IFhirPath;
 import ca.uhn.fhir.parser.IParser;
 import com.drajer.bsa.dao.TimeZoneDao;
 import com.drajer.bsa.kar.action.BsaActionStatus;
@@ -34,10 +33,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import javax.annotation.PostConstruct;
 import org.hl7.fhir.instance.model.api.IBase;
-import org.hl7.fhir.r4.hapi.fluentpath.FhirPathR4;
+import org.hl7.fhir.r4.hapi.ctx.HapiWorkerContext;
 import org.hl7.fhir.r4.model.*;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Bundle.BundleType;
@@ -48,6 +48,7 @@ import org.hl7.fhir.r4.model.ValueSet.ConceptSetComponent;
 import org.hl7.fhir.r4.model.ValueSet.ValueSetComposeComponent;
 import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionComponent;
 import org.hl7.fhir.r4.model.ValueSet.ValueSetExpansionContainsComponent;
+import org.hl7.fhir.r4.utils.FHIRPathEngine;
 import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -91,7 +92,13 @@ public class BsaServiceUtils {
   private static String TIMEZONE_QUERY;
 
   private static final String FHIR_PATH_VARIABLE_PREFIX = "%";
-  private static IFhirPath FHIR_PATH = new FhirPathR4(FhirContext.forR4());
+  private static final String COMPILED_FHIR_PATH = "compiledFhirPath";
+  private static final FhirContext R4_CONTEXT = FhirContext.forR4();
+  private static final FHIRPathEngine FHIR_PATH_ENGINE =
+      new FHIRPathEngine(new HapiWorkerContext(R4_CONTEXT, R4_CONTEXT.getValidationSupport()));
+
+  /** The parsed FHIRPath expressions, the Key is the expression. */
+  private static final Map<String, ExpressionNode> COMPILED_PATHS = new ConcurrentHashMap<>();
 
   @PostConstruct
   public void initialize() {
@@ -222,6 +229,49 @@ public class BsaServiceUtils {
     return filtered;
   }
 
+  /**
+   * The method parses a FHIRPath expression once and returns the parsed expression for the
+   * subsequent evaluations.
+   *
+   * @param path The FHIRPath expression.
+   * @return The parsed expression or null if the expression cannot be parsed.
+   */
+  public static ExpressionNode compileFhirPath(String path) {
+
+    if (path == null) return null;
+
+    ExpressionNode node = COMPILED_PATHS.get(path);
+
+    if (node == null) {
+      try {
+        node = FHIR_PATH_ENGINE.parse(path);
+        COMPILED_PATHS.put(path, node);
+      } catch (Exception e) {
+        logger.error(" Unable to parse FHIRPath expression {}", path, e);
+      }
+    }
+
+    return node;
+  }
+
+  /**
+   * The method parses the paths of the code filters of a data requirement when the KAR is loaded,
+   * and stores the parsed expression with the code filter.
+   *
+   * @param dr The data requirement of an action.
+   */
+  public static void compileCodeFilters(DataRequirement dr) {
+
+    for (DataRequirement.DataRequirementCodeFilterComponent codeFilter : dr.getCodeFilter()) {
+
+      ExpressionNode node = compileFhirPath(codeFilter.getPath());
+
+      if (node != null) {
+        codeFilter.setUserData(COMPILED_FHIR_PATH, node);
+      }
+    }
+  }
+
   public static boolean matchesCodeFilter(
       Resource resource,
       DataRequirement.DataRequirementCodeFilterComponent codeFilter,
@@ -237,14 +287,22 @@ public class BsaServiceUtils {
     // any of the codes match its a match.
 
     // we dont know what this will return
-    List<IBase> search = FHIR_PATH.evaluate(resource, codeFilter.getPath(), IBase.class);
+    ExpressionNode node = (ExpressionNode) codeFilter.getUserData(COMPILED_FHIR_PATH);
+    if (node == null) {
+      node = compileFhirPath(codeFilter.getPath());
+    }
+    if (node == null) {
+      return false;
+    }
+
+    List<Base> search = FHIR_PATH_ENGINE.evaluate(resource, node);
     if (search == null || search.isEmpty()) {
       return false;
     }
 
     boolean retVal = false;
 
-    for (IBase ib : search) {
+    for (Base ib : search) {
       if (codeFilter.hasValueSet()) {
         logger.info("Code Filter has value set");
         if (matchesValueSet(ib, codeFilter.getValueSet(), kd)) {
@@ -264,12 +322,13 @@ public class BsaServiceUtils {
   }
 
   public static boolean matchesValueSet(IBase ib, String url, KarProcessingData kd) {
-    ValueSet vs = (ValueSet) kd.getKar().getDependentResource(ResourceType.ValueSet, url);
+    KnowledgeArtifact art = kd.getKar();
+    ValueSet vs = (ValueSet) art.getDependentResource(ResourceType.ValueSet, url);
     if (ib instanceof Coding) {
       Coding coding = (Coding) ib;
-      return isCodePresentInValueSet(vs, coding.getSystem(), coding.getCode());
+      return isCodePresentInValueSet(art, vs, coding.getSystem(), coding.getCode());
     } else if (ib instanceof CodeableConcept) {
-      return isCodeableConceptPresentInValueSet(vs, (CodeableConcept) ib);
+      return isCodeableConceptPresentInValueSet(art, vs, (CodeableConcept) ib);
     }
     return false;
   }
@@ -311,13 +370,38 @@ public class BsaServiceUtils {
   }
 
   public static Boolean isCodeableConceptPresentInValueSet(ValueSet vs, CodeableConcept cc) {
+    return isCodeableConceptPresentInValueSet(null, vs, cc);
+  }
+
+  public static Boolean isCodeableConceptPresentInValueSet(
+      KnowledgeArtifact art, ValueSet vs, CodeableConcept cc) {
     return cc.getCoding()
         .stream()
-        .anyMatch(coding -> isCodePresentInValueSet(vs, coding.getSystem(), coding.getCode()));
+        .anyMatch(
+            coding ->
+                Boolean.TRUE.equals(
+                    isCodePresentInValueSet(art, vs, coding.getSystem(), coding.getCode())));
   }
 
   public static Pair<Boolean, MatchedTriggerCodes> isCodeableConceptPresentInValueSet(
       ValueSet vs, CodeableConcept cd, String path, boolean valElem) {
+    return isCodeableConceptPresentInValueSet(null, vs, cd, path, valElem);
+  }
+
+  /**
+   * The method checks if any of the codings of the CodeableConcept are present in the ValueSet.
+   * When the ValueSet has been indexed as part of the Knowledge Artifact, the index is used instead
+   * of scanning the ValueSet.
+   *
+   * @param art - The Knowledge Artifact containing the ValueSet, can be null.
+   * @param vs - The ValueSet to be checked.
+   * @param cd - The CodeableConcept whose codings are checked.
+   * @param path - The path of the element being matched.
+   * @param valElem - Indicates if the CodeableConcept is a value element.
+   * @return Pair with the match status and the matched codes, null if there is no match.
+   */
+  public static Pair<Boolean, MatchedTriggerCodes> isCodeableConceptPresentInValueSet(
+      KnowledgeArtifact art, ValueSet vs, CodeableConcept cd, String path, boolean valElem) {
 
     Pair<Boolean, MatchedTriggerCodes> retVal = null;
     boolean matchFound = false;
@@ -327,7 +411,7 @@ public class BsaServiceUtils {
 
       for (Coding c : cd.getCoding()) {
 
-        Pair<Boolean, Pair<String, String>> retInfo = isCodingPresentInValueSet(vs, c);
+        Pair<Boolean, Pair<String, String>> retInfo = isCodingPresentInValueSet(art, vs, c);
 
         if (retInfo != null) {
 
@@ -402,13 +486,19 @@ public class BsaServiceUtils {
 
   public static Pair<Boolean, Pair<String, String>> isCodingPresentInValueSet(
       ValueSet vs, Coding coding) {
+    return isCodingPresentInValueSet(null, vs, coding);
+  }
+
+  public static Pair<Boolean, Pair<String, String>> isCodingPresentInValueSet(
+      KnowledgeArtifact art, ValueSet vs, Coding coding) {
 
     Pair<Boolean, Pair<String, String>> retVal = null;
 
     if (coding != null
         && coding.hasCode()
         && coding.hasSystem()
-        && Boolean.TRUE.equals(isCodePresentInValueSet(vs, coding.getSystem(), coding.getCode()))) {
+        && Boolean.TRUE.equals(
+            isCodePresentInValueSet(art, vs, coding.getSystem(), coding.getCode()))) {
       Pair<String, String> matchedCodeInfo = new Pair<>(coding.getSystem(), coding.getCode());
       retVal = new Pair<>(true, matchedCodeInfo);
     }
@@ -416,6 +506,38 @@ public class BsaServiceUtils {
     return retVal;
   }
 
+  /**
+   * The method checks if the system and code are present in the ValueSet using the ValueSet code
+   * index of the Knowledge Artifact. If the ValueSet is not part of the index, the ValueSet is
+   * scanned.
+   *
+   * @param art - The Knowledge Artifact containing the ValueSet, can be null.
+   * @param vs - The ValueSet to be checked.
+   * @param system - The code system of the code.
+   * @param code - The code to be checked.
+   * @return true if the code is present in the ValueSet.
+   */
+  public static Boolean isCodePresentInValueSet(
+      KnowledgeArtifact art, ValueSet vs, String system, String code) {
+
+    if (art != null && vs != null) {
+
+      Boolean indexed = art.isCodePresentInIndexedValueSet(vs.getUrl(), system, code);
+
+      if (indexed != null) {
+        logger.debug(
+            " Index lookup for code system {} and code {} in value set {} returned {}",
+            system,
+            code,
+            vs.getUrl(),
+            indexed);
+        return indexed;
+      }
+    }
+
+    return isCodePresentInValueSet(vs, system, code);
+  }
+
   public static Boolean isCodePresentInValueSet(ValueSet vs, String system, String code) {
 
     boolean retVal = false;
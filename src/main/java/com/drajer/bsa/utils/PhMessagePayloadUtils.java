@@ -0,0 +1,245 @@
+package com.drajer.bsa.utils;
+
+import com.drajer.bsa.dao.PhMessagePayloadStore;
+import com.drajer.bsa.dao.impl.PhMessagePayloadFileStore;
+import com.drajer.bsa.model.PhMessagePayloadType;
+import com.drajer.bsa.model.PublicHealthMessage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ *
+ *
+ * <h1>PhMessagePayloadUtils</h1>
+ *
+ * This class provides access to the store configured for the payloads of the PublicHealthMessages.
+ * When no store is configured, the payloads are kept in the ph_messages table.
+ *
+ * @author nbashyam
+ */
+@Service
+public class PhMessagePayloadUtils {
+
+  private static final Logger logger = LoggerFactory.getLogger(PhMessagePayloadUtils.class);
+
+  public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+  public static final String INLINE_STORE = "inline";
+  public static final String DATABASE_STORE = "database";
+  public static final String FILESYSTEM_STORE = "filesystem";
+
+  @Value("${ph.message.payload.store:inline}")
+  String storeType;
+
+  @Value("${ph.message.payload.directory:}")
+  String payloadDirectory;
+
+  @Autowired PhMessagePayloadStore databaseStore;
+
+  private PhMessagePayloadStore payloadStore;
+
+  @PostConstruct
+  public void initialize() {
+
+    if (DATABASE_STORE.equalsIgnoreCase(storeType)) {
+      payloadStore = databaseStore;
+    } else if (FILESYSTEM_STORE.equalsIgnoreCase(storeType)
+        && !StringUtils.isBlank(payloadDirectory)) {
+      payloadStore = new PhMessagePayloadFileStore(Paths.get(payloadDirectory));
+    } else {
+      if (!INLINE_STORE.equalsIgnoreCase(storeType)) {
+        logger.error(
+            " Unknown PH Message payload store {} or missing directory, payloads are kept inline ",
+            storeType);
+      }
+      payloadStore = null;
+    }
+
+    logger.info(" PH Message payloads are kept in the {} store ", storeType);
+  }
+
+  /** @return true if the payloads are kept outside of the ph_messages table. */
+  public boolean isExternal() {
+    return payloadStore != null;
+  }
+
+  /**
+   * The method reads the payloads of the message from the payload store and attaches them to the
+   * message.
+   *
+   * @param message The message loaded from the ph_messages table, can be null.
+   */
+  public void loadPayloads(PublicHealthMessage message) {
+
+    if (message != null) {
+      loadPayloads(Collections.singletonList(message));
+    }
+  }
+
+  /**
+   * The method reads the payloads of the messages from the payload store at once and attaches them
+   * to the messages.
+   *
+   * @param messages The messages loaded from the ph_messages table.
+   */
+  public void loadPayloads(List<PublicHealthMessage> messages) {
+
+    if (payloadStore == null || messages.isEmpty()) {
+      return;
+    }
+
+    List<UUID> messageIds = new ArrayList<>();
+    messages.forEach(message -> messageIds.add(message.getId()));
+
+    try {
+      Map<UUID, Map<PhMessagePayloadType, String>> payloads = payloadStore.getPayloads(messageIds);
+
+      for (PublicHealthMessage message : messages) {
+        message.attachPayloads(payloads.getOrDefault(message.getId(), Collections.emptyMap()));
+      }
+    } catch (RuntimeException e) {
+      logger.error("Unable to read the payloads of {} messages", messages.size(), e);
+    }
+  }
+
+  /**
+   * The method opens the payload of the message from the payload store for reading.
+   *
+   * @param messageId The id of the message.
+   * @param type The type of the payload.
+   * @return The UTF-8 encoded payload, or null if there is no payload store or the message has no
+   *     payload.
+   * @throws IOException When the payload cannot be read.
+   */
+  public InputStream openPayload(UUID messageId, PhMessagePayloadType type) throws IOException {
+    return payloadStore != null ? payloadStore.openPayload(messageId, type) : null;
+  }
+
+  /**
+   * The method removes the payloads set on the message since it was loaded or saved from the
+   * ph_messages columns. It is called before the message is saved.
+   *
+   * @param message The message to be saved.
+   * @return The payloads to be saved to the payload store once the message is saved.
+   */
+  public Map<PhMessagePayloadType, String> detachPayloads(PublicHealthMessage message) {
+    return payloadStore != null ? message.detachPayloads() : Collections.emptyMap();
+  }
+
+  /**
+   * The method saves the payloads detached from the message after the message is saved, so that the
+   * message has an id. The payloads of a store outside of the database are saved once the
+   * transaction saving the message commits, so that a rollback does not leave payloads behind.
+   *
+   * @param messageId The id of the saved message.
+   * @param payloads The payloads detached from the message.
+   */
+  public void savePayloads(UUID messageId, Map<PhMessagePayloadType, String> payloads) {
+
+    if (payloadStore == null || payloads.isEmpty()) {
+      return;
+    }
+
+    PhMessagePayloadStore store = payloadStore;
+
+    runWithMessageTransaction(
+        store,
+        () -> payloads.forEach((type, payload) -> store.savePayload(messageId, type, payload)),
+        "Unable to save the payloads of the message {}",
+        messageId);
+  }
+
+  /**
+   * The method deletes the payloads of a message that is deleted. The payloads of a store outside
+   * of the database are deleted once the transaction deleting the message commits, so that the
+   * payloads of a message are not lost when the deletion of the message is rolled back.
+   *
+   * @param messageId The id of the message.
+   */
+  public void deletePayloads(UUID messageId) {
+
+    if (payloadStore == null || messageId == null) {
+      return;
+    }
+
+    PhMessagePayloadStore store = payloadStore;
+
+    runWithMessageTransaction(
+        store,
+        () -> store.deletePayloads(messageId),
+        "Unable to delete the payloads of the message {}",
+        messageId);
+  }
+
+  private void runWithMessageTransaction(
+      PhMessagePayloadStore store, Runnable work, String error, UUID messageId) {
+
+    if (store.isTransactional() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      work.run();
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCommit() {
+            try {
+              work.run();
+            } catch (RuntimeException e) {
+              // The message is already committed, so the failure can only be reported.
+              logger.error(error, messageId, e);
+            }
+          }
+        });
+  }
+
+  public static byte[] compress(String payload) {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try (OutputStream out = new GZIPOutputStream(bytes)) {
+      out.write(payload.getBytes(CHARSET));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to compress the payload", e);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  public static String decompress(byte[] compressed) {
+
+    try (InputStream in = decompress(new ByteArrayInputStream(compressed))) {
+      return IOUtils.toString(in, CHARSET);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to decompress the payload", e);
+    }
+  }
+
+  public static InputStream decompress(InputStream compressed) throws IOException {
+    return new GZIPInputStream(compressed);
+  }
+}
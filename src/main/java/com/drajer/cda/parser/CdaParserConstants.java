@@ -2,48 +2,16 @@ package com.drajer.cda.parser;
 
 import java.util.Iterator;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 public class CdaParserConstants {
 
-  private static final Logger logger = LoggerFactory.getLogger(CdaParserConstants.class);
   private static final CdaParserConstants constants = new CdaParserConstants();
 
-  public static final XPathExpression DOC_ID_EXP;
-  public static final XPathExpression EICR_DOC_ID_EXP;
-  public static final XPathExpression REL_ID_EXP;
-  public static final XPathExpression RR_STATUS_OBS_EXP;
-  public static final XPathExpression REL_VAL_EXP;
-  public static final XPathExpression SET_ID_EXP;
-  public static final XPathExpression PATIENT_ID_EXP;
-  public static final XPathExpression ENCOUNTER_ID_EXP;
+  // Template ids of the RR elements read by the parser
+  public static final String EICR_DOC_REF_TEMPLATE_ID = "2.16.840.1.113883.10.20.15.2.3.10";
+  public static final String RR_STATUS_OBS_TEMPLATE_ID = "2.16.840.1.113883.10.20.15.2.3.19";
 
-  static {
-    try {
-      final XPath cdaXPath = XPathFactory.newInstance().newXPath();
-      DOC_ID_EXP = cdaXPath.compile("/ClinicalDocument/id[not(@nullFlavor)]");
-      EICR_DOC_ID_EXP =
-          cdaXPath.compile(
-              "//externalDocument[not(@nullFlavor) and ./templateId[@root='2.16.840.1.113883.10.20.15.2.3.10']]");
-      REL_ID_EXP = cdaXPath.compile("./id[not(@nullFlavor)]");
-      RR_STATUS_OBS_EXP =
-          cdaXPath.compile(
-              "//observation[not(@nullFlavor) and ./templateId[@root='2.16.840.1.113883.10.20.15.2.3.19']]");
-      REL_VAL_EXP = cdaXPath.compile("./value[not(@nullFlavor)]");
-      SET_ID_EXP = cdaXPath.compile("./setId[not(@nullFlavor)]");
-      PATIENT_ID_EXP =
-          cdaXPath.compile("/ClinicalDocument/recordTarget/patientRole/id[not(@nullFlavor)]");
-      ENCOUNTER_ID_EXP = cdaXPath.compile("//encompassingEncounter/id[not(@nullFlavor)]");
-    } catch (XPathExpressionException e) {
-      logger.error("Failed to resolve CDA xPath", e);
-      throw new IllegalStateException(e);
-    }
-  }
+  public static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
 
   public static final String DEFAULT_XPATH = "/ClinicalDocument";
 
@@ -1,11 +1,8 @@
 package com.drajer.cda.parser;
 
-import java.util.ArrayList;
-import java.util.List;
+import javax.xml.stream.XMLStreamReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 public class CdaParserUtilities {
 
@@ -13,67 +10,73 @@ public class CdaParserUtilities {
 
   private CdaParserUtilities() {}
 
-  public static List<CdaIi> readTemplateIdList(NodeList templateIDNodeList) {
-    ArrayList<CdaIi> templateList = null;
-    if (!isNodeListEmpty(templateIDNodeList)) {
-      templateList = new ArrayList<>();
-      Element templateElement;
-      for (int i = 0; i < templateIDNodeList.getLength(); i++) {
-        templateElement = (Element) templateIDNodeList.item(i);
-        templateList.add(readTemplateId(templateElement));
-      }
+  /**
+   * The method reads the id from the attributes of the element at which the reader is positioned.
+   *
+   * @param reader The reader positioned at the start of an id, setId or templateId element.
+   * @return The id.
+   */
+  public static CdaIi readTemplateId(XMLStreamReader reader) {
+    CdaIi templateID = new CdaIi();
+
+    String root = reader.getAttributeValue(null, "root");
+    if (!isEmpty(root)) {
+      templateID.setRootValue(root);
+      logger.info(" Root Value = {} ", templateID.getRootValue());
     }
-    return templateList;
-  }
 
-  public static CdaIi readTemplateId(Element templateElement) {
-    CdaIi templateID = null;
-
-    if (templateElement != null) {
-      templateID = new CdaIi();
-      if (!isEmpty(templateElement.getAttribute("root"))) {
-        templateID.setRootValue(templateElement.getAttribute("root"));
-        logger.info(" Root Value = {} ", templateID.getRootValue());
-      }
-      if (!isEmpty(templateElement.getAttribute("extension"))) {
-        templateID.setExtValue(templateElement.getAttribute("extension"));
-        logger.info(" Root Value = {} ", templateID.getExtValue());
-      }
+    String extension = reader.getAttributeValue(null, "extension");
+    if (!isEmpty(extension)) {
+      templateID.setExtValue(extension);
+      logger.info(" Extension Value = {} ", templateID.getExtValue());
     }
+
     return templateID;
   }
 
-  public static CdaCode readCode(Element codeElement) {
-    CdaCode code = null;
-    if (codeElement != null) {
-      code = new CdaCode();
-      if (!isEmpty(codeElement.getAttribute("code"))) {
-        code.setCode(codeElement.getAttribute("code"));
-      }
-      if (!isEmpty(codeElement.getAttribute("codeSystem"))) {
-        code.setCodeSystem(codeElement.getAttribute("codeSystem"));
-      }
-      if (!isEmpty(codeElement.getAttribute("codeSystemName"))) {
-        code.setCodeSystemName(codeElement.getAttribute("codeSystemName"));
-      }
-      if (!isEmpty(codeElement.getAttribute("displayName"))) {
-        code.setDisplayName(codeElement.getAttribute("displayName"));
-      }
-      if (!isEmpty(codeElement.getAttribute("xsi:type"))) {
-        code.setXpath(codeElement.getAttribute("xsi:type"));
-      }
-      if (!isEmpty(codeElement.getAttribute("nullFlavor"))) {
-        code.setNullFlavor(codeElement.getAttribute("nullFlavor"));
-      }
+  /**
+   * The method reads the code from the attributes of the element at which the reader is positioned.
+   *
+   * @param reader The reader positioned at the start of a code or value element.
+   * @return The code.
+   */
+  public static CdaCode readCode(XMLStreamReader reader) {
+    CdaCode code = new CdaCode();
+
+    String value = reader.getAttributeValue(null, "code");
+    if (!isEmpty(value)) {
+      code.setCode(value);
     }
+
+    value = reader.getAttributeValue(null, "codeSystem");
+    if (!isEmpty(value)) {
+      code.setCodeSystem(value);
+    }
+
+    value = reader.getAttributeValue(null, "codeSystemName");
+    if (!isEmpty(value)) {
+      code.setCodeSystemName(value);
+    }
+
+    value = reader.getAttributeValue(null, "displayName");
+    if (!isEmpty(value)) {
+      code.setDisplayName(value);
+    }
+
+    value = reader.getAttributeValue(CdaParserConstants.XSI_NAMESPACE, "type");
+    if (!isEmpty(value)) {
+      code.setXpath(value);
+    }
+
+    value = reader.getAttributeValue(null, "nullFlavor");
+    if (!isEmpty(value)) {
+      code.setNullFlavor(value);
+    }
+
     return code;
   }
 
   public static boolean isEmpty(final String str) {
     return str == null || str.trim().length() == 0;
   }
-
-  public static boolean isNodeListEmpty(final NodeList nodeList) {
-    return nodeList == null || nodeList.getLength() == 0;
-  }
 }
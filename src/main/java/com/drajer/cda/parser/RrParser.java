@@ -1,144 +1,285 @@
 package com.drajer.cda.parser;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.BOMInputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
+/**
+ * This class extracts the ids and the reportability status from a Reportability Response in a
+ * single pass over the document. The document is read as a stream, so only the elements that are
+ * currently open are held in memory, and the parser has no shared mutable state, which allows the
+ * same instance to be used by concurrent requests.
+ */
 @Service
 public class RrParser {
 
   private final Logger logger = LoggerFactory.getLogger(RrParser.class);
 
-  public Document initDoc(String cdaFile)
-      throws ParserConfigurationException, SAXException, IOException {
-    logger.debug("Initializing Document ");
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-    DocumentBuilder builder = factory.newDocumentBuilder();
-    return builder.parse(
-        new BOMInputStream(IOUtils.toInputStream(cdaFile, StandardCharsets.UTF_8.name())));
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  private static final String CLINICAL_DOCUMENT = "ClinicalDocument";
+  private static final String RECORD_TARGET = "recordTarget";
+  private static final String PATIENT_ROLE = "patientRole";
+  private static final String ENCOMPASSING_ENCOUNTER = "encompassingEncounter";
+  private static final String EXTERNAL_DOCUMENT = "externalDocument";
+  private static final String OBSERVATION = "observation";
+  private static final String TEMPLATE_ID = "templateId";
+  private static final String ID = "id";
+  private static final String SET_ID = "setId";
+  private static final String VALUE = "value";
+  private static final String NULL_FLAVOR = "nullFlavor";
+
+  private static XMLInputFactory createXmlInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    return factory;
   }
 
   public CdaRrModel parse(String cdaFile) {
+
+    if (cdaFile == null) {
+      logger.error("No Reportability Response to parse");
+      return null;
+    }
+
+    XMLStreamReader reader = null;
+
     try {
 
-      Document doc = initDoc(cdaFile);
+      logger.debug("Initializing Reader ");
+      reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(removeBom(cdaFile)));
+
+      RrDocumentState state = new RrDocumentState();
+
+      while (reader.hasNext()) {
+
+        int event = reader.next();
+
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          state.startElement(reader);
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          state.endElement();
+        }
+      }
 
       logger.debug("Creating Model");
-      CdaRrModel model = new CdaRrModel();
+      CdaRrModel model = createModel(state);
 
-      // Parse the id element.
-      try {
+      logger.info("Returning Parsed Model");
 
-        logger.info(" Setting the clinical document ids ");
-        model.setRrDocId(
-            CdaParserUtilities.readTemplateIdList(
-                (NodeList) CdaParserConstants.DOC_ID_EXP.evaluate(doc, XPathConstants.NODESET)));
+      return model;
 
-        logger.info(
-            " RrDocId root = {} , extension = {} ",
-            ((model.getRrDocId() != null) ? model.getRrDocId().getRootValue() : null),
-            ((model.getRrDocId() != null) ? model.getRrDocId().getExtValue() : null));
+    } catch (XMLStreamException e) {
 
-        // Extract the Eicr Doc Id
-        Element nd =
-            (Element) CdaParserConstants.EICR_DOC_ID_EXP.evaluate(doc, XPathConstants.NODE);
+      logger.error("Caught XML Stream Exception", e);
 
-        if (nd != null) {
-          logger.info(" Eicr Document Reference Found ");
+    } finally {
 
-          model.setEicrDocId(
-              CdaParserUtilities.readTemplateIdList(
-                  (NodeList) CdaParserConstants.REL_ID_EXP.evaluate(nd, XPathConstants.NODESET)));
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          logger.error("Unable to close the XML Stream Reader", e);
+        }
+      }
+    }
 
-          logger.info(
-              " EicrDocId root = {} , extension = {} ",
-              ((model.getEicrDocId() != null) ? model.getEicrDocId().getRootValue() : null),
-              ((model.getEicrDocId() != null) ? model.getEicrDocId().getExtValue() : null));
+    return null;
+  }
 
-          model.setSetId(
-              CdaParserUtilities.readTemplateIdList(
-                  (NodeList) CdaParserConstants.SET_ID_EXP.evaluate(nd, XPathConstants.NODESET)));
-          logger.info(
-              "SetID = {}", ((model.getSetId() != null) ? model.getSetId().getExtValue() : null));
+  private CdaRrModel createModel(RrDocumentState state) {
 
-          // Determine status
-          Element rrstatusElem =
-              (Element) CdaParserConstants.RR_STATUS_OBS_EXP.evaluate(doc, XPathConstants.NODE);
+    CdaRrModel model = new CdaRrModel();
 
-          if (rrstatusElem != null) {
+    logger.info(" Setting the clinical document ids ");
+    model.setRrDocId(state.rrDocId);
 
-            logger.debug(" Found the Reportability Status Node ");
-            Element resultValue =
-                (Element)
-                    CdaParserConstants.REL_VAL_EXP.evaluate(rrstatusElem, XPathConstants.NODE);
+    logger.info(
+        " RrDocId root = {} , extension = {} ",
+        ((model.getRrDocId() != null) ? model.getRrDocId().getRootValue() : null),
+        ((model.getRrDocId() != null) ? model.getRrDocId().getExtValue() : null));
 
-            if (resultValue != null) {
+    Candidate eicrReference = state.eicrReference;
 
-              logger.debug(" Found the Reportability Status Value Node ");
-              CdaCode val = CdaParserUtilities.readCode(resultValue);
+    if (eicrReference != null) {
+      logger.info(" Eicr Document Reference Found ");
 
-              if (val != null) {
+      model.setEicrDocId(eicrReference.id);
 
-                logger.debug(" Setting the Reportability Status ");
-                model.setReportableType(val.getCode());
-                model.setReportableStatus(val);
-              }
-            }
-          }
-        }
+      logger.info(
+          " EicrDocId root = {} , extension = {} ",
+          ((model.getEicrDocId() != null) ? model.getEicrDocId().getRootValue() : null),
+          ((model.getEicrDocId() != null) ? model.getEicrDocId().getExtValue() : null));
+
+      model.setSetId(asList(eicrReference.setId));
+      logger.info(
+          "SetID = {}", ((model.getSetId() != null) ? model.getSetId().getExtValue() : null));
+
+      // Determine status
+      Candidate rrStatus = state.rrStatus;
+
+      if (rrStatus != null && rrStatus.value != null) {
+
+        logger.debug(" Setting the Reportability Status ");
+        model.setReportableType(rrStatus.value.getCode());
+        model.setReportableStatus(rrStatus.value);
+      }
+    }
+
+    if (model.getSetId() == null) {
+
+      model.setPatientId(asList(state.patientId));
+      model.setEncounterId(asList(state.encounterId));
 
-        if (model.getSetId() == null) {
+      logger.info(
+          "Patient Id = {}, Encounter Id = {}",
+          ((model.getPatientId() != null) ? model.getPatientId().getExtValue() : null),
+          ((model.getEncounterId() != null) ? model.getEncounterId().getExtValue() : null));
+    }
+
+    return model;
+  }
+
+  private static List<CdaIi> asList(CdaIi id) {
+    return id != null ? Collections.singletonList(id) : null;
+  }
+
+  private static String removeBom(String cdaFile) {
+    return cdaFile.startsWith("\uFEFF") ? cdaFile.substring(1) : cdaFile;
+  }
 
-          model.setPatientId(
-              CdaParserUtilities.readTemplateIdList(
-                  (NodeList)
-                      CdaParserConstants.PATIENT_ID_EXP.evaluate(doc, XPathConstants.NODESET)));
+  /**
+   * The state of a single parse. The first matching element is kept for each of the ids, as only
+   * the first one is used by the model. The eICR reference and the reportability status are
+   * identified by a templateId, which can follow the other children, so the open candidates are
+   * completed when their element ends and the first one in document order is kept.
+   */
+  private static class RrDocumentState {
+
+    private final List<String> path = new ArrayList<>();
+    private final Deque<Candidate> candidates = new ArrayDeque<>();
+    private long sequence;
+
+    private CdaIi rrDocId;
+    private CdaIi patientId;
+    private CdaIi encounterId;
+    private Candidate eicrReference;
+    private Candidate rrStatus;
+
+    void startElement(XMLStreamReader reader) {
+
+      String name = reader.getLocalName();
+      int depth = path.size();
+      String parent = depth > 0 ? path.get(depth - 1) : null;
+      boolean nullFlavor = reader.getAttributeValue(null, NULL_FLAVOR) != null;
+      Candidate owner = candidates.peek();
+
+      path.add(name);
+      sequence++;
+
+      if (owner != null && owner.depth == depth - 1) {
+        owner.readChild(name, nullFlavor, reader);
+      }
+
+      if (nullFlavor) {
+        return;
+      }
 
-          model.setEncounterId(
-              CdaParserUtilities.readTemplateIdList(
-                  (NodeList)
-                      CdaParserConstants.ENCOUNTER_ID_EXP.evaluate(doc, XPathConstants.NODESET)));
+      if (ID.equals(name)) {
 
-          logger.info(
-              "Patient Id = {}, Encounter Id = {}",
-              ((model.getPatientId() != null) ? model.getPatientId().getExtValue() : null),
-              ((model.getEncounterId() != null) ? model.getEncounterId().getExtValue() : null));
+        if (rrDocId == null && depth == 1 && CLINICAL_DOCUMENT.equals(parent)) {
+          rrDocId = CdaParserUtilities.readTemplateId(reader);
+        } else if (patientId == null && depth == 3 && isPatientRole()) {
+          patientId = CdaParserUtilities.readTemplateId(reader);
+        } else if (encounterId == null && ENCOMPASSING_ENCOUNTER.equals(parent)) {
+          encounterId = CdaParserUtilities.readTemplateId(reader);
         }
 
-      } catch (XPathExpressionException e) {
-        logger.error("Failed to resolve xPath", e);
+      } else if (EXTERNAL_DOCUMENT.equals(name) && eicrReference == null) {
+        candidates.push(
+            new Candidate(CdaParserConstants.EICR_DOC_REF_TEMPLATE_ID, depth, sequence, true));
+      } else if (OBSERVATION.equals(name) && rrStatus == null) {
+        candidates.push(
+            new Candidate(CdaParserConstants.RR_STATUS_OBS_TEMPLATE_ID, depth, sequence, false));
       }
+    }
 
-      logger.info("Returning Parsed Model");
+    void endElement() {
 
-      return model;
-    } catch (ParserConfigurationException e1) {
+      int depth = path.size() - 1;
+      path.remove(depth);
 
-      logger.error("Caught Parser config Exception", e1);
+      Candidate candidate = candidates.peek();
 
-    } catch (SAXException e1) {
+      if (candidate != null && candidate.depth == depth) {
+        candidates.pop();
 
-      logger.error("Caught SAX Exception", e1);
+        if (candidate.matched) {
+          if (candidate.reference) {
+            eicrReference = candidate.firstOf(eicrReference);
+          } else {
+            rrStatus = candidate.firstOf(rrStatus);
+          }
+        }
+      }
+    }
+
+    private boolean isPatientRole() {
+      return CLINICAL_DOCUMENT.equals(path.get(0))
+          && RECORD_TARGET.equals(path.get(1))
+          && PATIENT_ROLE.equals(path.get(2));
+    }
+  }
+
+  /** An externalDocument or observation element that is open while the document is read. */
+  private static class Candidate {
 
-    } catch (IOException e1) {
+    private final String templateId;
+    private final int depth;
+    private final long sequence;
+    private final boolean reference;
 
-      logger.error("Caught IO  Exception", e1);
+    private boolean matched;
+    private CdaIi id;
+    private CdaIi setId;
+    private CdaCode value;
+
+    Candidate(String templateId, int depth, long sequence, boolean reference) {
+      this.templateId = templateId;
+      this.depth = depth;
+      this.sequence = sequence;
+      this.reference = reference;
     }
 
-    return null;
+    void readChild(String name, boolean nullFlavor, XMLStreamReader reader) {
+
+      if (TEMPLATE_ID.equals(name)) {
+        matched |= templateId.equals(reader.getAttributeValue(null, "root"));
+      } else if (nullFlavor) {
+        return;
+      } else if (reference && id == null && ID.equals(name)) {
+        id = CdaParserUtilities.readTemplateId(reader);
+      } else if (reference && setId == null && SET_ID.equals(name)) {
+        setId = CdaParserUtilities.readTemplateId(reader);
+      } else if (!reference && value == null && VALUE.equals(name)) {
+        value = CdaParserUtilities.readCode(reader);
+      }
+    }
+
+    Candidate firstOf(Candidate other) {
+      return other == null || sequence < other.sequence ? this : other;
+    }
   }
 }
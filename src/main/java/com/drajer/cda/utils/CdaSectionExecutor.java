@@ -0,0 +1,151 @@
+package com.drajer.cda.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * This class generates the sections of a CDA document concurrently on a bounded pool of threads.
+ * The section generators only read the FHIR data, so the sections are independent of each other and
+ * the sections are returned in the order in which they have to appear in the document. When
+ * parallel generation is disabled, the sections are generated one after another by the caller.
+ */
+@Component
+public class CdaSectionExecutor {
+
+  private static final Logger logger = LoggerFactory.getLogger(CdaSectionExecutor.class);
+
+  @Value("${cda.section.parallel.enabled:false}")
+  private boolean parallelEnabled;
+
+  @Value("${cda.section.parallel.threads:8}")
+  private int threads;
+
+  @Value("${cda.section.parallel.timeout:120}")
+  private int sectionTimeout;
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void initialize() {
+
+    if (parallelEnabled) {
+      logger.info(" Initializing CDA Section Executor with {} threads ", threads);
+      executor = Executors.newFixedThreadPool(threads, new CdaSectionThreadFactory());
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /** @return true if the sections of a CDA document are generated concurrently. */
+  public boolean isParallelEnabled() {
+    return executor != null;
+  }
+
+  /**
+   * The method generates the sections concurrently and returns them in the order of the sections.
+   * The sections have to be generated within the section timeout, otherwise the generation of all
+   * the sections is cancelled and the document is not created. A section is not generated again on
+   * the calling thread, since the cancelled generator may still be running. An exception thrown by
+   * a section generator is thrown to the caller as it would be when the sections are generated one
+   * after another.
+   *
+   * @param sections The section generators, keyed by the name of the section used for logging.
+   * @return The XML of the sections in the order of the section generators.
+   */
+  public List<String> generateAll(Map<String, Supplier<String>> sections) {
+
+    List<String> results = new ArrayList<>();
+    ExecutorService pool = executor;
+
+    if (pool == null) {
+      sections.values().forEach(section -> results.add(section.get()));
+      return results;
+    }
+
+    Map<String, String> mdcContext = MDC.getCopyOfContextMap();
+    Map<String, Future<String>> futures = new LinkedHashMap<>();
+
+    for (Map.Entry<String, Supplier<String>> entry : sections.entrySet()) {
+      futures.put(
+          entry.getKey(),
+          pool.submit(
+              () -> {
+                if (mdcContext != null) MDC.setContextMap(mdcContext);
+                try {
+                  logger.info("Starting {} generation ", entry.getKey());
+                  return entry.getValue().get();
+                } finally {
+                  MDC.clear();
+                }
+              }));
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(sectionTimeout);
+    String current = null;
+
+    try {
+
+      for (Map.Entry<String, Future<String>> entry : futures.entrySet()) {
+
+        current = entry.getKey();
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        results.add(entry.getValue().get(remaining, TimeUnit.NANOSECONDS));
+      }
+
+    } catch (TimeoutException e) {
+      futures.values().forEach(future -> future.cancel(true));
+      String msg = current + " was not generated in " + sectionTimeout + " seconds";
+      logger.error(msg);
+      throw new RuntimeException(msg, e);
+    } catch (ExecutionException e) {
+      futures.values().forEach(future -> future.cancel(true));
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException
+          ? (RuntimeException) cause
+          : new RuntimeException("Error generating CDA section", cause);
+    } catch (InterruptedException e) {
+      futures.values().forEach(future -> future.cancel(true));
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while generating CDA sections", e);
+    }
+
+    return results;
+  }
+
+  private static class CdaSectionThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "CdaSectionGenerator-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
@@ -1,22 +1,35 @@
 package com.drajer.cda.utils;
 
 import com.drajer.eca.model.ActionRepo;
-import com.helger.schematron.ISchematronResource;
+import com.helger.schematron.svrl.SVRLFailedAssert;
+import com.helger.schematron.svrl.SVRLMarshaller;
 import com.helger.schematron.svrl.jaxb.FailedAssert;
 import com.helger.schematron.svrl.jaxb.SchematronOutputType;
+import com.helger.schematron.xslt.ISchematronXSLTBasedProvider;
 import com.helger.schematron.xslt.SchematronResourceSCH;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 /** Util class for validating Cda data. */
@@ -30,6 +43,17 @@ public class CdaValidatorUtil {
 
   private static final Schema schema = getSchema();
 
+  /**
+   * The validators for the schema, a validator is not thread safe so each thread reuses its own
+   * validator instead of creating a validator for every validation.
+   */
+  private static final ThreadLocal<Validator> validators =
+      ThreadLocal.withInitial(() -> schema.newValidator());
+
+  private static final DocumentBuilderFactory documentBuilderFactory = getDocumentBuilderFactory();
+
+  private static CompiledSchematron compiledSchematron;
+
   private static Schema getSchema() {
     Schema schema;
     try {
@@ -50,6 +74,17 @@ public class CdaValidatorUtil {
     return schema;
   }
 
+  private static DocumentBuilderFactory getDocumentBuilderFactory() {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    factory.setNamespaceAware(true);
+    try {
+      factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+    } catch (ParserConfigurationException e) {
+      logger.error("Unable to disallow the doctype declaration for the EICR XML", e);
+    }
+    return factory;
+  }
+
   /**
    * Method validates XML data against xsdFile
    *
@@ -57,7 +92,19 @@ public class CdaValidatorUtil {
    * @return boolean value
    */
   public static boolean validateEicrXMLData(String xmlData) {
+    return validateEicrXMLData(new StreamSource(new StringReader(xmlData)));
+  }
 
+  /**
+   * Method validates XML data against xsdFile. The XML is read directly from the source, and the
+   * validator is reused by the calling thread for the subsequent validations.
+   *
+   * @param source The XML data, such as a stream or a parsed document.
+   * @return boolean value
+   */
+  public static boolean validateEicrXMLData(Source source) {
+
+    Validator validator = null;
     try {
       logger.trace("**** Starting CDA Schema Validation from XSD ****");
 
@@ -66,11 +113,11 @@ public class CdaValidatorUtil {
         return false;
       }
 
-      Validator validator = schema.newValidator();
+      validator = validators.get();
       // Add a custom ErrorHandler
       ValidateErrorHandler errorHandler = new ValidateErrorHandler();
       validator.setErrorHandler(errorHandler);
-      validator.validate(new StreamSource(new ByteArrayInputStream(xmlData.getBytes())));
+      validator.validate(source);
 
       logger.trace("**** End CDA Schema Validation from XSD ****");
 
@@ -82,81 +129,189 @@ public class CdaValidatorUtil {
     } catch (SAXException | IOException e) {
       logger.error("Error in CDA Schema Validation", e);
       return false;
+    } finally {
+      if (validator != null) {
+        validator.reset();
+      }
     }
     logger.info("CDA Schema Validation Succeed");
     return true;
   }
 
+  /**
+   * Method validates XML data against both the xsdFile and the Schematron. The XML is parsed once
+   * and the parsed document is used for both validations, instead of each validation parsing the
+   * XML again.
+   *
+   * @param xmlData
+   * @return true if the XML data is valid against both the xsdFile and the Schematron.
+   */
+  public static boolean validateEicr(String xmlData) {
+
+    Document document;
+    try {
+      DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
+      builder.setErrorHandler(new ValidateErrorHandler());
+      document = builder.parse(new InputSource(new StringReader(xmlData)));
+    } catch (ParserConfigurationException | SAXException | IOException e) {
+      logger.error("Unable to parse the EICR XML for validation", e);
+      return false;
+    }
+
+    boolean schemaResult = validateEicrXMLData(new DOMSource(document));
+
+    boolean schematronResult = validateEicrToSchematron(new DOMSource(document));
+    logger.info("Schematron Validation Result: {}", schematronResult);
+
+    return schemaResult && schematronResult;
+  }
+
   /**
    * Method used for validating XML data against valid Schematron returns true if XML data matched
-   * Schematton
+   * Schematton. The Schematron is compiled to XSLT once and the compiled Schematron is reused until
+   * the Schematron file changes.
    *
    * @param ecrData
    * @return boolean value
    */
   public static boolean validateEicrToSchematron(String ecrData) {
 
-    boolean validationResult = false;
-    final ISchematronResource aResSCH =
-        SchematronResourceSCH.fromFile(ActionRepo.getInstance().getSchematronFileLocation());
+    boolean validationResult =
+        validateEicrToSchematron(new StreamSource(new StringReader(ecrData)));
+    logger.info("Schematron Validation Result: {}", validationResult);
+    return validationResult;
+  }
+
+  private static boolean validateEicrToSchematron(Source source) {
 
-    if (!aResSCH.isValidSchematron()) {
+    CompiledSchematron compiled = getCompiledSchematron();
+
+    if (compiled == null) {
       logger.warn("*** Cannot Validate EICR since Schematron is not valid ***");
-    } else {
-      SchematronOutputType output = null;
-      try {
-        logger.debug("Found Valid Schematron which can be applied to EICR");
-        output =
-            aResSCH.applySchematronValidationToSVRL(new StreamSource(new StringReader(ecrData)));
-      } catch (Exception e) {
-        logger.error("Unable to read/write execution state: ", e);
-      }
+      return false;
+    }
+
+    SchematronOutputType output = null;
+    Transformer transformer = null;
+    try {
+      logger.debug("Found Valid Schematron which can be applied to EICR");
+      transformer = compiled.borrowTransformer();
+      DOMResult result = new DOMResult();
+      transformer.transform(source, result);
+      output = new SVRLMarshaller().read(result.getNode());
+    } catch (Exception e) {
+      logger.error("Unable to read/write execution state: ", e);
+    } finally {
+      compiled.returnTransformer(transformer);
+    }
+
+    if (output == null) {
+      logger.warn("Schematron Validation Output is null, so validation was not performed");
+      return false;
+    }
+
+    List<Object> objs = output.getActivePatternAndFiredRuleAndFailedAssert();
+    boolean foundFailures = false;
+    logger.info("Number of Failed Assertions {}", objs.size());
 
-      if (output != null) {
-        List<Object> objs = output.getActivePatternAndFiredRuleAndFailedAssert();
-        boolean foundFailures = false;
-        logger.info("Number of Failed Assertions {}", objs.size());
-
-        for (Object obj : objs) {
-          if (obj instanceof FailedAssert) {
-            FailedAssert fa = (FailedAssert) obj;
-            if (fa.getFlag() != null && (fa.getFlag().contentEquals("error"))) {
-              foundFailures = true;
-              logger.error(
-                  "Failed Assertion: \n"
-                      + "Id = {}\n"
-                      + "Location = {}\n"
-                      + "Text = {}\n"
-                      + "Flag = {}",
-                  fa.getId(),
-                  fa.getLocation(),
-                  fa.getText(),
-                  fa.getFlag());
-            } else {
-
-              // It is a warning, so need to print to log for analysis
-              logger.debug(
-                  "Failed Assertion: \n"
-                      + "Id = {}\n"
-                      + "Location = {}\n"
-                      + "Text = {}\n"
-                      + "Flag = {}",
-                  fa.getId(),
-                  fa.getLocation(),
-                  fa.getText(),
-                  fa.getFlag());
-            }
-          }
+    for (Object obj : objs) {
+      if (obj instanceof FailedAssert) {
+        FailedAssert fa = (FailedAssert) obj;
+        if (fa.getFlag() != null && (fa.getFlag().contentEquals("error"))) {
+          foundFailures = true;
+          logger.error(
+              "Failed Assertion: \n"
+                  + "Id = {}\n"
+                  + "Location = {}\n"
+                  + "Text = {}\n"
+                  + "Flag = {}",
+              fa.getId(),
+              fa.getLocation(),
+              new SVRLFailedAssert(fa).getText(),
+              fa.getFlag());
+        } else {
+
+          // It is a warning, so need to print to log for analysis
+          logger.debug(
+              "Failed Assertion: \n"
+                  + "Id = {}\n"
+                  + "Location = {}\n"
+                  + "Text = {}\n"
+                  + "Flag = {}",
+              fa.getId(),
+              fa.getLocation(),
+              new SVRLFailedAssert(fa).getText(),
+              fa.getFlag());
         }
+      }
+    }
+
+    return !foundFailures;
+  }
+
+  private static synchronized CompiledSchematron getCompiledSchematron() {
+
+    String location = ActionRepo.getInstance().getSchematronFileLocation();
+
+    if (location == null) {
+      return null;
+    }
 
-        if (foundFailures) validationResult = false;
-        else validationResult = true;
-      } else {
-        logger.warn("Schematron Validation Output is null, so validation was not performed");
-        validationResult = false;
+    long lastModified = new File(location).lastModified();
+    CompiledSchematron compiled = compiledSchematron;
+
+    if (compiled == null
+        || !location.equals(compiled.location)
+        || lastModified != compiled.lastModified) {
+
+      logger.info("Compiling Schematron from the location : {}", location);
+
+      SchematronResourceSCH aResSCH = SchematronResourceSCH.fromFile(location);
+
+      // The compiled Schematron is kept here, so that it is replaced when the file changes.
+      aResSCH.setUseCache(false);
+
+      ISchematronXSLTBasedProvider provider = aResSCH.getXSLTProvider();
+      compiled =
+          new CompiledSchematron(
+              location,
+              lastModified,
+              provider != null && provider.isValidSchematron() ? provider : null,
+              ActionRepo.getInstance().getSchematronTransformerPoolSize());
+      compiledSchematron = compiled;
+    }
+
+    return compiled.provider != null ? compiled : null;
+  }
+
+  /** The Schematron compiled to XSLT along with a pool of transformers for the compiled XSLT. */
+  private static class CompiledSchematron {
+
+    private final String location;
+    private final long lastModified;
+    private final ISchematronXSLTBasedProvider provider;
+    private final BlockingQueue<Transformer> transformers;
+
+    CompiledSchematron(
+        String location, long lastModified, ISchematronXSLTBasedProvider provider, int poolSize) {
+      this.location = location;
+      this.lastModified = lastModified;
+      this.provider = provider;
+      this.transformers = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /** @return A pooled transformer, or a new transformer if none is available. */
+    Transformer borrowTransformer() throws TransformerConfigurationException {
+      Transformer transformer = transformers.poll();
+      return transformer != null ? transformer : provider.getXSLTTransformer();
+    }
+
+    /** Returns the transformer to the pool, the transformer is discarded if the pool is full. */
+    void returnTransformer(Transformer transformer) {
+      if (transformer != null) {
+        transformer.reset();
+        transformers.offer(transformer);
       }
     }
-    logger.info("Schematron Validation Result: {}", validationResult);
-    return validationResult;
   }
 }
@@ -0,0 +1,72 @@
+package com.drajer.cda.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * This class writes the XML of a CDA document directly to an output buffer or stream, instead of
+ * building intermediate Strings for the document and its body. The sections themselves are still
+ * created as Strings by the section generators. The XML written is identical to the XML created by
+ * the corresponding methods of CdaGeneratorUtils, so that the sections created as Strings can be
+ * written along with the elements written by the writer.
+ */
+public class CdaWriter {
+
+  private final Appendable out;
+
+  /** @param out The buffer or stream to which the CDA document is written. */
+  public CdaWriter(Appendable out) {
+    this.out = out;
+  }
+
+  /** @return The buffer or stream to which the CDA document is written. */
+  public Appendable getOutput() {
+    return out;
+  }
+
+  /**
+   * The method writes XML that has already been created, such as a section of the document.
+   *
+   * @param xml The XML to be written, null values are ignored.
+   * @return The writer.
+   */
+  public CdaWriter write(CharSequence xml) {
+
+    if (xml != null) {
+      try {
+        out.append(xml);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to write CDA document", e);
+      }
+    }
+
+    return this;
+  }
+
+  /**
+   * The method writes the same XML as CdaGeneratorUtils.getXmlForStartElement.
+   *
+   * @param name The name of the element.
+   * @return The writer.
+   */
+  public CdaWriter startElement(String name) {
+    return write(CdaGeneratorConstants.START_XMLTAG)
+        .write(name)
+        .write(CdaGeneratorConstants.RIGHT_ANGLE_BRACKET)
+        .write("\n");
+  }
+
+  /**
+   * The method writes the same XML as CdaGeneratorUtils.getXmlForEndElement.
+   *
+   * @param name The name of the element.
+   * @return The writer.
+   */
+  public CdaWriter endElement(String name) {
+    return write(CdaGeneratorConstants.START_XMLTAG)
+        .write(CdaGeneratorConstants.FORWARD_SLASH)
+        .write(name)
+        .write(CdaGeneratorConstants.RIGHT_ANGLE_BRACKET)
+        .write("\n");
+  }
+}
@@ -1,9 +1,13 @@
 package com.drajer.cdafromr4;
 
 import com.drajer.cda.utils.CdaGeneratorConstants;
-import com.drajer.cda.utils.CdaGeneratorUtils;
+import com.drajer.cda.utils.CdaSectionExecutor;
+import com.drajer.cda.utils.CdaWriter;
 import com.drajer.sof.model.LaunchDetails;
 import com.drajer.sof.model.R4FhirData;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,103 +18,146 @@ public class CdaBodyGenerator {
   private static final Logger logger = LoggerFactory.getLogger(CdaBodyGenerator.class);
 
   public static String generateCdaBody(R4FhirData data, LaunchDetails details, String version) {
+    return generateCdaBody(data, details, version, null);
+  }
 
-    StringBuilder eICRBody = new StringBuilder();
-
-    eICRBody.append(CdaGeneratorUtils.getXmlForStartElement(CdaGeneratorConstants.COMP_EL_NAME));
-    eICRBody.append(
-        CdaGeneratorUtils.getXmlForStartElement(CdaGeneratorConstants.STRUC_BODY_EL_NAME));
-
-    if (data != null) {
-
-      if (version.contentEquals("CDA_R31")) {
-
-        logger.info("Starting Problem generation ");
-        eICRBody.append(CdaProblemGenerator.generateProblemSection(data, details, version));
-
-        logger.info("Starting Encounter generation ");
-        eICRBody.append(CdaEncounterGenerator.generateEncounterSection(data, details, version));
-
-        logger.info("Starting R31 Medication Administered Section generation ");
-        eICRBody.append(
-            CdaMedicationGenerator.generateR31MedicationsAdministeredSection(
-                data, details, version));
-
-        logger.info("Starting R31 Medications Section generation ");
-        eICRBody.append(
-            CdaMedicationGenerator.generateR31MedicationsSection(data, details, version));
-
-        logger.info("Starting Immunization Section generation ");
-        eICRBody.append(
-            CdaImmunizationGenerator.generateImmunizationSection(data, details, version));
-
-        logger.info("Starting R31 Result Section generation ");
-        eICRBody.append(CdaResultGenerator.generateResultsSection(data, details, version));
+  public static String generateCdaBody(
+      R4FhirData data, LaunchDetails details, String version, CdaSectionExecutor sectionExecutor) {
 
-        logger.info("Starting R31 Chief Complaint Section generation ");
-        eICRBody.append(
-            CdaChiefComplaintGenerator.generateChiefComplaintSection(data, details, version));
+    StringBuilder eICRBody = new StringBuilder();
+    writeCdaBody(data, details, version, new CdaWriter(eICRBody), sectionExecutor);
 
-        logger.info("Starting R31 Plan Of Treatment Section generation ");
-        eICRBody.append(
-            CdaPlanOfTreatmentGenerator.generatePlanOfTreatmentSection(data, details, version));
+    return eICRBody.toString();
+  }
 
-        logger.info("Starting R31 Social History Section generation ");
-        eICRBody.append(
-            CdaSocialHistoryGenerator.generateSocialHistorySection(data, details, version));
+  /**
+   * The method writes the body of the eICR to the output. Each section is still generated as a
+   * String by its generator, and is appended to the output once it is generated instead of being
+   * collected into a separate String for the body.
+   *
+   * @param data The FHIR data used to generate the sections.
+   * @param details The launch details.
+   * @param version The eICR version.
+   * @param eICRBody The writer for the eICR.
+   * @param sectionExecutor The executor generating the sections concurrently, the sections are
+   *     generated one after another when it is null or parallel generation is disabled.
+   */
+  public static void writeCdaBody(
+      R4FhirData data,
+      LaunchDetails details,
+      String version,
+      CdaWriter eICRBody,
+      CdaSectionExecutor sectionExecutor) {
+
+    eICRBody.startElement(CdaGeneratorConstants.COMP_EL_NAME);
+    eICRBody.startElement(CdaGeneratorConstants.STRUC_BODY_EL_NAME);
 
-        logger.info("Starting R31 Pregnancy Section generation ");
-        eICRBody.append(CdaPregnancyGenerator.generatePregnancySection(data, details, version));
+    if (data != null) {
 
-        logger.info("Starting R31 ODH Data Section generation ");
-        eICRBody.append(CdaOdhDataGenerator.generateOdhSection(data, details, version));
+      Map<String, Supplier<String>> sections = getSections(data, details, version);
 
-        logger.info("Starting R31 Procedure Section generation ");
-        eICRBody.append(CdaProcedureGenerator.generateProcedureSection(data, details, version));
+      if (sectionExecutor != null && sectionExecutor.isParallelEnabled()) {
 
-        logger.info("Starting R31 Vitals generation ");
-        eICRBody.append(CdaVitalSignsGenerator.generateVitalsSection(data, details, version));
+        logger.info("Starting parallel generation of {} sections ", sections.size());
+        sectionExecutor.generateAll(sections).forEach(eICRBody::write);
 
       } else {
 
-        logger.info("Starting Problem generation ");
-        eICRBody.append(CdaProblemGenerator.generateProblemSection(data, details, version));
-
-        logger.info("Starting Encounter generation ");
-        eICRBody.append(CdaEncounterGenerator.generateEncounterSection(data, details, version));
-
-        logger.info("Starting Result Section generation ");
-        eICRBody.append(CdaResultGenerator.generateResultsSection(data, details, version));
-
-        logger.info("Starting Medication Administered Section generation ");
-        eICRBody.append(CdaMedicationGenerator.generateMedicationSection(data, details));
-
-        logger.info("Starting Immunization Section generation ");
-        eICRBody.append(
-            CdaImmunizationGenerator.generateImmunizationSection(data, details, version));
-
-        logger.info("Starting Social History Section generation ");
-        eICRBody.append(
-            CdaSocialHistoryGenerator.generateSocialHistorySection(data, details, version));
-
-        logger.info("Starting Plan Of Treatment Section generation ");
-        eICRBody.append(
-            CdaPlanOfTreatmentGenerator.generatePlanOfTreatmentSection(data, details, version));
+        for (Map.Entry<String, Supplier<String>> section : sections.entrySet()) {
+          logger.info("Starting {} generation ", section.getKey());
+          eICRBody.write(section.getValue().get());
+        }
       }
+    }
 
-      logger.info("Starting History of Present Illness Section generation ");
-      eICRBody.append(
-          CdaHistoryOfPresentIllnessGenerator.generateHistoryOfPresentIllnessSection(
-              data, version));
+    eICRBody.endElement(CdaGeneratorConstants.STRUC_BODY_EL_NAME);
+    eICRBody.endElement(CdaGeneratorConstants.COMP_EL_NAME);
+  }
 
-      logger.info("Starting Reason For Visit Section generation ");
-      eICRBody.append(CdaReasonForVisitGenerator.generateReasonForVisitSection(data, version));
+  /**
+   * The method returns the generators for the sections of the eICR in the order in which the
+   * sections appear in the eICR.
+   */
+  private static Map<String, Supplier<String>> getSections(
+      R4FhirData data, LaunchDetails details, String version) {
+
+    Map<String, Supplier<String>> sections = new LinkedHashMap<>();
+
+    if (version.contentEquals("CDA_R31")) {
+
+      sections.put(
+          "Problem", () -> CdaProblemGenerator.generateProblemSection(data, details, version));
+      sections.put(
+          "Encounter",
+          () -> CdaEncounterGenerator.generateEncounterSection(data, details, version));
+      sections.put(
+          "R31 Medication Administered Section",
+          () ->
+              CdaMedicationGenerator.generateR31MedicationsAdministeredSection(
+                  data, details, version));
+      sections.put(
+          "R31 Medications Section",
+          () -> CdaMedicationGenerator.generateR31MedicationsSection(data, details, version));
+      sections.put(
+          "Immunization Section",
+          () -> CdaImmunizationGenerator.generateImmunizationSection(data, details, version));
+      sections.put(
+          "R31 Result Section",
+          () -> CdaResultGenerator.generateResultsSection(data, details, version));
+      sections.put(
+          "R31 Chief Complaint Section",
+          () -> CdaChiefComplaintGenerator.generateChiefComplaintSection(data, details, version));
+      sections.put(
+          "R31 Plan Of Treatment Section",
+          () -> CdaPlanOfTreatmentGenerator.generatePlanOfTreatmentSection(data, details, version));
+      sections.put(
+          "R31 Social History Section",
+          () -> CdaSocialHistoryGenerator.generateSocialHistorySection(data, details, version));
+      sections.put(
+          "R31 Pregnancy Section",
+          () -> CdaPregnancyGenerator.generatePregnancySection(data, details, version));
+      sections.put(
+          "R31 ODH Data Section",
+          () -> CdaOdhDataGenerator.generateOdhSection(data, details, version));
+      sections.put(
+          "R31 Procedure Section",
+          () -> CdaProcedureGenerator.generateProcedureSection(data, details, version));
+      sections.put(
+          "R31 Vitals", () -> CdaVitalSignsGenerator.generateVitalsSection(data, details, version));
+
+    } else {
+
+      sections.put(
+          "Problem", () -> CdaProblemGenerator.generateProblemSection(data, details, version));
+      sections.put(
+          "Encounter",
+          () -> CdaEncounterGenerator.generateEncounterSection(data, details, version));
+      sections.put(
+          "Result Section",
+          () -> CdaResultGenerator.generateResultsSection(data, details, version));
+      sections.put(
+          "Medication Administered Section",
+          () -> CdaMedicationGenerator.generateMedicationSection(data, details));
+      sections.put(
+          "Immunization Section",
+          () -> CdaImmunizationGenerator.generateImmunizationSection(data, details, version));
+      sections.put(
+          "Social History Section",
+          () -> CdaSocialHistoryGenerator.generateSocialHistorySection(data, details, version));
+      sections.put(
+          "Plan Of Treatment Section",
+          () -> CdaPlanOfTreatmentGenerator.generatePlanOfTreatmentSection(data, details, version));
     }
 
-    eICRBody.append(
-        CdaGeneratorUtils.getXmlForEndElement(CdaGeneratorConstants.STRUC_BODY_EL_NAME));
-    eICRBody.append(CdaGeneratorUtils.getXmlForEndElement(CdaGeneratorConstants.COMP_EL_NAME));
+    sections.put(
+        "History of Present Illness Section",
+        () ->
+            CdaHistoryOfPresentIllnessGenerator.generateHistoryOfPresentIllnessSection(
+                data, version));
+    sections.put(
+        "Reason For Visit Section",
+        () -> CdaReasonForVisitGenerator.generateReasonForVisitSection(data, version));
 
-    return eICRBody.toString();
+    return sections;
   }
 }
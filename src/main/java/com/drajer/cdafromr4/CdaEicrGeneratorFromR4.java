@@ -1,6 +1,8 @@
 package com.drajer.cdafromr4;
 
 import com.drajer.cda.utils.CdaGeneratorUtils;
+import com.drajer.cda.utils.CdaSectionExecutor;
+import com.drajer.cda.utils.CdaWriter;
 import com.drajer.ecrapp.model.Eicr;
 import com.drajer.sof.model.LaunchDetails;
 import com.drajer.sof.model.R4FhirData;
@@ -12,12 +14,57 @@ public class CdaEicrGeneratorFromR4 {
 
   private static final Logger logger = LoggerFactory.getLogger(CdaEicrGeneratorFromR4.class);
 
+  /** The initial capacity of the buffer for an eICR, which avoids copying as the eICR grows. */
+  private static final int EICR_INITIAL_CAPACITY = 256 * 1024;
+
   private CdaEicrGeneratorFromR4() {}
 
   public static String convertR4FhirBundletoCdaEicr(
       R4FhirData data, LaunchDetails details, Eicr ecr, String version) {
+    return convertR4FhirBundletoCdaEicr(data, details, ecr, version, null);
+  }
+
+  public static String convertR4FhirBundletoCdaEicr(
+      R4FhirData data,
+      LaunchDetails details,
+      Eicr ecr,
+      String version,
+      CdaSectionExecutor sectionExecutor) {
 
-    StringBuilder eICR = new StringBuilder();
+    if (data == null) {
+      logger.error("No Fhir Bundle Available to create CDA Documents");
+      return "";
+    }
+
+    StringBuilder eICR = new StringBuilder(EICR_INITIAL_CAPACITY);
+    writeR4FhirBundleAsCdaEicr(data, details, ecr, version, eICR, sectionExecutor);
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("Created new eICR {}", StringEscapeUtils.escapeXml11(eICR.toString()));
+    }
+
+    return eICR.toString();
+  }
+
+  /**
+   * The method writes the eICR to the output. The header and the sections of the body are generated
+   * as Strings and appended to the output one after another, so the document and its body are not
+   * copied into intermediate Strings, but each section is held in memory until it is written.
+   *
+   * @param data The FHIR data used to generate the eICR.
+   * @param details The launch details.
+   * @param ecr The eICR being created.
+   * @param version The eICR version.
+   * @param out The buffer or stream to which the eICR is written.
+   * @param sectionExecutor The executor generating the sections of the body, may be null.
+   */
+  public static void writeR4FhirBundleAsCdaEicr(
+      R4FhirData data,
+      LaunchDetails details,
+      Eicr ecr,
+      String version,
+      Appendable out,
+      CdaSectionExecutor sectionExecutor) {
 
     if (data != null) {
 
@@ -28,11 +75,11 @@ public class CdaEicrGeneratorFromR4 {
 
       if (Boolean.TRUE.equals(data.hasRequiredDataForEicr())) {
         logger.info("Bundle has required data for Eicr");
-        eICR.append(CdaHeaderGenerator.createCdaHeader(data, details, ecr, version));
-        eICR.append(CdaBodyGenerator.generateCdaBody(data, details, version));
-        eICR.append(CdaGeneratorUtils.getEndXMLHeaderForCdaDocument());
 
-        logger.debug("Created new eICR {}", StringEscapeUtils.escapeXml11(eICR.toString()));
+        CdaWriter eICR = new CdaWriter(out);
+        eICR.write(CdaHeaderGenerator.createCdaHeader(data, details, ecr, version));
+        CdaBodyGenerator.writeCdaBody(data, details, version, eICR, sectionExecutor);
+        eICR.write(CdaGeneratorUtils.getEndXMLHeaderForCdaDocument());
 
       } else {
         String msg = "Fhir Data not ready/missing to be used for creating a CDA Document";
@@ -44,7 +91,5 @@ public class CdaEicrGeneratorFromR4 {
 
       logger.error("No Fhir Bundle Available to create CDA Documents");
     }
-
-    return eICR.toString();
   }
 }
@@ -1,5 +1,6 @@
 package com.drajer.eca.model;
 
+import com.drajer.cda.utils.CdaSectionExecutor;
 import com.drajer.eca.model.EventTypes.EcrActionTypes;
 import com.drajer.ecrapp.config.AppConfig;
 import com.drajer.ecrapp.service.EicrRRService;
@@ -63,8 +64,14 @@ public class ActionRepo {
 
   FhirContextInitializer fhirContextInitializer;
 
+  CdaSectionExecutor cdaSectionExecutor;
+
   String schematronFileLocation;
 
+  int schematronTransformerPoolSize = 10;
+
+  boolean singlePassValidation;
+
   String logFileDirectory;
 
   String xsdSchemasLocation;
@@ -137,6 +144,22 @@ public class ActionRepo {
     this.schematronFileLocation = schematronFileLocation;
   }
 
+  public int getSchematronTransformerPoolSize() {
+    return schematronTransformerPoolSize;
+  }
+
+  public void setSchematronTransformerPoolSize(int schematronTransformerPoolSize) {
+    this.schematronTransformerPoolSize = schematronTransformerPoolSize;
+  }
+
+  public boolean isSinglePassValidation() {
+    return singlePassValidation;
+  }
+
+  public void setSinglePassValidation(boolean singlePassValidation) {
+    this.singlePassValidation = singlePassValidation;
+  }
+
   public String getXsdSchemasLocation() {
     return xsdSchemasLocation;
   }
@@ -233,6 +256,14 @@ public class ActionRepo {
     this.fhirContextInitializer = fhirContextInitializer;
   }
 
+  public CdaSectionExecutor getCdaSectionExecutor() {
+    return cdaSectionExecutor;
+  }
+
+  public void setCdaSectionExecutor(CdaSectionExecutor cdaSectionExecutor) {
+    this.cdaSectionExecutor = cdaSectionExecutor;
+  }
+
   public DirectResponseReceiver getDirectReceiver() {
     return directReceiver;
   }
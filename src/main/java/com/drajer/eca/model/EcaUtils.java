@@ -176,7 +176,11 @@ public class EcaUtils {
 
         eICR =
             CdaEicrGeneratorFromR4.convertR4FhirBundletoCdaEicr(
-                r4Data, details, ecr, CdaGeneratorConstants.CDA_EICR_VERSION_R11);
+                r4Data,
+                details,
+                ecr,
+                CdaGeneratorConstants.CDA_EICR_VERSION_R11,
+                ActionRepo.getInstance().getCdaSectionExecutor());
 
       } else {
 
@@ -87,7 +87,9 @@ public class ValidateEicrAction extends AbstractAction {
         String eicrData = eicr.getEicrData();
 
         // Validate incoming XML
-        if (StringUtils.isNotEmpty(eicrData)) {
+        if (StringUtils.isNotEmpty(eicrData) && ActionRepo.getInstance().isSinglePassValidation()) {
+          CdaValidatorUtil.validateEicr(eicrData);
+        } else if (StringUtils.isNotEmpty(eicrData)) {
           CdaValidatorUtil.validateEicrXMLData(eicrData);
           CdaValidatorUtil.validateEicrToSchematron(eicrData);
         } else {
@@ -1,5 +1,6 @@
 package com.drajer.ecrapp.service;
 
+import com.drajer.cda.utils.CdaSectionExecutor;
 import com.drajer.eca.model.AbstractAction;
 import com.drajer.eca.model.ActionRepo;
 import com.drajer.eca.model.EventTypes;
@@ -93,11 +94,19 @@ public class WorkflowService {
 
   @Autowired FhirContextInitializer fhirContextInitializer;
 
+  @Autowired CdaSectionExecutor cdaSectionExecutor;
+
   private static SchedulerService staticSchedulerService;
 
   @Value("${schematron.file.location}")
   String schematronFileLocation;
 
+  @Value("${schematron.transformer.pool-size:10}")
+  int schematronTransformerPoolSize;
+
+  @Value("${cda.validation.single-pass:false}")
+  boolean singlePassValidation;
+
   @Value("${logging.file.name}")
   String logFileLocation;
 
@@ -113,13 +122,16 @@ public class WorkflowService {
     ActionRepo.getInstance().setTaskScheduler(taskScheduler);
     ActionRepo.getInstance().setEicrRRService(eicrRRService);
     ActionRepo.getInstance().setSchematronFileLocation(schematronFileLocation);
+    ActionRepo.getInstance().setSchematronTransformerPoolSize(schematronTransformerPoolSize);
     ActionRepo.getInstance().setDirectTransport(directTansport);
     ActionRepo.getInstance().setDirectReceiver(directReceiver);
     ActionRepo.getInstance().setLogFileDirectory(logFileLocation);
     ActionRepo.getInstance().setXsdSchemasLocation(xsdSchemasLocation);
+    ActionRepo.getInstance().setSinglePassValidation(singlePassValidation);
     ActionRepo.getInstance().setRestTransport(restApiTransport);
     ActionRepo.getInstance().setAppConfig(appConfig);
     ActionRepo.getInstance().setFhirContextInitializer(fhirContextInitializer);
+    ActionRepo.getInstance().setCdaSectionExecutor(cdaSectionExecutor);
 
     workflowInstance = this;
     ActionRepo.getInstance().setWorkflowService(workflowInstance);
@@ -2,6 +2,7 @@ package com.drajer.ecrapp.util;
 
 import com.drajer.bsa.model.BsaTypes;
 import com.drajer.bsa.scheduler.ScheduledJobData;
+import com.drajer.bsa.scheduler.TaskDataSerializer;
 import com.drajer.ecrapp.dao.SchedulerDao;
 import com.drajer.ecrapp.model.ScheduledTasks;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -32,6 +33,8 @@ public class ScheduledTaskUtil {
 
   @Autowired private SchedulerDao schedulerDao;
 
+  @Autowired private TaskDataSerializer taskDataSerializer;
+
   @Value("${scheduled.task.file.path}")
   private String scheduledTaskFilePath;
 
@@ -139,6 +142,9 @@ public class ScheduledTaskUtil {
    * @throws IOException if an I/O error occurs
    */
   public ScheduledJobData deserialize(byte[] serializedData) throws IOException {
+    if (TaskDataSerializer.isCompact(serializedData)) {
+      return taskDataSerializer.deserialize(ScheduledJobData.class, serializedData);
+    }
     try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
         ObjectInputStream ois = new ObjectInputStream(bis)) {
       Object obj = ois.readObject();
@@ -9,6 +9,7 @@ import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Condition;
 import org.hl7.fhir.r4.model.DiagnosticReport;
 import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Immunization;
 import org.hl7.fhir.r4.model.Location;
 import org.hl7.fhir.r4.model.Medication;
@@ -21,6 +22,7 @@ import org.hl7.fhir.r4.model.Organization;
 import org.hl7.fhir.r4.model.Patient;
 import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.Procedure;
+import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ServiceRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -72,6 +74,16 @@ public class R4FhirData extends FhirData {
   private Address jurisdiction;
   private List<Address> jurisdictions;
 
+  /**
+   * The indexes used to look up referenced resources, the indexes are rebuilt when the lists are
+   * replaced, resources are added to them or a resource of a list is replaced. The sections of an
+   * eICR may be generated concurrently, in which case an index may be built more than once but is
+   * never shared while it is being built.
+   */
+  private volatile ResourceIndex<Practitioner> practitionerIndex;
+
+  private volatile ResourceIndex<Organization> organizationIndex;
+
   public void prepareJurisdicationData() {
 
     if (location != null && location.getAddress() != null) {
@@ -116,14 +128,44 @@ public class R4FhirData extends FhirData {
   public Practitioner getPractitionerById(String id) {
 
     logger.debug("Id for retrieving practitioner = {}", id);
+
+    if (id == null) return null;
+
+    String idPart = toIdPart(id);
+    ResourceIndex<Practitioner> index =
+        ResourceIndex.of(practitionerIndex, practitionersList, R4FhirData::getIdPart);
+
+    Practitioner indexed = index.get(idPart);
+    if (indexed == null && index.isStale()) {
+      index = ResourceIndex.of(null, practitionersList, R4FhirData::getIdPart);
+      indexed = index.get(idPart);
+    }
+    practitionerIndex = index;
+
+    if (indexed != null || idPart.equals(id)) return indexed;
+
+    // The id is a reference that does not match the id part of a practitioner's id.
     for (Practitioner pr : practitionersList) {
 
-      if (pr.getId().contains(id)) return pr;
+      if (pr.getId() != null && pr.getId().contains(id)) return pr;
     }
 
     return null;
   }
 
+  private static String getIdPart(Resource res) {
+    return res.getId() != null ? res.getIdElement().getIdPart() : null;
+  }
+
+  /** The method returns the id part of a reference such as Practitioner/123, or the id itself. */
+  private static String toIdPart(String id) {
+
+    if (id.indexOf('/') < 0) return id;
+
+    String idPart = new IdType(id).getIdPart();
+    return idPart != null ? idPart : id;
+  }
+
   public R4FhirData() {
 
     locationList = new ArrayList<>();
@@ -646,10 +688,24 @@ public class R4FhirData extends FhirData {
 
   public Organization getOrganizationForId(String id) {
 
-    if (organizationList != null) {
+    if (organizationList != null && id != null) {
+
+      String idPart = toIdPart(id);
+      ResourceIndex<Organization> index =
+          ResourceIndex.of(organizationIndex, organizationList, R4FhirData::getIdPart);
+
+      Organization indexed = index.get(idPart);
+      if (indexed == null && index.isStale()) {
+        index = ResourceIndex.of(null, organizationList, R4FhirData::getIdPart);
+        indexed = index.get(idPart);
+      }
+      organizationIndex = index;
+
+      if (indexed != null || idPart.equals(id)) return indexed;
+
       for (Organization org : organizationList) {
 
-        if (org.getId().contains(id)) {
+        if (org.getId() != null && org.getId().contains(id)) {
           return org;
         }
       }
@@ -0,0 +1,84 @@
+package com.drajer.sof.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This class indexes a list of resources by id, so that the resources referenced by other resources
+ * are found without scanning the list for every reference. When the same id is present more than
+ * once, the first occurrence is indexed, which matches the result of scanning the list. The index
+ * records the resources of the list when it was built, so that it can be rebuilt once the list is
+ * replaced, resources are added to it or a resource of the list is replaced.
+ */
+class ResourceIndex<T> {
+
+  private final List<? extends T> source;
+  private final Object[] snapshot;
+  private final Map<String, Integer> positions;
+
+  private ResourceIndex(List<? extends T> source, Function<T, String> idFunction) {
+
+    this.source = source;
+    this.snapshot = source.toArray();
+    this.positions = new HashMap<>(snapshot.length * 2);
+
+    for (int i = 0; i < snapshot.length; i++) {
+
+      @SuppressWarnings("unchecked")
+      String id = idFunction.apply((T) snapshot[i]);
+
+      if (id != null) {
+        positions.putIfAbsent(id, i);
+      }
+    }
+  }
+
+  /**
+   * The method returns an index for the list, reusing the existing index if the list has not been
+   * replaced and its size has not changed since the index was built.
+   *
+   * @param index The existing index, may be null.
+   * @param source The list to be indexed.
+   * @param idFunction The function returning the id of an item, or null if it has no id.
+   * @return The index for the list.
+   */
+  static <T> ResourceIndex<T> of(
+      ResourceIndex<T> index, List<? extends T> source, Function<T, String> idFunction) {
+
+    if (index != null && index.source == source && index.snapshot.length == source.size()) {
+      return index;
+    }
+
+    return new ResourceIndex<>(source, idFunction);
+  }
+
+  /**
+   * The method returns the resource with the id, null if the id is not indexed or the resource was
+   * replaced in the list since the index was built.
+   */
+  @SuppressWarnings("unchecked")
+  T get(String id) {
+
+    Integer position = id != null ? positions.get(id) : null;
+
+    if (position == null || source.get(position) != snapshot[position]) {
+      return null;
+    }
+
+    return (T) snapshot[position];
+  }
+
+  /** @return true if a resource of the list was replaced since the index was built. */
+  boolean isStale() {
+
+    if (source.size() != snapshot.length) return true;
+
+    for (int i = 0; i < snapshot.length; i++) {
+      if (source.get(i) != snapshot[i]) return true;
+    }
+
+    return false;
+  }
+}
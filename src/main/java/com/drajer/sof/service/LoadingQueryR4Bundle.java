@@ -9,6 +9,7 @@ import com.drajer.sof.model.LaunchDetails;
 import com.drajer.sof.model.R4FhirData;
 import com.drajer.sof.utils.FhirContextInitializer;
 import com.drajer.sof.utils.R4ResourcesData;
+import com.drajer.sof.utils.R4ResourcesData.ObservationPartitions;
 import java.util.Date;
 import java.util.List;
 import org.hl7.fhir.r4.model.Bundle;
@@ -42,6 +43,20 @@ public class LoadingQueryR4Bundle {
         fhirContextInitializer.createClient(
             context, launchDetails, EventTypes.QueryType.LOADING_QUERY);
 
+    // The travel and occupation Observations are retrieved with one query restricted to their codes
+    // and partitioned by code, instead of one query for each. When the query fails, they are
+    // retrieved with the separate queries.
+    ObservationPartitions observations = null;
+    if (r4ResourcesData.isConsolidatedObservationQueryEnabled()) {
+      Bundle travelAndOccupationObservations =
+          r4ResourcesData.getTravelAndOccupationObservationData(context, client, launchDetails);
+      if (travelAndOccupationObservations != null) {
+        observations = r4ResourcesData.partitionObservations(travelAndOccupationObservations);
+      } else {
+        logger.info("Retrieving the travel and occupation Observations using separate queries");
+      }
+    }
+
     Bundle bundle =
         r4ResourcesData.getCommonResources(r4FhirData, start, end, launchDetails, client, context);
 
@@ -73,8 +88,11 @@ public class LoadingQueryR4Bundle {
     // Get Travel Observations
     try {
       List<Observation> observationList =
-          r4ResourcesData.getTravelObservationData(
-              context, client, launchDetails, r4FhirData, encounter, start, end);
+          observations != null
+              ? r4ResourcesData.getTravelObservationData(
+                  observations.getTravel(), encounter, start, end)
+              : r4ResourcesData.getTravelObservationData(
+                  context, client, launchDetails, r4FhirData, encounter, start, end);
       r4FhirData.setTravelObs(observationList);
       for (Observation observation : observationList) {
         BundleEntryComponent observationsEntry =
@@ -88,8 +106,11 @@ public class LoadingQueryR4Bundle {
     // Get Social History Observations (Occupation)
     try {
       List<Observation> observationList =
-          r4ResourcesData.getSocialHistoryObservationDataOccupation(
-              context, client, launchDetails, r4FhirData, encounter, start, end);
+          observations != null
+              ? r4ResourcesData.getSocialHistoryObservationDataOccupation(
+                  observations.getOccupation())
+              : r4ResourcesData.getSocialHistoryObservationDataOccupation(
+                  context, client, launchDetails, r4FhirData, encounter, start, end);
       r4FhirData.setOccupationObs(observationList);
       for (Observation observation : observationList) {
         BundleEntryComponent observationsEntry =
@@ -0,0 +1,286 @@
+package com.drajer.sof.utils;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.apache.ApacheRestfulClientFactory;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+import javax.annotation.PreDestroy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * The registry keeps one pool of HTTP connections per FHIR version and FHIR Server URL, shared by
+ * the jobs executing for the FHIR Server. Each job gets a HAPI client of its own on top of the
+ * pool, so the bearer token, the X-Request-ID and the EHR context headers of the job are registered
+ * on its client only. The registry is bounded by the number of FHIR Servers, and the least recently
+ * used pools without connections in use are evicted first.
+ */
+@Component
+public class FhirClientRegistry {
+
+  private static final Logger logger = LoggerFactory.getLogger(FhirClientRegistry.class);
+
+  private static final String POOL_GAUGE_PREFIX = "ecrnow.fhir.client.pool.";
+  private static final String EHR_TAG = "ehr";
+
+  @Value("${fhir.client.registry.enabled:false}")
+  private boolean registryEnabled;
+
+  @Value("${fhir.client.registry.max-servers:100}")
+  private int maxServers;
+
+  @Value("${socket.timeout:3}")
+  private Integer socketTimeout;
+
+  @Value("${connection.timeout:3}")
+  private Integer connectionTimeout;
+
+  @Value("${pool.max.per.route:10}")
+  private Integer poolMaxPerRoute;
+
+  @Value("${pool.max.total:100}")
+  private Integer poolMaxTotal;
+
+  @Value("${connection.request.time.out:30}")
+  private Integer connectionReqTimeOut;
+
+  @Autowired(required = false)
+  MeterRegistry meterRegistry;
+
+  /** The pools in access order, guarded by the map itself. */
+  private final LinkedHashMap<String, SharedPool> pools = new LinkedHashMap<>(16, 0.75f, true);
+
+  public boolean isEnabled() {
+    return registryEnabled;
+  }
+
+  /**
+   * The method returns a new client for a job, using the pool of connections shared by the jobs for
+   * the FHIR Server. The pool is created on first use. The interceptors and settings of the job are
+   * registered on the client returned, which is not shared with other jobs.
+   *
+   * @param context The FhirContext of the FHIR version used by the server.
+   * @param url The base URL of the FHIR Server.
+   * @return The client of the job.
+   */
+  public IGenericClient newClient(FhirContext context, String url) {
+    return getPool(context, url).factory.newGenericClient(url);
+  }
+
+  /**
+   * @param url The base URL of the FHIR Server.
+   * @return The statistics of the connection pools used for the FHIR Server, null if no pool was
+   *     created for the server.
+   */
+  public PoolStats getPoolStats(String url) {
+
+    int leased = 0;
+    int pending = 0;
+    int available = 0;
+    int max = 0;
+    boolean found = false;
+
+    synchronized (pools) {
+      for (SharedPool pool : pools.values()) {
+        if (pool.url.equals(url)) {
+          PoolStats stats = pool.connectionManager.getTotalStats();
+          leased += stats.getLeased();
+          pending += stats.getPending();
+          available += stats.getAvailable();
+          max += stats.getMax();
+          found = true;
+        }
+      }
+    }
+
+    return found ? new PoolStats(leased, pending, available, max) : null;
+  }
+
+  public int size() {
+    synchronized (pools) {
+      return pools.size();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+
+    synchronized (pools) {
+      for (SharedPool pool : pools.values()) {
+        close(pool);
+      }
+      pools.clear();
+    }
+  }
+
+  private SharedPool getPool(FhirContext context, String url) {
+
+    String key = context.getVersion().getVersion().name() + "|" + url;
+
+    synchronized (pools) {
+      SharedPool pool = pools.get(key);
+
+      if (pool == null) {
+        pool = createPool(context, url);
+        pools.put(key, pool);
+        evict();
+      }
+
+      return pool;
+    }
+  }
+
+  /**
+   * The method evicts the least recently used pools above the maximum number of FHIR Servers. The
+   * pools with connections in use are kept. The pools evicted are not shut down, since a job may
+   * still hold a client using them, only their idle connections are closed. The pool is released
+   * along with the last client using it.
+   */
+  private void evict() {
+
+    List<SharedPool> evicted = new ArrayList<>();
+    int excess = pools.size() - maxServers;
+    Iterator<Map.Entry<String, SharedPool>> it = pools.entrySet().iterator();
+
+    while (excess > 0 && it.hasNext()) {
+
+      SharedPool pool = it.next().getValue();
+      PoolStats stats = pool.connectionManager.getTotalStats();
+
+      if (stats.getLeased() == 0 && stats.getPending() == 0 && pools.size() > 1) {
+        it.remove();
+        evicted.add(pool);
+        excess--;
+      }
+    }
+
+    for (SharedPool pool : evicted) {
+      logger.info(" Evicting the connection pool for {}", pool.url);
+      removeGauges(pool);
+      pool.connectionManager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void removeGauges(SharedPool pool) {
+
+    if (meterRegistry != null) {
+      for (Gauge gauge : pool.gauges) {
+        meterRegistry.remove(gauge);
+      }
+    }
+  }
+
+  private void close(SharedPool pool) {
+
+    removeGauges(pool);
+
+    try {
+      pool.httpClient.close();
+    } catch (IOException e) {
+      logger.error(" Unable to close the HTTP client for {} ", pool.url, e);
+    }
+  }
+
+  private SharedPool createPool(FhirContext context, String url) {
+
+    logger.info(" Creating the connection pool for {} with {} connections", url, poolMaxPerRoute);
+
+    PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager(5000, TimeUnit.MILLISECONDS);
+    connectionManager.setMaxTotal(poolMaxTotal);
+    connectionManager.setDefaultMaxPerRoute(poolMaxPerRoute);
+
+    RequestConfig requestConfig =
+        RequestConfig.custom()
+            .setSocketTimeout(socketTimeout * 1000)
+            .setConnectTimeout(connectionTimeout * 1000)
+            .setConnectionRequestTimeout(connectionReqTimeOut * 1000)
+            .build();
+
+    CloseableHttpClient httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .disableCookieManagement()
+            .useSystemProperties()
+            .build();
+
+    // The factory of the context is shared by all the servers, so each server has its own factory.
+    ApacheRestfulClientFactory factory = new ApacheRestfulClientFactory(context);
+    factory.setHttpClient(httpClient);
+    factory.setServerValidationMode(ServerValidationModeEnum.NEVER);
+
+    return new SharedPool(
+        url, factory, httpClient, connectionManager, registerGauges(url, connectionManager));
+  }
+
+  private List<Gauge> registerGauges(
+      String url, PoolingHttpClientConnectionManager connectionManager) {
+
+    List<Gauge> gauges = new ArrayList<>();
+
+    if (meterRegistry == null) return gauges;
+
+    Tags tags = Tags.of(EHR_TAG, url);
+
+    gauges.add(registerGauge("leased", tags, connectionManager, PoolStats::getLeased));
+    gauges.add(registerGauge("pending", tags, connectionManager, PoolStats::getPending));
+    gauges.add(registerGauge("available", tags, connectionManager, PoolStats::getAvailable));
+    gauges.add(registerGauge("max", tags, connectionManager, PoolStats::getMax));
+
+    return gauges;
+  }
+
+  private Gauge registerGauge(
+      String name,
+      Tags tags,
+      PoolingHttpClientConnectionManager connectionManager,
+      ToIntFunction<PoolStats> stat) {
+    return Gauge.builder(
+            POOL_GAUGE_PREFIX + name, connectionManager, cm -> stat.applyAsInt(cm.getTotalStats()))
+        .tags(tags)
+        .register(meterRegistry);
+  }
+
+  /** A pool of connections shared by the jobs along with the factory of their clients. */
+  private static class SharedPool {
+
+    final String url;
+    final ApacheRestfulClientFactory factory;
+    final CloseableHttpClient httpClient;
+    final PoolingHttpClientConnectionManager connectionManager;
+    final List<Gauge> gauges;
+
+    SharedPool(
+        String url,
+        ApacheRestfulClientFactory factory,
+        CloseableHttpClient httpClient,
+        PoolingHttpClientConnectionManager connectionManager,
+        List<Gauge> gauges) {
+      this.url = url;
+      this.factory = factory;
+      this.httpClient = httpClient;
+      this.connectionManager = connectionManager;
+      this.gauges = gauges;
+    }
+  }
+}
@@ -4,7 +4,6 @@ import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.context.PerformanceOptionsEnum;
 import ca.uhn.fhir.model.dstu2.resource.Bundle;
-import ca.uhn.fhir.model.dstu2.resource.Bundle.Entry;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
 import ca.uhn.fhir.rest.client.api.IRestfulClientFactory;
@@ -23,11 +22,9 @@ import com.drajer.ecrapp.util.ApplicationUtils;
 import com.drajer.sof.model.LaunchDetails;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import org.apache.commons.text.StringEscapeUtils;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
-import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r4.model.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -97,6 +94,8 @@ public class FhirContextInitializer {
 
   @Autowired EhrHeaderInterceptorInterface headerInterceptor;
 
+  @Autowired FhirClientRegistry clientRegistry;
+
   public FhirContextInitializer(FHIRRetryTemplate retryTemplate) {
     this.retryTemplate = retryTemplate;
   }
@@ -146,19 +145,28 @@ public class FhirContextInitializer {
       FhirContext context, String url, String accessToken, String requestId, String ehrContext) {
     logger.trace("Initializing the Client");
 
-    FhirClient client =
-        new FhirClient(context.newRestfulGenericClient(url), requestId, EventTypes.QueryType.NONE);
-
-    context.getRestfulClientFactory().setSocketTimeout(60 * 1000);
-    context.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
-    context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
-
-    IRestfulClientFactory restfulClientFactory = context.getRestfulClientFactory();
-    restfulClientFactory.setSocketTimeout(socketTimeout * 1000);
-    restfulClientFactory.setConnectTimeout(connectionTimeout * 1000);
-    restfulClientFactory.setPoolMaxPerRoute(poolMaxPerRoute * 1000);
-    restfulClientFactory.setPoolMaxTotal(poolMaxTotal * 1000);
-    restfulClientFactory.setConnectionRequestTimeout(connectionReqTimeOut * 1000);
+    FhirClient client;
+    if (clientRegistry.isEnabled()) {
+      context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
+      client =
+          new FhirClient(
+              clientRegistry.newClient(context, url), requestId, EventTypes.QueryType.NONE);
+    } else {
+      client =
+          new FhirClient(
+              context.newRestfulGenericClient(url), requestId, EventTypes.QueryType.NONE);
+
+      context.getRestfulClientFactory().setSocketTimeout(60 * 1000);
+      context.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+      context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
+
+      IRestfulClientFactory restfulClientFactory = context.getRestfulClientFactory();
+      restfulClientFactory.setSocketTimeout(socketTimeout * 1000);
+      restfulClientFactory.setConnectTimeout(connectionTimeout * 1000);
+      restfulClientFactory.setPoolMaxPerRoute(poolMaxPerRoute * 1000);
+      restfulClientFactory.setPoolMaxTotal(poolMaxTotal * 1000);
+      restfulClientFactory.setConnectionRequestTimeout(connectionReqTimeOut * 1000);
+    }
 
     if (accessToken != null && !accessToken.equalsIgnoreCase("")) {
       client.registerInterceptor(new BearerTokenAuthInterceptor(accessToken));
@@ -191,14 +199,24 @@ public class FhirContextInitializer {
   public IGenericClient createClient(
       FhirContext context, LaunchDetails launchDetails, EventTypes.QueryType type) {
     logger.trace("Initializing the Client");
-    context.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
-    context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
-    FhirClient client =
-        new FhirClient(
-            context.newRestfulGenericClient(launchDetails.getEhrServerURL()),
-            launchDetails.getxRequestId(),
-            type);
-    context.getRestfulClientFactory().setSocketTimeout(60 * 1000);
+    FhirClient client;
+    if (clientRegistry.isEnabled()) {
+      context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
+      client =
+          new FhirClient(
+              clientRegistry.newClient(context, launchDetails.getEhrServerURL()),
+              launchDetails.getxRequestId(),
+              type);
+    } else {
+      context.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+      context.setPerformanceOptions(PerformanceOptionsEnum.DEFERRED_MODEL_SCANNING);
+      client =
+          new FhirClient(
+              context.newRestfulGenericClient(launchDetails.getEhrServerURL()),
+              launchDetails.getxRequestId(),
+              type);
+      context.getRestfulClientFactory().setSocketTimeout(60 * 1000);
+    }
 
     BearerTokenAuthInterceptor bearerTokenAuthInterceptor =
         new EcrOAuthBearerTokenInterceptor(launchDetails);
@@ -415,35 +433,28 @@ public class FhirContextInitializer {
 
   private static void getAllR4RecordsUsingPagination(
       IGenericClient genericClient, org.hl7.fhir.r4.model.Bundle bundle) {
-    if (bundle != null && bundle.hasEntry()) {
-      List<BundleEntryComponent> entriesList = bundle.getEntry();
-      if (bundle.hasLink() && bundle.getLink(IBaseBundle.LINK_NEXT) != null) {
-        logger.info(
-            "Found Next Page in Bundle:::::{}", bundle.getLink(IBaseBundle.LINK_NEXT).getUrl());
-        org.hl7.fhir.r4.model.Bundle nextPageBundleResults =
-            genericClient.loadPage().next(bundle).execute();
-        if (nextPageBundleResults != null) {
-          entriesList.addAll(nextPageBundleResults.getEntry());
-          nextPageBundleResults.setEntry(entriesList);
-          getAllR4RecordsUsingPagination(genericClient, nextPageBundleResults);
-        }
-      }
+
+    // The legacy launch returns one Bundle, so the pages are appended to the first page iteratively
+    // instead of recursively.
+    R4BundlePager pager = new R4BundlePager(genericClient, bundle, null);
+
+    if (pager.hasNext()) pager.next();
+
+    while (pager.hasNext()) {
+      bundle.getEntry().addAll(pager.next().getEntry());
     }
   }
 
   private static void getAllDSTU2RecordsUsingPagination(
       IGenericClient genericClient, Bundle bundle) {
-    if (bundle != null && bundle.getEntry() != null) {
-      List<Entry> entriesList = bundle.getEntry();
-      if (bundle.getLink(IBaseBundle.LINK_NEXT) != null) {
-        logger.info(
-            "Found Next Page in Bundle:::::{}", bundle.getLink(IBaseBundle.LINK_NEXT).getUrl());
-        Bundle nextPageBundleResults = genericClient.loadPage().next(bundle).execute();
-        if (nextPageBundleResults != null) {
-          entriesList.addAll(nextPageBundleResults.getEntry());
-          nextPageBundleResults.setEntry(entriesList);
-          getAllDSTU2RecordsUsingPagination(genericClient, nextPageBundleResults);
-        }
+
+    Bundle page = bundle;
+
+    while (page != null && page.getEntry() != null && page.getLink(IBaseBundle.LINK_NEXT) != null) {
+      logger.info("Found Next Page in Bundle:::::{}", page.getLink(IBaseBundle.LINK_NEXT).getUrl());
+      page = genericClient.loadPage().next(page).execute();
+      if (page != null) {
+        bundle.getEntry().addAll(page.getEntry());
       }
     }
   }
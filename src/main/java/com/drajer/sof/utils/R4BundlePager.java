@@ -0,0 +1,120 @@
+package com.drajer.sof.utils;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ *
+ *
+ * <h1>R4BundlePager</h1>
+ *
+ * This class iterates over the pages of an R4 search result one page at a time. Only the url of the
+ * next page is retained once a page has been handed out, so the caller can process and drop each
+ * page instead of accumulating all the pages into the first Bundle. When an Executor is provided,
+ * the next page is retrieved while the caller processes the current page. The pages are then
+ * retrieved on the threads of the Executor, one at a time, so the client used for the pages must
+ * not be used by the caller until the paging is complete.
+ */
+public class R4BundlePager implements Iterator<Bundle> {
+
+  private static final Logger logger = LoggerFactory.getLogger(R4BundlePager.class);
+
+  private final IGenericClient genericClient;
+  private final Executor prefetchExecutor;
+
+  /** The page that has been retrieved and not yet handed out. */
+  private Bundle nextPage;
+
+  /** The url of the page to be retrieved when prefetching is disabled. */
+  private String nextPageUrl;
+
+  /** The page being retrieved in the background when prefetching is enabled. */
+  private CompletableFuture<Bundle> pendingPage;
+
+  private int pageCount;
+
+  /**
+   * @param genericClient - The client used to retrieve the subsequent pages. When prefetching, the
+   *     client and its interceptors are used on the threads of the Executor.
+   * @param firstPage - The Bundle returned by the search.
+   * @param prefetchExecutor - The Executor used to retrieve the next page in the background, null
+   *     to retrieve each page when it is requested.
+   */
+  public R4BundlePager(IGenericClient genericClient, Bundle firstPage, Executor prefetchExecutor) {
+    this.genericClient = genericClient;
+    this.prefetchExecutor = prefetchExecutor;
+    this.nextPage = firstPage;
+  }
+
+  @Override
+  public boolean hasNext() {
+
+    if (nextPage == null && pendingPage != null) {
+
+      CompletableFuture<Bundle> page = pendingPage;
+      pendingPage = null;
+
+      try {
+        nextPage = page.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+        throw e;
+      }
+    } else if (nextPage == null && nextPageUrl != null) {
+
+      String url = nextPageUrl;
+      nextPageUrl = null;
+      nextPage = loadPage(url);
+    }
+
+    return nextPage != null;
+  }
+
+  @Override
+  public Bundle next() {
+
+    if (!hasNext()) throw new NoSuchElementException();
+
+    Bundle page = nextPage;
+    nextPage = null;
+    pageCount++;
+
+    // Stop at an empty page even if it has a next link, as the recursive pagination did.
+    if (page.hasEntry() && page.getLink(IBaseBundle.LINK_NEXT) != null) {
+
+      String url = page.getLink(IBaseBundle.LINK_NEXT).getUrl();
+      logger.info("Found Next Page in Bundle :{}", url);
+
+      if (prefetchExecutor != null) {
+        pendingPage = CompletableFuture.supplyAsync(() -> loadPage(url), prefetchExecutor);
+      } else {
+        nextPageUrl = url;
+      }
+    }
+
+    return page;
+  }
+
+  /** @return The number of pages handed out so far. */
+  public int getPageCount() {
+    return pageCount;
+  }
+
+  private Bundle loadPage(String url) {
+
+    // Only the next link is needed to retrieve the page, and loadPage().byUrl is not supported by
+    // the retry client.
+    Bundle linkOnly = new Bundle();
+    linkOnly.addLink().setRelation(IBaseBundle.LINK_NEXT).setUrl(url);
+
+    return genericClient.loadPage().next(linkOnly).execute();
+  }
+}
@@ -14,8 +14,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
@@ -27,6 +29,7 @@ import org.javatuples.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.logging.LogLevel;
 import org.springframework.stereotype.Component;
 
@@ -37,6 +40,9 @@ public class R4ResourcesData {
 
   @Autowired FhirContextInitializer fhirContextInitializer;
 
+  @Value("${ecr.fhir.observation.consolidated-query.enabled:false}")
+  private Boolean consolidatedObservationQueryEnabled;
+
   private final Logger logger = LoggerFactory.getLogger(R4ResourcesData.class);
 
   private static final String OBSERVATION = "Observation";
@@ -453,6 +459,19 @@ public class R4ResourcesData {
             FhirContextInitializer.getResourceBundleByUrl(
                 launchDetails, client, context, OBSERVATION, url);
 
+    return getTravelObservationData(travelCodeBundle, encounter, start, end);
+  }
+
+  /**
+   * The method filters the travel Observations of the patient by the category and by the encounter
+   * or the dates.
+   *
+   * @param travelCodeBundle The Observations with the travel codes retrieved from the EHR.
+   * @return The filtered Observations.
+   */
+  public List<Observation> getTravelObservationData(
+      Bundle travelCodeBundle, Encounter encounter, Date start, Date end) {
+
     List<Observation> observations = new ArrayList<>();
     if (travelCodeBundle != null) {
       travelCodeBundle = filterObservationByStatus(travelCodeBundle, ENTERED_IN_ERROR);
@@ -523,7 +542,6 @@ public class R4ResourcesData {
         start,
         end);
     logger.trace("Get Social History Observation Data (Occupation)");
-    List<Observation> observations = new ArrayList<>();
 
     StringBuilder codeBuilder = new StringBuilder(2000);
     for (String occupationCode : QueryConstants.getOccupationSmtCodes()) {
@@ -551,6 +569,18 @@ public class R4ResourcesData {
             FhirContextInitializer.getResourceBundleByUrl(
                 launchDetails, client, context, OBSERVATION, url);
 
+    return getSocialHistoryObservationDataOccupation(occupationCodesbundle);
+  }
+
+  /**
+   * The method filters the occupation Observations of the patient by the status.
+   *
+   * @param occupationCodesbundle The Observations with the occupation codes retrieved from the EHR.
+   * @return The filtered Observations.
+   */
+  public List<Observation> getSocialHistoryObservationDataOccupation(Bundle occupationCodesbundle) {
+
+    List<Observation> observations = new ArrayList<>();
     if (occupationCodesbundle != null) {
       occupationCodesbundle = filterObservationByStatus(occupationCodesbundle, ENTERED_IN_ERROR);
       for (BundleEntryComponent entryComp : occupationCodesbundle.getEntry()) {
@@ -562,6 +592,132 @@ public class R4ResourcesData {
     return observations;
   }
 
+  public boolean isConsolidatedObservationQueryEnabled() {
+    return Boolean.TRUE.equals(consolidatedObservationQueryEnabled);
+  }
+
+  /**
+   * The method retrieves the travel and occupation Observations of the patient with one query,
+   * instead of one query for each set of codes. The query is restricted to the travel and
+   * occupation codes the same way as the separate queries.
+   *
+   * @return The travel and occupation Observations of the patient, null if they could not be
+   *     retrieved.
+   */
+  public Bundle getTravelAndOccupationObservationData(
+      FhirContext context, IGenericClient client, LaunchDetails launchDetails) {
+    logger.trace("Get Travel and Occupation Observation Data");
+
+    StringBuilder codeBuilder = new StringBuilder(4000);
+    for (String travelSnomedCode : QueryConstants.getTravelHistorySmtCodes()) {
+      codeBuilder.append(QueryConstants.SNOMED_CODE_SYSTEM + "|" + travelSnomedCode + ",");
+    }
+    codeBuilder.append(QueryConstants.LOINC_CODE_SYSTEM + "|" + QueryConstants.TRAVEL_CODE + ",");
+
+    for (String occupationCode : QueryConstants.getOccupationSmtCodes()) {
+      codeBuilder.append(QueryConstants.SNOMED_CODE_SYSTEM + "|" + occupationCode + ",");
+    }
+
+    for (String occupationCode : QueryConstants.getOccupationLoincCodes()) {
+      codeBuilder.append(QueryConstants.LOINC_CODE_SYSTEM + "|" + occupationCode + ",");
+    }
+    String codes =
+        codeBuilder.substring(0, codeBuilder.length() - 1); // Remove extra "," at the end.
+
+    String url =
+        launchDetails.getEhrServerURL()
+            + "/"
+            + OBSERVATION
+            + "?patient="
+            + launchDetails.getLaunchPatientId()
+            + "&code="
+            + codes;
+
+    return (Bundle)
+        FhirContextInitializer.getResourceBundleByUrl(
+            launchDetails, client, context, OBSERVATION, url);
+  }
+
+  /**
+   * The method partitions the Observations retrieved by getTravelAndOccupationObservationData in
+   * one pass into the travel and occupation Observations, matching the codes the same way as the
+   * queries for each of them. An Observation can be part of both partitions.
+   *
+   * @param bundle The travel and occupation Observations of the patient.
+   * @return The partitions, which are empty when the bundle is null.
+   */
+  public ObservationPartitions partitionObservations(Bundle bundle) {
+
+    Set<String> travelCodes = new HashSet<>();
+    addCodes(
+        travelCodes, QueryConstants.SNOMED_CODE_SYSTEM, QueryConstants.getTravelHistorySmtCodes());
+    addCodes(travelCodes, QueryConstants.LOINC_CODE_SYSTEM, QueryConstants.TRAVEL_CODE);
+
+    Set<String> occupationCodes = new HashSet<>();
+    addCodes(
+        occupationCodes, QueryConstants.SNOMED_CODE_SYSTEM, QueryConstants.getOccupationSmtCodes());
+    addCodes(
+        occupationCodes,
+        QueryConstants.LOINC_CODE_SYSTEM,
+        QueryConstants.getOccupationLoincCodes());
+
+    ObservationPartitions partitions = new ObservationPartitions();
+    if (bundle == null) {
+      return partitions;
+    }
+
+    for (BundleEntryComponent entry : bundle.getEntry()) {
+      if (!(entry.getResource() instanceof Observation)) {
+        continue;
+      }
+      Observation observation = (Observation) entry.getResource();
+
+      if (hasCode(observation, travelCodes)) {
+        partitions.getTravel().addEntry(new BundleEntryComponent().setResource(observation));
+      }
+      if (hasCode(observation, occupationCodes)) {
+        partitions.getOccupation().addEntry(new BundleEntryComponent().setResource(observation));
+      }
+    }
+
+    logger.info(
+        "Partitioned {} Observations into {} travel and {} occupation Observations",
+        bundle.getEntry().size(),
+        partitions.getTravel().getEntry().size(),
+        partitions.getOccupation().getEntry().size());
+    return partitions;
+  }
+
+  private static void addCodes(Set<String> codes, String system, String... values) {
+    for (String value : values) {
+      codes.add(system + "|" + value);
+    }
+  }
+
+  private static boolean hasCode(Observation observation, Set<String> codes) {
+    for (Coding coding : observation.getCode().getCoding()) {
+      if (codes.contains(coding.getSystem() + "|" + coding.getCode())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** The travel and occupation Observations of the patient partitioned by the codes. */
+  public static class ObservationPartitions {
+
+    private final Bundle travel = new Bundle();
+    private final Bundle occupation = new Bundle();
+
+    public Bundle getTravel() {
+      return travel;
+    }
+
+    public Bundle getOccupation() {
+      return occupation;
+    }
+  }
+
   public List<Condition> getPregnancyConditions(
       FhirContext context,
       IGenericClient client,
@@ -0,0 +1,10 @@
+CREATE TABLE IF NOT EXISTS ehr_query_snapshot (
+    id UUID PRIMARY KEY,
+    nc_id UUID NOT NULL,
+    data_requirement_id TEXT NOT NULL,
+    query_url TEXT NOT NULL,
+    last_query_time TIMESTAMP NOT NULL,
+    snapshot_data TEXT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_ehr_query_snapshot ON ehr_query_snapshot (nc_id, data_requirement_id, query_url);
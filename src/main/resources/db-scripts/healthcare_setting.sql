@@ -4,3 +4,6 @@ ALTER TABLE healthcare_setting
 
 ALTER TABLE healthcare_setting
   ALTER COLUMN is_xdr SET DEFAULT 0;
+
+ALTER TABLE healthcare_setting
+  ADD COLUMN config_version INTEGER NULL;
@@ -0,0 +1,10 @@
+
+CREATE TABLE IF NOT EXISTS ph_message_payloads (
+    id UUID PRIMARY KEY,
+    message_id UUID NOT NULL,
+    payload_type TEXT NOT NULL,
+    compressed_data BYTEA NOT NULL,
+    last_updated_ts TIMESTAMP NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_ph_msg_payload ON ph_message_payloads (message_id, payload_type);
@@ -2,3 +2,11 @@
 CREATE INDEX idx_not_res_id ON ph_messages (notified_resource_id);
 
 CREATE INDEX idx_kar_id ON ph_messages (kar_unique_id);
+
+CREATE INDEX idx_ph_msg_lookup ON ph_messages (notified_resource_id, patient_id, kar_unique_id, notified_resource_type, fhir_server_base_url, submitted_version_number);
+
+CREATE INDEX idx_sub_data_id ON ph_messages (submitted_data_id);
+
+CREATE INDEX idx_corr_id ON ph_messages (correlation_id);
+
+CREATE INDEX idx_ph_msg_last_upd ON ph_messages (last_updated_ts, id);
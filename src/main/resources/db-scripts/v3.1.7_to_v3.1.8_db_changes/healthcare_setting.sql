@@ -0,0 +1,2 @@
+ALTER TABLE healthcare_setting
+ADD COLUMN config_version INTEGER NULL;
@@ -0,0 +1,10 @@
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_ph_msg_lookup ON ph_messages (notified_resource_id, patient_id, kar_unique_id, notified_resource_type, fhir_server_base_url, submitted_version_number);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_sub_data_id ON ph_messages (submitted_data_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_corr_id ON ph_messages (correlation_id);
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_ph_msg_last_upd ON ph_messages (last_updated_ts, id);
+
+ANALYZE ph_messages;
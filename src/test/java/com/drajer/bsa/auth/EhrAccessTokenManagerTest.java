@@ -0,0 +1,125 @@
+package com.drajer.bsa.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.drajer.bsa.dao.HealthcareSettingsDao;
+import com.drajer.bsa.model.HealthcareSetting;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EhrAccessTokenManagerTest {
+
+  @Mock AuthorizationUtils authUtils;
+
+  @Mock HealthcareSettingsDao hsDao;
+
+  @InjectMocks EhrAccessTokenManager tokenManager;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(tokenManager, "managerEnabled", true);
+    ReflectionTestUtils.setField(tokenManager, "refreshThreshold", 25L);
+  }
+
+  @Test
+  public void testConcurrentJobsShareOneTokenRequest() throws Exception {
+
+    CountDownLatch start = new CountDownLatch(1);
+    when(authUtils.getToken(any()))
+        .thenAnswer(
+            invocation -> {
+              Thread.sleep(200);
+              return new JSONObject().put("access_token", "new-token").put("expires_in", 3600);
+            });
+
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    List<Future<String>> results = new ArrayList<>();
+
+    for (int i = 0; i < 16; i++) {
+      results.add(
+          executor.submit(
+              () -> {
+                HealthcareSetting hs = getHealthcareSetting(null);
+                start.await();
+                tokenManager.applyAccessToken(hs);
+                return hs.getEhrAccessToken();
+              }));
+    }
+
+    start.countDown();
+    for (Future<String> result : results) {
+      assertEquals("new-token", result.get());
+    }
+    executor.shutdown();
+
+    verify(authUtils, times(1)).getToken(any());
+    verify(hsDao, times(1)).updateAccessToken(any());
+    assertEquals(1, tokenManager.getTokenRequests());
+
+    // Later jobs reuse the token held in memory.
+    HealthcareSetting hs = getHealthcareSetting(null);
+    tokenManager.applyAccessToken(hs);
+    assertEquals("new-token", hs.getEhrAccessToken());
+    verify(authUtils, times(1)).getToken(any());
+  }
+
+  @Test
+  public void testSavedTokenIsReused() {
+
+    HealthcareSetting hs = getHealthcareSetting(Date.from(Instant.now().plusSeconds(600)));
+    tokenManager.applyAccessToken(hs);
+
+    assertEquals("saved-token", hs.getEhrAccessToken());
+    verify(authUtils, never()).getToken(any());
+  }
+
+  @Test
+  public void testExpiringTokenIsRefreshed() {
+
+    when(authUtils.getToken(any()))
+        .thenReturn(
+            new JSONObject()
+                .put("access_token", "new-token")
+                .put("expires_in", 3600)
+                .put("uuid", "provider"));
+
+    HealthcareSetting hs = getHealthcareSetting(Date.from(Instant.now().plusSeconds(10)));
+    tokenManager.applyAccessToken(hs);
+
+    assertEquals("new-token", hs.getEhrAccessToken());
+    assertEquals("provider", hs.getDefaultProviderId());
+    assertEquals(3600, hs.getEhrAccessTokenExpiryDuration());
+  }
+
+  private HealthcareSetting getHealthcareSetting(Date expiration) {
+
+    HealthcareSetting hs = new HealthcareSetting();
+    hs.setId(1);
+    hs.setFhirServerBaseURL("http://localhost:8080/fhir/r4");
+    if (expiration != null) {
+      hs.setEhrAccessToken("saved-token");
+      hs.setEhrAccessTokenExpirationTime(expiration);
+    }
+    return hs;
+  }
+}
@@ -0,0 +1,128 @@
+package com.drajer.bsa.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.drajer.bsa.dao.impl.HealthcareSettingCache.CachedHealthcareSetting;
+import com.drajer.bsa.kar.model.HealthcareSettingOperationalKnowledgeArtifacts;
+import com.drajer.bsa.kar.model.KnowledgeArtifactStatus;
+import com.drajer.bsa.model.HealthcareSetting;
+import java.util.Date;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class HealthcareSettingCacheTest {
+
+  private static final String URL = "http://localhost:8080/fhir/r4";
+
+  private HealthcareSettingCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new HealthcareSettingCache();
+    ReflectionTestUtils.setField(cache, "cacheEnabled", true);
+    ReflectionTestUtils.setField(cache, "revalidateSeconds", 30L);
+  }
+
+  @Test
+  public void testCopiesAreIndependent() {
+
+    HealthcareSetting hs = getHealthcareSetting();
+    cache.put(hs);
+
+    CachedHealthcareSetting entry = cache.get(URL);
+    HealthcareSetting first = entry.copy();
+    HealthcareSetting second = entry.copy();
+
+    assertNotSame(first, second);
+    assertEquals(Integer.valueOf(3), first.getConfigVersion());
+    assertNotSame(hs.getKars(), first.getKars());
+    assertNotSame(first.getKars(), second.getKars());
+
+    // A change made by one caller is not seen by the others.
+    first.setEhrAccessToken("changed");
+    assertEquals("token", second.getEhrAccessToken());
+    assertEquals("token", entry.copy().getEhrAccessToken());
+    assertFalse(entry.needsRevalidation());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testKarStatusesAreCopied() {
+
+    HealthcareSetting hs = getHealthcareSetting();
+    KnowledgeArtifactStatus status = new KnowledgeArtifactStatus();
+    status.setVersionUniqueKarId("kar-1.0.0");
+    status.setIsActive(true);
+    status.getSubscriptions().add("Subscription/1");
+    hs.getKars().addArtifactStatus(status);
+    cache.put(hs);
+
+    CachedHealthcareSetting entry = cache.get(URL);
+    HealthcareSetting first = entry.copy();
+
+    KnowledgeArtifactStatus copied = first.getArtifactStatus("kar-1.0.0");
+    assertNotSame(status, copied);
+    assertNotSame(status.getLastActivationDate(), copied.getLastActivationDate());
+
+    // A change made to the KAR status of one caller is not seen by the others.
+    copied.setIsActive(false);
+    copied.getSubscriptions().clear();
+    copied.getLastActivationDate().setTime(0);
+
+    KnowledgeArtifactStatus other = entry.copy().getArtifactStatus("kar-1.0.0");
+    assertTrue(other.getIsActive());
+    assertEquals(1, other.getSubscriptions().size());
+    assertEquals(status.getLastActivationDate(), other.getLastActivationDate());
+  }
+
+  @Test
+  public void testUpdateAccessToken() {
+
+    cache.put(getHealthcareSetting());
+
+    HealthcareSetting refreshed = getHealthcareSetting();
+    refreshed.setEhrAccessToken("refreshed");
+    refreshed.setEhrAccessTokenExpirationTime(new Date());
+    cache.updateAccessToken(refreshed);
+
+    CachedHealthcareSetting entry = cache.get(URL);
+    assertEquals("refreshed", entry.copy().getEhrAccessToken());
+    assertEquals(Integer.valueOf(3), entry.getConfigVersion());
+  }
+
+  @Test
+  public void testInvalidate() {
+
+    cache.put(getHealthcareSetting());
+    cache.invalidate(5);
+
+    assertNull(cache.get(URL));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testNeedsRevalidation() {
+
+    ReflectionTestUtils.setField(cache, "revalidateSeconds", 0L);
+    cache.put(getHealthcareSetting());
+
+    assertTrue(cache.get(URL).needsRevalidation());
+  }
+
+  private HealthcareSetting getHealthcareSetting() {
+
+    HealthcareSetting hs = new HealthcareSetting();
+    hs.setId(5);
+    hs.setFhirServerBaseURL(URL);
+    hs.setConfigVersion(3);
+    hs.setEhrAccessToken("token");
+    hs.setKars(new HealthcareSettingOperationalKnowledgeArtifacts());
+    return hs;
+  }
+}
@@ -0,0 +1,75 @@
+package com.drajer.bsa.dao.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.drajer.bsa.model.PhMessagePayloadType;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PhMessagePayloadFileStoreTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private PhMessagePayloadFileStore store;
+
+  @Before
+  public void setUp() {
+    directory = folder.getRoot().toPath();
+    store = new PhMessagePayloadFileStore(directory);
+  }
+
+  @Test
+  public void testSaveAndReadPayload() throws Exception {
+
+    UUID messageId = UUID.randomUUID();
+    String payload = "<ClinicalDocument>Ève</ClinicalDocument>";
+
+    store.savePayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA, payload);
+
+    assertEquals(payload, store.getPayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+    try (InputStream in = store.openPayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA)) {
+      assertEquals(payload, IOUtils.toString(in, StandardCharsets.UTF_8));
+    }
+
+    // The payload is compressed and the other payloads of the message are not present.
+    Path file = directory.resolve(messageId.toString()).resolve("SUBMITTED_CDA_DATA.gz");
+    assertTrue(Files.exists(file));
+    assertNull(store.getPayload(messageId, PhMessagePayloadType.CDA_RESPONSE_DATA));
+    assertNull(store.openPayload(messageId, PhMessagePayloadType.CDA_RESPONSE_DATA));
+
+    store.savePayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA, "<updated/>");
+    assertEquals(
+        "<updated/>", store.getPayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+
+    store.savePayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA, null);
+    assertNull(store.getPayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+  }
+
+  @Test
+  public void testDeletePayloads() {
+
+    UUID messageId = UUID.randomUUID();
+    store.savePayload(messageId, PhMessagePayloadType.SUBMITTED_FHIR_DATA, "{}");
+    store.savePayload(messageId, PhMessagePayloadType.FHIR_RESPONSE_DATA, "{}");
+
+    store.deletePayloads(messageId);
+
+    assertFalse(Files.exists(directory.resolve(messageId.toString())));
+    assertNull(store.getPayload(messageId, PhMessagePayloadType.SUBMITTED_FHIR_DATA));
+
+    // Deleting the payloads of a message without payloads does nothing.
+    store.deletePayloads(UUID.randomUUID());
+  }
+}
@@ -0,0 +1,146 @@
+package com.drajer.bsa.ehr.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class EhrQueryExecutorTest {
+
+  private static final String EHR_URL = "http://localhost:9010/fhir";
+
+  private EhrQueryExecutor executor;
+
+  @Before
+  public void setUp() {
+    executor = new EhrQueryExecutor();
+    ReflectionTestUtils.setField(executor, "parallelEnabled", true);
+    ReflectionTestUtils.setField(executor, "threads", 8);
+    ReflectionTestUtils.setField(executor, "maxInFlightPerEhr", 2);
+    ReflectionTestUtils.setField(executor, "queryTimeout", 30);
+    executor.initialize();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testResultsAreReturnedInQueryOrder() {
+
+    Map<String, Callable<String>> queries = new LinkedHashMap<>();
+    for (int i = 0; i < 6; i++) {
+      String name = "query" + i;
+      long delay = (6 - i) * 10L;
+      queries.put(
+          name,
+          () -> {
+            Thread.sleep(delay);
+            return name;
+          });
+    }
+
+    Map<String, String> results = executor.executeAll(EHR_URL, queries);
+
+    List<String> keys = new ArrayList<>(results.keySet());
+    assertEquals(new ArrayList<>(queries.keySet()), keys);
+    results.forEach((key, value) -> assertEquals(key, value));
+  }
+
+  @Test
+  public void testInFlightQueriesAreBoundedPerEhr() {
+
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    Map<String, Callable<Integer>> queries = new LinkedHashMap<>();
+    for (int i = 0; i < 8; i++) {
+      queries.put(
+          "query" + i,
+          () -> {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return current;
+          });
+    }
+
+    executor.executeAll(EHR_URL, queries);
+
+    assertTrue(maxInFlight.get() <= 2);
+    assertEquals(0, executor.getInFlightQueries(EHR_URL));
+  }
+
+  @Test
+  public void testFailedQueryReturnsNull() {
+
+    Map<String, Callable<String>> queries = new LinkedHashMap<>();
+    queries.put("good", () -> "good");
+    queries.put(
+        "bad",
+        () -> {
+          throw new IllegalStateException("EHR unavailable");
+        });
+
+    Map<String, String> results = executor.executeAll(EHR_URL, queries);
+
+    assertEquals("good", results.get("good"));
+    assertNull(results.get("bad"));
+  }
+
+  @Test
+  public void testTimedOutQueriesReleaseTheirPermits() throws Exception {
+
+    EhrQueryExecutor singleThreaded = new EhrQueryExecutor();
+    ReflectionTestUtils.setField(singleThreaded, "parallelEnabled", true);
+    ReflectionTestUtils.setField(singleThreaded, "threads", 1);
+    ReflectionTestUtils.setField(singleThreaded, "maxInFlightPerEhr", 2);
+    ReflectionTestUtils.setField(singleThreaded, "queryTimeout", 1);
+    singleThreaded.initialize();
+
+    try {
+      Map<String, Callable<String>> queries = new LinkedHashMap<>();
+      queries.put(
+          "slow",
+          () -> {
+            Thread.sleep(10000);
+            return "slow";
+          });
+      // Queued behind the slow query on the single thread, it never starts.
+      queries.put("queued", () -> "queued");
+
+      Map<String, String> results = singleThreaded.executeAll(EHR_URL, queries);
+
+      assertNull(results.get("slow"));
+      assertNull(results.get("queued"));
+
+      for (int i = 0; i < 50 && singleThreaded.getInFlightQueries(EHR_URL) > 0; i++) {
+        Thread.sleep(20);
+      }
+      assertEquals(0, singleThreaded.getInFlightQueries(EHR_URL));
+
+      queries.clear();
+      queries.put("first", () -> "first");
+      queries.put("second", () -> "second");
+
+      results = singleThreaded.executeAll(EHR_URL, queries);
+
+      assertEquals("first", results.get("first"));
+      assertEquals("second", results.get("second"));
+    } finally {
+      singleThreaded.shutdown();
+    }
+  }
+}
@@ -0,0 +1,176 @@
+package com.drajer.bsa.ehr.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.drajer.bsa.dao.EhrQuerySnapshotDao;
+import com.drajer.bsa.ehr.service.impl.IncrementalQueryManager.IncrementalQuery;
+import com.drajer.bsa.model.EhrQuerySnapshot;
+import com.drajer.bsa.model.KarProcessingData;
+import com.drajer.bsa.model.NotificationContext;
+import com.drajer.bsa.scheduler.ScheduledJobData;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Observation.ObservationStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class IncrementalQueryManagerTest {
+
+  private static final String SEARCH_URL =
+      "http://localhost:9010/fhir/Observation?patient=123&category=laboratory";
+
+  private IncrementalQueryManager manager;
+  private EhrQuerySnapshotDao snapshotDao;
+  private IParser jsonParser;
+  private KarProcessingData kd;
+
+  @Before
+  public void setUp() {
+    snapshotDao = mock(EhrQuerySnapshotDao.class);
+    jsonParser = FhirContext.forR4().newJsonParser();
+
+    manager = new IncrementalQueryManager();
+    ReflectionTestUtils.setField(manager, "incrementalEnabled", true);
+    ReflectionTestUtils.setField(manager, "overlapSeconds", 60);
+    ReflectionTestUtils.setField(manager, "maxAgeHours", 24);
+    ReflectionTestUtils.setField(manager, "snapshotDao", snapshotDao);
+    ReflectionTestUtils.setField(manager, "jsonParser", jsonParser);
+
+    NotificationContext nc = new NotificationContext();
+    nc.setId(UUID.randomUUID());
+    kd = new KarProcessingData();
+    kd.setNotificationContext(nc);
+  }
+
+  private Bundle createBundle(Observation... observations) {
+    Bundle bundle = new Bundle();
+    for (Observation obs : observations) {
+      bundle.addEntry().setResource(obs);
+    }
+    return bundle;
+  }
+
+  private Observation createObservation(String id, ObservationStatus status) {
+    Observation obs = new Observation();
+    obs.setId(id);
+    obs.setStatus(status);
+    return obs;
+  }
+
+  private EhrQuerySnapshot createSnapshot(Bundle bundle) {
+    EhrQuerySnapshot snapshot = new EhrQuerySnapshot();
+    snapshot.setQueryUrl(SEARCH_URL);
+    snapshot.setLastQueryTime(Date.from(Instant.parse("2026-10-17T10:00:00Z")));
+    snapshot.setSnapshotData(jsonParser.encodeResourceToString(bundle));
+    return snapshot;
+  }
+
+  @Test
+  public void testUpdatedResourcesReplaceEarlierVersions() {
+
+    Bundle previous =
+        createBundle(
+            createObservation("1", ObservationStatus.PRELIMINARY),
+            createObservation("2", ObservationStatus.FINAL));
+    Bundle updates =
+        createBundle(
+            createObservation("1", ObservationStatus.FINAL),
+            createObservation("3", ObservationStatus.FINAL));
+
+    Bundle merged = IncrementalQueryManager.merge(previous, updates);
+    Observation updated = (Observation) merged.getEntry().get(0).getResource();
+
+    assertEquals(3, merged.getEntry().size());
+    assertEquals(ObservationStatus.FINAL, updated.getStatus());
+  }
+
+  @Test
+  public void testScheduledJobQueriesUpdatedResources() {
+
+    ReflectionTestUtils.setField(manager, "maxAgeHours", Integer.MAX_VALUE);
+    kd.setScheduledJobData(mock(ScheduledJobData.class));
+    EhrQuerySnapshot snapshot =
+        createSnapshot(createBundle(createObservation("1", ObservationStatus.FINAL)));
+    when(snapshotDao.getEhrQuerySnapshot(any(), eq("dr-1"), eq(SEARCH_URL))).thenReturn(snapshot);
+
+    IncrementalQuery query = manager.prepare(kd, "dr-1", SEARCH_URL);
+
+    assertTrue(query.isDelta());
+    assertEquals(SEARCH_URL + "&_lastUpdated=gt2026-10-17T10:00:00.000Z", query.getUrl());
+
+    Bundle result =
+        manager.complete(query, createBundle(createObservation("2", ObservationStatus.FINAL)));
+
+    assertEquals(2, result.getEntry().size());
+    verify(snapshotDao).saveOrUpdate(snapshot);
+  }
+
+  @Test
+  public void testNotificationQueriesRetrieveCompleteResult() {
+
+    EhrQuerySnapshot snapshot =
+        createSnapshot(createBundle(createObservation("1", ObservationStatus.FINAL)));
+    when(snapshotDao.getEhrQuerySnapshot(any(), anyString(), anyString())).thenReturn(snapshot);
+
+    IncrementalQuery query = manager.prepare(kd, "dr-1", SEARCH_URL);
+
+    assertFalse(query.isDelta());
+    assertEquals(SEARCH_URL, query.getUrl());
+  }
+
+  @Test
+  public void testFailedQueryReturnsSnapshot() {
+
+    ReflectionTestUtils.setField(manager, "maxAgeHours", Integer.MAX_VALUE);
+    kd.setScheduledJobData(mock(ScheduledJobData.class));
+    EhrQuerySnapshot snapshot =
+        createSnapshot(createBundle(createObservation("1", ObservationStatus.FINAL)));
+    when(snapshotDao.getEhrQuerySnapshot(any(), anyString(), anyString())).thenReturn(snapshot);
+
+    IncrementalQuery query = manager.prepare(kd, "dr-1", SEARCH_URL);
+    Bundle result = manager.complete(query, null);
+
+    assertEquals(1, result.getEntry().size());
+    assertEquals(Date.from(Instant.parse("2026-10-17T10:00:00Z")), snapshot.getLastQueryTime());
+  }
+
+  @Test
+  public void testEndedEncounterRetrievesCompleteResultAndRemovesSnapshot() {
+
+    ReflectionTestUtils.setField(manager, "maxAgeHours", Integer.MAX_VALUE);
+    kd.setScheduledJobData(mock(ScheduledJobData.class));
+    kd.getNotificationContext().setEncounterEndTime(new Date());
+    EhrQuerySnapshot snapshot =
+        createSnapshot(createBundle(createObservation("1", ObservationStatus.FINAL)));
+    snapshot.setId(UUID.randomUUID());
+    when(snapshotDao.getEhrQuerySnapshot(any(), anyString(), anyString())).thenReturn(snapshot);
+
+    IncrementalQuery query = manager.prepare(kd, "dr-1", SEARCH_URL);
+
+    assertFalse(query.isDelta());
+    assertTrue(query.isClosed());
+    assertEquals(SEARCH_URL, query.getUrl());
+
+    Bundle result =
+        manager.complete(query, createBundle(createObservation("2", ObservationStatus.FINAL)));
+
+    assertEquals(1, result.getEntry().size());
+    verify(snapshotDao).delete(snapshot);
+    verify(snapshotDao, never()).saveOrUpdate(any());
+  }
+}
@@ -0,0 +1,195 @@
+package com.drajer.bsa.kar.condition;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.drajer.bsa.kar.action.SubmitReport;
+import com.drajer.bsa.kar.model.BsaAction;
+import com.drajer.bsa.kar.model.KnowledgeArtifact;
+import java.util.HashMap;
+import java.util.function.Supplier;
+import org.cqframework.cql.elm.execution.Library;
+import org.cqframework.cql.elm.execution.VersionedIdentifier;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencds.cqf.cql.engine.terminology.TerminologyProvider;
+import org.opencds.cqf.cql.evaluator.builder.DataProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.EndpointConverter;
+import org.opencds.cqf.cql.evaluator.builder.EndpointInfo;
+import org.opencds.cqf.cql.evaluator.builder.FhirDalFactory;
+import org.opencds.cqf.cql.evaluator.builder.LibraryContentProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.TerminologyProviderFactory;
+import org.opencds.cqf.cql.evaluator.builder.data.FhirModelResolverFactory;
+import org.opencds.cqf.cql.evaluator.cql2elm.content.LibraryContentProvider;
+import org.opencds.cqf.cql.evaluator.library.CqlFhirParametersConverter;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CqlLibraryCacheTest {
+
+  private static final String KAR_ID = "ChronicDSControllingBloodPressure";
+  private static final String LIBRARY_ADDRESS = "src/test/resources/Bsa/Scenarios/kars";
+
+  private CqlLibraryCache cache;
+  private LibraryContentProviderFactory contentProviderFactory;
+  private TerminologyProviderFactory terminologyProviderFactory;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() {
+
+    contentProviderFactory = mock(LibraryContentProviderFactory.class);
+    terminologyProviderFactory = mock(TerminologyProviderFactory.class);
+
+    when(contentProviderFactory.create(any(EndpointInfo.class)))
+        .thenAnswer(invocation -> mock(LibraryContentProvider.class));
+    when(terminologyProviderFactory.create(any(EndpointInfo.class)))
+        .thenAnswer(invocation -> mock(TerminologyProvider.class));
+
+    cache = new CqlLibraryCache();
+    ReflectionTestUtils.setField(cache, "cacheEnabled", true);
+    ReflectionTestUtils.setField(cache, "cqlEnabled", true);
+    cache.cqlFhirParametersConverter = mock(CqlFhirParametersConverter.class);
+    cache.libraryContentProviderFactory = contentProviderFactory;
+    cache.terminologyProviderFactory = terminologyProviderFactory;
+    cache.dataProviderFactory = mock(DataProviderFactory.class);
+    cache.fhirDalFactory = mock(FhirDalFactory.class);
+    cache.endpointConverter = mock(EndpointConverter.class);
+    cache.fhirModelResolverFactory = new FhirModelResolverFactory();
+    cache.cqlEvaluatorBuilderSupplier = mock(Supplier.class);
+    cache.initialize();
+  }
+
+  private static KnowledgeArtifact createKar(String version, BsaCqlCondition cond) {
+
+    KnowledgeArtifact art = new KnowledgeArtifact();
+    art.setKarId(KAR_ID);
+    art.setKarVersion(version);
+
+    BsaAction action = new SubmitReport();
+    action.setActionId("submit-report");
+    action.addCondition(cond);
+    art.getActionMap().put(action.getActionId(), action);
+
+    return art;
+  }
+
+  private static BsaCqlCondition createCondition() {
+
+    BsaCqlCondition cond = new BsaCqlCondition();
+    cond.setConditionProcessor(new CqlProcessor());
+    cond.setUrl("http://hl7.org/fhir/us/chronic-ds/Library/ControllingBloodPressureFHIR");
+
+    return cond;
+  }
+
+  @Test
+  public void testProvidersAreLoadedOncePerKar() {
+
+    KnowledgeArtifact art = createKar("1.0.0", createCondition());
+    cache.initialize(art);
+
+    CqlLibraryCache.KarCqlResources resources = cache.getResources(art.getVersionUniqueId());
+    assertNotNull(resources);
+
+    EndpointInfo endpoint = new EndpointInfo().setAddress(LIBRARY_ADDRESS);
+
+    LibraryContentProvider content = resources.contentFactory.create(endpoint);
+    TerminologyProvider terminology = resources.terminologyFactory.create(endpoint);
+
+    assertSame(content, resources.contentFactory.create(endpoint));
+    assertSame(terminology, resources.terminologyFactory.create(endpoint));
+    verify(contentProviderFactory, times(1)).create(any(EndpointInfo.class));
+    verify(terminologyProviderFactory, times(1)).create(any(EndpointInfo.class));
+  }
+
+  @Test
+  public void testTranslatedLibrariesAreReused() {
+
+    KnowledgeArtifact art = createKar("1.0.0", createCondition());
+    cache.initialize(art);
+
+    HashMap<VersionedIdentifier, Library> libraries =
+        cache.getResources(art.getVersionUniqueId()).libraries;
+
+    VersionedIdentifier id =
+        new VersionedIdentifier().withId("ControllingBloodPressureFHIR").withVersion("1.0.0");
+    Library library = new Library().withIdentifier(id);
+    libraries.put(id, library);
+
+    assertSame(library, cache.getResources(art.getVersionUniqueId()).libraries.get(id));
+  }
+
+  @Test
+  public void testResourcesAreKeyedPerKarVersion() {
+
+    BsaCqlCondition firstCond = createCondition();
+    BsaCqlCondition secondCond = createCondition();
+    KnowledgeArtifact first = createKar("1.0.0", firstCond);
+    KnowledgeArtifact second = createKar("2.0.0", secondCond);
+
+    cache.initialize(first);
+    cache.initialize(second);
+
+    CqlLibraryCache.KarCqlResources firstResources = cache.getResources(first.getVersionUniqueId());
+    CqlLibraryCache.KarCqlResources secondResources =
+        cache.getResources(second.getVersionUniqueId());
+
+    assertNotNull(firstResources);
+    assertNotNull(secondResources);
+    assertNotSame(firstResources, secondResources);
+    assertNotSame(firstResources.libraries, secondResources.libraries);
+    assertSame(firstResources.libraryProcessor, firstCond.getLibraryProcessor());
+    assertSame(secondResources.libraryProcessor, secondCond.getLibraryProcessor());
+
+    EndpointInfo endpoint = new EndpointInfo().setAddress(LIBRARY_ADDRESS);
+    firstResources.contentFactory.create(endpoint);
+    secondResources.contentFactory.create(endpoint);
+
+    verify(contentProviderFactory, times(2)).create(any(EndpointInfo.class));
+  }
+
+  @Test
+  public void testKarReloadInvalidatesTheCache() {
+
+    KnowledgeArtifact art = createKar("1.0.0", createCondition());
+    cache.initialize(art);
+
+    CqlLibraryCache.KarCqlResources before = cache.getResources(art.getVersionUniqueId());
+    EndpointInfo endpoint = new EndpointInfo().setAddress(LIBRARY_ADDRESS);
+    LibraryContentProvider content = before.contentFactory.create(endpoint);
+
+    cache.invalidate();
+    assertNull(cache.getResources(art.getVersionUniqueId()));
+
+    BsaCqlCondition reloadedCond = createCondition();
+    KnowledgeArtifact reloaded = createKar("1.0.0", reloadedCond);
+    cache.initialize(reloaded);
+
+    CqlLibraryCache.KarCqlResources after = cache.getResources(reloaded.getVersionUniqueId());
+
+    assertNotSame(before, after);
+    assertSame(after.libraryProcessor, reloadedCond.getLibraryProcessor());
+    assertNotSame(content, after.contentFactory.create(endpoint));
+    verify(contentProviderFactory, times(2)).create(any(EndpointInfo.class));
+  }
+
+  @Test
+  public void testNothingIsCachedWhenDisabled() {
+
+    ReflectionTestUtils.setField(cache, "cacheEnabled", false);
+
+    BsaCqlCondition cond = createCondition();
+    KnowledgeArtifact art = createKar("1.0.0", cond);
+    cache.initialize(art);
+
+    assertNull(cache.getResources(art.getVersionUniqueId()));
+    assertNull(cond.getLibraryProcessor());
+  }
+}
@@ -0,0 +1,32 @@
+package com.drajer.bsa.model;
+
+import static org.junit.Assert.assertEquals;
+
+import com.drajer.bsa.model.BsaTypes.NotificationProcessingStatusType;
+import org.junit.Test;
+
+public class BsaTypesTest {
+
+  @Test
+  public void testNotificationProcessingStatusTypeConversions() {
+
+    for (NotificationProcessingStatusType type : NotificationProcessingStatusType.values()) {
+
+      String value = BsaTypes.getNotificationStatusTypeString(type);
+
+      if (type == NotificationProcessingStatusType.Unknown) {
+        assertEquals(BsaTypes.UNKNOWN, value);
+      } else {
+        assertEquals(type.toString(), value);
+        assertEquals(type, BsaTypes.getNotificationProcessingStatusType(value));
+      }
+    }
+
+    assertEquals(
+        NotificationProcessingStatusType.QUEUED,
+        BsaTypes.getNotificationProcessingStatusType("QUEUED"));
+    assertEquals(
+        NotificationProcessingStatusType.Unknown,
+        BsaTypes.getNotificationProcessingStatusType("NOT_A_STATUS"));
+  }
+}
@@ -0,0 +1,30 @@
+package com.drajer.bsa.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+import org.junit.Test;
+
+public class PhMessageCursorTest {
+
+  @Test
+  public void testEncodeAndDecode() {
+
+    Timestamp lastUpdated = Timestamp.valueOf("2024-03-01 10:15:30.123456");
+    PublicHealthMessage message = new PublicHealthMessage();
+    message.setId(UUID.randomUUID());
+    message.setLastUpdated(lastUpdated);
+
+    PhMessageCursor cursor = PhMessageCursor.decode(PhMessageCursor.of(message).encode());
+
+    // The microseconds saved in the database are kept by the cursor.
+    assertEquals(lastUpdated, cursor.getLastUpdated());
+    assertEquals(message.getId(), cursor.getId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodeInvalidCursor() {
+    PhMessageCursor.decode("not-a-cursor");
+  }
+}
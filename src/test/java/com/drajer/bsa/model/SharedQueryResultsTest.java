@@ -0,0 +1,130 @@
+package com.drajer.bsa.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Test;
+
+public class SharedQueryResultsTest {
+
+  private static final String QUERY = "search:http://localhost:9010/fhir/Condition?patient=123";
+
+  @Test
+  public void testQueryIsExecutedOnceAndCopiesAreReturned() {
+
+    SharedQueryResults shared = new SharedQueryResults();
+    AtomicInteger executions = new AtomicInteger();
+
+    Bundle first =
+        shared.get(
+            QUERY,
+            () -> {
+              executions.incrementAndGet();
+              Bundle b = new Bundle();
+              b.addEntry().setResource(new Patient().setId("123"));
+              return b;
+            });
+    Bundle second = shared.get(QUERY, () -> new Bundle());
+
+    assertEquals(1, executions.get());
+    assertEquals(1, second.getEntry().size());
+    assertNotSame(first, second);
+    assertNotSame(first.getEntryFirstRep().getResource(), second.getEntryFirstRep().getResource());
+    assertEquals(1, shared.getHits());
+    assertEquals(1, shared.getMisses());
+  }
+
+  @Test
+  public void testNullResultIsNotShared() {
+
+    SharedQueryResults shared = new SharedQueryResults();
+    AtomicInteger executions = new AtomicInteger();
+
+    Supplier<Bundle> loader =
+        () -> {
+          executions.incrementAndGet();
+          return null;
+        };
+
+    assertNull(shared.get(QUERY, loader));
+    assertNull(shared.get(QUERY, loader));
+    assertEquals(2, executions.get());
+    assertEquals(0, shared.size());
+  }
+
+  @Test
+  public void testFailedQueryIsNotShared() {
+
+    SharedQueryResults shared = new SharedQueryResults();
+
+    try {
+      shared.get(
+          QUERY,
+          () -> {
+            throw new IllegalStateException("EHR unavailable");
+          });
+      fail("The failure of the query should be propagated");
+    } catch (IllegalStateException e) {
+      assertEquals("EHR unavailable", e.getMessage());
+    }
+
+    Bundle result = shared.get(QUERY, () -> new Bundle().setTotal(1));
+
+    assertEquals(1, result.getTotal());
+    assertEquals(2, shared.getMisses());
+  }
+
+  @Test
+  public void testConcurrentCallersWaitForQueryInFlight() throws Exception {
+
+    SharedQueryResults shared = new SharedQueryResults();
+    AtomicInteger executions = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      List<Future<Bundle>> futures = new ArrayList<>();
+
+      for (int i = 0; i < 4; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  return shared.get(
+                      QUERY,
+                      () -> {
+                        executions.incrementAndGet();
+                        try {
+                          Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                          Thread.currentThread().interrupt();
+                        }
+                        return new Bundle();
+                      });
+                }));
+      }
+
+      start.countDown();
+
+      for (Future<Bundle> future : futures) {
+        future.get();
+      }
+
+      assertEquals(1, executions.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
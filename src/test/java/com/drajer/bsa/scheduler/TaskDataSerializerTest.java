@@ -0,0 +1,103 @@
+package com.drajer.bsa.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.drajer.bsa.model.BsaTypes.ActionType;
+import com.drajer.bsa.model.BsaTypes.BsaJobType;
+import com.drajer.eca.model.EventTypes.EcrActionTypes;
+import com.drajer.eca.model.TaskTimer;
+import com.github.kagkarlsson.scheduler.serializer.Serializer;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+public class TaskDataSerializerTest {
+
+  private final TaskDataSerializer compactSerializer =
+      new TaskDataSerializer(Serializer.DEFAULT_JAVA_SERIALIZER, true);
+
+  private final TaskDataSerializer javaSerializer =
+      new TaskDataSerializer(Serializer.DEFAULT_JAVA_SERIALIZER, false);
+
+  @Test
+  public void testScheduledJobDataRoundTrip() {
+
+    ScheduledJobData data = getScheduledJobData();
+
+    byte[] compact = compactSerializer.serialize(data);
+    byte[] java = Serializer.DEFAULT_JAVA_SERIALIZER.serialize(data);
+
+    assertTrue(TaskDataSerializer.isCompact(compact));
+    assertTrue(compact.length < java.length / 2);
+
+    ScheduledJobData result = compactSerializer.deserialize(ScheduledJobData.class, compact);
+
+    assertEquals(data.getKarExecutionStateId(), result.getKarExecutionStateId());
+    assertEquals(data.getActionId(), result.getActionId());
+    assertEquals(data.getActionType(), result.getActionType());
+    assertEquals(data.getJobId(), result.getJobId());
+    assertEquals(data.getxRequestId(), result.getxRequestId());
+    assertEquals(data.getJobType(), result.getJobType());
+    assertEquals(data.getMdcContext(), result.getMdcContext());
+    assertNull(result.getExpirationTime());
+  }
+
+  @Test
+  public void testTaskTimerRoundTrip() {
+
+    TaskTimer timer = new TaskTimer(100L, 5, EcrActionTypes.CREATE_EICR, Instant.now(), null);
+
+    TaskTimer result =
+        compactSerializer.deserialize(TaskTimer.class, compactSerializer.serialize(timer));
+
+    assertEquals(Long.valueOf(100L), result.getId());
+    assertEquals(Integer.valueOf(5), result.getLaunchDetailsId());
+    assertEquals(EcrActionTypes.CREATE_EICR, result.getActionTypes());
+    assertNull(result.getMdcContext());
+  }
+
+  @Test
+  public void testJavaSerializedRowsAreRead() {
+
+    ScheduledJobData data = getScheduledJobData();
+
+    byte[] java = javaSerializer.serialize(data);
+    assertFalse(TaskDataSerializer.isCompact(java));
+
+    ScheduledJobData result = compactSerializer.deserialize(ScheduledJobData.class, java);
+
+    assertEquals(data.getJobId(), result.getJobId());
+    assertEquals(data.getMdcContext(), result.getMdcContext());
+  }
+
+  private ScheduledJobData getScheduledJobData() {
+
+    Map<String, String> mdc = new HashMap<>();
+    mdc.put("xRequestId", "request-1");
+    mdc.put("patientId", "patient-1");
+
+    UUID karExecutionStateId = UUID.randomUUID();
+    String jobId =
+        "create-eicr_"
+            + ActionType.CREATE_REPORT
+            + "_"
+            + karExecutionStateId
+            + "_"
+            + UUID.randomUUID();
+
+    return new ScheduledJobData(
+        karExecutionStateId,
+        "create-eicr",
+        ActionType.CREATE_REPORT,
+        Instant.now(),
+        jobId,
+        "request-1",
+        BsaJobType.DELAYED_REPORTING,
+        mdc);
+  }
+}
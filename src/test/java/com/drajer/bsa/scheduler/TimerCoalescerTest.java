@@ -0,0 +1,259 @@
+package com.drajer.bsa.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.drajer.bsa.model.BsaTypes.ActionType;
+import com.drajer.bsa.model.BsaTypes.BsaJobType;
+import com.drajer.bsa.scheduler.TimerCoalescer.PendingTimer;
+import com.drajer.bsa.scheduler.TimerCoalescer.PendingTimers;
+import com.github.kagkarlsson.scheduler.serializer.Serializer;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class TimerCoalescerTest {
+
+  private static final String UPDATE_SQL = "update scheduled_tasks";
+
+  private static final String INSERT_SQL =
+      "insert into scheduled_tasks"
+          + " (task_name, task_instance, task_data, execution_time, picked, version)"
+          + " values (?, ?, ?, ?, ?, ?)";
+
+  private static final String UPSERT_SQL = INSERT_SQL + " on conflict";
+
+  private TimerCoalescer timerCoalescer;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private final UUID karExecutionStateId = UUID.randomUUID();
+
+  @Before
+  public void setUp() {
+
+    jdbcTemplate = mock(JdbcTemplate.class);
+
+    timerCoalescer = new TimerCoalescer();
+    timerCoalescer.jdbcTemplate = jdbcTemplate;
+    timerCoalescer.serializer = new TaskDataSerializer(Serializer.DEFAULT_JAVA_SERIALIZER, false);
+    ReflectionTestUtils.setField(timerCoalescer, "tableName", "scheduled_tasks");
+  }
+
+  @Test
+  public void testPendingTimersKeepEarlierTime() {
+
+    Instant now = Instant.now();
+
+    PendingTimers timers = new PendingTimers();
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(10, ChronoUnit.MINUTES));
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(5, ChronoUnit.MINUTES));
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(20, ChronoUnit.MINUTES));
+    timers.add(getData("CREATE_EICR"), now.plus(30, ChronoUnit.MINUTES));
+
+    assertEquals(2, timers.size());
+
+    PendingTimer timer = timers.values().iterator().next();
+    assertEquals(now.plus(5, ChronoUnit.MINUTES), timer.time);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFlushUpsertsTimersInOneBatch() {
+
+    stubBatch(UPDATE_SQL, 0, 0);
+    stubBatch(UPSERT_SQL, 1, 1);
+
+    Instant now = Instant.now();
+
+    PendingTimers timers = new PendingTimers();
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(10, ChronoUnit.MINUTES));
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(5, ChronoUnit.MINUTES));
+    timers.add(getData("CREATE_EICR"), now.plus(30, ChronoUnit.MINUTES));
+
+    timerCoalescer.flush(timers);
+
+    ArgumentCaptor<List<Object[]>> updates = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(startsWith(UPDATE_SQL), updates.capture());
+    assertEquals(2, updates.getValue().size());
+
+    ArgumentCaptor<List<Object[]>> captor = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(contains(UPSERT_SQL), captor.capture());
+    verify(jdbcTemplate, never()).batchUpdate(eq(INSERT_SQL), anyList());
+
+    List<Object[]> inserts = captor.getValue();
+    assertEquals(2, inserts.size());
+
+    Object[] first = inserts.get(0);
+    assertEquals(TimerCoalescer.TASK_NAME, first[0]);
+    assertEquals(getJobId("CHECK_TRIGGER_CODES"), first[1]);
+    assertEquals(Timestamp.from(now.plus(5, ChronoUnit.MINUTES)), first[3]);
+
+    ScheduledJobData data =
+        timerCoalescer.serializer.deserialize(ScheduledJobData.class, (byte[]) first[2]);
+    assertEquals(karExecutionStateId, data.getKarExecutionStateId());
+    assertEquals(getJobId("CHECK_TRIGGER_CODES"), data.getJobId());
+    assertTrue(inserts.get(1)[1].toString().startsWith("CREATE_EICR"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFlushMovesPendingJobs() {
+
+    stubBatch(UPDATE_SQL, 1, 0);
+    stubBatch(UPSERT_SQL, 1);
+
+    Instant now = Instant.now();
+
+    PendingTimers timers = new PendingTimers();
+    timers.add(getData("CHECK_TRIGGER_CODES"), now.plus(5, ChronoUnit.MINUTES));
+    timers.add(getData("CREATE_EICR"), now.plus(30, ChronoUnit.MINUTES));
+
+    timerCoalescer.flush(timers);
+
+    ArgumentCaptor<List<Object[]>> updates = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(startsWith(UPDATE_SQL), updates.capture());
+
+    // The pending job is looked up by its job id and by the prefix of the job ids of its own.
+    Object[] update = updates.getValue().get(0);
+    assertEquals(Timestamp.from(now.plus(5, ChronoUnit.MINUTES)), update[0]);
+    assertEquals(TimerCoalescer.TASK_NAME, update[1]);
+    assertEquals(getJobId("CHECK_TRIGGER_CODES"), update[2]);
+    assertEquals(TimerCoalescer.escapeLike(getJobId("CHECK_TRIGGER_CODES")) + "\\_%", update[3]);
+
+    ArgumentCaptor<List<Object[]>> upserts = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(contains(UPSERT_SQL), upserts.capture());
+    assertEquals(1, upserts.getValue().size());
+    assertEquals(getJobId("CREATE_EICR"), upserts.getValue().get(0)[1]);
+    verify(jdbcTemplate, never()).batchUpdate(eq(INSERT_SQL), anyList());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFlushSchedulesPickedJobWithOwnId() {
+
+    // The upsert is stubbed last, as its statement also starts with the insert statement.
+    stubBatch(INSERT_SQL, 1);
+    stubBatch(UPDATE_SQL, 0, 0);
+    stubBatch(UPSERT_SQL, 0, 1);
+
+    Instant now = Instant.now();
+
+    ScheduledJobData picked = getData("CHECK_TRIGGER_CODES");
+
+    PendingTimers timers = new PendingTimers();
+    timers.add(picked, now.plus(5, ChronoUnit.MINUTES));
+    timers.add(getData("CREATE_EICR"), now.plus(30, ChronoUnit.MINUTES));
+
+    timerCoalescer.flush(timers);
+
+    ArgumentCaptor<List<Object[]>> inserts = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(eq(INSERT_SQL), inserts.capture());
+    assertEquals(1, inserts.getValue().size());
+
+    Object[] insert = inserts.getValue().get(0);
+    String jobId = getJobId("CHECK_TRIGGER_CODES");
+    assertTrue(insert[1].toString().startsWith(jobId + "_"));
+    assertEquals(insert[1], picked.getJobId());
+
+    ScheduledJobData data =
+        timerCoalescer.serializer.deserialize(ScheduledJobData.class, (byte[]) insert[2]);
+    assertEquals(insert[1], data.getJobId());
+  }
+
+  @Test
+  public void testScheduleWithinTransactionFlushesBeforeCommit() {
+
+    stubBatch(UPDATE_SQL, 0);
+    stubBatch(UPSERT_SQL, 1);
+
+    Instant now = Instant.now();
+
+    TransactionSynchronizationManager.initSynchronization();
+
+    try {
+      timerCoalescer.schedule(getData("CHECK_TRIGGER_CODES"), now.plus(10, ChronoUnit.MINUTES));
+      timerCoalescer.schedule(getData("CHECK_TRIGGER_CODES"), now.plus(5, ChronoUnit.MINUTES));
+
+      verifyNoInteractions(jdbcTemplate);
+
+      List<TransactionSynchronization> synchronizations =
+          TransactionSynchronizationManager.getSynchronizations();
+      assertEquals(1, synchronizations.size());
+
+      synchronizations.get(0).beforeCommit(false);
+
+      verify(jdbcTemplate).batchUpdate(startsWith(UPDATE_SQL), anyList());
+      verify(jdbcTemplate).batchUpdate(contains(UPSERT_SQL), anyList());
+
+      synchronizations.get(0).afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+      assertFalse(TransactionSynchronizationManager.hasResource(timerCoalescer));
+    } finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testScheduleWithoutTransactionFlushesImmediately() {
+
+    stubBatch(UPDATE_SQL, 1);
+
+    timerCoalescer.schedule(
+        getData("CHECK_TRIGGER_CODES"), Instant.now().plus(5, ChronoUnit.MINUTES));
+
+    verify(jdbcTemplate).batchUpdate(startsWith(UPDATE_SQL), anyList());
+    verify(jdbcTemplate, never()).batchUpdate(contains(UPSERT_SQL), anyList());
+  }
+
+  @Test
+  public void testEscapeLike() {
+    assertEquals("a\\_b\\%c\\\\", TimerCoalescer.escapeLike("a_b%c\\"));
+  }
+
+  @Test
+  public void testFlushWithoutTimers() {
+
+    timerCoalescer.flush(new PendingTimers());
+
+    verifyNoInteractions(jdbcTemplate);
+  }
+
+  private void stubBatch(String sql, int... counts) {
+    when(jdbcTemplate.batchUpdate(startsWith(sql), anyList())).thenReturn(counts);
+  }
+
+  private ScheduledJobData getData(String actionId) {
+    return new ScheduledJobData(
+        karExecutionStateId,
+        actionId,
+        ActionType.CHECK_TRIGGER_CODES,
+        null,
+        getJobId(actionId),
+        "xRequestId",
+        BsaJobType.DELAYED_REPORTING,
+        null);
+  }
+
+  private String getJobId(String actionId) {
+    return actionId + "_" + ActionType.CHECK_TRIGGER_CODES + "_" + karExecutionStateId;
+  }
+}
@@ -0,0 +1,130 @@
+package com.drajer.bsa.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import com.drajer.bsa.ehr.service.EhrQueryService;
+import com.drajer.bsa.model.KarProcessingData;
+import com.drajer.bsa.model.NotificationContext;
+import java.util.UUID;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Encounter;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class NotificationDataCacheTest {
+
+  private NotificationDataCache cache;
+  private IParser jsonParser;
+
+  @Before
+  public void setUp() {
+    jsonParser = Mockito.spy(FhirContext.forR4().newJsonParser());
+    cache = new NotificationDataCache();
+    ReflectionTestUtils.setField(cache, "jsonParser", jsonParser);
+    ReflectionTestUtils.setField(cache, "cacheEnabled", true);
+    ReflectionTestUtils.setField(cache, "maxEntries", 2);
+    ReflectionTestUtils.setField(cache, "maxSizeKb", 1024L);
+  }
+
+  private NotificationContext createContext(String patientId) {
+    Bundle bundle = new Bundle();
+    bundle.addEntry().setResource(new Patient().setId(patientId));
+    bundle.addEntry().setResource(new Encounter().setId("enc-" + patientId));
+
+    NotificationContext nc = new NotificationContext();
+    nc.setId(UUID.randomUUID());
+    nc.setNotificationResourceId("enc-" + patientId);
+    nc.setNotificationData(FhirContext.forR4().newJsonParser().encodeResourceToString(bundle));
+    return nc;
+  }
+
+  @Test
+  public void testNotificationBundleIsParsedOnce() {
+
+    NotificationContext nc = createContext("123");
+
+    Bundle first = cache.getNotificationBundle(nc);
+    Bundle second = cache.getNotificationBundle(nc);
+
+    verify(jsonParser, times(1)).parseResource(anyString());
+    assertNotSame(first, second);
+    assertEquals(2, second.getEntry().size());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testRelaunchedNotificationIsParsedAgain() {
+
+    NotificationContext nc = createContext("123");
+    cache.getNotificationBundle(nc);
+
+    nc.setNotificationData(createContext("456").getNotificationData());
+    Bundle bundle = cache.getNotificationBundle(nc);
+
+    assertEquals("456", bundle.getEntryFirstRep().getResource().getIdElement().getIdPart());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testNotificationDataWithSameHashCodeIsParsedAgain() {
+
+    // "Aa" and "BB" have the same hash code, so both versions have the same length and hash code.
+    NotificationContext nc = createContext("Aa");
+    cache.getNotificationBundle(nc);
+
+    String relaunched = createContext("BB").getNotificationData();
+    assertEquals(nc.getNotificationData().length(), relaunched.length());
+    assertEquals(nc.getNotificationData().hashCode(), relaunched.hashCode());
+
+    nc.setNotificationData(relaunched);
+    Bundle bundle = cache.getNotificationBundle(nc);
+
+    assertEquals("BB", bundle.getEntryFirstRep().getResource().getIdElement().getIdPart());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreEvicted() {
+
+    cache.getNotificationBundle(createContext("1"));
+    cache.getNotificationBundle(createContext("2"));
+    cache.getNotificationBundle(createContext("3"));
+
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testCachedEncounterIsRevalidated() {
+
+    NotificationContext nc = createContext("123");
+    KarProcessingData kd = new KarProcessingData();
+    EhrQueryService ehrService = mock(EhrQueryService.class);
+    Encounter encounter = new Encounter();
+    encounter.setId("enc-123");
+
+    when(ehrService.getResourceById(kd, "Encounter", "enc-123")).thenReturn(encounter);
+    when(ehrService.getResourceIfModified(eq(kd), any())).thenReturn(encounter);
+
+    cache.getNotificationBundle(nc);
+    cache.getContextEncounter(nc, kd, ehrService);
+    Encounter second = cache.getContextEncounter(nc, kd, ehrService);
+
+    verify(ehrService, times(1)).getResourceById(kd, "Encounter", "enc-123");
+    verify(ehrService, times(1)).getResourceIfModified(eq(kd), any());
+    assertEquals("enc-123", second.getIdElement().getIdPart());
+  }
+}
@@ -0,0 +1,174 @@
+package com.drajer.bsa.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.drajer.bsa.dao.NotificationContextDao;
+import com.drajer.bsa.model.BsaTypes.NotificationProcessingStatusType;
+import com.drajer.bsa.model.NotificationContext;
+import com.drajer.bsa.service.SubscriptionNotificationReceiver;
+import com.drajer.bsa.service.impl.NotificationQueueServiceImpl.QueuedNotification;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class NotificationQueueServiceImplTest {
+
+  private static final String EHR_A = "http://ehr-a/fhir";
+  private static final String EHR_B = "http://ehr-b/fhir";
+
+  private static final String QUEUED = NotificationProcessingStatusType.QUEUED.toString();
+  private static final String DISPATCHED = NotificationProcessingStatusType.DISPATCHED.toString();
+  private static final String FAILED = NotificationProcessingStatusType.FAILED.toString();
+
+  private NotificationQueueServiceImpl queue;
+
+  private NotificationContextDao ncDao;
+
+  private SubscriptionNotificationReceiver notificationReceiver;
+
+  @Before
+  public void setUp() {
+    // The workers are not started, so the test drives takeNext and complete directly.
+    queue = new NotificationQueueServiceImpl();
+    ReflectionTestUtils.setField(queue, "maxQueued", 3);
+    ReflectionTestUtils.setField(queue, "maxInFlightPerTenant", 1);
+    ReflectionTestUtils.setField(queue, "staleDispatchTimeout", 3600);
+
+    ncDao = mock(NotificationContextDao.class);
+    notificationReceiver = mock(SubscriptionNotificationReceiver.class);
+    queue.ncDao = ncDao;
+    queue.notificationReceiver = notificationReceiver;
+  }
+
+  private NotificationContext createNotificationContext(String tenant) {
+    NotificationContext nc = new NotificationContext();
+    nc.setId(UUID.randomUUID());
+    nc.setFhirServerBaseUrl(tenant);
+    return nc;
+  }
+
+  private void enqueue(String tenant) {
+    assertTrue(queue.offer(createNotificationContext(tenant)));
+  }
+
+  @Test
+  public void testTenantsAreServedInRoundRobinOrder() throws InterruptedException {
+
+    enqueue(EHR_A);
+    enqueue(EHR_A);
+    enqueue(EHR_B);
+
+    QueuedNotification first = queue.takeNext();
+    queue.complete(first);
+    QueuedNotification second = queue.takeNext();
+
+    assertEquals(EHR_A, first.tenant);
+    assertEquals(EHR_B, second.tenant);
+  }
+
+  @Test
+  public void testInFlightNotificationsAreBoundedPerTenant() throws InterruptedException {
+
+    enqueue(EHR_A);
+    enqueue(EHR_A);
+    enqueue(EHR_B);
+
+    QueuedNotification first = queue.takeNext();
+    QueuedNotification second = queue.takeNext();
+
+    // The second notification for EHR_A waits until the first one completes.
+    assertEquals(EHR_A, first.tenant);
+    assertEquals(EHR_B, second.tenant);
+    assertEquals(1, queue.getQueuedCount());
+    assertEquals(2, queue.getInFlightCount());
+
+    queue.complete(first);
+    QueuedNotification third = queue.takeNext();
+
+    assertEquals(EHR_A, third.tenant);
+    assertEquals(0, queue.getQueuedCount());
+  }
+
+  @Test
+  public void testOfferIsBounded() {
+
+    enqueue(EHR_A);
+    enqueue(EHR_A);
+    assertTrue(queue.hasCapacity());
+
+    NotificationContext nc = createNotificationContext(EHR_B);
+    assertTrue(queue.offer(nc));
+    assertFalse(queue.hasCapacity());
+
+    // A notification queued already is not queued twice, any other one is rejected.
+    assertTrue(queue.offer(nc));
+    assertFalse(queue.offer(createNotificationContext(EHR_B)));
+    assertEquals(3, queue.getQueuedCount());
+  }
+
+  @Test
+  public void testRecoveryQueuesUptoCapacity() {
+
+    enqueue(EHR_A);
+
+    List<NotificationContext> queued = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      queued.add(createNotificationContext(EHR_B));
+    }
+
+    when(ncDao.getNotificationContextsByStatus(QUEUED, 3)).thenReturn(queued);
+
+    queue.recoverQueuedNotifications();
+
+    verify(ncDao)
+        .updateStaleNotificationProcessingStatus(eq(DISPATCHED), eq(QUEUED), any(Date.class));
+    assertEquals(3, queue.getQueuedCount());
+  }
+
+  @Test
+  public void testNotificationIsProcessedOnceClaimed() throws InterruptedException {
+
+    NotificationContext claimed = createNotificationContext(EHR_A);
+    NotificationContext other = createNotificationContext(EHR_B);
+    queue.offer(claimed);
+    queue.offer(other);
+
+    when(ncDao.updateNotificationProcessingStatus(claimed.getId(), QUEUED, DISPATCHED))
+        .thenReturn(true);
+    when(ncDao.updateNotificationProcessingStatus(other.getId(), QUEUED, DISPATCHED))
+        .thenReturn(false);
+
+    queue.process(queue.takeNext());
+    queue.process(queue.takeNext());
+
+    verify(notificationReceiver).processQueuedNotification(claimed.getId());
+    verify(notificationReceiver, never()).processQueuedNotification(other.getId());
+  }
+
+  @Test
+  public void testFailedNotificationIsMarkedFailed() throws InterruptedException {
+
+    NotificationContext nc = createNotificationContext(EHR_A);
+    queue.offer(nc);
+
+    when(ncDao.updateNotificationProcessingStatus(nc.getId(), QUEUED, DISPATCHED)).thenReturn(true);
+    when(notificationReceiver.processQueuedNotification(nc.getId()))
+        .thenThrow(new IllegalStateException("failed"));
+
+    queue.process(queue.takeNext());
+
+    verify(ncDao).updateNotificationProcessingStatus(nc.getId(), DISPATCHED, FAILED);
+  }
+}
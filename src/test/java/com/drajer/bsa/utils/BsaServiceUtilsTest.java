@@ -4,6 +4,7 @@ import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
@@ -51,6 +52,7 @@ import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DataRequirement;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.MessageHeader;
+import org.hl7.fhir.r4.model.Observation;
 import org.hl7.fhir.r4.model.Parameters;
 import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r4.model.Patient;
@@ -123,6 +125,7 @@ public class BsaServiceUtilsTest {
                 BsaServiceUtilsTest.class.getResourceAsStream(
                     "/R4/Condition/ConditionResource.json"));
 
+    resources.clear();
     bundle
         .getEntry()
         .forEach(
@@ -197,8 +200,28 @@ public class BsaServiceUtilsTest {
     Set<Resource> filterResource =
         BsaServiceUtils.filterResources(resources, dataRequirement, karProcessingData);
 
-    assertEquals(128, resources.size());
-    assertEquals(16, filterResource.size());
+    assertEquals(8, resources.size());
+    assertEquals(1, filterResource.size());
+  }
+
+  @Test
+  public void matchesCodeFilterUsingCompiledPath() {
+    DataRequirement dataRequirement = new DataRequirement();
+    DataRequirement.DataRequirementCodeFilterComponent codeFilter = dataRequirement.addCodeFilter();
+    codeFilter.setPath("code");
+    codeFilter.addCode(new Coding().setSystem("http://loinc.org").setCode("94500-6"));
+
+    BsaServiceUtils.compileCodeFilters(dataRequirement);
+
+    Observation matching = new Observation();
+    matching.getCode().addCoding().setSystem("http://loinc.org").setCode("94500-6");
+    Observation other = new Observation();
+    other.getCode().addCoding().setSystem("http://loinc.org").setCode("94309-2");
+
+    assertNotNull(codeFilter.getUserData("compiledFhirPath"));
+    assertTrue(BsaServiceUtils.matchesCodeFilter(matching, codeFilter, null));
+    assertFalse(BsaServiceUtils.matchesCodeFilter(other, codeFilter, null));
+    assertSame(BsaServiceUtils.compileFhirPath("code"), codeFilter.getUserData("compiledFhirPath"));
   }
 
   @Test
@@ -406,6 +429,33 @@ public class BsaServiceUtilsTest {
     assertNotNull(actualCodeableConcept);
   }
 
+  @Test
+  public void isCodePresentInIndexedValueSet() {
+
+    ValueSet valueSet =
+        fhirContext
+            .newJsonParser()
+            .parseResource(
+                ValueSet.class, BsaServiceUtils.class.getResourceAsStream("/Bsa/ValueSet.json"));
+    KnowledgeArtifact knowledgeArtifact = new KnowledgeArtifact();
+    knowledgeArtifact.addDependentValueSet(valueSet);
+
+    assertTrue(knowledgeArtifact.getValueSetCodeIndex().isIndexed(valueSet.getUrl()));
+    assertEquals(
+        BsaServiceUtils.isCodePresentInValueSet(valueSet, "http://snomed.info/sct", "700217006"),
+        BsaServiceUtils.isCodePresentInValueSet(
+            knowledgeArtifact, valueSet, "http://snomed.info/sct", "700217006"));
+    assertTrue(
+        BsaServiceUtils.isCodePresentInValueSet(
+            knowledgeArtifact, valueSet, "http://snomed.info/sct", "700217006"));
+    assertFalse(
+        BsaServiceUtils.isCodePresentInValueSet(
+            knowledgeArtifact, valueSet, "http://loinc.org", "700217006"));
+    assertFalse(
+        BsaServiceUtils.isCodePresentInValueSet(
+            knowledgeArtifact, valueSet, "http://snomed.info/sct", "12345"));
+  }
+
   @Test
   public void testHasCdaData() {
     Patient patient = new Patient();
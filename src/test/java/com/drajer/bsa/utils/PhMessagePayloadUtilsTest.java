@@ -0,0 +1,198 @@
+package com.drajer.bsa.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.drajer.bsa.dao.PhMessagePayloadStore;
+import com.drajer.bsa.dao.impl.PhMessagePayloadFileStore;
+import com.drajer.bsa.model.PhMessagePayloadType;
+import com.drajer.bsa.model.PublicHealthMessage;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class PhMessagePayloadUtilsTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private PhMessagePayloadFileStore store;
+
+  private PhMessagePayloadUtils payloadUtils;
+
+  @Before
+  public void setUp() {
+    store = new PhMessagePayloadFileStore(folder.getRoot().toPath());
+    payloadUtils = new PhMessagePayloadUtils();
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testCompress() {
+    String payload = "<ClinicalDocument/>";
+    byte[] compressed = PhMessagePayloadUtils.compress(payload);
+    assertEquals(payload, PhMessagePayloadUtils.decompress(compressed));
+  }
+
+  @Test
+  public void testPayloadsKeptInlineWithoutStore() {
+
+    PublicHealthMessage message = new PublicHealthMessage();
+    message.setSubmittedCdaData("<eicr/>");
+
+    assertFalse(payloadUtils.isExternal());
+    assertTrue(payloadUtils.detachPayloads(message).isEmpty());
+    assertEquals("<eicr/>", ReflectionTestUtils.getField(message, "submittedCdaData"));
+    assertEquals("<eicr/>", message.getSubmittedCdaData());
+  }
+
+  @Test
+  public void testPayloadsSavedToStore() {
+
+    ReflectionTestUtils.setField(payloadUtils, "payloadStore", store);
+
+    PublicHealthMessage message = new PublicHealthMessage();
+    message.setId(UUID.randomUUID());
+    message.setSubmittedCdaData("<eicr/>");
+    message.setCdaResponseData("<rr/>");
+
+    // The payloads are not saved in the ph_messages table, but remain available on the message.
+    Map<PhMessagePayloadType, String> payloads = payloadUtils.detachPayloads(message);
+    assertNull(ReflectionTestUtils.getField(message, "submittedCdaData"));
+    assertEquals("<eicr/>", message.getSubmittedCdaData());
+
+    payloadUtils.savePayloads(message.getId(), payloads);
+    assertEquals(
+        "<rr/>", store.getPayload(message.getId(), PhMessagePayloadType.CDA_RESPONSE_DATA));
+
+    // A message read from the ph_messages table has the payloads once they are loaded.
+    PublicHealthMessage loaded = new PublicHealthMessage();
+    loaded.setId(message.getId());
+    assertNull(loaded.getSubmittedCdaData());
+
+    payloadUtils.loadPayloads(Collections.singletonList(loaded));
+    assertEquals("<eicr/>", loaded.getSubmittedCdaData());
+    assertNull(loaded.getFailureResponseData());
+
+    payloadUtils.deletePayloads(message.getId());
+    assertNull(store.getPayload(message.getId(), PhMessagePayloadType.SUBMITTED_CDA_DATA));
+  }
+
+  @Test
+  public void testExternalizePayloads() {
+
+    PublicHealthMessage message = new PublicHealthMessage();
+    message.setId(UUID.randomUUID());
+    // The message was saved in the ph_messages table before the payload store was configured.
+    ReflectionTestUtils.setField(message, "submittedFhirData", "{}");
+
+    ReflectionTestUtils.setField(payloadUtils, "payloadStore", store);
+
+    assertTrue(message.externalizePayloads());
+
+    payloadUtils.savePayloads(message.getId(), payloadUtils.detachPayloads(message));
+    assertNull(ReflectionTestUtils.getField(message, "submittedFhirData"));
+    assertEquals("{}", store.getPayload(message.getId(), PhMessagePayloadType.SUBMITTED_FHIR_DATA));
+    assertFalse(message.externalizePayloads());
+  }
+
+  @Test
+  public void testPayloadsSavedAfterCommit() {
+
+    ReflectionTestUtils.setField(payloadUtils, "payloadStore", store);
+
+    UUID committed = UUID.randomUUID();
+    UUID rolledBack = UUID.randomUUID();
+    Map<PhMessagePayloadType, String> payloads = new EnumMap<>(PhMessagePayloadType.class);
+    payloads.put(PhMessagePayloadType.SUBMITTED_CDA_DATA, "<eicr/>");
+
+    TransactionSynchronizationManager.initSynchronization();
+    payloadUtils.savePayloads(committed, payloads);
+
+    // The payloads are not written until the message is committed.
+    assertNull(store.getPayload(committed, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(TransactionSynchronization::afterCommit);
+    TransactionSynchronizationManager.clearSynchronization();
+
+    assertEquals("<eicr/>", store.getPayload(committed, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+
+    TransactionSynchronizationManager.initSynchronization();
+    payloadUtils.savePayloads(rolledBack, payloads);
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    TransactionSynchronizationManager.clearSynchronization();
+
+    assertFalse(Files.exists(folder.getRoot().toPath().resolve(rolledBack.toString())));
+  }
+
+  @Test
+  public void testPayloadsDeletedAfterCommit() {
+
+    ReflectionTestUtils.setField(payloadUtils, "payloadStore", store);
+
+    UUID committed = UUID.randomUUID();
+    UUID rolledBack = UUID.randomUUID();
+    store.savePayload(committed, PhMessagePayloadType.SUBMITTED_CDA_DATA, "<eicr/>");
+    store.savePayload(rolledBack, PhMessagePayloadType.SUBMITTED_CDA_DATA, "<eicr/>");
+
+    TransactionSynchronizationManager.initSynchronization();
+    payloadUtils.deletePayloads(committed);
+
+    // The payloads remain until the deletion of the message commits.
+    assertEquals("<eicr/>", store.getPayload(committed, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(TransactionSynchronization::afterCommit);
+    TransactionSynchronizationManager.clearSynchronization();
+
+    assertNull(store.getPayload(committed, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+
+    TransactionSynchronizationManager.initSynchronization();
+    payloadUtils.deletePayloads(rolledBack);
+    TransactionSynchronizationManager.getSynchronizations()
+        .forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    TransactionSynchronizationManager.clearSynchronization();
+
+    assertEquals("<eicr/>", store.getPayload(rolledBack, PhMessagePayloadType.SUBMITTED_CDA_DATA));
+  }
+
+  @Test
+  public void testDatabasePayloadsSavedInTransaction() {
+
+    PhMessagePayloadStore databaseStore = Mockito.mock(PhMessagePayloadStore.class);
+    Mockito.when(databaseStore.isTransactional()).thenReturn(true);
+    ReflectionTestUtils.setField(payloadUtils, "payloadStore", databaseStore);
+
+    UUID messageId = UUID.randomUUID();
+    Map<PhMessagePayloadType, String> payloads = new EnumMap<>(PhMessagePayloadType.class);
+    payloads.put(PhMessagePayloadType.SUBMITTED_CDA_DATA, "<eicr/>");
+
+    TransactionSynchronizationManager.initSynchronization();
+    payloadUtils.savePayloads(messageId, payloads);
+
+    // The payloads are saved with the message, so they are rolled back along with it.
+    Mockito.verify(databaseStore)
+        .savePayload(messageId, PhMessagePayloadType.SUBMITTED_CDA_DATA, "<eicr/>");
+    assertTrue(TransactionSynchronizationManager.getSynchronizations().isEmpty());
+  }
+}
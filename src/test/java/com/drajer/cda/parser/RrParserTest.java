@@ -0,0 +1,168 @@
+package com.drajer.cda.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.drajer.test.util.TestUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class RrParserTest {
+
+  private static final String RR_HEADER =
+      "<ClinicalDocument xmlns=\"urn:hl7-org:v3\""
+          + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">"
+          + "<id root=\"rr-root\" extension=\"rr-ext\"/>"
+          + "<recordTarget><patientRole><id root=\"pat-root\" extension=\"PAT-1\"/>"
+          + "</patientRole></recordTarget>"
+          + "<componentOf><encompassingEncounter><id root=\"enc-root\" extension=\"ENC-1\"/>"
+          + "</encompassingEncounter></componentOf>";
+
+  private final RrParser parser = new RrParser();
+
+  @Test
+  public void testParseRr() {
+
+    CdaRrModel model = parser.parse(TestUtils.getFileContentAsString("R4/Misc/TestRRXml.xml"));
+
+    assertNotNull(model);
+    assertEquals("cf359edf-d41c-4279-abd2-5e89a879c626", model.getRrDocId().getRootValue());
+    assertEquals("69550923-8b72-475c-b64b-5f7c44a78e4f", model.getEicrDocId().getRootValue());
+    assertNull(model.getSetId());
+    assertEquals("RRVS4", model.getReportableType());
+    assertEquals("No rule met", model.getReportableStatus().getDisplayName());
+    assertEquals("CD", model.getReportableStatus().getXpath());
+    assertEquals("PT-471325", model.getPatientId().getExtValue());
+    assertEquals("2.16.840.1.113883.19.5", model.getPatientId().getRootValue());
+    assertEquals("9937012", model.getEncounterId().getExtValue());
+  }
+
+  @Test
+  public void testParseRrWithTemplateIdAfterIds() {
+
+    String rr =
+        RR_HEADER
+            + "<externalDocument><id nullFlavor=\"NI\"/><id root=\"eicr-root\"/>"
+            + "<setId root=\"set-root\" extension=\"SET-1\"/>"
+            + "<templateId root=\"2.16.840.1.113883.10.20.15.2.3.10\"/></externalDocument>"
+            + "<observation><value code=\"OUTER\"/><entryRelationship><observation>"
+            + "<templateId root=\"2.16.840.1.113883.10.20.15.2.3.19\"/><value code=\"INNER\"/>"
+            + "</observation></entryRelationship>"
+            + "<templateId root=\"2.16.840.1.113883.10.20.15.2.3.19\"/></observation>"
+            + "</ClinicalDocument>";
+
+    CdaRrModel model = parser.parse("\uFEFF" + rr);
+
+    assertNotNull(model);
+    assertEquals("rr-ext", model.getRrDocId().getExtValue());
+    assertEquals("eicr-root", model.getEicrDocId().getRootValue());
+    assertEquals("SET-1", model.getSetId().getExtValue());
+    assertEquals("OUTER", model.getReportableType());
+    assertNull(model.getPatientId());
+    assertNull(model.getEncounterId());
+  }
+
+  @Test
+  public void testParseRrWithoutEicrReference() {
+
+    CdaRrModel model = parser.parse(RR_HEADER + "</ClinicalDocument>");
+
+    assertNotNull(model);
+    assertNull(model.getEicrDocId());
+    assertNull(model.getReportableType());
+    assertEquals("PAT-1", model.getPatientId().getExtValue());
+    assertEquals("ENC-1", model.getEncounterId().getExtValue());
+  }
+
+  @Test
+  public void testParseInvalidRr() {
+    assertNull(parser.parse("<ClinicalDocument><id root=\"1\"></ClinicalDocument>"));
+    assertNull(parser.parse(null));
+  }
+
+  @Test
+  public void testParseConcurrently() throws Exception {
+
+    String[] documents = {
+      TestUtils.getFileContentAsString("R4/Misc/TestRRXml.xml"), createLargeRr(500)
+    };
+    String[] expected = new String[documents.length];
+
+    for (int i = 0; i < documents.length; i++) {
+      expected[i] = describe(parser.parse(documents[i]));
+    }
+
+    assertEquals("rr-root|rr-ext|eicr-root|null|null|RRVS1|CD|PAT-2|ENC-1|null", expected[1]);
+
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+
+    try {
+
+      List<Future<String>> results = new ArrayList<>();
+      List<Integer> documentIndexes = new ArrayList<>();
+
+      for (int i = 0; i < 400; i++) {
+        final int index = i % documents.length;
+        Callable<String> task = () -> describe(parser.parse(documents[index]));
+        results.add(executor.submit(task));
+        documentIndexes.add(index);
+      }
+
+      for (int i = 0; i < results.size(); i++) {
+        assertEquals(expected[documentIndexes.get(i)], results.get(i).get(60, TimeUnit.SECONDS));
+      }
+
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static String createLargeRr(int conditions) {
+
+    StringBuilder rr = new StringBuilder(RR_HEADER.replace("PAT-1", "PAT-2"));
+    rr.append("<component><structuredBody><component><section>")
+        .append("<entry><act><reference><externalDocument>")
+        .append("<templateId root=\"2.16.840.1.113883.10.20.15.2.3.10\"/>")
+        .append("<id root=\"eicr-root\"/><setId nullFlavor=\"NI\"/>")
+        .append("</externalDocument></reference></act></entry>");
+
+    for (int i = 0; i < conditions; i++) {
+      rr.append("<entry><organizer><component><observation>")
+          .append("<templateId root=\"2.16.840.1.113883.10.20.15.2.3.12\"/>")
+          .append("<value code=\"C")
+          .append(i)
+          .append("\" xsi:type=\"CD\"/><entryRelationship><organizer><component><observation>")
+          .append("<templateId root=\"2.16.840.1.113883.10.20.15.2.3.19\"/>")
+          .append("<value code=\"RRVS")
+          .append(i + 1)
+          .append("\" xsi:type=\"CD\"/></observation></component></organizer>")
+          .append("</entryRelationship></observation></component></organizer></entry>");
+    }
+
+    return rr.append("</section></component></structuredBody></component></ClinicalDocument>")
+        .toString();
+  }
+
+  private static String describe(CdaRrModel model) {
+    return String.join(
+        "|",
+        String.valueOf(model.getRrDocId().getRootValue()),
+        String.valueOf(model.getRrDocId().getExtValue()),
+        String.valueOf(model.getEicrDocId().getRootValue()),
+        String.valueOf(model.getEicrDocId().getExtValue()),
+        String.valueOf(model.getSetId()),
+        String.valueOf(model.getReportableType()),
+        String.valueOf(model.getReportableStatus().getXpath()),
+        String.valueOf(model.getPatientId() != null ? model.getPatientId().getExtValue() : null),
+        String.valueOf(
+            model.getEncounterId() != null ? model.getEncounterId().getExtValue() : null),
+        String.valueOf(model.getReportableStatus().getDisplayName()));
+  }
+}
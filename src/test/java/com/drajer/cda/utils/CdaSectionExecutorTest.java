@@ -0,0 +1,87 @@
+package com.drajer.cda.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CdaSectionExecutorTest {
+
+  private CdaSectionExecutor executor;
+
+  @Before
+  public void setUp() {
+    executor = new CdaSectionExecutor();
+    ReflectionTestUtils.setField(executor, "parallelEnabled", true);
+    ReflectionTestUtils.setField(executor, "threads", 2);
+    ReflectionTestUtils.setField(executor, "sectionTimeout", 1);
+    executor.initialize();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSectionsAreReturnedInOrder() {
+
+    Map<String, Supplier<String>> sections = new LinkedHashMap<>();
+    sections.put("First", () -> "1");
+    sections.put("Second", () -> "2");
+    sections.put("Third", () -> "3");
+
+    assertEquals(Arrays.asList("1", "2", "3"), executor.generateAll(sections));
+  }
+
+  @Test
+  public void testTimedOutSectionIsNotGeneratedAgain() throws InterruptedException {
+
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger calls = new AtomicInteger();
+
+    Map<String, Supplier<String>> sections = new LinkedHashMap<>();
+    sections.put(
+        "Slow",
+        () -> {
+          calls.incrementAndGet();
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return "slow";
+        });
+
+    try {
+      executor.generateAll(sections);
+      fail("The timed out section must fail the generation");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage().contains("Slow"));
+    } finally {
+      release.countDown();
+    }
+
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void testShutdownDisablesParallelGeneration() {
+
+    executor.shutdown();
+
+    assertFalse(executor.isParallelEnabled());
+  }
+}
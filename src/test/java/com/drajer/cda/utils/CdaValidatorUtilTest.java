@@ -38,6 +38,30 @@ public class CdaValidatorUtilTest {
     assertFalse(validateEicrXMLData);
   }
 
+  @Test
+  public void testValidateEicrXMLDataReusesValidator() throws Exception {
+    String xmlData = TestUtils.getFileContentAsString("DSTU2/Misc/CDA.xml");
+    String invalidXmlData =
+        TestUtils.getFileContentAsString("DSTU2/Misc/ExpectedEICR/EICR_expected.xml");
+
+    // The errors of a validation are not carried over to the next validation on the same thread.
+    assertTrue(CdaValidatorUtil.validateEicrXMLData(xmlData));
+    assertFalse(CdaValidatorUtil.validateEicrXMLData(invalidXmlData));
+    assertTrue(CdaValidatorUtil.validateEicrXMLData(xmlData));
+    assertFalse(CdaValidatorUtil.validateEicrXMLData("<ClinicalDocument>"));
+    assertTrue(CdaValidatorUtil.validateEicrXMLData(xmlData));
+  }
+
+  @Test
+  public void testValidateEicr() throws Exception {
+    String eicrData = TestUtils.getFileContentAsString("DSTU2/Misc/ExpectedEICR/EICR_expected.xml");
+
+    // The eICR is valid against the Schematron but not against the XSD.
+    assertTrue(CdaValidatorUtil.validateEicrToSchematron(eicrData));
+    assertFalse(CdaValidatorUtil.validateEicr(eicrData));
+    assertFalse(CdaValidatorUtil.validateEicr("<ClinicalDocument>"));
+  }
+
   @Test
   public void testValidateEicrXMLDataByException() throws Exception {
     assertThatExceptionOfType(RuntimeException.class)
@@ -54,6 +78,20 @@ public class CdaValidatorUtilTest {
     assertTrue(validateEicrToSchematron);
   }
 
+  @Test
+  public void testValidateEicrToSchematronReusesCompiledSchematron() throws Exception {
+    String eicrData = TestUtils.getFileContentAsString("DSTU2/Misc/ExpectedEICR/EICR_expected.xml");
+
+    // The compiled Schematron is reused, and compiled again when the location changes.
+    assertTrue(CdaValidatorUtil.validateEicrToSchematron(eicrData));
+    assertTrue(CdaValidatorUtil.validateEicrToSchematron(eicrData));
+
+    ActionRepo.getInstance()
+        .setSchematronFileLocation(
+            "src/test/resources/AppData/Schema/infrastructure/cda/CDA_SDTC.xsd");
+    assertFalse(CdaValidatorUtil.validateEicrToSchematron(eicrData));
+  }
+
   @Test
   public void testValidateEicrToSchematronWithNegationSchematron() throws Exception {
     String eicrData = TestUtils.getFileContentAsString("DSTU2/Misc/ExpectedEICR/EICR_expected.xml");
@@ -0,0 +1,26 @@
+package com.drajer.cda.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class CdaWriterTest {
+
+  @Test
+  public void testElementsMatchGeneratorUtils() {
+    String expectedXml =
+        CdaGeneratorUtils.getXmlForStartElement(CdaGeneratorConstants.COMP_EL_NAME)
+            + "<section/>\n"
+            + CdaGeneratorUtils.getXmlForEndElement(CdaGeneratorConstants.COMP_EL_NAME);
+
+    StringWriter out = new StringWriter();
+    new CdaWriter(out)
+        .startElement(CdaGeneratorConstants.COMP_EL_NAME)
+        .write("<section/>\n")
+        .write(null)
+        .endElement(CdaGeneratorConstants.COMP_EL_NAME);
+
+    assertEquals(expectedXml, out.toString());
+  }
+}
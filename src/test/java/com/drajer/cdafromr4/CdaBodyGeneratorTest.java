@@ -1,16 +1,42 @@
 package com.drajer.cdafromr4;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import com.drajer.cda.utils.CdaGeneratorConstants;
+import com.drajer.cda.utils.CdaSectionExecutor;
+import com.drajer.cda.utils.CdaWriter;
 import com.drajer.sof.model.R4FhirData;
 import com.drajer.test.util.TestUtils;
+import java.io.StringWriter;
+import java.util.regex.Pattern;
 import org.hl7.fhir.r4.model.Patient;
 import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
 
 public class CdaBodyGeneratorTest extends BaseGeneratorTest {
 
   private static final String EMPTY_SECTION_BODY_CDA_FILE =
       "CdaTestData/Cda/BodySection/emptySectionBody.xml";
 
+  private static final String[] EXPECTED_BODY_CDA_FILES = {
+    "CdaTestData/Cda/BodySection/sampleBundleBody_R11.xml",
+    "CdaTestData/Cda/BodySection/sampleBundleBody_R31.xml"
+  };
+
+  private static final String[] TEST_BUNDLE_FILES = {
+    "SampleTestData/r4-loading-query-bundle-sample1.json",
+    "SampleTestData/LoadingQueryBundle_DuplicateSocialHistory.json"
+  };
+
+  private static final String[] VERSIONS = {
+    CdaGeneratorConstants.CDA_EICR_VERSION_R11, CdaGeneratorConstants.CDA_EICR_VERSION_R31
+  };
+
+  private static final Pattern GUID_PATTERN =
+      Pattern.compile(
+          "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
   @Test
   public void testGenerateCdaBodyWithEmptyComponent() {
     String expectedXml =
@@ -32,6 +58,71 @@ public class CdaBodyGeneratorTest extends BaseGeneratorTest {
     assertXmlEquals(expectedXml, actualXml);
   }
 
+  @Test
+  public void testWriteCdaBodyMatchesExpectedBody() {
+    launchDetails.setStatus(
+        TestUtils.toJsonString(
+            createPatientExecutionState("Condition", "http://loinc.org|68518-0")));
+
+    for (int i = 0; i < VERSIONS.length; i++) {
+      // The expected bodies were generated before the sections were streamed to a CdaWriter.
+      String expectedXml = TestUtils.getFileContentAsString(EXPECTED_BODY_CDA_FILES[i]);
+
+      R4FhirData data =
+          createR4Resource(new R4FhirData(), loadBundleFromFile(TEST_BUNDLE_FILES[0]));
+      StringWriter out = new StringWriter();
+      CdaBodyGenerator.writeCdaBody(data, launchDetails, VERSIONS[i], new CdaWriter(out), null);
+
+      data = createR4Resource(new R4FhirData(), loadBundleFromFile(TEST_BUNDLE_FILES[0]));
+      String generatedXml = CdaBodyGenerator.generateCdaBody(data, launchDetails, VERSIONS[i]);
+
+      // The generated ids are random, everything else must be identical.
+      assertEquals(
+          VERSIONS[i],
+          GUID_PATTERN.matcher(expectedXml).replaceAll("guid"),
+          GUID_PATTERN.matcher(out.toString()).replaceAll("guid"));
+      assertEquals(
+          VERSIONS[i],
+          GUID_PATTERN.matcher(expectedXml).replaceAll("guid"),
+          GUID_PATTERN.matcher(generatedXml).replaceAll("guid"));
+    }
+  }
+
+  @Test
+  public void testParallelSectionGenerationMatchesSerialGeneration() {
+    launchDetails.setStatus(
+        TestUtils.toJsonString(
+            createPatientExecutionState("Condition", "http://loinc.org|68518-0")));
+
+    CdaSectionExecutor executor = new CdaSectionExecutor();
+    ReflectionTestUtils.setField(executor, "parallelEnabled", true);
+    ReflectionTestUtils.setField(executor, "threads", 4);
+    ReflectionTestUtils.setField(executor, "sectionTimeout", 120);
+
+    for (String file : TEST_BUNDLE_FILES) {
+      for (String version : VERSIONS) {
+        R4FhirData data = createR4Resource(new R4FhirData(), loadBundleFromFile(file));
+
+        String serialXml = CdaBodyGenerator.generateCdaBody(data, launchDetails, version);
+
+        executor.initialize();
+        String parallelXml;
+        try {
+          assertTrue(executor.isParallelEnabled());
+          parallelXml = CdaBodyGenerator.generateCdaBody(data, launchDetails, version, executor);
+        } finally {
+          executor.shutdown();
+        }
+
+        // The generated ids are random, everything else must be identical.
+        assertEquals(
+            file + " " + version,
+            GUID_PATTERN.matcher(serialXml).replaceAll("guid"),
+            GUID_PATTERN.matcher(parallelXml).replaceAll("guid"));
+      }
+    }
+  }
+
   private R4FhirData createEmptyR4FhirData() {
     R4FhirData r4FhirData = new R4FhirData();
     r4FhirData.setPatient(new Patient());
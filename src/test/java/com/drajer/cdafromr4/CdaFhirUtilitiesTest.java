@@ -8,6 +8,7 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 import com.drajer.cda.utils.CdaGeneratorConstants;
+import com.drajer.sof.model.R4FhirData;
 import com.drajer.test.util.TestUtils;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -52,6 +53,7 @@ import org.hl7.fhir.r4.model.Organization;
 import org.hl7.fhir.r4.model.Patient.ContactComponent;
 import org.hl7.fhir.r4.model.Patient.PatientCommunicationComponent;
 import org.hl7.fhir.r4.model.Period;
+import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.Quantity;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
@@ -273,6 +275,40 @@ public class CdaFhirUtilitiesTest extends BaseGeneratorTest {
     assertNotNull(testLocation);
   }
 
+  @Test
+  public void testGetPractitionerByIdUsingIndex() {
+    Practitioner first = new Practitioner();
+    first.setId("Practitioner/123");
+    Practitioner second = new Practitioner();
+    second.setId("Practitioner/12");
+
+    R4FhirData data = new R4FhirData();
+    data.addPractitionersList(Arrays.asList(first, second));
+
+    assertEquals(second, data.getPractitionerById("12"));
+    assertEquals(first, data.getPractitionerById("Practitioner/123"));
+    assertNull(data.getPractitionerById("456"));
+  }
+
+  @Test
+  public void testGetPractitionerByIdAfterReplacingPractitioner() {
+    Practitioner first = new Practitioner();
+    first.setId("Practitioner/123");
+
+    R4FhirData data = new R4FhirData();
+    data.addPractitionersList(Arrays.asList(first));
+    assertEquals(first, data.getPractitionerById("123"));
+
+    // Replacing a practitioner does not change the size of the list.
+    Practitioner replacement = new Practitioner();
+    replacement.setId("Practitioner/456");
+    data.getPractitionersList().set(0, replacement);
+
+    assertNull(data.getPractitionerById("123"));
+    assertEquals(replacement, data.getPractitionerById("456"));
+    assertEquals(replacement, data.getPractitionerById("Practitioner/456"));
+  }
+
   @Test
   public void testGetOrganization_withNullLocationComp() {
     EncounterLocationComponent loc = null;
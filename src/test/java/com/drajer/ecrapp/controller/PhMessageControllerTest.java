@@ -91,7 +91,9 @@ public class PhMessageControllerTest {
             correlationId,
             startTime,
             endTime,
-            summaryFlag);
+            summaryFlag,
+            null,
+            null);
 
     // Assert
     assertEquals(
@@ -3,18 +3,27 @@ package com.drajer.ecrapp.dao.impl;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import com.drajer.bsa.dao.impl.PhMessageDaoImpl;
+import com.drajer.bsa.model.PhMessageCursor;
 import com.drajer.bsa.model.PublicHealthMessage;
+import com.drajer.bsa.utils.PhMessagePayloadUtils;
 import com.drajer.sof.model.PublicHealthMessageData;
 import com.drajer.test.util.TestUtils;
 import com.fasterxml.jackson.core.type.TypeReference;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.ProjectionList;
@@ -38,6 +47,8 @@ public class PhMessageDaoTest {
 
   @Mock private Criteria criteria;
 
+  @Mock private PhMessagePayloadUtils payloadUtils;
+
   @InjectMocks private PhMessageDaoImpl phMessageDaoImpl;
 
   private List<PublicHealthMessage> expectedPublicHealthMessages;
@@ -70,6 +81,39 @@ public class PhMessageDaoTest {
         TestUtils.toJsonString(actualPublicHealthMessages));
   }
 
+  @Test
+  public void testGetPhMessageDataPage() {
+
+    PhMessageCursor after = new PhMessageCursor(new Date(), UUID.randomUUID());
+
+    List<PublicHealthMessage> actualPublicHealthMessages =
+        phMessageDaoImpl.getPhMessageData(searchParams, false, after, 11);
+
+    assertThat(actualPublicHealthMessages).hasSize(expectedPublicHealthMessages.size());
+    verify(criteria).setMaxResults(11);
+    verify(criteria, times(2)).addOrder(any());
+  }
+
+  @Test
+  public void testStreamPhMessageData() {
+
+    ScrollableResults results = Mockito.mock(ScrollableResults.class);
+    Mockito.when(criteria.scroll(ScrollMode.FORWARD_ONLY)).thenReturn(results);
+    Mockito.when(results.next()).thenReturn(true, true, false);
+    Mockito.when(results.get(0))
+        .thenReturn(expectedPublicHealthMessages.get(0), expectedPublicHealthMessages.get(0));
+
+    List<PublicHealthMessage> streamed = new ArrayList<>();
+    int count = phMessageDaoImpl.streamPhMessageData(searchParams, false, streamed::add);
+
+    assertEquals(2, count);
+    assertThat(streamed).hasSize(2);
+    verify(criteria).setFetchSize(anyInt());
+    // The payloads of the streamed messages are read at once, not for each message.
+    verify(payloadUtils).loadPayloads(anyList());
+    verify(results).close();
+  }
+
   @Test
   public void testGetPhMessageByXRequestIds() {
     List<String> xRequestIds = Arrays.asList("xRequestId1", "xRequestId2");
@@ -0,0 +1,84 @@
+package com.drajer.sof.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.interceptor.BearerTokenAuthInterceptor;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class FhirClientRegistryTest {
+
+  private static final String FIRST = "http://localhost:1/first";
+  private static final String SECOND = "http://localhost:1/second";
+  private static final String THIRD = "http://localhost:1/third";
+
+  private final FhirContext context = FhirContext.forR4();
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private FhirClientRegistry registry;
+
+  @Before
+  public void setUp() {
+    registry = new FhirClientRegistry();
+    ReflectionTestUtils.setField(registry, "registryEnabled", true);
+    ReflectionTestUtils.setField(registry, "maxServers", 2);
+    ReflectionTestUtils.setField(registry, "socketTimeout", 3);
+    ReflectionTestUtils.setField(registry, "connectionTimeout", 3);
+    ReflectionTestUtils.setField(registry, "poolMaxPerRoute", 10);
+    ReflectionTestUtils.setField(registry, "poolMaxTotal", 100);
+    ReflectionTestUtils.setField(registry, "connectionReqTimeOut", 30);
+    registry.meterRegistry = meterRegistry;
+  }
+
+  @After
+  public void tearDown() {
+    registry.shutdown();
+  }
+
+  @Test
+  public void testJobsShareThePoolButNotTheClient() {
+
+    IGenericClient first = registry.newClient(context, FIRST);
+    IGenericClient second = registry.newClient(context, FIRST);
+
+    assertNotSame(first, second);
+    assertSame(
+        ReflectionTestUtils.getField(first.getHttpClient(), "myClient"),
+        ReflectionTestUtils.getField(second.getHttpClient(), "myClient"));
+    assertEquals(1, registry.size());
+
+    BearerTokenAuthInterceptor token = new BearerTokenAuthInterceptor("first-token");
+    first.registerInterceptor(token);
+
+    assertTrue(first.getInterceptorService().getAllRegisteredInterceptors().contains(token));
+    assertTrue(second.getInterceptorService().getAllRegisteredInterceptors().isEmpty());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedPoolIsEvicted() {
+
+    registry.newClient(context, FIRST);
+    registry.newClient(context, SECOND);
+    registry.newClient(context, FIRST);
+    registry.newClient(context, THIRD);
+
+    assertEquals(2, registry.size());
+    assertNotNull(registry.getPoolStats(FIRST));
+    assertNull(registry.getPoolStats(SECOND));
+    assertNotNull(registry.getPoolStats(THIRD));
+
+    assertNotNull(meterRegistry.find("ecrnow.fhir.client.pool.max").tag("ehr", FIRST).gauge());
+    assertNull(meterRegistry.find("ecrnow.fhir.client.pool.max").tag("ehr", SECOND).gauge());
+  }
+}
@@ -0,0 +1,154 @@
+package com.drajer.sof.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.gclient.IGetPage;
+import ca.uhn.fhir.rest.gclient.IGetPageTyped;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Patient;
+import org.junit.Before;
+import org.junit.Test;
+
+public class R4BundlePagerTest {
+
+  private static final String PAGE_URL = "http://localhost:9010/fhir?page=";
+
+  private IGenericClient client;
+  private IGetPage getPage;
+
+  @Before
+  public void setUp() {
+    client = mock(IGenericClient.class);
+    getPage = mock(IGetPage.class);
+    when(client.loadPage()).thenReturn(getPage);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void mockPages(Bundle... pages) {
+
+    List<IGetPageTyped<Bundle>> typed = new ArrayList<>();
+
+    for (Bundle page : pages) {
+      IGetPageTyped<Bundle> pageTyped = mock(IGetPageTyped.class);
+      when(pageTyped.execute()).thenReturn(page);
+      typed.add(pageTyped);
+    }
+
+    when(getPage.next(any(Bundle.class)))
+        .thenAnswer(
+            invocation -> {
+              Bundle linkOnly = invocation.getArgument(0);
+              String url = linkOnly.getLink(IBaseBundle.LINK_NEXT).getUrl();
+              return typed.get(Integer.parseInt(url.substring(PAGE_URL.length())) - 1);
+            });
+  }
+
+  private static Bundle createPage(int pageNum, int entries, boolean hasNext) {
+
+    Bundle page = new Bundle();
+
+    for (int i = 0; i < entries; i++) {
+      page.addEntry().setResource(new Patient().setId("p" + pageNum + "-" + i));
+    }
+
+    if (hasNext) {
+      page.addLink().setRelation(IBaseBundle.LINK_NEXT).setUrl(PAGE_URL + (pageNum + 1));
+    }
+
+    return page;
+  }
+
+  @Test
+  public void testAllPagesAreReturnedInOrder() {
+
+    mockPages(createPage(1, 2, true), createPage(2, 1, false));
+
+    R4BundlePager pager = new R4BundlePager(client, createPage(0, 3, true), null);
+
+    List<Integer> sizes = new ArrayList<>();
+    while (pager.hasNext()) {
+      sizes.add(pager.next().getEntry().size());
+    }
+
+    assertEquals(3, sizes.size());
+    assertEquals(Integer.valueOf(3), sizes.get(0));
+    assertEquals(Integer.valueOf(2), sizes.get(1));
+    assertEquals(Integer.valueOf(1), sizes.get(2));
+    assertEquals(3, pager.getPageCount());
+  }
+
+  @Test
+  public void testPagesArePrefetched() {
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    try {
+      mockPages(createPage(1, 2, false));
+
+      R4BundlePager pager = new R4BundlePager(client, createPage(0, 3, true), executor);
+
+      assertTrue(pager.hasNext());
+      assertEquals(3, pager.next().getEntry().size());
+      assertTrue(pager.hasNext());
+      assertEquals(2, pager.next().getEntry().size());
+      assertFalse(pager.hasNext());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPrefetchedPagesAreLoadedOffTheCallingThread() {
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    Set<Thread> loadingThreads = ConcurrentHashMap.newKeySet();
+
+    try {
+      mockPages(createPage(1, 2, true), createPage(2, 1, false));
+      when(client.loadPage())
+          .thenAnswer(
+              invocation -> {
+                loadingThreads.add(Thread.currentThread());
+                return getPage;
+              });
+
+      R4BundlePager pager = new R4BundlePager(client, createPage(0, 3, true), executor);
+
+      while (pager.hasNext()) {
+        pager.next();
+      }
+
+      assertEquals(3, pager.getPageCount());
+      assertEquals(1, loadingThreads.size());
+      assertFalse(loadingThreads.contains(Thread.currentThread()));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testEmptyPageStopsPaging() {
+
+    R4BundlePager pager = new R4BundlePager(client, createPage(0, 0, true), null);
+
+    assertTrue(pager.hasNext());
+    pager.next();
+    assertFalse(pager.hasNext());
+    verify(client, never()).loadPage();
+  }
+}
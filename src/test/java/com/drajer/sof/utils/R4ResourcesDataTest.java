@@ -1,14 +1,19 @@
 package com.drajer.sof.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import com.drajer.sof.utils.R4ResourcesData.ObservationPartitions;
 import com.drajer.test.util.TestUtils;
 import java.util.Date;
+import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Condition;
 import org.hl7.fhir.r4.model.DateTimeType;
 import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Observation;
+import org.hl7.fhir.r4.model.Observation.ObservationStatus;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -42,4 +47,47 @@ public class R4ResourcesDataTest {
 
     assertTrue(dataObject.isConditionActive(cond1));
   }
+
+  @Test
+  public void testPartitionObservations() {
+
+    R4ResourcesData dataObject = new R4ResourcesData();
+    String loinc = QueryConstants.LOINC_CODE_SYSTEM;
+    String snomed = QueryConstants.SNOMED_CODE_SYSTEM;
+    String travel = QueryConstants.TRAVEL_CODE;
+
+    Bundle bundle = new Bundle();
+    bundle.addEntry().setResource(getObservation("laboratory", loinc, "94500-6"));
+    bundle.addEntry().setResource(getObservation("social-history", loinc, travel));
+    bundle
+        .addEntry()
+        .setResource(
+            getObservation("social-history", snomed, QueryConstants.getOccupationSmtCodes()[0]));
+    bundle.addEntry().setResource(getObservation("vital-signs", loinc, "8310-5"));
+
+    ObservationPartitions partitions = dataObject.partitionObservations(bundle);
+
+    assertEquals(1, partitions.getTravel().getEntry().size());
+    assertEquals(1, partitions.getOccupation().getEntry().size());
+    assertEquals(
+        1, dataObject.getSocialHistoryObservationDataOccupation(partitions.getOccupation()).size());
+
+    partitions = dataObject.partitionObservations(null);
+
+    assertTrue(partitions.getTravel().getEntry().isEmpty());
+    assertTrue(partitions.getOccupation().getEntry().isEmpty());
+  }
+
+  private Observation getObservation(String category, String system, String code) {
+
+    Observation observation = new Observation();
+    observation.setStatus(ObservationStatus.FINAL);
+    observation
+        .addCategory()
+        .addCoding()
+        .setSystem("http://terminology.hl7.org/CodeSystem/observation-category")
+        .setCode(category);
+    observation.getCode().addCoding().setSystem(system).setCode(code);
+    return observation;
+  }
 }